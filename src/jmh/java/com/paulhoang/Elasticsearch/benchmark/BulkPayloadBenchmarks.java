@@ -0,0 +1,75 @@
+package com.paulhoang.Elasticsearch.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.elasticsearch.core.convert.MappingElasticsearchConverter;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+import org.springframework.data.elasticsearch.core.query.IndexQuery.OpType;
+
+/**
+ * Turning the whole of MOCK_DATA.json into bulk payloads: the per record work of the SeedDataLoader followed by the
+ * source the template writes for each {@link IndexQuery}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkPayloadBenchmarks {
+
+  @Param({"AUTO", "MANUAL"})
+  public CompanyType type;
+
+  private MappingElasticsearchConverter converter;
+  private List<JsonNode> records;
+
+  @Setup
+  public void setup() {
+    converter = MockData.converter();
+    records = MockData.records();
+  }
+
+  @Benchmark
+  public List<IndexQuery> buildIndexQueries() throws IOException {
+    final List<IndexQuery> indexQueries = new ArrayList<>(records.size());
+    for (JsonNode record : records) {
+      indexQueries.add(indexQuery(record));
+    }
+    return indexQueries;
+  }
+
+  @Benchmark
+  public long buildBulkBody() throws IOException {
+    long bytes = 0;
+    for (JsonNode record : records) {
+      final IndexQuery indexQuery = indexQuery(record);
+      bytes += converter.mapObject(indexQuery.getObject()).toJson().length();
+    }
+    return bytes;
+  }
+
+  private IndexQuery indexQuery(JsonNode record) throws IOException {
+    final Object company = MockData.JSON_MAPPER.treeToValue(record, type.getClazz());
+    final IndexQuery indexQuery = new IndexQuery();
+    indexQuery.setId(type.idOf(company));
+    indexQuery.setObject(company);
+    indexQuery.setOpType(OpType.CREATE);
+    return indexQuery;
+  }
+}
@@ -0,0 +1,52 @@
+package com.paulhoang.Elasticsearch.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.data.elasticsearch.core.convert.MappingElasticsearchConverter;
+import org.springframework.data.elasticsearch.core.mapping.SimpleElasticsearchMappingContext;
+
+/**
+ * The seed data and the mappers the app uses, built the same way as at runtime but without a spring context
+ */
+final class MockData {
+
+  static final JsonMapper JSON_MAPPER = JsonMapper.builder().addModule(new JavaTimeModule()).build();
+
+  private MockData() {
+  }
+
+  static List<JsonNode> records() {
+    try (InputStream inputStream = MockData.class.getResourceAsStream("/static/MOCK_DATA.json")) {
+      final List<JsonNode> records = new ArrayList<>();
+      JSON_MAPPER.readTree(inputStream).forEach(records::add);
+      return records;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static List<byte[]> recordBytes() {
+    return records().stream().map(MockData::toBytes).toList();
+  }
+
+  static MappingElasticsearchConverter converter() {
+    final SimpleElasticsearchMappingContext mappingContext = new SimpleElasticsearchMappingContext();
+    final MappingElasticsearchConverter converter = new MappingElasticsearchConverter(mappingContext);
+    converter.afterPropertiesSet();
+    return converter;
+  }
+
+  private static byte[] toBytes(JsonNode record) {
+    try {
+      return JSON_MAPPER.writeValueAsBytes(record);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
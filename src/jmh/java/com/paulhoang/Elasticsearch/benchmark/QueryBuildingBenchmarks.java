@@ -0,0 +1,128 @@
+package com.paulhoang.Elasticsearch.benchmark;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.TotalHitsRelation;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.paulhoang.Elasticsearch.entity.CompanyAuto;
+import com.paulhoang.Elasticsearch.search.CompanyQueries;
+import jakarta.json.stream.JsonGenerator;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.elasticsearch.client.elc.ElasticsearchTemplate;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.Criteria;
+import org.springframework.data.elasticsearch.core.query.CriteriaQuery;
+
+/**
+ * Building (and writing out, as that is what goes on the wire) the queries behind the search endpoints, the java
+ * client builders used by the manual controller against the criteria of the auto controller. Criteria queries are run
+ * through the template the way the auto controller runs them, against a client that keeps the search request and
+ * answers with no hits, so they include converting the (empty) response
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBuildingBenchmarks {
+
+  private static final String NAME = "Terry Abshire";
+  private static final String ADDRESS = "Cordelia";
+
+  private static final IndexCoordinates INDEX = IndexCoordinates.of("companyauto");
+  private static final SearchResponse<Object> NO_HITS = SearchResponse.of(response -> response.took(0)
+      .timedOut(false)
+      .shards(shards -> shards.total(1).successful(1).failed(0))
+      .hits(hits -> hits.hits(List.of()).total(total -> total.value(0).relation(TotalHitsRelation.Eq))));
+
+  private final JacksonJsonpMapper jsonpMapper = new JacksonJsonpMapper();
+  // never connected to, every search is answered by the client
+  private final RestClient restClient = RestClient.builder(new HttpHost("localhost", 9200)).build();
+  private SearchRequest lastRequest;
+  private final ElasticsearchTemplate template = new ElasticsearchTemplate(
+      new ElasticsearchClient(new RestClientTransport(restClient, jsonpMapper)) {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> SearchResponse<T> search(SearchRequest request, Class<T> clazz) {
+          lastRequest = request;
+          return (SearchResponse<T>) NO_HITS;
+        }
+      });
+
+  @TearDown
+  public void tearDown() throws IOException {
+    restClient.close();
+  }
+
+  @Benchmark
+  public Query matchQuery() {
+    return CompanyQueries.companyName(NAME);
+  }
+
+  @Benchmark
+  public Query fuzzyQuery() {
+    return CompanyQueries.companyNameFuzzy(NAME);
+  }
+
+  @Benchmark
+  public Query criteriaNameQuery() {
+    return toQuery(Criteria.where("name.search").is(NAME));
+  }
+
+  @Benchmark
+  public Query criteriaFuzzyQuery() {
+    return toQuery(Criteria.where("name.search").fuzzy(NAME));
+  }
+
+  @Benchmark
+  public Query criteriaAddressQuery() {
+    return toQuery(Criteria.where("address").contains(ADDRESS));
+  }
+
+  @Benchmark
+  public String matchQueryJson() {
+    return toJson(CompanyQueries.companyName(NAME));
+  }
+
+  @Benchmark
+  public String fuzzyQueryJson() {
+    return toJson(CompanyQueries.companyNameFuzzy(NAME));
+  }
+
+  @Benchmark
+  public String criteriaNameQueryJson() {
+    return toJson(toQuery(Criteria.where("name.search").is(NAME)));
+  }
+
+  private Query toQuery(Criteria criteria) {
+    template.search(new CriteriaQuery(criteria), CompanyAuto.class, INDEX);
+    return lastRequest.query();
+  }
+
+  private String toJson(Query query) {
+    final StringWriter writer = new StringWriter();
+    try (JsonGenerator generator = jsonpMapper.jsonProvider().createGenerator(writer)) {
+      query.serialize(generator, jsonpMapper);
+    }
+    return writer.toString();
+  }
+}
@@ -0,0 +1,139 @@
+package com.paulhoang.Elasticsearch.benchmark;
+
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.json.JsonpDeserializer;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.paulhoang.Elasticsearch.entity.CompanyAuto;
+import com.paulhoang.Elasticsearch.entity.CompanyManual;
+import jakarta.json.stream.JsonParser;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.elasticsearch.core.convert.MappingElasticsearchConverter;
+import org.springframework.data.elasticsearch.core.document.Document;
+
+/**
+ * Reading companies back out of ES: a single record through jackson (the {@code MM/dd/yyyy} dates are the expensive
+ * part) and whole search responses turned into entity lists the way the manual (java client) and auto (spring data
+ * converter) paths do it
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmarks {
+
+  private final byte[] record = MockData.recordBytes().get(0);
+
+  /**
+   * Canned search responses, kept apart so the single record benchmarks don't run once per hit count
+   */
+  @State(Scope.Benchmark)
+  public static class SearchResponses {
+
+    @Param({"10", "100"})
+    public int hits;
+
+    private final JacksonJsonpMapper jsonpMapper = new JacksonJsonpMapper();
+    private final JsonpDeserializer<SearchResponse<CompanyManual>> manualResponseDeserializer =
+        SearchResponse.createSearchResponseDeserializer(JsonpDeserializer.of(CompanyManual.class));
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final JsonpDeserializer<SearchResponse<Map<String, Object>>> autoResponseDeserializer =
+        SearchResponse.createSearchResponseDeserializer((JsonpDeserializer) JsonpDeserializer.of(Map.class));
+
+    private MappingElasticsearchConverter converter;
+    private byte[] manualResponse;
+    private byte[] autoResponse;
+
+    @Setup
+    public void setup() throws IOException {
+      converter = MockData.converter();
+
+      // the manual index holds jackson's view of the record, the auto index whatever the spring data converter wrote
+      final ArrayNode manualHits = MockData.JSON_MAPPER.createArrayNode();
+      final ArrayNode autoHits = MockData.JSON_MAPPER.createArrayNode();
+      for (JsonNode source : MockData.records().subList(0, hits)) {
+        final CompanyAuto company = MockData.JSON_MAPPER.treeToValue(source, CompanyAuto.class);
+        manualHits.add(hit("companymanual", company.id(), source));
+        autoHits.add(hit("companyauto", company.id(),
+            MockData.JSON_MAPPER.readTree(converter.mapObject(company).toJson())));
+      }
+      manualResponse = searchResponse(manualHits);
+      autoResponse = searchResponse(autoHits);
+    }
+  }
+
+  @Benchmark
+  public CompanyAuto deserializeCompanyAuto() throws IOException {
+    return MockData.JSON_MAPPER.readValue(record, CompanyAuto.class);
+  }
+
+  @Benchmark
+  public CompanyManual deserializeCompanyManual() throws IOException {
+    return MockData.JSON_MAPPER.readValue(record, CompanyManual.class);
+  }
+
+  @Benchmark
+  public List<CompanyManual> manualHitsToEntities(SearchResponses responses) {
+    try (JsonParser parser = responses.jsonpMapper.jsonProvider()
+        .createParser(new ByteArrayInputStream(responses.manualResponse))) {
+      return responses.manualResponseDeserializer.deserialize(parser, responses.jsonpMapper).hits().hits().stream()
+          .map(Hit::source)
+          .toList();
+    }
+  }
+
+  @Benchmark
+  public List<CompanyAuto> autoHitsToEntities(SearchResponses responses) {
+    try (JsonParser parser = responses.jsonpMapper.jsonProvider()
+        .createParser(new ByteArrayInputStream(responses.autoResponse))) {
+      return responses.autoResponseDeserializer.deserialize(parser, responses.jsonpMapper).hits().hits().stream()
+          .map(hit -> {
+            final Document document = Document.from(hit.source());
+            document.setId(hit.id());
+            return responses.converter.read(CompanyAuto.class, document);
+          })
+          .toList();
+    }
+  }
+
+  private static ObjectNode hit(String index, String id, JsonNode source) {
+    final ObjectNode hit = MockData.JSON_MAPPER.createObjectNode();
+    hit.put("_index", index);
+    hit.put("_id", id);
+    hit.put("_score", 1.0);
+    hit.set("_source", source);
+    return hit;
+  }
+
+  private static byte[] searchResponse(ArrayNode hitNodes) throws IOException {
+    final ObjectNode response = MockData.JSON_MAPPER.createObjectNode();
+    response.put("took", 1);
+    response.put("timed_out", false);
+    response.putObject("_shards").put("total", 1).put("successful", 1).put("skipped", 0).put("failed", 0);
+    final ObjectNode hitsNode = response.putObject("hits");
+    hitsNode.putObject("total").put("value", hitNodes.size()).put("relation", "eq");
+    hitsNode.put("max_score", 1.0);
+    hitsNode.set("hits", hitNodes);
+    return MockData.JSON_MAPPER.writeValueAsBytes(response);
+  }
+}
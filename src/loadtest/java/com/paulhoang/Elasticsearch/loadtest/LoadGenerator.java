@@ -0,0 +1,128 @@
+package com.paulhoang.Elasticsearch.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * An open model load generator: requests are sent at a fixed arrival rate whether or not earlier ones have come back,
+ * and latency is measured from when a request was due to be sent rather than when it actually was. A slow app then
+ * shows up as queueing in the percentiles instead of quietly lowering the request rate (coordinated omission)
+ */
+@Slf4j
+public class LoadGenerator {
+
+  private static final long MAX_LATENCY = TimeUnit.MINUTES.toNanos(1);
+  private static final int SERVICE_UNAVAILABLE = 503;
+
+  private final HttpClient httpClient;
+  private final URI baseUri;
+  private final List<Target> targets;
+  private final Duration requestTimeout;
+
+  /**
+   * One endpoint of the app, the path is built per request so ids and terms vary
+   */
+  public record Target(String name, Function<ThreadLocalRandom, String> path) {
+
+  }
+
+  /**
+   * @param shed the requests the app turned away with a 503 because ES was at its concurrency limit, counted apart
+   * from the other errors
+   */
+  public record EndpointResult(String name, Histogram latencies, long errors, long shed) {
+
+  }
+
+  public LoadGenerator(URI baseUri, List<Target> targets, Duration requestTimeout) {
+    this.httpClient = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(requestTimeout)
+        .build();
+    this.baseUri = baseUri;
+    this.targets = targets;
+    this.requestTimeout = requestTimeout;
+  }
+
+  /**
+   * Sends {@code ratePerSecond} requests a second spread round robin over the targets for the duration, then waits
+   * for the stragglers
+   */
+  public Map<String, EndpointResult> run(double ratePerSecond, Duration duration) throws InterruptedException {
+    final Map<String, ConcurrentHistogram> latencies = new LinkedHashMap<>();
+    final Map<String, LongAdder> errors = new LinkedHashMap<>();
+    final Map<String, LongAdder> shed = new LinkedHashMap<>();
+    targets.forEach(target -> {
+      latencies.put(target.name(), new ConcurrentHistogram(MAX_LATENCY, 3));
+      errors.put(target.name(), new LongAdder());
+      shed.put(target.name(), new LongAdder());
+    });
+
+    final AtomicLong inFlight = new AtomicLong();
+    final long interval = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+    final long start = System.nanoTime();
+    final long end = start + duration.toNanos();
+    for (long i = 0; ; i++) {
+      final long intendedStart = start + i * interval;
+      if (intendedStart >= end) {
+        break;
+      }
+      long wait;
+      while ((wait = intendedStart - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(wait);
+      }
+
+      final Target target = targets.get((int) (i % targets.size()));
+      final URI uri = baseUri.resolve(target.path().apply(ThreadLocalRandom.current()));
+      final HttpRequest request = HttpRequest.newBuilder(uri)
+          .timeout(requestTimeout)
+          .GET()
+          .build();
+      inFlight.incrementAndGet();
+      httpClient.sendAsync(request, BodyHandlers.discarding()).whenComplete((response, ex) -> {
+        final long latency = Math.min(System.nanoTime() - intendedStart, MAX_LATENCY);
+        if (ex == null && response.statusCode() == SERVICE_UNAVAILABLE) {
+          shed.get(target.name()).increment();
+        } else if (ex != null || !isSuccess(response)) {
+          errors.get(target.name()).increment();
+        } else {
+          latencies.get(target.name()).recordValue(latency);
+        }
+        inFlight.decrementAndGet();
+      });
+    }
+
+    final long deadline = System.nanoTime() + requestTimeout.toNanos();
+    while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    if (inFlight.get() > 0) {
+      log.warn("{} requests still outstanding after the run", inFlight.get());
+    }
+
+    final Map<String, EndpointResult> results = new LinkedHashMap<>();
+    targets.forEach(target -> results.put(target.name(), new EndpointResult(target.name(),
+        latencies.get(target.name()).copy(), errors.get(target.name()).sum(), shed.get(target.name()).sum())));
+    return results;
+  }
+
+  private static boolean isSuccess(HttpResponse<?> response) {
+    return response.statusCode() >= 200 && response.statusCode() < 300;
+  }
+}
@@ -0,0 +1,220 @@
+package com.paulhoang.Elasticsearch.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.paulhoang.Elasticsearch.ElasticsearchApplication;
+import com.paulhoang.Elasticsearch.loadtest.LoadGenerator.EndpointResult;
+import com.paulhoang.Elasticsearch.loadtest.LoadGenerator.Target;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Runs the app against the {@link StubElasticsearchServer} and drives its endpoints with the {@link LoadGenerator},
+ * printing the throughput and latency percentiles per endpoint. Configured with system properties:
+ * <ul>
+ *   <li>{@code loadtest.rate} requests per second across all endpoints (200)</li>
+ *   <li>{@code loadtest.duration} and {@code loadtest.warmup} (30s and 10s)</li>
+ *   <li>{@code loadtest.endpoints} a comma separated subset of the endpoint names, e.g. auto.get,manual.search</li>
+ *   <li>{@code loadtest.esLatency}, {@code loadtest.esJitter} and {@code loadtest.esMaxHits} for the stub (2ms, 0ms
+ *   and 10)</li>
+ *   <li>{@code loadtest.esNodes} how many stubs to run as the nodes of a cluster (1), esLatency can be a comma
+ *   separated list to give each node its own latency, e.g. 2ms,2ms,50ms for one slow node</li>
+ *   <li>{@code loadtest.esStragglers} the share of the stub's responses that are held back by
+ *   {@code loadtest.esStragglerDelay} on top of the latency (0 and 500ms)</li>
+ *   <li>{@code loadtest.esCapacity} how many requests each stub works on at once, the rest queue (0 for no limit)</li>
+ *   <li>{@code loadtest.target} the url of an app that is already running, otherwise one is started in process</li>
+ *   <li>{@code loadtest.output} where the HdrHistogram percentile distributions are written (build/results/loadtest)</li>
+ * </ul>
+ */
+@Slf4j
+public class LoadTest {
+
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+  private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(60);
+
+  public static void main(String[] args) throws Exception {
+    final double rate = Double.parseDouble(System.getProperty("loadtest.rate", "200"));
+    final Duration duration = duration("loadtest.duration", "30s");
+    final Duration warmup = duration("loadtest.warmup", "10s");
+    final Path output = Path.of(System.getProperty("loadtest.output", "build/results/loadtest"));
+    final List<Target> targets = targets(System.getProperty("loadtest.endpoints", ""));
+
+    final List<StubElasticsearchServer> stubs = startStubs();
+    try {
+      final String target = System.getProperty("loadtest.target");
+      final ConfigurableApplicationContext app = target == null ? startApp(stubs, args) : null;
+      try {
+        final URI baseUri = URI.create(target != null ? target
+            : "http://localhost:" + ((WebServerApplicationContext) app).getWebServer().getPort());
+        awaitReady(baseUri);
+
+        final LoadGenerator loadGenerator = new LoadGenerator(baseUri, targets, REQUEST_TIMEOUT);
+        log.info("Warming up for {} at {} req/s", warmup, rate);
+        loadGenerator.run(rate, warmup);
+        log.info("Measuring for {} at {} req/s", duration, rate);
+        final Map<String, EndpointResult> results = loadGenerator.run(rate, duration);
+        report(results, duration, output);
+      } finally {
+        if (app != null) {
+          app.close();
+        }
+      }
+    } finally {
+      stubs.forEach(StubElasticsearchServer::close);
+    }
+  }
+
+  private static List<StubElasticsearchServer> startStubs() throws IOException {
+    final List<Duration> latencies = Arrays.stream(System.getProperty("loadtest.esLatency", "2ms").split(","))
+        .map(latency -> DurationStyle.detectAndParse(latency.trim()))
+        .toList();
+    final int nodes = Math.max(Integer.getInteger("loadtest.esNodes", 1), latencies.size());
+    final List<StubElasticsearchServer> stubs = new ArrayList<>();
+    for (int i = 0; i < nodes; i++) {
+      stubs.add(new StubElasticsearchServer(0, latencies.get(Math.min(i, latencies.size() - 1)),
+          duration("loadtest.esJitter", "0ms"), Integer.getInteger("loadtest.esMaxHits", 10))
+          .stragglers(Double.parseDouble(System.getProperty("loadtest.esStragglers", "0")),
+              duration("loadtest.esStragglerDelay", "500ms"))
+          .capacity(Integer.getInteger("loadtest.esCapacity", 0))
+          .start());
+    }
+    return stubs;
+  }
+
+  /**
+   * The stub settings are passed as arguments so they win over application.properties
+   */
+  private static ConfigurableApplicationContext startApp(List<StubElasticsearchServer> stubs, String[] args) {
+    final List<String> arguments = new ArrayList<>(List.of(
+        "--es.hostAndPort=" + stubs.stream().map(stub -> "localhost:" + stub.port()).collect(Collectors.joining(",")),
+        "--es.forceCreateData=false",
+        "--server.port=0",
+        "--spring.devtools.restart.enabled=false",
+        "--logging.level.root=WARN"));
+    arguments.addAll(Arrays.asList(args));
+    return new SpringApplicationBuilder(ElasticsearchApplication.class).run(arguments.toArray(String[]::new));
+  }
+
+  /**
+   * Waits for the bootstrap to finish so the warmup doesn't measure the app falling back while it loads
+   */
+  private static void awaitReady(URI baseUri) throws IOException, InterruptedException {
+    final HttpClient httpClient = HttpClient.newHttpClient();
+    final long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+    while (System.nanoTime() < deadline) {
+      final String status = httpClient.send(HttpRequest.newBuilder(baseUri.resolve("/admin/bootstrap")).build(),
+          BodyHandlers.ofString()).body();
+      if (status.contains("READY")) {
+        return;
+      }
+      if (status.contains("FAILED")) {
+        throw new IllegalStateException("The app failed to bootstrap against the stub: " + status);
+      }
+      Thread.sleep(250);
+    }
+    throw new IllegalStateException("The app wasn't ready after " + STARTUP_TIMEOUT);
+  }
+
+  /**
+   * The read endpoints of both controllers, with ids and search terms picked at random from MOCK_DATA.json
+   */
+  static List<Target> targets(String include) throws IOException {
+    final JsonMapper jsonMapper = new JsonMapper();
+    final List<String> names = new ArrayList<>();
+    final List<String> addresses = new ArrayList<>();
+    final List<String> ids = new ArrayList<>();
+    final List<String> owners = new ArrayList<>();
+    try (InputStream inputStream = LoadTest.class.getResourceAsStream("/static/MOCK_DATA.json")) {
+      for (JsonNode record : jsonMapper.readTree(inputStream)) {
+        ids.add(record.get("id").asText());
+        names.add(record.get("name").asText().split("[^\\p{L}]+")[0]);
+        addresses.add(record.get("address").asText().split(" ")[1]);
+        owners.add(record.get("owner").get("name").asText());
+      }
+    }
+
+    final List<Target> targets = new ArrayList<>();
+    for (String type : List.of("auto", "manual")) {
+      final String base = "/company/" + type;
+      targets.add(new Target(type + ".get", random -> base + "/" + pick(ids, random)));
+      targets.add(new Target(type + ".batch", random -> base + "/batch?ids=" + IntStream.range(0, 10)
+          .mapToObj(i -> pick(ids, random))
+          .collect(Collectors.joining(","))));
+      targets.add(new Target(type + ".search", random -> base + "/search/" + encode(pick(addresses, random))));
+      targets.add(new Target(type + ".name", random -> base + "/autocomplete/search/" + encode(pick(names, random))));
+      targets.add(new Target(type + ".fuzzy",
+          random -> base + "/autocomplete/fuzzy/search/" + encode(pick(names, random))));
+      targets.add(new Target(type + ".suggest", random -> {
+        final String name = pick(names, random);
+        return base + "/autocomplete/suggest/" + encode(name.substring(0, Math.min(3, name.length())));
+      }));
+      targets.add(new Target(type + ".facets", random -> base + "/facets"));
+      targets.add(new Target(type + ".owner",
+          random -> base + "/search/owner/" + encode(pick(owners, random)) + "/cursor"));
+    }
+    targets.add(new Target("federated.search", random -> "/company/search/" + encode(pick(names, random))));
+    if (include.isBlank()) {
+      return targets;
+    }
+    final Set<String> included = Arrays.stream(include.split(",")).map(String::trim).collect(Collectors.toSet());
+    return targets.stream().filter(target -> included.contains(target.name())).toList();
+  }
+
+  private static void report(Map<String, EndpointResult> results, Duration duration, Path output) throws IOException {
+    Files.createDirectories(output);
+    final PrintStream out = System.out;
+    out.printf("%-16s %9s %7s %7s %9s %9s %9s %9s %9s%n", "endpoint", "requests", "errors", "shed", "req/s",
+        "p50 ms", "p99 ms", "p999 ms", "max ms");
+    for (EndpointResult result : results.values()) {
+      final Histogram latencies = result.latencies();
+      out.printf("%-16s %9d %7d %7d %9.1f %9.2f %9.2f %9.2f %9.2f%n", result.name(), latencies.getTotalCount(),
+          result.errors(), result.shed(), latencies.getTotalCount() / (double) duration.toSeconds(),
+          millis(latencies.getValueAtPercentile(50)), millis(latencies.getValueAtPercentile(99)),
+          millis(latencies.getValueAtPercentile(99.9)), millis(latencies.getMaxValue()));
+      try (PrintStream hgrm = new PrintStream(Files.newOutputStream(output.resolve(result.name() + ".hgrm")))) {
+        latencies.outputPercentileDistribution(hgrm, 1_000_000.0);
+      }
+    }
+    log.info("Percentile distributions (in ms) written to {}", output.toAbsolutePath());
+  }
+
+  private static Duration duration(String property, String defaultValue) {
+    return DurationStyle.detectAndParse(System.getProperty(property, defaultValue));
+  }
+
+  private static String pick(List<String> values, ThreadLocalRandom random) {
+    return values.get(random.nextInt(values.size()));
+  }
+
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1_000_000.0;
+  }
+}
@@ -0,0 +1,184 @@
+package com.paulhoang.Elasticsearch.loadtest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Compares how quickly the builds of the app start: each one is launched as its own JVM against the
+ * {@link StubElasticsearchServer}, timed from launch until it has served its first request and its resident memory
+ * read at that point. Configured with system properties:
+ * <ul>
+ *   <li>{@code startup.jar} the boot jar, run as {@code java -jar}, the way the app is normally run</li>
+ *   <li>{@code startup.fastStart} the fast start build's directory (build/fast-start, see the fastStartArchive task),
+ *   run with the AOT generated bean definitions on their own and along with the CDS archive</li>
+ *   <li>{@code startup.runs} how many times each build is started (5), the builds take turns</li>
+ *   <li>{@code startup.path} the first request (/company/manual/1)</li>
+ *   <li>{@code startup.output} where each run's output is written (build/results/startup)</li>
+ * </ul>
+ * Resident memory comes from /proc so it's only reported on linux
+ */
+@Slf4j
+public class StartupBenchmark {
+
+  private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(120);
+  private static final Duration POLL_INTERVAL = Duration.ofMillis(10);
+
+  private record Build(String name, Path directory, List<String> jvmArgs) {
+
+  }
+
+  private record Run(Duration firstRequest, long rssKb) {
+
+  }
+
+  public static void main(String[] args) throws Exception {
+    final int runs = Integer.getInteger("startup.runs", 5);
+    final String path = System.getProperty("startup.path", "/company/manual/1");
+    final Path output = Path.of(System.getProperty("startup.output", "build/results/startup"));
+    final List<Build> builds = builds();
+    if (builds.isEmpty()) {
+      throw new IllegalArgumentException("Nothing to start, set startup.jar and/or startup.fastStart");
+    }
+    Files.createDirectories(output);
+
+    final Map<Build, List<Run>> results = new LinkedHashMap<>();
+    try (StubElasticsearchServer stub = new StubElasticsearchServer(0, Duration.ofMillis(2), Duration.ZERO, 10)) {
+      stub.start();
+      for (int i = 0; i < runs; i++) {
+        for (Build build : builds) {
+          final Run run = start(build, stub.port(), path, output.resolve(build.name() + "-" + i + ".log"), args);
+          log.info("{} run {}: first request after {} ms, {} MB resident", build.name(), i,
+              run.firstRequest().toMillis(), run.rssKb() / 1024);
+          results.computeIfAbsent(build, ignored -> new ArrayList<>()).add(run);
+        }
+      }
+    }
+    report(results);
+  }
+
+  private static List<Build> builds() {
+    final List<Build> builds = new ArrayList<>();
+    final String jar = System.getProperty("startup.jar");
+    if (jar != null) {
+      final Path jarPath = Path.of(jar).toAbsolutePath();
+      builds.add(new Build("jar", jarPath.getParent(), List.of("-jar", jarPath.toString())));
+    }
+    final String fastStart = System.getProperty("startup.fastStart");
+    if (fastStart != null) {
+      final Path directory = Path.of(fastStart).toAbsolutePath();
+      builds.add(new Build("aot", directory, List.of("@app.args")));
+      builds.add(new Build("aot+cds", directory, List.of("-XX:SharedArchiveFile=app.jsa", "@app.args")));
+    }
+    return builds;
+  }
+
+  private static Run start(Build build, int esPort, String path, Path log, String[] args)
+      throws IOException, InterruptedException {
+    final int port = freePort();
+    final List<String> command = new ArrayList<>();
+    command.add(ProcessHandle.current().info().command().orElse("java"));
+    command.addAll(build.jvmArgs());
+    command.addAll(List.of(
+        "--es.hostAndPort=localhost:" + esPort,
+        "--es.forceCreateData=false",
+        "--server.port=" + port,
+        "--spring.devtools.restart.enabled=false",
+        "--logging.level.root=WARN"));
+    command.addAll(Arrays.asList(args));
+
+    final long launched = System.nanoTime();
+    final Process process = new ProcessBuilder(command)
+        .directory(build.directory().toFile())
+        .redirectErrorStream(true)
+        .redirectOutput(log.toFile())
+        .start();
+    try {
+      final Duration firstRequest = awaitFirstRequest(process, URI.create("http://localhost:" + port + path),
+          launched, log);
+      return new Run(firstRequest, rssKb(process.pid()));
+    } finally {
+      process.destroy();
+      if (!process.waitFor(30, TimeUnit.SECONDS)) {
+        process.destroyForcibly().waitFor();
+      }
+    }
+  }
+
+  /**
+   * Polls until the request gets a 200, anything else (the server not listening yet, a 500 while the ES client
+   * connects) counts as not started
+   */
+  private static Duration awaitFirstRequest(Process process, URI uri, long launched, Path log)
+      throws IOException, InterruptedException {
+    final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+    final HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(10)).build();
+    final long deadline = launched + STARTUP_TIMEOUT.toNanos();
+    while (System.nanoTime() < deadline) {
+      if (!process.isAlive()) {
+        throw new IllegalStateException("The app exited with " + process.exitValue() + ", see " + log);
+      }
+      try {
+        if (httpClient.send(request, BodyHandlers.discarding()).statusCode() == 200) {
+          return Duration.ofNanos(System.nanoTime() - launched);
+        }
+      } catch (ConnectException e) {
+        // not listening yet
+      }
+      Thread.sleep(POLL_INTERVAL.toMillis());
+    }
+    throw new IllegalStateException("No 200 from " + uri + " after " + STARTUP_TIMEOUT + ", see " + log);
+  }
+
+  /**
+   * @return VmRSS of the process, 0 where there's no /proc
+   */
+  private static long rssKb(long pid) throws IOException {
+    final Path status = Path.of("/proc", String.valueOf(pid), "status");
+    if (!Files.exists(status)) {
+      return 0;
+    }
+    return Files.readAllLines(status).stream()
+        .filter(line -> line.startsWith("VmRSS:"))
+        .mapToLong(line -> Long.parseLong(line.replaceAll("[^0-9]", "")))
+        .findFirst()
+        .orElse(0);
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  private static void report(Map<Build, List<Run>> results) {
+    final PrintStream out = System.out;
+    out.printf("%-10s %5s %14s %14s %14s %10s%n", "build", "runs", "first req ms", "min ms", "max ms", "rss MB");
+    for (Map.Entry<Build, List<Run>> entry : results.entrySet()) {
+      final long[] millis = entry.getValue().stream().mapToLong(run -> run.firstRequest().toMillis()).sorted()
+          .toArray();
+      final long[] rss = entry.getValue().stream().mapToLong(Run::rssKb).sorted().toArray();
+      out.printf("%-10s %5d %14d %14d %14d %10d%n", entry.getKey().name(), millis.length, median(millis), millis[0],
+          millis[millis.length - 1], median(rss) / 1024);
+    }
+  }
+
+  private static long median(long[] sorted) {
+    return sorted[sorted.length / 2];
+  }
+}
@@ -0,0 +1,501 @@
+package com.paulhoang.Elasticsearch.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.DoubleSummaryStatistics;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPInputStream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Just enough of the ES http api for the app to run against: index exists/create/mapping calls, {@code _settings},
+ * {@code _doc}, {@code _source}, {@code _search} (including point in time, search_after and the facet aggregations),
+ * {@code _mget}, {@code _msearch}, {@code _count} and {@code _bulk}, with a search profile when one is asked for.
+ * Every index answers with the records of MOCK_DATA.json whatever the query, with the latency of ES simulated by
+ * sleeping before each response
+ */
+@Slf4j
+public class StubElasticsearchServer implements AutoCloseable {
+
+  private static final JsonMapper JSON_MAPPER = new JsonMapper();
+  private static final DateTimeFormatter MOCK_DATE = DateTimeFormatter.ofPattern("MM/dd/yyyy");
+
+  private final Duration latency;
+  private final Duration jitter;
+  private final int maxHits;
+  private double stragglerRate;
+  private Duration stragglerDelay = Duration.ZERO;
+  private Semaphore workers;
+  private final List<ObjectNode> manualSources = new ArrayList<>();
+  private final List<ObjectNode> autoSources = new ArrayList<>();
+  private final Map<String, Integer> positions = new LinkedHashMap<>();
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final HttpServer server;
+
+  /**
+   * @param latency added to every response
+   * @param jitter a random extra of up to this much on top of the latency
+   * @param maxHits the most hits returned by a search that isn't paging through a point in time
+   */
+  public StubElasticsearchServer(int port, Duration latency, Duration jitter, int maxHits) throws IOException {
+    this.latency = latency;
+    this.jitter = jitter;
+    this.maxHits = maxHits;
+    loadMockData();
+    server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+    server.createContext("/", this::handle);
+    server.setExecutor(executor);
+  }
+
+  /**
+   * Makes a share of the responses slow on top of the latency, like a slow shard copy or a GC pause on a node would
+   *
+   * @param rate the share of the responses, 0 to 1
+   */
+  public StubElasticsearchServer stragglers(double rate, Duration delay) {
+    this.stragglerRate = rate;
+    this.stragglerDelay = delay;
+    return this;
+  }
+
+  /**
+   * Only lets this many requests be worked on at once, the rest wait their turn like they would in the queue of an ES
+   * thread pool, so the stub slows down under load rather than answering everything in the latency
+   */
+  public StubElasticsearchServer capacity(int slots) {
+    this.workers = slots > 0 ? new Semaphore(slots, true) : null;
+    return this;
+  }
+
+  public StubElasticsearchServer start() {
+    server.start();
+    log.info("Stub elasticsearch listening on {} with {} records", port(), manualSources.size());
+    return this;
+  }
+
+  public int port() {
+    return server.getAddress().getPort();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /**
+   * The manual index holds the records as they are, the auto index the way the spring data converter writes them so
+   * with ISO dates
+   */
+  private void loadMockData() throws IOException {
+    try (InputStream inputStream = StubElasticsearchServer.class.getResourceAsStream("/static/MOCK_DATA.json")) {
+      for (JsonNode record : JSON_MAPPER.readTree(inputStream)) {
+        final ObjectNode manual = ((ObjectNode) record).deepCopy();
+        manual.put("id", record.get("id").asText());
+        final ObjectNode auto = manual.deepCopy();
+        auto.put("dateOfIncorporation",
+            LocalDate.parse(record.get("dateOfIncorporation").asText(), MOCK_DATE).toString());
+        positions.put(manual.get("id").asText(), manualSources.size());
+        manualSources.add(manual);
+        autoSources.add(auto);
+      }
+    }
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      simulateLatency();
+      final String method = exchange.getRequestMethod();
+      final String[] path = exchange.getRequestURI().getPath().substring(1).split("/");
+      final JsonNode body = readBody(exchange, path);
+
+      if ("HEAD".equals(method)) {
+        send(exchange, 200, null);
+      } else if (path.length == 1 && path[0].isEmpty()) {
+        send(exchange, 200, info());
+      } else if (path.length == 1 && "_pit".equals(path[0])) {
+        send(exchange, 200, JSON_MAPPER.createObjectNode().put("succeeded", true).put("num_freed", 1));
+      } else if (path.length == 3 && "_doc".equals(path[1])) {
+        final ObjectNode doc = doc(path[0], path[2]);
+        send(exchange, doc.get("found").asBoolean() ? 200 : 404, doc);
+      } else if (path.length == 3 && "_source".equals(path[1])) {
+        final ObjectNode doc = doc(path[0], path[2]);
+        final boolean found = doc.get("found").asBoolean();
+        send(exchange, found ? 200 : 404, found ? doc.get("_source") : doc);
+      } else if (path.length == 2 && "_pit".equals(path[1])) {
+        send(exchange, 200, JSON_MAPPER.createObjectNode().put("id", "stub-pit-" + path[0]));
+      } else if (path.length == 2 && "_settings".equals(path[1])) {
+        send(exchange, 200, settings(path[0]));
+      } else if (endsWith(path, "_search")) {
+        send(exchange, 200, search(path.length > 1 ? path[0] : pitIndex(body), body));
+      } else if (endsWith(path, "_msearch")) {
+        send(exchange, 200, msearch(path.length > 1 ? path[0] : null, exchange.getAttribute("body").toString()));
+      } else if (endsWith(path, "_mget")) {
+        send(exchange, 200, mget(path.length > 1 ? path[0] : null, body));
+      } else if (endsWith(path, "_count")) {
+        send(exchange, 200, JSON_MAPPER.createObjectNode().put("count", manualSources.size())
+            .set("_shards", shards()));
+      } else if (endsWith(path, "_bulk")) {
+        send(exchange, 200, bulk(path.length > 1 ? path[0] : null, exchange.getAttribute("body").toString()));
+      } else {
+        // index creation, mappings, settings and anything else that only wants an acknowledgement
+        send(exchange, 200, JSON_MAPPER.createObjectNode().put("acknowledged", true)
+            .put("shards_acknowledged", true).put("index", path[0]));
+      }
+    } catch (IOException e) {
+      // the client gave up on the request, e.g. a hedged read that was answered by the other node
+      log.debug("Stub failed to answer {}", exchange.getRequestURI(), e);
+    } catch (Exception e) {
+      log.warn("Stub failed to answer {}", exchange.getRequestURI(), e);
+    }
+  }
+
+  private void simulateLatency() throws InterruptedException {
+    long millis = latency.toMillis();
+    if (!jitter.isZero()) {
+      millis += ThreadLocalRandom.current().nextLong(jitter.toMillis() + 1);
+    }
+    if (stragglerRate > 0 && ThreadLocalRandom.current().nextDouble() < stragglerRate) {
+      millis += stragglerDelay.toMillis();
+    }
+    if (millis <= 0) {
+      return;
+    }
+    final Semaphore slots = workers;
+    if (slots == null) {
+      Thread.sleep(millis);
+      return;
+    }
+    slots.acquire();
+    try {
+      Thread.sleep(millis);
+    } finally {
+      slots.release();
+    }
+  }
+
+  private ObjectNode search(String index, JsonNode body) {
+    final boolean paging = body.has("pit");
+    final int size = body.path("size").asInt(10);
+    final int from = body.path("from").asInt(0);
+    // every record is returned by the first page, anything after it is the end of the results
+    final int count = body.has("search_after") ? 0 : Math.min(size, paging ? Integer.MAX_VALUE : maxHits);
+    final List<ObjectNode> sources = sourcesOf(index);
+
+    final ArrayNode hits = JSON_MAPPER.createArrayNode();
+    final JsonNode ids = body.path("query").path("ids").path("values");
+    if (ids.isArray()) {
+      // spring data's findById/findAllById are ids queries, so these have to find the right documents
+      ids.forEach(id -> {
+        final Integer position = positions.get(id.asText());
+        if (position != null) {
+          hits.add(hit(index, sources.get(position)).put("_score", 1.0));
+        }
+      });
+    } else {
+      for (int i = from; i < Math.min(from + count, sources.size()); i++) {
+        final ObjectNode hit = hit(index, sources.get(i)).put("_score", 1.0);
+        hit.putArray("sort").add(i);
+        hits.add(hit);
+      }
+    }
+    final ObjectNode response = JSON_MAPPER.createObjectNode()
+        .put("took", latency.toMillis())
+        .put("timed_out", false);
+    if (paging) {
+      response.put("pit_id", body.path("pit").path("id").asText());
+    }
+    response.set("_shards", shards());
+    final ObjectNode hitsNode = response.putObject("hits");
+    hitsNode.putObject("total").put("value", sources.size()).put("relation", "eq");
+    hitsNode.put("max_score", 1.0);
+    hitsNode.set("hits", hits);
+    final JsonNode aggregations = body.has("aggregations") ? body.get("aggregations") : body.get("aggs");
+    if (aggregations != null) {
+      response.set("aggregations", aggregate(aggregations, new ArrayList<>(sources)));
+    }
+    if (body.path("profile").asBoolean()) {
+      response.set("profile", profile(index, body.path("query")));
+    }
+    return response;
+  }
+
+  /**
+   * One shard that spent the whole latency on the query, typed by the kind of query it was (match, terms...)
+   */
+  private ObjectNode profile(String index, JsonNode query) {
+    final ObjectNode profile = JSON_MAPPER.createObjectNode();
+    final ObjectNode shard = profile.putArray("shards").addObject().put("id", "[stub][" + index + "][0]");
+    shard.putArray("aggregations");
+    final ObjectNode search = shard.putArray("searches").addObject();
+    final long nanos = latency.toNanos();
+    final ObjectNode breakdown = search.putArray("query").addObject()
+        .put("type", query.fieldNames().hasNext() ? query.fieldNames().next() : "match_all")
+        .put("description", query.toString())
+        .put("time_in_nanos", nanos)
+        .putObject("breakdown");
+    for (String timing : List.of("advance", "build_scorer", "create_weight", "match", "shallow_advance", "next_doc",
+        "score", "compute_max_score", "set_min_competitive_score")) {
+      breakdown.put(timing, 0).put(timing + "_count", 0);
+    }
+    breakdown.put("create_weight", nanos);
+    search.put("rewrite_time", 0);
+    search.putArray("collector").addObject()
+        .put("name", "SimpleTopScoreDocCollector")
+        .put("reason", "search_top_hits")
+        .put("time_in_nanos", 0);
+    return profile;
+  }
+
+  /**
+   * The aggregations the facet endpoints use (terms, date_histogram by month, histogram, stats and nested) over every
+   * document, as the stub doesn't apply queries. Keys are typed as the java client asks for them
+   */
+  private ObjectNode aggregate(JsonNode aggregations, List<JsonNode> docs) {
+    final ObjectNode result = JSON_MAPPER.createObjectNode();
+    aggregations.fields().forEachRemaining(entry -> {
+      final JsonNode aggregation = entry.getValue();
+      if (aggregation.has("terms")) {
+        final Map<String, Long> counts = new LinkedHashMap<>();
+        final String field = aggregation.get("terms").get("field").asText();
+        docs.forEach(doc -> values(doc.path(field)).forEach(value -> counts.merge(value.asText(), 1L, Long::sum)));
+        final ArrayNode buckets = JSON_MAPPER.createArrayNode();
+        counts.entrySet().stream()
+            .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+            .limit(aggregation.get("terms").path("size").asInt(10))
+            .forEach(count -> buckets.addObject().put("key", count.getKey()).put("doc_count", count.getValue()));
+        result.putObject("sterms#" + entry.getKey()).put("doc_count_error_upper_bound", 0)
+            .put("sum_other_doc_count", 0).set("buckets", buckets);
+      } else if (aggregation.has("date_histogram")) {
+        final Map<String, Long> counts = new TreeMap<>();
+        final String field = aggregation.get("date_histogram").get("field").asText();
+        docs.forEach(doc -> {
+          if (doc.hasNonNull(field)) {
+            final String date = doc.get(field).asText();
+            final LocalDate day = date.contains("/") ? LocalDate.parse(date, MOCK_DATE) : LocalDate.parse(date);
+            counts.merge(YearMonth.from(day).toString(), 1L, Long::sum);
+          }
+        });
+        final ArrayNode buckets = JSON_MAPPER.createArrayNode();
+        counts.forEach((month, count) -> buckets.addObject().put("key_as_string", month)
+            .put("key", YearMonth.parse(month).atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli())
+            .put("doc_count", count));
+        result.putObject("date_histogram#" + entry.getKey()).set("buckets", buckets);
+      } else if (aggregation.has("histogram")) {
+        final Map<Double, Long> counts = new TreeMap<>();
+        final double interval = aggregation.get("histogram").get("interval").asDouble();
+        final String[] field = aggregation.get("histogram").get("field").asText().split("\\.");
+        docs.forEach(doc -> {
+          final JsonNode value = doc.path(field[field.length - 1]);
+          if (value.isNumber()) {
+            counts.merge(Math.floor(value.asDouble() / interval) * interval, 1L, Long::sum);
+          }
+        });
+        final ArrayNode buckets = JSON_MAPPER.createArrayNode();
+        counts.forEach((key, count) -> buckets.addObject().put("key", key).put("doc_count", count));
+        result.putObject("histogram#" + entry.getKey()).set("buckets", buckets);
+      } else if (aggregation.has("stats")) {
+        final String[] field = aggregation.get("stats").get("field").asText().split("\\.");
+        final DoubleSummaryStatistics stats = docs.stream().map(doc -> doc.path(field[field.length - 1]))
+            .filter(JsonNode::isNumber).mapToDouble(JsonNode::asDouble).summaryStatistics();
+        final ObjectNode statsNode = result.putObject("stats#" + entry.getKey()).put("count", stats.getCount());
+        if (stats.getCount() > 0) {
+          statsNode.put("min", stats.getMin()).put("max", stats.getMax()).put("avg", stats.getAverage())
+              .put("sum", stats.getSum());
+        } else {
+          statsNode.putNull("min").putNull("max").putNull("avg").put("sum", 0);
+        }
+      } else if (aggregation.has("nested")) {
+        final String path = aggregation.get("nested").get("path").asText();
+        final List<JsonNode> nested = docs.stream().flatMap(doc -> values(doc.path(path)).stream()).toList();
+        final ObjectNode nestedNode = result.putObject("nested#" + entry.getKey()).put("doc_count", nested.size());
+        final JsonNode subAggregations = aggregation.has("aggregations") ? aggregation.get("aggregations")
+            : aggregation.get("aggs");
+        if (subAggregations != null) {
+          nestedNode.setAll(aggregate(subAggregations, nested));
+        }
+      }
+    });
+    return result;
+  }
+
+  private static List<JsonNode> values(JsonNode node) {
+    if (node.isMissingNode() || node.isNull()) {
+      return List.of();
+    }
+    final List<JsonNode> values = new ArrayList<>();
+    if (node.isArray()) {
+      node.forEach(values::add);
+    } else {
+      values.add(node);
+    }
+    return values;
+  }
+
+  private ObjectNode mget(String index, JsonNode body) {
+    final ArrayNode docs = JSON_MAPPER.createArrayNode();
+    if (body.has("ids")) {
+      body.get("ids").forEach(id -> docs.add(doc(index, id.asText())));
+    } else {
+      body.path("docs").forEach(doc -> docs.add(doc(doc.path("_index").asText(index), doc.path("_id").asText())));
+    }
+    final ObjectNode response = JSON_MAPPER.createObjectNode();
+    response.set("docs", docs);
+    return response;
+  }
+
+  private ObjectNode msearch(String index, String body) throws IOException {
+    final ArrayNode responses = JSON_MAPPER.createArrayNode();
+    final List<String> lines = body.lines().filter(line -> !line.isBlank()).toList();
+    for (int i = 0; i + 1 < lines.size(); i += 2) {
+      final JsonNode header = JSON_MAPPER.readTree(lines.get(i));
+      final JsonNode indices = header.path("index");
+      final String searchIndex = indices.isArray() ? indices.path(0).asText(index) : indices.asText(index);
+      responses.add(search(searchIndex, JSON_MAPPER.readTree(lines.get(i + 1))).put("status", 200));
+    }
+    final ObjectNode response = JSON_MAPPER.createObjectNode().put("took", latency.toMillis());
+    response.set("responses", responses);
+    return response;
+  }
+
+  private ObjectNode bulk(String index, String body) throws IOException {
+    final ArrayNode items = JSON_MAPPER.createArrayNode();
+    final String[] lines = body.split("\n");
+    for (int i = 0; i < lines.length; i++) {
+      if (lines[i].isBlank()) {
+        continue;
+      }
+      final JsonNode action = JSON_MAPPER.readTree(lines[i]);
+      final String operation = action.fieldNames().next();
+      final JsonNode meta = action.get(operation);
+      items.addObject().putObject(operation)
+          .put("_index", meta.path("_index").asText(index))
+          .put("_id", meta.path("_id").asText())
+          .put("_version", 1)
+          .put("result", switch (operation) {
+            case "delete" -> "deleted";
+            case "update" -> "updated";
+            default -> "created";
+          })
+          .put("status", "create".equals(operation) || "index".equals(operation) ? 201 : 200)
+          .put("_seq_no", i)
+          .put("_primary_term", 1)
+          .set("_shards", shards());
+      if (!"delete".equals(operation)) {
+        i++;
+      }
+    }
+    final ObjectNode response = JSON_MAPPER.createObjectNode().put("took", latency.toMillis()).put("errors", false);
+    response.set("items", items);
+    return response;
+  }
+
+  private ObjectNode doc(String index, String id) {
+    final Integer position = positions.get(id);
+    if (position == null) {
+      return JSON_MAPPER.createObjectNode().put("_index", index).put("_id", id).put("found", false);
+    }
+    return hit(index, sourcesOf(index).get(position))
+        .put("_version", 1)
+        .put("_seq_no", position)
+        .put("_primary_term", 1)
+        .put("found", true);
+  }
+
+  private ObjectNode hit(String index, ObjectNode source) {
+    final ObjectNode hit = JSON_MAPPER.createObjectNode()
+        .put("_index", index)
+        .put("_id", source.get("id").asText());
+    hit.set("_source", source);
+    return hit;
+  }
+
+  private List<ObjectNode> sourcesOf(String index) {
+    return index != null && index.startsWith("companyauto") ? autoSources : manualSources;
+  }
+
+  private static String pitIndex(JsonNode body) {
+    final String pitId = body.path("pit").path("id").asText();
+    return pitId.startsWith("stub-pit-") ? pitId.substring("stub-pit-".length()) : null;
+  }
+
+  private static ObjectNode settings(String index) {
+    final ObjectNode settings = JSON_MAPPER.createObjectNode();
+    settings.putObject(index).putObject("settings").putObject("index")
+        .put("uuid", "stub-" + index)
+        .put("number_of_shards", "1")
+        .put("number_of_replicas", "0");
+    return settings;
+  }
+
+  private static ObjectNode shards() {
+    return JSON_MAPPER.createObjectNode().put("total", 1).put("successful", 1).put("skipped", 0).put("failed", 0);
+  }
+
+  private static ObjectNode info() {
+    final ObjectNode info = JSON_MAPPER.createObjectNode()
+        .put("name", "stub")
+        .put("cluster_name", "stub")
+        .put("tagline", "You Know, for Search");
+    info.putObject("version").put("number", "8.5.3");
+    return info;
+  }
+
+  private static boolean endsWith(String[] path, String endpoint) {
+    return endpoint.equals(path[path.length - 1]);
+  }
+
+  /**
+   * Bulk and msearch bodies are NDJSON so they're kept as text (under the body attribute), everything else is parsed. Bodies are
+   * gzipped when the client has compression on
+   */
+  private static JsonNode readBody(HttpExchange exchange, String[] path) throws IOException {
+    final boolean gzipped = "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+    final byte[] bytes;
+    try (InputStream body = gzipped ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody()) {
+      bytes = body.readAllBytes();
+    }
+    if (endsWith(path, "_bulk") || endsWith(path, "_msearch")) {
+      exchange.setAttribute("body", new String(bytes, StandardCharsets.UTF_8));
+      return JSON_MAPPER.createObjectNode();
+    }
+    return bytes.length == 0 ? JSON_MAPPER.createObjectNode() : JSON_MAPPER.readTree(bytes);
+  }
+
+  private static void send(HttpExchange exchange, int status, JsonNode body) throws IOException {
+    // the java client refuses to talk to anything that doesn't say it is elasticsearch
+    exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    if (body == null) {
+      exchange.sendResponseHeaders(status, -1);
+      return;
+    }
+    final byte[] bytes = JSON_MAPPER.writeValueAsBytes(body);
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream outputStream = exchange.getResponseBody()) {
+      outputStream.write(bytes);
+    }
+  }
+}
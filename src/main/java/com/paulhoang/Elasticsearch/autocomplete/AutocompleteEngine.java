@@ -0,0 +1,144 @@
+package com.paulhoang.Elasticsearch.autocomplete;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.query_dsl.Operator;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import com.paulhoang.Elasticsearch.event.IndexChangeBuffer;
+import com.paulhoang.Elasticsearch.event.IndexChangedEvent;
+import com.paulhoang.Elasticsearch.event.IndexSwappedEvent;
+import com.paulhoang.Elasticsearch.event.IndicesBootstrappedEvent;
+import com.paulhoang.Elasticsearch.service.IndexScanner;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Serves autocomplete from an in memory prefix index of the company names. Each index is warmed from ES once the
+ * bootstrap has finished and is kept up to date from {@link IndexChangedEvent}s, until it's warm (or if warming
+ * failed) suggestions come from ES instead
+ */
+@Component
+@Slf4j
+public class AutocompleteEngine {
+
+  private static final List<String> SOURCE_FIELDS = List.of("id", "name");
+  private static final int WARM_ATTEMPTS = 5;
+
+  private final ElasticsearchClient elasticsearchClient;
+  private final IndexScanner indexScanner;
+  private final boolean enabled;
+  private final Map<CompanyType, PrefixIndex> prefixIndices = new EnumMap<>(CompanyType.class);
+  private final Set<CompanyType> warm = ConcurrentHashMap.newKeySet();
+  private final IndexChangeBuffer changes = new IndexChangeBuffer();
+
+  public AutocompleteEngine(ElasticsearchClient elasticsearchClient, IndexScanner indexScanner,
+      @Value("${autocomplete.local.enabled:true}") boolean enabled) {
+    this.elasticsearchClient = elasticsearchClient;
+    this.indexScanner = indexScanner;
+    this.enabled = enabled;
+    for (CompanyType type : CompanyType.values()) {
+      prefixIndices.put(type, new PrefixIndex());
+    }
+  }
+
+  public List<Suggestion> suggest(CompanyType type, String term, int size) throws IOException {
+    if (enabled && warm.contains(type)) {
+      return prefixIndices.get(type).search(term, size);
+    }
+    return searchElasticsearch(type, term, size);
+  }
+
+  /**
+   * The companies whose names the term prefixes, from the prefix index only
+   *
+   * @return empty until the prefix index is warm, as until then it doesn't know what's in ES
+   */
+  public Optional<List<Suggestion>> suggestLocally(CompanyType type, String term, int size) {
+    if (enabled && warm.contains(type)) {
+      return Optional.of(prefixIndices.get(type).search(term, size));
+    }
+    return Optional.empty();
+  }
+
+  @EventListener
+  public void onIndicesBootstrapped(IndicesBootstrappedEvent event) {
+    if (enabled) {
+      for (CompanyType type : CompanyType.values()) {
+        warm(type);
+      }
+    }
+  }
+
+  /**
+   * Rebuilt from scratch from the version now behind the alias, the first version is warmed once the bootstrap is
+   * done instead
+   */
+  @EventListener
+  public void onIndexSwapped(IndexSwappedEvent event) {
+    if (enabled && event.previousIndex() != null) {
+      warm(event.type());
+    }
+  }
+
+  @EventListener
+  public void onIndexChanged(IndexChangedEvent event) {
+    changes.apply(event, this::apply);
+  }
+
+  /**
+   * The changes made while the type warms are applied after its scan
+   */
+  public void warm(CompanyType type) {
+    warm.remove(type);
+    changes.hold(type);
+    final PrefixIndex prefixIndex = prefixIndices.get(type);
+    final long scanned;
+    try {
+      scanned = indexScanner.scanWithRetries(type.getIndexName(), SOURCE_FIELDS, Suggestion.class,
+          prefixIndex::clear, suggestion -> prefixIndex.put(suggestion.id(), suggestion.name()), WARM_ATTEMPTS);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Failed to warm autocomplete for {}, falling back to ES", type.getIndexName(), e);
+      return;
+    } finally {
+      changes.release(type, this::apply);
+    }
+    warm.add(type);
+    log.info("Autocomplete for {} warmed with {} names", type.getIndexName(), scanned);
+  }
+
+  private void apply(IndexChangedEvent event) {
+    final PrefixIndex prefixIndex = prefixIndices.get(event.type());
+    event.documents().forEach(company -> prefixIndex.put(event.type().idOf(company), event.type().nameOf(company)));
+    event.deletedIds().forEach(prefixIndex::remove);
+  }
+
+  /**
+   * Every term has to match, as it does in the prefix index, so suggestions don't change once it's warm
+   */
+  private List<Suggestion> searchElasticsearch(CompanyType type, String term, int size) throws IOException {
+    final SearchResponse<Suggestion> searchResponse = elasticsearchClient.search(s -> s
+            .index(type.getIndexName())
+            .size(size)
+            .source(source -> source.filter(filter -> filter.includes(SOURCE_FIELDS)))
+            .query(q -> q
+                .match(t -> t
+                    .field("name.search")
+                    .query(term)
+                    .operator(Operator.And)
+                )
+            ),
+        Suggestion.class);
+
+    return searchResponse.hits().hits().stream().map(Hit::source).toList();
+  }
+}
@@ -0,0 +1,45 @@
+package com.paulhoang.Elasticsearch.autocomplete;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Java version of the autocomplete_index analyzer (standard tokenizer, lowercase and asciifolding) so that
+ * "Hòdkïéwicz" is stored and looked up as "hodkiewicz"
+ */
+public final class NameNormalizer {
+
+  private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+  private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+
+  private NameNormalizer() {
+  }
+
+  public static String normalize(String text) {
+    final String folded = COMBINING_MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+    final StringBuilder builder = new StringBuilder(folded.length());
+    for (char c : folded.toLowerCase(Locale.ROOT).toCharArray()) {
+      switch (c) {
+        case '\u00f8' -> builder.append('o'); // ø
+        case '\u0142' -> builder.append('l'); // ł
+        case '\u0111', '\u00f0' -> builder.append('d'); // đ ð
+        case '\u0131' -> builder.append('i'); // dotless ı
+        case '\u00e6' -> builder.append("ae"); // æ
+        case '\u0153' -> builder.append("oe"); // œ
+        case '\u00df' -> builder.append("ss"); // ß
+        case '\u00fe' -> builder.append("th"); // þ
+        default -> builder.append(c);
+      }
+    }
+    return builder.toString();
+  }
+
+  public static List<String> tokenize(String text) {
+    return Arrays.stream(TOKEN_SEPARATOR.split(normalize(text)))
+        .filter(token -> !token.isEmpty())
+        .toList();
+  }
+}
@@ -0,0 +1,105 @@
+package com.paulhoang.Elasticsearch.autocomplete;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Sorted map of name tokens to company ids, a prefix lookup is a range scan from the prefix to the prefix followed by
+ * the highest char. Every token of a name is indexed so, like the edge ngram analyzer, "hodk" finds
+ * "McClure, Hòdkïéwicz and Romàguera". Updates are applied in place so the index never needs a full rebuild
+ */
+public class PrefixIndex {
+
+  private final NavigableMap<String, Set<String>> idsByToken = new ConcurrentSkipListMap<>();
+  private final Map<String, Entry> entriesById = new ConcurrentHashMap<>();
+
+  private record Entry(String name, List<String> tokens) {
+
+  }
+
+  public synchronized void put(String id, String name) {
+    remove(id);
+    if (name == null) {
+      return;
+    }
+    final List<String> tokens = NameNormalizer.tokenize(name);
+    entriesById.put(id, new Entry(name, tokens));
+    tokens.forEach(token -> idsByToken.computeIfAbsent(token, t -> new ConcurrentSkipListSet<>()).add(id));
+  }
+
+  public synchronized void remove(String id) {
+    final Entry existing = entriesById.remove(id);
+    if (existing == null) {
+      return;
+    }
+    for (String token : existing.tokens()) {
+      final Set<String> ids = idsByToken.get(token);
+      if (ids != null) {
+        ids.remove(id);
+        if (ids.isEmpty()) {
+          idsByToken.remove(token);
+        }
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    idsByToken.clear();
+    entriesById.clear();
+  }
+
+  public int size() {
+    return entriesById.size();
+  }
+
+  /**
+   * Every term in the query has to prefix one of the tokens of the name, results are in token order
+   */
+  public List<Suggestion> search(String query, int limit) {
+    final List<String> terms = NameNormalizer.tokenize(query);
+    if (terms.isEmpty()) {
+      return List.of();
+    }
+    final String mostSelective = terms.stream().max(Comparator.comparingInt(String::length)).orElseThrow();
+    final List<String> others = new ArrayList<>(terms);
+    others.remove(mostSelective);
+
+    final Set<String> matches = new LinkedHashSet<>();
+    for (Set<String> ids : idsByToken.subMap(mostSelective, true, mostSelective + Character.MAX_VALUE, false)
+        .values()) {
+      for (String id : ids) {
+        final Entry entry = entriesById.get(id);
+        if (entry != null && matchesAll(entry.tokens(), others)) {
+          matches.add(id);
+          if (matches.size() >= limit) {
+            return toSuggestions(matches);
+          }
+        }
+      }
+    }
+    return toSuggestions(matches);
+  }
+
+  private static boolean matchesAll(List<String> tokens, List<String> terms) {
+    return terms.stream().allMatch(term -> tokens.stream().anyMatch(token -> token.startsWith(term)));
+  }
+
+  private List<Suggestion> toSuggestions(Set<String> ids) {
+    final List<Suggestion> suggestions = new ArrayList<>(ids.size());
+    for (String id : ids) {
+      final Entry entry = entriesById.get(id);
+      if (entry != null) {
+        suggestions.add(new Suggestion(id, entry.name()));
+      }
+    }
+    return suggestions;
+  }
+}
@@ -0,0 +1,8 @@
+package com.paulhoang.Elasticsearch.autocomplete;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record Suggestion(String id, String name) {
+
+}
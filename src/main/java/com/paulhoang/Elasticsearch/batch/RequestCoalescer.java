@@ -0,0 +1,158 @@
+package com.paulhoang.Elasticsearch.batch;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Collects single key lookups that arrive close together and resolves them with one call to the batch loader. A
+ * lookup is only held back while a batch is already loading: with nothing in flight it's sent straight away, otherwise
+ * it waits for that batch to finish, or the window since it arrived to pass, or the batch to reach the max size,
+ * whichever comes first, and goes with the others that arrived meanwhile. Keys missing from the loader's result
+ * complete with null
+ */
+public class RequestCoalescer<K, V> implements AutoCloseable {
+
+  private final Function<Set<K>, Map<K, V>> batchLoader;
+  private final Duration window;
+  private final int maxBatchSize;
+  private final ScheduledExecutorService scheduler;
+  private final ExecutorService loaderExecutor;
+
+  private Map<K, CompletableFuture<V>> pending = new HashMap<>();
+  private ScheduledFuture<?> scheduledFlush;
+  private int loading;
+  private boolean closed;
+
+  public RequestCoalescer(String name, Function<Set<K>, Map<K, V>> batchLoader, Duration window, int maxBatchSize) {
+    this.batchLoader = batchLoader;
+    this.window = window;
+    this.maxBatchSize = maxBatchSize;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, name + "-coalescer"));
+    this.loaderExecutor = Executors.newCachedThreadPool(runnable -> daemon(runnable, name + "-batch-loader"));
+  }
+
+  public CompletableFuture<V> submit(K key) {
+    synchronized (this) {
+      if (!closed) {
+        final CompletableFuture<V> future = pending.computeIfAbsent(key, k -> new CompletableFuture<>());
+        if (loading == 0 || pending.size() >= maxBatchSize) {
+          final Map<K, CompletableFuture<V>> batch = startBatch();
+          loaderExecutor.execute(() -> loadAll(batch));
+        } else if (scheduledFlush == null) {
+          scheduledFlush = scheduler.schedule(() -> loaderExecutor.execute(this::flush), window.toNanos(),
+              TimeUnit.NANOSECONDS);
+        }
+        return future;
+      }
+    }
+    // closed, there's nothing left to coalesce with
+    final CompletableFuture<V> future = new CompletableFuture<>();
+    load(Map.of(key, future));
+    return future;
+  }
+
+  /**
+   * Blocking version of {@link #submit(Object)}, failures of the batch loader are rethrown as is
+   */
+  public V get(K key) {
+    try {
+      return submit(key).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Loads what's pending and stops the coalescer's threads, lookups made after it's closed are loaded one at a time
+   * by the caller
+   */
+  @Override
+  public void close() {
+    final Map<K, CompletableFuture<V>> batch;
+    synchronized (this) {
+      closed = true;
+      batch = takePending();
+    }
+    load(batch);
+    scheduler.shutdownNow();
+    loaderExecutor.shutdown();
+  }
+
+  private void flush() {
+    final Map<K, CompletableFuture<V>> batch;
+    synchronized (this) {
+      batch = startBatch();
+    }
+    loadAll(batch);
+  }
+
+  /**
+   * Loads the batch then, as long as lookups arrived while it was loading and no other batch has been sent for them,
+   * the batch they make up
+   */
+  private void loadAll(Map<K, CompletableFuture<V>> batch) {
+    Map<K, CompletableFuture<V>> next = batch;
+    while (!next.isEmpty()) {
+      load(next);
+      synchronized (this) {
+        loading--;
+        next = loading == 0 ? startBatch() : Map.of();
+      }
+    }
+  }
+
+  private Map<K, CompletableFuture<V>> startBatch() {
+    final Map<K, CompletableFuture<V>> batch = takePending();
+    if (!batch.isEmpty()) {
+      loading++;
+    }
+    return batch;
+  }
+
+  private Map<K, CompletableFuture<V>> takePending() {
+    final Map<K, CompletableFuture<V>> batch = pending;
+    pending = new HashMap<>();
+    if (scheduledFlush != null) {
+      scheduledFlush.cancel(false);
+      scheduledFlush = null;
+    }
+    return batch;
+  }
+
+  private void load(Map<K, CompletableFuture<V>> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    try {
+      final Map<K, V> results = batchLoader.apply(batch.keySet());
+      batch.forEach((key, future) -> future.complete(results.get(key)));
+    } catch (RuntimeException e) {
+      batch.values().forEach(future -> future.completeExceptionally(e));
+    }
+  }
+
+  /**
+   * The threads are started from whichever thread first needs one, usually a request thread, they belong to the
+   * coalescer though and not to the web app so they don't take its context class loader (tomcat would report them
+   * as leaked when it stops, before the coalescer is closed)
+   */
+  private static Thread daemon(Runnable runnable, String name) {
+    final Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    thread.setContextClassLoader(RequestCoalescer.class.getClassLoader());
+    return thread;
+  }
+}
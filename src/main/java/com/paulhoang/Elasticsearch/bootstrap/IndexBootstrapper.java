@@ -0,0 +1,249 @@
+package com.paulhoang.Elasticsearch.bootstrap;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.CountResponse;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import com.paulhoang.Elasticsearch.event.IndicesBootstrappedEvent;
+import com.paulhoang.Elasticsearch.execution.ConcurrencyLimiter;
+import com.paulhoang.Elasticsearch.loader.BulkLoadResult;
+import com.paulhoang.Elasticsearch.loader.SeedDataLoader;
+import com.paulhoang.Elasticsearch.loader.SeedResults;
+import com.paulhoang.Elasticsearch.loader.SyncResult;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Prepares the company indices in the background so the app can start serving straight away. Both indices are
+ * checked in parallel, missing ones are built as the first version behind their alias (see {@link IndexVersions})
+ * and the seed data is loaded into existing ones that need it, both from a single pass over the seed data. Until
+ * that's done the state is {@link State#WARMING} and the app's readiness is {@link ReadinessState#REFUSING_TRAFFIC}, so
+ * a readiness probe keeps traffic away until the data is there (and for good if the bootstrap fails).
+ * <p>
+ * With {@code es.sync.mode=create} every record is sent to ES to be created, with {@code delta} only the ones that are
+ * new or changed since the last run are (see {@link SeedDataLoader#sync})
+ */
+@Component
+@Slf4j
+public class IndexBootstrapper {
+
+  private static final int MAX_SHED_ATTEMPTS = 60;
+
+  public enum State {
+    WARMING, READY, FAILED
+  }
+
+  public enum SyncMode {
+    CREATE, DELTA
+  }
+
+  private enum Preparation {
+    /**
+     * The index already holds the data
+     */
+    NONE,
+    /**
+     * Load the seed data into the existing index
+     */
+    LOAD,
+    /**
+     * There's no index yet so a first version is built and loaded by the {@link Reindexer}
+     */
+    BUILD
+  }
+
+  public record Status(State state, Map<CompanyType, BulkLoadResult> loadResults,
+                       Map<CompanyType, SyncResult> syncResults) {
+
+  }
+
+  private final ElasticsearchClient elasticsearchClient;
+  private final SeedDataLoader seedDataLoader;
+  private final Reindexer reindexer;
+  private final ApplicationEventPublisher eventPublisher;
+  private final Resource seedData;
+  private final boolean forceCreate;
+  private final SyncMode syncMode;
+  private final boolean deleteMissing;
+
+  private volatile State state = State.WARMING;
+  private volatile boolean started;
+  private volatile Map<CompanyType, BulkLoadResult> loadResults = Map.of();
+  private volatile Map<CompanyType, SyncResult> syncResults = Map.of();
+
+  public IndexBootstrapper(ElasticsearchClient elasticsearchClient, SeedDataLoader seedDataLoader,
+      Reindexer reindexer, ApplicationEventPublisher eventPublisher,
+      @Value("${es.seedData:classpath:static/MOCK_DATA.json}") Resource seedData,
+      @Value("${es.forceCreateData}") boolean forceCreate,
+      @Value("${es.sync.mode:create}") SyncMode syncMode,
+      @Value("${es.sync.deleteMissing:false}") boolean deleteMissing) {
+    this.elasticsearchClient = elasticsearchClient;
+    this.seedDataLoader = seedDataLoader;
+    this.reindexer = reindexer;
+    this.eventPublisher = eventPublisher;
+    this.seedData = seedData;
+    this.forceCreate = forceCreate;
+    this.syncMode = syncMode;
+    this.deleteMissing = deleteMissing;
+  }
+
+  public Status status() {
+    return new Status(state, loadResults, syncResults);
+  }
+
+  /**
+   * Kicks off the bootstrap and returns immediately, the returned future completes once all data is loaded
+   */
+  public CompletableFuture<Void> start() {
+    synchronized (this) {
+      started = true;
+      AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+    }
+    final ExecutorService executor = Executors.newFixedThreadPool(CompanyType.values().length);
+    final Map<CompanyType, CompletableFuture<Preparation>> prepared = new EnumMap<>(CompanyType.class);
+    for (CompanyType type : CompanyType.values()) {
+      prepared.put(type, CompletableFuture.supplyAsync(() -> prepareIndex(type), executor));
+    }
+
+    return CompletableFuture.allOf(prepared.values().toArray(CompletableFuture[]::new))
+        .thenRunAsync(() -> {
+          final Set<CompanyType> toLoad = EnumSet.noneOf(CompanyType.class);
+          final Set<CompanyType> toBuild = EnumSet.noneOf(CompanyType.class);
+          prepared.forEach((type, preparation) -> {
+            switch (preparation.join()) {
+              case LOAD -> toLoad.add(type);
+              case BUILD -> toBuild.add(type);
+              default -> {
+              }
+            }
+          });
+          prepareData(toBuild, toLoad);
+        }, executor)
+        .whenComplete((ignored, e) -> {
+          executor.shutdown();
+          if (e != null) {
+            log.error("Failed to bootstrap indices", e);
+            state = State.FAILED;
+          } else {
+            log.info("Indices bootstrapped");
+            eventPublisher.publishEvent(new IndicesBootstrappedEvent());
+            synchronized (this) {
+              state = State.READY;
+              AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.ACCEPTING_TRAFFIC);
+            }
+          }
+        });
+  }
+
+  /**
+   * Boot reports the app as accepting traffic once it has started, usually before the bootstrap is done, so that's
+   * taken back until it is. This runs after Boot's own listener has recorded the state
+   */
+  @EventListener
+  public synchronized void onReadinessChange(AvailabilityChangeEvent<ReadinessState> event) {
+    if (started && state != State.READY && event.getSource() != this
+        && event.getState() == ReadinessState.ACCEPTING_TRAFFIC) {
+      AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+    }
+  }
+
+  /**
+   * @return what has to be done to get the seed data into the index
+   */
+  private Preparation prepareIndex(CompanyType type) {
+    try {
+      log.info("Checking if {} index exists", type.getIndexName());
+      final boolean exists = elasticsearchClient.indices().exists(builder -> builder.index(type.getIndexName()))
+          .value();
+      if (!exists) {
+        log.info("{} index does not exist so building the first version of it...", type.getIndexName());
+        return Preparation.BUILD;
+      }
+
+      final CountResponse count = ConcurrencyLimiter.whenAdmitted(MAX_SHED_ATTEMPTS,
+          () -> elasticsearchClient.count(builder -> builder.index(type.getIndexName())));
+      if (count.count() == 0 || forceCreate) {
+        return Preparation.LOAD;
+      }
+      log.info("NOT Creating data for {} as theres data init'ed already", type.getIndexName());
+      return Preparation.NONE;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Builds the missing indices and loads the seed data into the existing ones that need it, all from a single pass
+   * over the seed data
+   */
+  private void prepareData(Set<CompanyType> toBuild, Set<CompanyType> toLoad) {
+    try {
+      if (toBuild.isEmpty()) {
+        if (!toLoad.isEmpty()) {
+          feed(Map.of(), toLoad);
+        }
+        return;
+      }
+      final Map<CompanyType, BulkLoadResult> results = new EnumMap<>(CompanyType.class);
+      final Set<CompanyType> failed = EnumSet.noneOf(CompanyType.class);
+      reindexer.reindex(toBuild, indices -> feed(indices, toLoad)).forEach((type, result) -> {
+        results.put(type, result.loadResult());
+        if (!result.promoted()) {
+          failed.add(type);
+        }
+      });
+      results.putAll(loadResults);
+      loadResults = Map.copyOf(results);
+      if (!failed.isEmpty()) {
+        throw new IllegalStateException("ES rejected some of the seed data of " + failed + ", so they weren't built");
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * @param built the new versions of the missing indices, every record is created in them
+   * @param toLoad the existing indices to load the seed data into, or to delta sync
+   * @return the load results of the new versions
+   */
+  private Map<CompanyType, BulkLoadResult> feed(Map<CompanyType, String> built, Set<CompanyType> toLoad)
+      throws IOException {
+    final Map<CompanyType, String> indices = new EnumMap<>(CompanyType.class);
+    indices.putAll(built);
+    if (syncMode == SyncMode.CREATE) {
+      toLoad.forEach(type -> indices.put(type, type.getIndexName()));
+    }
+    final SeedResults results;
+    try (InputStream inputStream = seedData.getInputStream()) {
+      results = seedDataLoader.loadAndSync(inputStream, indices, syncMode == SyncMode.DELTA ? toLoad : Set.of(),
+          deleteMissing);
+    }
+
+    final Map<CompanyType, BulkLoadResult> loaded = new EnumMap<>(CompanyType.class);
+    final Map<CompanyType, BulkLoadResult> builds = new EnumMap<>(CompanyType.class);
+    results.loads().forEach((type, result) -> (built.containsKey(type) ? builds : loaded).put(type, result));
+    loaded.values().forEach(result -> result.failures()
+        .forEach((id, reason) -> log.warn("Failed to index {} into {}: {}", id, result.index(), reason)));
+    results.syncs().values().forEach(result -> result.failures()
+        .forEach((id, reason) -> log.warn("Failed to index {} into {}: {}", id, result.index(), reason)));
+    loadResults = Map.copyOf(loaded);
+    syncResults = Map.copyOf(results.syncs());
+    return builds;
+  }
+}
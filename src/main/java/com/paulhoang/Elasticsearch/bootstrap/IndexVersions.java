@@ -0,0 +1,228 @@
+package com.paulhoang.Elasticsearch.bootstrap;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.HealthStatus;
+import co.elastic.clients.elasticsearch._types.mapping.DateProperty;
+import co.elastic.clients.elasticsearch._types.mapping.IntegerNumberProperty;
+import co.elastic.clients.elasticsearch._types.mapping.KeywordProperty;
+import co.elastic.clients.elasticsearch._types.mapping.NestedProperty;
+import co.elastic.clients.elasticsearch._types.mapping.Property;
+import co.elastic.clients.elasticsearch._types.mapping.TextProperty;
+import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
+import co.elastic.clients.elasticsearch.indices.update_aliases.Action;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import com.paulhoang.Elasticsearch.entity.CompanyAuto;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.stereotype.Component;
+
+/**
+ * The company indices are versioned, concrete indices named {@code <index name>_v<n>} behind a read alias with the
+ * index name that everything else queries. A new version is created with the settings that make a bulk load fast (no
+ * refreshes and no replicas) which are put back to normal once it's loaded, then the alias is moved over in a single
+ * atomic call. Older versions are kept around (up to es.index.retainedVersions) so the alias can be moved back
+ */
+@Component
+@Slf4j
+public class IndexVersions {
+
+  private static final String VERSION_SEPARATOR = "_v";
+  private static final String REFRESH_INTERVAL = "1s";
+
+  private final ElasticsearchClient elasticsearchClient;
+  private final ElasticsearchOperations elasticsearchOperations;
+  private final int replicas;
+  private final int retainedVersions;
+
+  public IndexVersions(ElasticsearchClient elasticsearchClient, ElasticsearchOperations elasticsearchOperations,
+      @Value("${es.index.replicas:1}") int replicas,
+      @Value("${es.index.retainedVersions:2}") int retainedVersions) {
+    this.elasticsearchClient = elasticsearchClient;
+    this.elasticsearchOperations = elasticsearchOperations;
+    this.replicas = replicas;
+    this.retainedVersions = retainedVersions;
+  }
+
+  /**
+   * @return the concrete index the alias points at, empty if there's no alias (no index at all or one from before
+   * indices were versioned)
+   */
+  public Optional<String> current(CompanyType type) throws IOException {
+    final String alias = type.getIndexName();
+    if (!elasticsearchClient.indices().existsAlias(builder -> builder.name(alias)).value()) {
+      return Optional.empty();
+    }
+    return elasticsearchClient.indices().getAlias(builder -> builder.name(alias)).result().keySet().stream()
+        .findFirst();
+  }
+
+  /**
+   * @return every version of the index, oldest first
+   */
+  public List<String> versions(CompanyType type) throws IOException {
+    final String prefix = type.getIndexName() + VERSION_SEPARATOR;
+    return elasticsearchClient.indices().get(builder -> builder.index(prefix + "*").allowNoIndices(true))
+        .result().keySet().stream()
+        .filter(index -> version(type, index) > 0)
+        .sorted(Comparator.comparingInt(index -> version(type, index)))
+        .toList();
+  }
+
+  /**
+   * Creates the next version of the index ready to be bulk loaded, nothing reads from it until it's
+   * {@link #promote promoted}
+   */
+  public String create(CompanyType type) throws IOException {
+    final List<String> versions = versions(type);
+    final int next = versions.isEmpty() ? 1 : version(type, versions.get(versions.size() - 1)) + 1;
+    final String index = type.getIndexName() + VERSION_SEPARATOR + next;
+
+    try (InputStream settings = new ClassPathResource("static/index_settings.json").getInputStream()) {
+      final TypeMapping mapping = mappingOf(type);
+      elasticsearchClient.indices().create(builder -> builder
+          .index(index)
+          .settings(settingsBuilder -> settingsBuilder
+              .withJson(settings)
+              .numberOfShards("1")
+              .numberOfReplicas("0")
+              .refreshInterval(time -> time.time("-1")))
+          .mappings(mapping));
+    }
+    log.info("Created {} for loading", index);
+    return index;
+  }
+
+  /**
+   * Puts the normal settings back on a loaded index, merges it down to a single segment (the data doesn't change
+   * until the next version) and then moves the alias over to it
+   */
+  public void promote(CompanyType type, String index) throws IOException {
+    elasticsearchClient.indices().putSettings(builder -> builder
+        .index(index)
+        .settings(settings -> settings
+            .numberOfReplicas(String.valueOf(replicas))
+            .refreshInterval(time -> time.time(REFRESH_INTERVAL))));
+    elasticsearchClient.indices().refresh(builder -> builder.index(index));
+    elasticsearchClient.indices().forcemerge(builder -> builder.index(index).maxNumSegments(1L));
+    elasticsearchClient.cluster().health(builder -> builder.index(index).waitForStatus(HealthStatus.Yellow));
+    swap(type, index);
+  }
+
+  /**
+   * Points the alias at the version before the current one
+   *
+   * @return the version now behind the alias, empty if there isn't an older version to go back to
+   */
+  public Optional<String> rollback(CompanyType type) throws IOException {
+    final Optional<String> current = current(type);
+    if (current.isEmpty()) {
+      return Optional.empty();
+    }
+    final int currentVersion = version(type, current.get());
+    final Optional<String> previous = versions(type).stream()
+        .filter(index -> version(type, index) < currentVersion)
+        .reduce((first, second) -> second);
+    if (previous.isPresent()) {
+      swap(type, previous.get());
+    }
+    return previous;
+  }
+
+  /**
+   * Deletes the oldest versions beyond the ones that are kept for rollbacks, never the one behind the alias
+   */
+  public void prune(CompanyType type) throws IOException {
+    final Optional<String> current = current(type);
+    final List<String> versions = new ArrayList<>(versions(type));
+    current.ifPresent(versions::remove);
+    final int toDelete = versions.size() - (retainedVersions - 1);
+    for (String index : versions.subList(0, Math.max(0, toDelete))) {
+      elasticsearchClient.indices().delete(builder -> builder.index(index));
+      log.info("Deleted old version {}", index);
+    }
+  }
+
+  /**
+   * Deletes a version that was never promoted
+   */
+  public void delete(String index) throws IOException {
+    elasticsearchClient.indices().delete(builder -> builder.index(index));
+    log.info("Deleted {}", index);
+  }
+
+  /**
+   * A single update aliases call so searches see either the old or the new index and never neither. An unversioned
+   * index with the alias's name (from before indices were versioned) is deleted in the same call to make way
+   */
+  private void swap(CompanyType type, String index) throws IOException {
+    final String alias = type.getIndexName();
+    final Optional<String> current = current(type);
+    final List<Action> actions = new ArrayList<>();
+    if (current.isPresent()) {
+      actions.add(Action.of(action -> action.remove(remove -> remove.index(current.get()).alias(alias))));
+    } else if (elasticsearchClient.indices().exists(builder -> builder.index(alias)).value()) {
+      actions.add(Action.of(action -> action.removeIndex(remove -> remove.index(alias))));
+    }
+    actions.add(Action.of(action -> action.add(add -> add.index(index).alias(alias).isWriteIndex(true))));
+    elasticsearchClient.indices().updateAliases(builder -> builder.actions(actions));
+    log.info("Alias {} moved from {} to {}", alias, current.orElse("nothing"), index);
+  }
+
+  private int version(CompanyType type, String index) {
+    try {
+      return Integer.parseInt(index.substring((type.getIndexName() + VERSION_SEPARATOR).length()));
+    } catch (NumberFormatException | IndexOutOfBoundsException e) {
+      return -1;
+    }
+  }
+
+  private TypeMapping mappingOf(CompanyType type) {
+    if (type == CompanyType.AUTO) {
+      final String mapping = elasticsearchOperations.indexOps(CompanyAuto.class).createMapping().toJson();
+      return TypeMapping.of(builder -> builder.withJson(new StringReader(mapping)));
+    }
+    return manualMapping();
+  }
+
+  private TypeMapping manualMapping() {
+    Map<String, Property> propertyMap = new HashMap<>();
+
+    propertyMap.put("id", new Property(KeywordProperty.of(builder1 -> builder1)));
+    propertyMap.put("name", new Property(KeywordProperty.of(builder1 -> {
+      Map<String, Property> fields = new HashMap<>();
+      fields.put("search", new Property(TextProperty.of(
+          builder2 -> builder2.analyzer("autocomplete_index").searchAnalyzer("autocomplete_search"))));
+
+      builder1.fields(fields);
+      return builder1;
+    })));
+    propertyMap.put("telephone", new Property(KeywordProperty.of(builder1 -> builder1)));
+    propertyMap.put("address", new Property(TextProperty.of(builder1 -> builder1)));
+    propertyMap.put("dateOfIncorporation",
+        new Property(DateProperty.of(builder1 -> builder1.format("date_optional_time||epoch_millis"))));
+    propertyMap.put("services", new Property(KeywordProperty.of(builder1 -> builder1)));
+    propertyMap.put("owner", new Property(NestedProperty.of(builder1 -> {
+      Map<String, Property> ownerProperties = new HashMap<>();
+      ownerProperties.put("name", new Property(KeywordProperty.of(builder2 -> builder2
+          .fields("search", new Property(TextProperty.of(builder3 -> builder3))))));
+      ownerProperties.put("age", new Property(IntegerNumberProperty.of(builder2 -> builder2)));
+
+      builder1.properties(ownerProperties);
+      return builder1;
+    })));
+    propertyMap.put("status", new Property(KeywordProperty.of(builder1 -> builder1)));
+
+    return TypeMapping.of(builder -> builder.properties(propertyMap));
+  }
+}
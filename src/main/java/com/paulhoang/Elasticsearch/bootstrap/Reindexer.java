@@ -0,0 +1,154 @@
+package com.paulhoang.Elasticsearch.bootstrap;
+
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import com.paulhoang.Elasticsearch.event.IndexSwappedEvent;
+import com.paulhoang.Elasticsearch.loader.BulkLoadResult;
+import com.paulhoang.Elasticsearch.loader.SeedDataLoader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Rebuilds company indices from the seed data without taking them offline: every type gets a new version that is
+ * loaded while searches carry on against the current one, then the alias is swapped over. Writes made through the
+ * alias while a reindex is running would go to the old version and not be carried over, so the write endpoints turn
+ * them away until it's done (see {@link #isReindexing})
+ */
+@Component
+@Slf4j
+public class Reindexer {
+
+  /**
+   * @param promoted false when ES rejected some of the load, the new version was then deleted and the alias left
+   * where it was
+   */
+  public record ReindexResult(CompanyType type, String index, String previousIndex, BulkLoadResult loadResult,
+                              boolean promoted) {
+
+  }
+
+  /**
+   * Loads the new versions, given the index each type is loaded into
+   */
+  @FunctionalInterface
+  public interface Loader {
+
+    Map<CompanyType, BulkLoadResult> load(Map<CompanyType, String> indices) throws IOException;
+  }
+
+  private final IndexVersions indexVersions;
+  private final SeedDataLoader seedDataLoader;
+  private final ApplicationEventPublisher eventPublisher;
+  private final Resource seedData;
+  private final Set<CompanyType> reindexing = ConcurrentHashMap.newKeySet();
+
+  public Reindexer(IndexVersions indexVersions, SeedDataLoader seedDataLoader,
+      ApplicationEventPublisher eventPublisher,
+      @Value("${es.seedData:classpath:static/MOCK_DATA.json}") Resource seedData) {
+    this.indexVersions = indexVersions;
+    this.seedDataLoader = seedDataLoader;
+    this.eventPublisher = eventPublisher;
+    this.seedData = seedData;
+  }
+
+  /**
+   * Builds and promotes a new version of each type's index, the seed data is parsed once for all of them
+   */
+  public Map<CompanyType, ReindexResult> reindex(Set<CompanyType> types) throws IOException {
+    return reindex(types, indices -> {
+      try (InputStream inputStream = seedData.getInputStream()) {
+        return seedDataLoader.load(inputStream, indices);
+      }
+    });
+  }
+
+  /**
+   * A new version is only promoted if all of it loaded, one that ES rejected any of (or that failed to load at all) is
+   * deleted and the alias stays on the current version. Old versions are only pruned once a new one is promoted
+   *
+   * @param loader loads the new versions, so the pass over the seed data can load other indices too
+   */
+  public synchronized Map<CompanyType, ReindexResult> reindex(Set<CompanyType> types, Loader loader)
+      throws IOException {
+    reindexing.addAll(types);
+    try {
+      return build(types, loader);
+    } finally {
+      reindexing.removeAll(types);
+    }
+  }
+
+  /**
+   * @return whether a new version of the type's index is being built, until it's promoted (or deleted)
+   */
+  public boolean isReindexing(CompanyType type) {
+    return reindexing.contains(type);
+  }
+
+  private Map<CompanyType, ReindexResult> build(Set<CompanyType> types, Loader loader) throws IOException {
+    final Map<CompanyType, String> previous = new EnumMap<>(CompanyType.class);
+    final Map<CompanyType, String> indices = new EnumMap<>(CompanyType.class);
+    final Map<CompanyType, BulkLoadResult> loadResults;
+    try {
+      for (CompanyType type : types) {
+        indexVersions.current(type).ifPresent(index -> previous.put(type, index));
+        indices.put(type, indexVersions.create(type));
+      }
+      loadResults = loader.load(indices);
+    } catch (IOException | RuntimeException e) {
+      for (String index : indices.values()) {
+        deleteQuietly(index, e);
+      }
+      throw e;
+    }
+
+    final Map<CompanyType, ReindexResult> results = new EnumMap<>(CompanyType.class);
+    for (Map.Entry<CompanyType, String> entry : indices.entrySet()) {
+      final CompanyType type = entry.getKey();
+      final BulkLoadResult loadResult = loadResults.get(type);
+      loadResult.failures()
+          .forEach((id, reason) -> log.warn("Failed to index {} into {}: {}", id, entry.getValue(), reason));
+      final boolean promoted = loadResult.failed() == 0;
+      if (promoted) {
+        indexVersions.promote(type, entry.getValue());
+        eventPublisher.publishEvent(new IndexSwappedEvent(type, entry.getValue(), previous.get(type)));
+        indexVersions.prune(type);
+      } else {
+        log.error("{} of the documents loaded into {} were rejected, deleting it and leaving {} on {}",
+            loadResult.failed(), entry.getValue(), type.getIndexName(), previous.getOrDefault(type, "nothing"));
+        indexVersions.delete(entry.getValue());
+      }
+      results.put(type, new ReindexResult(type, entry.getValue(), previous.get(type), loadResult, promoted));
+    }
+    return results;
+  }
+
+  private void deleteQuietly(String index, Exception cause) {
+    try {
+      indexVersions.delete(index);
+    } catch (IOException | RuntimeException e) {
+      cause.addSuppressed(e);
+    }
+  }
+
+  /**
+   * Moves the alias back to the previous version of the index
+   *
+   * @return the version now being read, empty if there's nothing to roll back to
+   */
+  public synchronized Optional<String> rollback(CompanyType type) throws IOException {
+    final Optional<String> current = indexVersions.current(type);
+    final Optional<String> previous = indexVersions.rollback(type);
+    previous.ifPresent(index -> eventPublisher.publishEvent(new IndexSwappedEvent(type, index, current.orElse(null))));
+    return previous;
+  }
+}
@@ -0,0 +1,48 @@
+package com.paulhoang.Elasticsearch.cache;
+
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import com.paulhoang.Elasticsearch.entity.CompanyAuto;
+import com.paulhoang.Elasticsearch.entity.CompanyManual;
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class CacheConfig {
+
+  @Value("${cache.documents.maxSize:10000}")
+  private long maxSize;
+
+  @Value("${cache.documents.ttl:5m}")
+  private Duration ttl;
+
+  @Value("${cache.documents.negativeTtl:30s}")
+  private Duration negativeTtl;
+
+  @Value("${cache.search.maxSize:10000}")
+  private long searchMaxSize;
+
+  @Value("${cache.search.ttl:1m}")
+  private Duration searchTtl;
+
+  @Bean
+  public DocumentCache<CompanyAuto> companyAutoCache() {
+    return new DocumentCache<>("companyauto", CompanyType.AUTO, maxSize, ttl, negativeTtl);
+  }
+
+  @Bean
+  public DocumentCache<CompanyManual> companyManualCache() {
+    return new DocumentCache<>("companymanual", CompanyType.MANUAL, maxSize, ttl, negativeTtl);
+  }
+
+  @Bean
+  public SearchResultCache<CompanyAuto> companyAutoSearchCache() {
+    return new SearchResultCache<>("companyauto-search", CompanyType.AUTO, searchMaxSize, searchTtl);
+  }
+
+  @Bean
+  public SearchResultCache<CompanyManual> companyManualSearchCache() {
+    return new SearchResultCache<>("companymanual-search", CompanyType.MANUAL, searchMaxSize, searchTtl);
+  }
+}
@@ -0,0 +1,62 @@
+package com.paulhoang.Elasticsearch.cache;
+
+import com.paulhoang.Elasticsearch.event.IndexChangedEvent;
+import com.paulhoang.Elasticsearch.event.IndexRefreshedEvent;
+import com.paulhoang.Elasticsearch.event.IndexSwappedEvent;
+import com.paulhoang.Elasticsearch.event.IndicesBootstrappedEvent;
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+@Component
+@RequiredArgsConstructor
+public class CacheInvalidationListener {
+
+  private final List<DocumentCache<?>> documentCaches;
+  private final List<SearchResultCache<?>> searchResultCaches;
+
+  /**
+   * Changed documents are dropped by id, but any search could now match differently so the whole index generation
+   * moves on
+   */
+  @EventListener
+  public void onIndexChanged(IndexChangedEvent event) {
+    final List<String> ids = event.ids();
+    documentCaches.stream()
+        .filter(cache -> cache.getType() == event.type())
+        .forEach(cache -> cache.invalidate(ids));
+    searchResultCaches.stream()
+        .filter(cache -> cache.getType() == event.type())
+        .forEach(SearchResultCache::bumpGeneration);
+  }
+
+  /**
+   * A search that ran between a write and the refresh that made it searchable cached results from before the write
+   * under the generation the write moved on to, so it moves on again
+   */
+  @EventListener
+  public void onIndexRefreshed(IndexRefreshedEvent event) {
+    searchResultCaches.stream()
+        .filter(cache -> cache.getType() == event.type())
+        .forEach(SearchResultCache::bumpGeneration);
+  }
+
+  /**
+   * A different version of the index is being read so nothing cached from the old one can be trusted
+   */
+  @EventListener
+  public void onIndexSwapped(IndexSwappedEvent event) {
+    documentCaches.stream()
+        .filter(cache -> cache.getType() == event.type())
+        .forEach(DocumentCache::invalidateAll);
+    searchResultCaches.stream()
+        .filter(cache -> cache.getType() == event.type())
+        .forEach(SearchResultCache::bumpGeneration);
+  }
+
+  @EventListener
+  public void onIndicesBootstrapped(IndicesBootstrappedEvent event) {
+    searchResultCaches.forEach(SearchResultCache::bumpGeneration);
+  }
+}
@@ -0,0 +1,5 @@
+package com.paulhoang.Elasticsearch.cache;
+
+public record CacheStatistics(long size, long hitCount, long missCount, double hitRate, long evictionCount) {
+
+}
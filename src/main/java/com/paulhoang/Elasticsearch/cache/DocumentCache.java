@@ -0,0 +1,128 @@
+package com.paulhoang.Elasticsearch.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Bounded get-by-id cache in front of an index. Caffeine evicts with W-TinyLFU which suits our traffic (a small set of
+ * very hot companies), misses are cached too but for a shorter time so newly indexed companies show up quickly.
+ * <p>
+ * A blocking load holds the entry until it's done so an invalidation waits for it, an async one doesn't: it's only
+ * cached if the id hasn't been invalidated since the read was sent, otherwise a write landing while ES answered would
+ * be overwritten by what ES had before it
+ */
+public class DocumentCache<T> {
+
+  private final String name;
+  private final CompanyType type;
+  private final Cache<String, Optional<T>> cache;
+  /**
+   * The latest async read of each id that is still out, an invalidation removes it so the read isn't cached
+   */
+  private final ConcurrentMap<String, Object> asyncReads = new ConcurrentHashMap<>();
+
+  public DocumentCache(String name, CompanyType type, long maxSize, Duration ttl, Duration negativeTtl) {
+    this.name = name;
+    this.type = type;
+    this.cache = Caffeine.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfter(new Expiry<String, Optional<T>>() {
+          @Override
+          public long expireAfterCreate(String key, Optional<T> value, long currentTime) {
+            return (value.isPresent() ? ttl : negativeTtl).toNanos();
+          }
+
+          @Override
+          public long expireAfterUpdate(String key, Optional<T> value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+          }
+
+          @Override
+          public long expireAfterRead(String key, Optional<T> value, long currentTime, long currentDuration) {
+            return currentDuration;
+          }
+        })
+        .recordStats()
+        .build();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public CompanyType getType() {
+    return type;
+  }
+
+  public Optional<T> get(String id, Function<String, Optional<T>> loader) {
+    return cache.get(id, loader);
+  }
+
+  /**
+   * Non blocking version of {@link #get}, concurrent misses for an id each call the loader
+   */
+  public CompletableFuture<Optional<T>> getAsync(String id, Function<String, CompletableFuture<Optional<T>>> loader) {
+    final Optional<T> cached = cache.getIfPresent(id);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached);
+    }
+    final Object read = new Object();
+    asyncReads.put(id, read);
+    final CompletableFuture<Optional<T>> loaded;
+    try {
+      loaded = loader.apply(id);
+    } catch (RuntimeException e) {
+      asyncReads.remove(id, read);
+      throw e;
+    }
+    return loaded.whenComplete((company, ex) -> {
+      // an invalidation removes the read under the same lock, so it either happens before the put or sees it
+      asyncReads.computeIfPresent(id, (key, latest) -> {
+        if (latest != read) {
+          return latest;
+        }
+        if (ex == null) {
+          cache.put(id, company);
+        }
+        return null;
+      });
+    });
+  }
+
+  /**
+   * Looks up all ids at once, the loader is called a single time with the ids that weren't cached and must return an
+   * entry (empty if not found) for each of them
+   */
+  public Map<String, Optional<T>> getAll(Collection<String> ids,
+      Function<Set<String>, Map<String, Optional<T>>> loader) {
+    return cache.getAll(ids, missing -> loader.apply(Set.copyOf(missing)));
+  }
+
+  public void invalidate(Collection<String> ids) {
+    ids.forEach(asyncReads::remove);
+    cache.invalidateAll(ids);
+  }
+
+  public void invalidateAll() {
+    asyncReads.clear();
+    cache.invalidateAll();
+  }
+
+  public CacheStatistics stats() {
+    final CacheStats stats = cache.stats();
+    return new CacheStatistics(cache.estimatedSize(), stats.hitCount(), stats.missCount(), stats.hitRate(),
+        stats.evictionCount());
+  }
+}
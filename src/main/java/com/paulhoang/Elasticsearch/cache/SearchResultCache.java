@@ -0,0 +1,186 @@
+package com.paulhoang.Elasticsearch.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.paulhoang.Elasticsearch.autocomplete.NameNormalizer;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of search results in front of an index, keyed on the endpoint and the term normalized the way ES
+ * analyzes it so "Hòdkïéwicz" and "hodkiewicz" share an entry. Concurrent misses for the same key share a single ES
+ * query. Every key carries the index generation, which is bumped by any write to or reload of the index, so results
+ * from before a change are never served again (even ones still in flight when it happened)
+ */
+public class SearchResultCache<T> {
+
+  /**
+   * How a term is folded for the key, which has to match how the query treats it or different searches would share
+   * results
+   */
+  public enum TermNormalization {
+    /**
+     * The autocomplete analyzers: standard tokenizer, lowercase and asciifolding
+     */
+    NAME(term -> String.join(" ", NameNormalizer.tokenize(term))),
+    /**
+     * The standard analyzer only lowercases
+     */
+    TEXT(term -> term.trim().toLowerCase(Locale.ROOT)),
+    /**
+     * Term level queries such as fuzzy aren't analyzed at all
+     */
+    NONE(String::trim);
+
+    private final Function<String, String> normalizer;
+
+    TermNormalization(Function<String, String> normalizer) {
+      this.normalizer = normalizer;
+    }
+
+    public String normalize(String term) {
+      return normalizer.apply(term);
+    }
+  }
+
+  @FunctionalInterface
+  public interface SearchLoader<T> {
+
+    List<T> load() throws IOException;
+  }
+
+  private record Key(String endpoint, String term, long generation) {
+
+  }
+
+  /**
+   * How a failed query is kept in the cache until caffeine drops it. Caffeine logs every other failure of a cached
+   * future with its stack trace, which under load shedding would be one per rejected search, while the failure is
+   * reported to the callers anyway
+   */
+  private static final class FailedSearch extends CancellationException {
+
+    private FailedSearch(Throwable cause) {
+      super(cause.getMessage());
+      initCause(cause);
+    }
+  }
+
+  private final String name;
+  private final CompanyType type;
+  private final AsyncCache<Key, List<T>> cache;
+  private final AtomicLong generation = new AtomicLong();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  public SearchResultCache(String name, CompanyType type, long maxSize, Duration ttl) {
+    this.name = name;
+    this.type = type;
+    this.cache = Caffeine.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(ttl)
+        .recordStats()
+        .buildAsync();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public CompanyType getType() {
+    return type;
+  }
+
+  public List<T> get(String endpoint, TermNormalization normalization, String term, SearchLoader<T> loader)
+      throws IOException {
+    try {
+      return lookup(key(endpoint, normalization, term), () -> {
+        try {
+          return CompletableFuture.completedFuture(List.copyOf(loader.load()));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException cause) {
+        throw cause.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  public CompletableFuture<List<T>> getAsync(String endpoint, TermNormalization normalization, String term,
+      Supplier<CompletableFuture<List<T>>> loader) {
+    return lookup(key(endpoint, normalization, term), () -> loader.get().thenApply(List::copyOf));
+  }
+
+  /**
+   * Called on any change to the index, entries from older generations are never looked up again and age out
+   */
+  public void bumpGeneration() {
+    generation.incrementAndGet();
+  }
+
+  public long getGeneration() {
+    return generation.get();
+  }
+
+  public CacheStatistics stats() {
+    final long hitCount = hits.sum();
+    final long missCount = misses.sum();
+    final long requests = hitCount + missCount;
+    final CacheStats stats = cache.synchronous().stats();
+    return new CacheStatistics(cache.synchronous().estimatedSize(), hitCount, missCount,
+        requests == 0 ? 1.0 : (double) hitCount / requests, stats.evictionCount());
+  }
+
+  private Key key(String endpoint, TermNormalization normalization, String term) {
+    return new Key(endpoint, normalization.normalize(term), generation.get());
+  }
+
+  /**
+   * Single flight: the first miss installs a future that every other caller for the key waits on, the query itself
+   * runs outside the cache's locks. Failed queries are dropped by caffeine so the next call retries
+   */
+  private CompletableFuture<List<T>> lookup(Key key, Supplier<CompletableFuture<List<T>>> loader) {
+    final CompletableFuture<List<T>> created = new CompletableFuture<>();
+    final CompletableFuture<List<T>> existing = cache.asMap().putIfAbsent(key, created);
+    if (existing != null) {
+      hits.increment();
+      return unwrapFailure(existing);
+    }
+    misses.increment();
+    try {
+      loader.get().whenComplete((results, ex) -> {
+        if (ex != null) {
+          created.completeExceptionally(new FailedSearch(ex instanceof CompletionException ? ex.getCause() : ex));
+        } else {
+          created.complete(results);
+        }
+      });
+    } catch (RuntimeException e) {
+      created.completeExceptionally(new FailedSearch(e));
+    }
+    return unwrapFailure(created);
+  }
+
+  private static <V> CompletableFuture<V> unwrapFailure(CompletableFuture<V> future) {
+    return future.exceptionallyCompose(ex -> CompletableFuture.failedFuture(
+        ex instanceof FailedSearch failed ? failed.getCause() : ex));
+  }
+}
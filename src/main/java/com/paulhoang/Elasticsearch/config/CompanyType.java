@@ -0,0 +1,38 @@
+package com.paulhoang.Elasticsearch.config;
+
+import com.paulhoang.Elasticsearch.entity.CompanyAuto;
+import com.paulhoang.Elasticsearch.entity.CompanyManual;
+
+public enum CompanyType {
+  MANUAL("companymanual", CompanyManual.class), AUTO("companyauto", CompanyAuto.class);
+
+  private final String indexName;
+  private final Class<?> clazz;
+
+  CompanyType(String indexName, Class<?> clazz) {
+    this.indexName = indexName;
+    this.clazz = clazz;
+  }
+
+  public String getIndexName() {
+    return indexName;
+  }
+
+  public Class<?> getClazz() {
+    return clazz;
+  }
+
+  public String idOf(Object company) {
+    if (company instanceof CompanyAuto companyAuto) {
+      return companyAuto.id();
+    }
+    return ((CompanyManual) company).id();
+  }
+
+  public String nameOf(Object company) {
+    if (company instanceof CompanyAuto companyAuto) {
+      return companyAuto.name();
+    }
+    return ((CompanyManual) company).name();
+  }
+}
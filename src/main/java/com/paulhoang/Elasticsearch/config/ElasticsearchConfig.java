@@ -1,238 +1,208 @@
 package com.paulhoang.Elasticsearch.config;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
-import co.elastic.clients.elasticsearch._types.mapping.DateProperty;
-import co.elastic.clients.elasticsearch._types.mapping.KeywordProperty;
-import co.elastic.clients.elasticsearch._types.mapping.NestedProperty;
-import co.elastic.clients.elasticsearch._types.mapping.Property;
-import co.elastic.clients.elasticsearch._types.mapping.TextProperty;
-import co.elastic.clients.elasticsearch.core.CountRequest;
-import co.elastic.clients.elasticsearch.core.CountRequest.Builder;
-import co.elastic.clients.elasticsearch.core.CountResponse;
-import co.elastic.clients.elasticsearch.indices.CloseIndexResponse;
-import co.elastic.clients.elasticsearch.indices.OpenResponse;
-import co.elastic.clients.elasticsearch.indices.PutIndicesSettingsResponse;
-import co.elastic.clients.elasticsearch.indices.PutMappingRequest;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.json.JsonMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-import com.paulhoang.Elasticsearch.entity.CompanyAuto;
-import com.paulhoang.Elasticsearch.entity.CompanyManual;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import com.paulhoang.Elasticsearch.bootstrap.IndexBootstrapper;
+import com.paulhoang.Elasticsearch.execution.ConcurrencyLimiter;
+import com.paulhoang.Elasticsearch.execution.HedgingPolicy;
+import com.paulhoang.Elasticsearch.execution.HedgingTransport;
+import com.paulhoang.Elasticsearch.execution.LimitingTransport;
+import com.paulhoang.Elasticsearch.metrics.ElasticsearchMetrics;
+import com.paulhoang.Elasticsearch.metrics.HttpMetricsInterceptor;
+import com.paulhoang.Elasticsearch.metrics.InstrumentedTransport;
+import com.paulhoang.Elasticsearch.startup.TrainingRun;
+import java.time.Duration;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
+import org.elasticsearch.client.RestClient;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.elasticsearch.BulkFailureException;
 import org.springframework.data.elasticsearch.client.ClientConfiguration;
+import org.springframework.data.elasticsearch.client.elc.ElasticsearchClients;
 import org.springframework.data.elasticsearch.client.elc.ElasticsearchConfiguration;
-import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
-import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
-import org.springframework.data.elasticsearch.core.query.IndexQuery;
-import org.springframework.data.elasticsearch.core.query.IndexQuery.OpType;
 import org.springframework.data.elasticsearch.repository.config.EnableElasticsearchRepositories;
 
 @EnableElasticsearchRepositories
 @Configuration
+@RequiredArgsConstructor
 @Slf4j
 public class ElasticsearchConfig extends ElasticsearchConfiguration {
 
+  /**
+   * How the rest client picks the node for each request, it always skips the nodes it has marked dead (after a
+   * connection failure or 502/503/504) until they're due a retry
+   */
+  public enum NodeSelection {
+    /**
+     * Every live node in turn
+     */
+    ROUND_ROBIN,
+    /**
+     * Only the nodes that have been answering fastest, see {@link LatencyAwareNodeSelector}
+     */
+    LEAST_LATENCY
+  }
+
+  /**
+   * A comma separated list of nodes
+   */
   @Value("${es.hostAndPort}")
-  private String esUrl;
+  private String[] esUrls;
 
-  @Value("${es.forceCreateData}")
-  private boolean forceCreate;
+  @Value("${es.nodeSelection:round-robin}")
+  private NodeSelection nodeSelection;
 
+  @Value("${es.nodeLatencyTolerance:1.5}")
+  private double nodeLatencyTolerance;
 
-  @Override
-  public ClientConfiguration clientConfiguration() {
-    return ClientConfiguration.builder().connectedTo(esUrl).build();
-  }
+  @Value("${es.nodeProbeInterval:1s}")
+  private Duration nodeProbeInterval;
 
+  /**
+   * gzips request bodies (bulks being the big ones) and asks ES to gzip its responses
+   */
+  @Value("${es.compression:true}")
+  private boolean compression;
 
-  enum CompanyType {
-    MANUAL("companymanual", CompanyManual.class), AUTO("companyauto", CompanyAuto.class);
+  @Value("${es.pool.maxTotal:30}")
+  private int poolMaxTotal;
 
-    private final String indexName;
-    private final Class<?> clazz;
+  @Value("${es.pool.maxPerRoute:10}")
+  private int poolMaxPerRoute;
 
-    CompanyType(String indexName, Class<?> clazz) {
-      this.indexName = indexName;
-      this.clazz = clazz;
-    }
+  @Value("${es.pool.keepAlive:30s}")
+  private Duration keepAlive;
 
-    public String getIndexName() {
-      return indexName;
-    }
+  @Value("${es.connectTimeout:1s}")
+  private Duration connectTimeout;
 
-    public Class<?> getClazz() {
-      return clazz;
-    }
-  }
+  @Value("${es.socketTimeout:30s}")
+  private Duration socketTimeout;
 
-  @Bean
-  public CommandLineRunner setupCompanyManualIndex(ElasticsearchOperations elasticsearchOperations,
-      ElasticsearchClient elasticsearchClient) throws IOException {
-    return (args) -> {
-      log.info("Checking if companymanual index exists");
-      final boolean exists = elasticsearchOperations.indexOps(IndexCoordinates.of(CompanyType.MANUAL.getIndexName()))
-          .exists();
-      if (exists) {
-        log.info("CompanyManual Index exists");
-        createCompanyData(elasticsearchOperations, elasticsearchClient, CompanyType.MANUAL);
-      } else {
-        log.info("Index does not exist so creating index...");
-        final boolean successfullyCreated = createCompanyIndex(elasticsearchOperations, elasticsearchClient,
-            CompanyType.MANUAL);
-        if (successfullyCreated) {
-          log.info("Index created so creating index settings");
-          createSettings(elasticsearchClient);
-          createManualMapping(elasticsearchClient);
-          createCompanyData(elasticsearchOperations, elasticsearchClient, CompanyType.MANUAL);
-        }
-      }
-    };
-  }
+  private final ElasticsearchMetrics elasticsearchMetrics;
+  private final HedgingPolicy hedgingPolicy;
+  private final ConcurrencyLimiter concurrencyLimiter;
 
-  @Bean
-  public CommandLineRunner setupCompanyAutoIndex(ElasticsearchOperations elasticsearchOperations,
-      ElasticsearchClient elasticsearchClient) throws IOException {
-    return (args) -> {
-      log.info("Checking if companyauto index exists");
-      final boolean exists = elasticsearchOperations.indexOps(CompanyAuto.class).exists();
-
-      if (exists) {
-        log.info("CompanyAuto Index exists");
-        createCompanyData(elasticsearchOperations, elasticsearchClient, CompanyType.AUTO);
-      } else {
-        log.info("Index does not exist so creating index...");
-        final boolean successfullyCreated = createCompanyIndex(elasticsearchOperations, elasticsearchClient,
-            CompanyType.AUTO);
-        if (successfullyCreated) {
-          createCompanyData(elasticsearchOperations, elasticsearchClient, CompanyType.AUTO);
-        }
+  @Override
+  public ClientConfiguration clientConfiguration() {
+    final HttpMetricsInterceptor httpMetrics = new HttpMetricsInterceptor(elasticsearchMetrics);
+    final LatencyAwareNodeSelector latencySelector = nodeSelection == NodeSelection.LEAST_LATENCY
+        ? new LatencyAwareNodeSelector(nodeLatencyTolerance, nodeProbeInterval) : null;
+    if (latencySelector != null) {
+      for (String esUrl : esUrls) {
+        final HttpHost host = HttpHost.create(esUrl);
+        elasticsearchMetrics.bindNodeLatency(host.toHostString(), latencySelector,
+            selector -> selector.latencyNanos(host));
       }
-    };
-  }
-
-  private void createSettings(ElasticsearchClient elasticsearchClient) throws IOException {
-    File datafile = new ClassPathResource("static/index_settings.json").getFile();
-    final FileInputStream fileInputStream = new FileInputStream(datafile);
-
-    final CloseIndexResponse closeIndexResponse = elasticsearchClient.indices()
-        .close(builder -> builder.index(CompanyType.MANUAL.getIndexName()));
-    log.info("closed companymanual {}", closeIndexResponse.acknowledged());
-
-    final PutIndicesSettingsResponse putIndicesSettingsResponse = elasticsearchClient.indices()
-        .putSettings(builder -> builder.index(CompanyType.MANUAL.getIndexName()).withJson(fileInputStream));
-    log.info("settings result {}", putIndicesSettingsResponse.acknowledged());
+    }
 
-    final OpenResponse openResponse = elasticsearchClient.indices()
-        .open(builder -> builder.index(CompanyType.MANUAL.getIndexName()));
-    log.info("open companymanual {}", openResponse.acknowledged());
+    return ClientConfiguration.builder()
+        .connectedTo(esUrls)
+        .withConnectTimeout(connectTimeout)
+        .withSocketTimeout(socketTimeout)
+        .withClientConfigurer(ElasticsearchClients.ElasticsearchHttpClientConfigurationCallback.from(
+            httpClientBuilder -> {
+              httpClientBuilder
+                  .setConnectionManager(connectionManager())
+                  .setKeepAliveStrategy(keepAliveStrategy())
+                  .addInterceptorFirst((HttpRequestInterceptor) httpMetrics)
+                  .addInterceptorLast((HttpResponseInterceptor) httpMetrics)
+                  .addInterceptorLast((HttpRequestInterceptor) concurrencyLimiter)
+                  .addInterceptorFirst((HttpResponseInterceptor) concurrencyLimiter);
+              if (latencySelector != null) {
+                httpClientBuilder
+                    .addInterceptorFirst((HttpRequestInterceptor) latencySelector)
+                    .addInterceptorLast((HttpResponseInterceptor) latencySelector);
+              }
+              return httpClientBuilder;
+            }))
+        .withClientConfigurer(ElasticsearchClients.ElasticsearchRestClientConfigurationCallback.from(
+            restClientBuilder -> restClientBuilder
+                .setCompressionEnabled(compression)
+                .setNodeSelector(latencySelector != null ? latencySelector : NodeSelector.ANY)
+                .setFailureListener(new RestClient.FailureListener() {
+                  @Override
+                  public void onFailure(Node node) {
+                    log.warn("Elasticsearch node {} failed and is marked dead", node.getHost());
+                    elasticsearchMetrics.recordNodeFailure(node.getHost().toHostString());
+                  }
+                })))
+        .build();
   }
 
-  private boolean createCompanyIndex(ElasticsearchOperations elasticsearchOperations,
-      ElasticsearchClient elasticsearchClient, CompanyType type)
-      throws IOException {
-
-    final boolean created = elasticsearchOperations.indexOps(IndexCoordinates.of(type.getIndexName())).create();
-    if (created) {
-      log.info("Successfully created {} index", type.getIndexName());
-    } else {
-      log.info("failed to create {} index", type.getIndexName());
+  /**
+   * The client's own pool so its size can be set and its usage metered, the rest client's defaults would otherwise
+   * be 10 connections per node and 30 in total
+   */
+  private PoolingNHttpClientConnectionManager connectionManager() {
+    final IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+        .setConnectTimeout((int) connectTimeout.toMillis())
+        .setSoTimeout((int) socketTimeout.toMillis())
+        .setSoKeepAlive(true)
+        .build();
+    try {
+      final PoolingNHttpClientConnectionManager connectionManager =
+          new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioReactorConfig));
+      connectionManager.setMaxTotal(poolMaxTotal);
+      connectionManager.setDefaultMaxPerRoute(poolMaxPerRoute);
+      elasticsearchMetrics.bindConnectionPool(connectionManager);
+      return connectionManager;
+    } catch (IOReactorException e) {
+      throw new IllegalStateException("Failed to create the elasticsearch connection pool", e);
     }
-    return created;
   }
 
-  private void createManualMapping(ElasticsearchClient elasticsearchClient) throws IOException {
-    log.info("Creating mapping for manual index");
-    final PutMappingRequest mappingRequest = PutMappingRequest.of(
-        builder -> {
-          builder.index(CompanyType.MANUAL.getIndexName());
-          Map<String, Property> propertyMap = new HashMap<>();
-
-          propertyMap.put("id", new Property(KeywordProperty.of(builder1 -> builder1)));
-          propertyMap.put("name", new Property(KeywordProperty.of(builder1 -> {
-            Map<String, Property> fields = new HashMap<>();
-            fields.put("search", new Property(TextProperty.of(
-              builder2 -> builder2.analyzer("autocomplete_index").searchAnalyzer("autocomplete_search"))));
-
-            builder1.fields(fields);
-            return builder1;
-          })));
-          propertyMap.put("telephone", new Property(KeywordProperty.of(builder1 -> builder1)));
-          propertyMap.put("address", new Property(TextProperty.of(builder1 -> builder1)));
-          propertyMap.put("dateOfIncorporation",
-              new Property(DateProperty.of(builder1 -> builder1.format("date_optional_time||epoch_millis"))));
-          propertyMap.put("services", new Property(KeywordProperty.of(builder1 -> builder1)));
-          propertyMap.put("owner", new Property(NestedProperty.of(builder1 -> builder1)));
-          propertyMap.put("status", new Property(KeywordProperty.of(builder1 -> builder1)));
-          builder.properties(propertyMap);
-
-          return builder;
-        });
-    elasticsearchClient.indices().putMapping(mappingRequest);
+  /**
+   * Idle connections are reused for at most keepAlive (or less if ES says so) so they're closed before anything in
+   * between drops them
+   */
+  private ConnectionKeepAliveStrategy keepAliveStrategy() {
+    return (response, context) -> {
+      final long server = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+      return server > 0 ? Math.min(server, keepAlive.toMillis()) : keepAlive.toMillis();
+    };
   }
 
-  private void createCompanyData(ElasticsearchOperations elasticsearchOperations,
-      ElasticsearchClient elasticsearchClient, CompanyType type) throws IOException {
-
-    final Builder builder = new Builder();
-    final CountRequest companyAutoCount = builder.index(List.of(type.getIndexName())).build();
-    final CountResponse count = elasticsearchClient.count(companyAutoCount);
-
-    if (count.count() == 0 || forceCreate) {
-
-      try {
-        File datafile = new ClassPathResource("static/MOCK_DATA.json").getFile();
-        final FileInputStream fileInputStream = new FileInputStream(datafile);
-        JsonMapper jsonMapper = new JsonMapper();
-        jsonMapper.registerModule(new JavaTimeModule());
-        List<IndexQuery> bulkDocs = new ArrayList<>();
-        if (type.getClazz() == CompanyAuto.class) {
-          final List<CompanyAuto> companyAutos = jsonMapper.readValue(fileInputStream,
-              new TypeReference<List<CompanyAuto>>() {
-              });
-          for (CompanyAuto company : companyAutos) {
-            IndexQuery iq = new IndexQuery();
-            iq.setId(company.id());
-            iq.setObject(company);
-            iq.setOpType(OpType.CREATE);
-            bulkDocs.add(iq);
-          }
-        } else {
-          final List<CompanyManual> companyManuals = jsonMapper.readValue(fileInputStream,
-              new TypeReference<List<CompanyManual>>() {
-              });
-          for (CompanyManual company : companyManuals) {
-            IndexQuery iq = new IndexQuery();
-            iq.setId(company.id());
-            iq.setObject(company);
-            iq.setOpType(OpType.CREATE);
-            bulkDocs.add(iq);
-          }
-        }
-
-        elasticsearchOperations.bulkIndex(bulkDocs, IndexCoordinates.of(type.getIndexName()));
-      } catch (BulkFailureException e) {
-        log.error("blah", e);
-        final Map<String, String> failedDocuments = e.getFailedDocuments();
+  /**
+   * Wraps the transport so every client call, including the ones made by spring data, is admitted by the concurrency
+   * limit (see {@link LimitingTransport}), timed, and reads are hedged and given deadlines (see
+   * {@link HedgingTransport}). The timing is outside the hedging so it's what callers see, the limit is outside both
+   * so calls it turns away never reach the client metrics
+   */
+  @Bean
+  @Override
+  public ElasticsearchClient elasticsearchClient(RestClient restClient) {
+    final ElasticsearchClient client = super.elasticsearchClient(restClient);
+    return new ElasticsearchClient(new LimitingTransport(new InstrumentedTransport(
+        new HedgingTransport(client._transport(), hedgingPolicy, elasticsearchMetrics), elasticsearchMetrics),
+        concurrencyLimiter), client._transportOptions());
+  }
 
+  /**
+   * Index creation and the seed data load run in the background, see {@link IndexBootstrapper#status()} for progress.
+   * A training run doesn't touch the indices, it may not have an ES to talk to
+   */
+  @Bean
+  public CommandLineRunner bootstrapIndices(IndexBootstrapper indexBootstrapper, TrainingRun trainingRun) {
+    return (args) -> {
+      if (trainingRun.isTraining()) {
+        log.info("Training run, not bootstrapping the indices");
+        return;
       }
-
-    } else {
-      log.info("NOT Creating data for CompanyAuto as theres data init'ed already");
-    }
-
+      indexBootstrapper.start();
+    };
   }
 
 }
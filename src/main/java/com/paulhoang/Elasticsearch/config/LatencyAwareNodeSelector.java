@@ -0,0 +1,113 @@
+package com.paulhoang.Elasticsearch.config;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
+
+/**
+ * Sends requests to the nodes that have been answering fastest. Also registered as http interceptors so it can keep
+ * an exponentially weighted moving average of every node's latency, nodes that are more than {@code tolerance} times
+ * slower than the fastest one (and by more than a couple of milliseconds, so noise between nodes that are equally
+ * quick doesn't send everything to one of them) are left out and the rest client round robins over what's left. A
+ * node without a recent sample (new, or left out for longer than the probe interval) is always kept so it gets
+ * measured again, and the rest client has already skipped nodes it has marked dead
+ */
+public class LatencyAwareNodeSelector implements NodeSelector, HttpRequestInterceptor, HttpResponseInterceptor {
+
+  private static final String START = LatencyAwareNodeSelector.class.getName() + ".start";
+  private static final double WEIGHT = 0.2;
+  private static final double MIN_SPREAD_NANOS = Duration.ofMillis(2).toNanos();
+
+  private record Latency(double nanos, long sampledAt) {
+
+  }
+
+  private final double tolerance;
+  private final long probeIntervalNanos;
+  private final LongSupplier nanoTime;
+  private final Map<HttpHost, Latency> latencies = new ConcurrentHashMap<>();
+
+  public LatencyAwareNodeSelector(double tolerance, Duration probeInterval) {
+    this(tolerance, probeInterval, System::nanoTime);
+  }
+
+  LatencyAwareNodeSelector(double tolerance, Duration probeInterval, LongSupplier nanoTime) {
+    this.tolerance = tolerance;
+    this.probeIntervalNanos = probeInterval.toNanos();
+    this.nanoTime = nanoTime;
+  }
+
+  @Override
+  public void select(Iterable<Node> nodes) {
+    final long now = nanoTime.getAsLong();
+    double fastest = Double.MAX_VALUE;
+    for (Node node : nodes) {
+      final Latency latency = recent(node, now);
+      if (latency != null) {
+        fastest = Math.min(fastest, latency.nanos());
+      }
+    }
+    if (fastest == Double.MAX_VALUE) {
+      return;
+    }
+    final double cutoff = Math.max(fastest * tolerance, fastest + MIN_SPREAD_NANOS);
+    for (Iterator<Node> iterator = nodes.iterator(); iterator.hasNext(); ) {
+      final Latency latency = recent(iterator.next(), now);
+      if (latency != null && latency.nanos() > cutoff) {
+        iterator.remove();
+      }
+    }
+  }
+
+  @Override
+  public void process(HttpRequest request, HttpContext context) {
+    context.setAttribute(START, nanoTime.getAsLong());
+  }
+
+  @Override
+  public void process(HttpResponse response, HttpContext context) {
+    final HttpHost host = HttpCoreContext.adapt(context).getTargetHost();
+    if (host == null || !(context.getAttribute(START) instanceof Long start)) {
+      return;
+    }
+    final long now = nanoTime.getAsLong();
+    final double sample = now - start;
+    // a node coming back from being left out starts again from its latest sample, otherwise one slow outlier would
+    // take many probes to average away
+    latencies.merge(host, new Latency(sample, now), (previous, latest) -> {
+      if (latest.sampledAt() - previous.sampledAt() > probeIntervalNanos) {
+        return latest;
+      }
+      return new Latency(previous.nanos() + WEIGHT * (latest.nanos() - previous.nanos()), latest.sampledAt());
+    });
+  }
+
+  /**
+   * @return the node's average latency in nanoseconds, NaN until it has been sampled
+   */
+  public double latencyNanos(HttpHost host) {
+    final Latency latency = latencies.get(host);
+    return latency == null ? Double.NaN : latency.nanos();
+  }
+
+  @Override
+  public String toString() {
+    return "LATENCY_AWARE";
+  }
+
+  private Latency recent(Node node, long now) {
+    final Latency latency = latencies.get(node.getHost());
+    return latency == null || now - latency.sampledAt() > probeIntervalNanos ? null : latency;
+  }
+}
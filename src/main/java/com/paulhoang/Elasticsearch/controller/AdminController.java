@@ -0,0 +1,91 @@
+package com.paulhoang.Elasticsearch.controller;
+
+import com.paulhoang.Elasticsearch.bootstrap.IndexBootstrapper;
+import com.paulhoang.Elasticsearch.bootstrap.IndexBootstrapper.Status;
+import com.paulhoang.Elasticsearch.bootstrap.IndexVersions;
+import com.paulhoang.Elasticsearch.bootstrap.Reindexer;
+import com.paulhoang.Elasticsearch.bootstrap.Reindexer.ReindexResult;
+import com.paulhoang.Elasticsearch.cache.CacheStatistics;
+import com.paulhoang.Elasticsearch.cache.DocumentCache;
+import com.paulhoang.Elasticsearch.cache.SearchResultCache;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import com.paulhoang.Elasticsearch.search.NameQueryPlanner;
+import com.paulhoang.Elasticsearch.search.NameQueryProfile;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/admin")
+@RequiredArgsConstructor
+public class AdminController {
+
+  public record IndexVersionsView(String current, List<String> versions) {
+
+  }
+
+  private final IndexBootstrapper indexBootstrapper;
+  private final IndexVersions indexVersions;
+  private final Reindexer reindexer;
+  private final List<DocumentCache<?>> documentCaches;
+  private final List<SearchResultCache<?>> searchResultCaches;
+  private final NameQueryPlanner nameQueryPlanner;
+
+  @GetMapping("/bootstrap")
+  public ResponseEntity<Status> bootstrapStatus() {
+    return ResponseEntity.ok(indexBootstrapper.status());
+  }
+
+  @GetMapping("/caches")
+  public ResponseEntity<Map<String, CacheStatistics>> cacheStats() {
+    final Map<String, CacheStatistics> stats = new TreeMap<>();
+    documentCaches.forEach(cache -> stats.put(cache.getName(), cache.stats()));
+    searchResultCaches.forEach(cache -> stats.put(cache.getName(), cache.stats()));
+    return ResponseEntity.ok(stats);
+  }
+
+  /**
+   * The ES profiles of the last sampled name queries, see search.name.profileRate
+   */
+  @GetMapping("/profiles/name")
+  public ResponseEntity<List<NameQueryProfile>> nameQueryProfiles() {
+    return ResponseEntity.ok(nameQueryPlanner.profiles());
+  }
+
+  @GetMapping("/indices/{type}")
+  public ResponseEntity<IndexVersionsView> indexVersions(@PathVariable CompanyType type) throws IOException {
+    return ResponseEntity.ok(new IndexVersionsView(indexVersions.current(type).orElse(null),
+        indexVersions.versions(type)));
+  }
+
+  /**
+   * Blocks until the new version has been loaded and swapped in, a 500 with the load's failures if ES rejected any of
+   * it and the alias was left where it was
+   */
+  @PostMapping("/indices/{type}/reindex")
+  public ResponseEntity<ReindexResult> reindex(@PathVariable CompanyType type) throws IOException {
+    final ReindexResult result = reindexer.reindex(EnumSet.of(type)).get(type);
+    if (!result.promoted()) {
+      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(result);
+    }
+    return ResponseEntity.ok(result);
+  }
+
+  @PostMapping("/indices/{type}/rollback")
+  public ResponseEntity<IndexVersionsView> rollback(@PathVariable CompanyType type) throws IOException {
+    if (reindexer.rollback(type).isEmpty()) {
+      return ResponseEntity.status(HttpStatus.CONFLICT).build();
+    }
+    return indexVersions(type);
+  }
+}
@@ -1,9 +1,28 @@
 package com.paulhoang.Elasticsearch.controller;
 
+import com.paulhoang.Elasticsearch.autocomplete.AutocompleteEngine;
+import com.paulhoang.Elasticsearch.autocomplete.Suggestion;
+import com.paulhoang.Elasticsearch.cache.SearchResultCache;
+import com.paulhoang.Elasticsearch.cache.SearchResultCache.TermNormalization;
+import com.paulhoang.Elasticsearch.config.CompanyType;
 import com.paulhoang.Elasticsearch.entity.CompanyAuto;
+import com.paulhoang.Elasticsearch.entity.Status;
+import com.paulhoang.Elasticsearch.execution.RequestExecutor;
+import com.paulhoang.Elasticsearch.facet.FacetFilter;
+import com.paulhoang.Elasticsearch.facet.FacetSearcher;
+import com.paulhoang.Elasticsearch.facet.FacetedSearchResult;
+import com.paulhoang.Elasticsearch.ingest.GroupCommitWriter;
+import com.paulhoang.Elasticsearch.ingest.RefreshPolicy;
+import com.paulhoang.Elasticsearch.ingest.WriteResult;
+import com.paulhoang.Elasticsearch.projection.CompanyView;
+import com.paulhoang.Elasticsearch.projection.Projection;
 import com.paulhoang.Elasticsearch.repository.CompanyAutoRepository;
+import com.paulhoang.Elasticsearch.search.CursorPage;
+import com.paulhoang.Elasticsearch.service.CompanyAutoService;
+import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
@@ -11,63 +30,143 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.elasticsearch.client.elc.ElasticsearchTemplate;
 import org.springframework.data.elasticsearch.core.SearchHit;
 import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
 import org.springframework.data.elasticsearch.core.query.Criteria;
 import org.springframework.data.elasticsearch.core.query.CriteriaQuery;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/company/auto")
 @RequiredArgsConstructor
 public class CompanyAutoController {
 
+  private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
   private final CompanyAutoRepository companyRepository;
+  private final CompanyAutoService companyAutoService;
+  private final SearchResultCache<CompanyAuto> companyAutoSearchCache;
   private final ElasticsearchTemplate elasticsearchTemplate;
+  private final AutocompleteEngine autocompleteEngine;
+  private final FacetSearcher facetSearcher;
+  private final GroupCommitWriter groupCommitWriter;
+  private final RequestExecutor requestExecutor;
 
   @GetMapping("/{id}")
-  public ResponseEntity<CompanyAuto> getCompany(@PathVariable String id) {
-    final Optional<CompanyAuto> optionalCompany = companyRepository.findById(id);
-    return ResponseEntity.of(optionalCompany);
+  public CompletableFuture<ResponseEntity<CompanyAuto>> getCompany(@PathVariable String id) {
+    return requestExecutor.execute(() -> companyAutoService.getCompanyById(id),
+        () -> companyAutoService.getCompanyByIdAsync(id)).thenApply(ResponseEntity::of);
   }
 
-  @GetMapping("/search/{term}")
-  public ResponseEntity<List<CompanyAuto>> search(@PathVariable String term) {
-    final CriteriaQuery criteriaQuery = CriteriaQuery.builder(Criteria.where("address").contains(term))
-        .build();
+  /**
+   * Writes are grouped into bulk requests, refresh is none (the default), wait_for or immediate
+   */
+  @PostMapping
+  public CompletableFuture<ResponseEntity<WriteResult>> createCompany(@RequestBody CompanyAuto company,
+      @RequestParam(required = false) String refresh) {
+    return groupCommitWriter.create(CompanyType.AUTO, company, RefreshPolicy.parse(refresh))
+        .thenApply(result -> ResponseEntity.status(HttpStatus.CREATED).body(result));
+  }
 
-    final SearchHits<CompanyAuto> searchResult = elasticsearchTemplate.search(criteriaQuery,
-        CompanyAuto.class);
-    return ResponseEntity.of(
-        Optional.of(searchResult.getSearchHits().stream().map(SearchHit::getContent).collect(
-            Collectors.toList())));
+  @PutMapping("/{id}")
+  public CompletableFuture<ResponseEntity<WriteResult>> updateCompany(@PathVariable String id,
+      @RequestBody CompanyAuto company, @RequestParam(required = false) String refresh) {
+    if (!id.equals(company.id())) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The id in the body has to match the path");
+    }
+    return groupCommitWriter.update(CompanyType.AUTO, company, RefreshPolicy.parse(refresh))
+        .thenApply(ResponseEntity::ok);
   }
 
+  @DeleteMapping("/{id}")
+  public CompletableFuture<ResponseEntity<WriteResult>> deleteCompany(@PathVariable String id,
+      @RequestParam(required = false) String refresh) {
+    return groupCommitWriter.delete(CompanyType.AUTO, id, RefreshPolicy.parse(refresh))
+        .thenApply(ResponseEntity::ok);
+  }
+
+  @GetMapping("/batch")
+  public ResponseEntity<List<CompanyAuto>> getCompanies(@RequestParam List<String> ids) {
+    return ResponseEntity.ok(companyAutoService.getCompaniesByIds(ids));
+  }
+
+  @GetMapping("/search/{term}")
+  public CompletableFuture<ResponseEntity<List<CompanyAuto>>> search(@PathVariable String term) {
+    return requestExecutor.execute(
+        () -> companyAutoSearchCache.get("address", TermNormalization.TEXT, term,
+            () -> searchEntities(Criteria.where("address").contains(term))),
+        () -> companyAutoSearchCache.getAsync("address", TermNormalization.TEXT, term,
+            () -> companyAutoService.searchByAddressAsync(term))).thenApply(ResponseEntity::ok);
+  }
+
+
 
   @GetMapping("/autocomplete/search/{term}")
-  public ResponseEntity<List<CompanyAuto>> autocompleteSearch(@PathVariable String term) {
-    final CriteriaQuery criteriaQuery = CriteriaQuery.builder(Criteria.where("name.search").is(term))
-        .build();
+  public CompletableFuture<ResponseEntity<List<CompanyAuto>>> autocompleteSearch(@PathVariable String term) {
+    return requestExecutor.execute(
+        () -> companyAutoSearchCache.get("name", TermNormalization.NAME, term,
+            () -> searchEntities(Criteria.where("name.search").is(term))),
+        () -> companyAutoSearchCache.getAsync("name", TermNormalization.NAME, term,
+            () -> companyAutoService.searchByNameAsync(term))).thenApply(ResponseEntity::ok);
+  }
 
-    final SearchHits<CompanyAuto> searchResult = elasticsearchTemplate.search(criteriaQuery,
-        CompanyAuto.class);
-    return ResponseEntity.of(
-        Optional.of(searchResult.getSearchHits().stream().map(SearchHit::getContent).collect(
-            Collectors.toList())));
+
+  @GetMapping("/autocomplete/suggest/{term}")
+  public ResponseEntity<List<Suggestion>> autocompleteSuggest(@PathVariable String term,
+      @RequestParam(defaultValue = "10") int size) throws IOException {
+    return ResponseEntity.ok(autocompleteEngine.suggest(CompanyType.AUTO, term, Math.min(size, 100)));
+  }
+
+  /**
+   * Hits with facet counts, without any filters the counts come from the in memory rollup
+   */
+  @GetMapping("/facets")
+  public ResponseEntity<FacetedSearchResult> facets(@RequestParam(required = false) String q,
+      @RequestParam(required = false) List<String> services, @RequestParam(required = false) Status status,
+      @RequestParam(defaultValue = "10") int size, @RequestParam(defaultValue = "10") int facetSize)
+      throws IOException {
+    return ResponseEntity.ok(facetSearcher.search(CompanyType.AUTO, new FacetFilter(q, services, status),
+        Math.min(size, 100), Math.min(facetSize, 100)));
   }
 
   @GetMapping("/autocomplete/fuzzy/search/{term}")
-  public ResponseEntity<List<CompanyAuto>> autocompleteFuzzySearch(@PathVariable String term) {
-    final CriteriaQuery criteriaQuery = CriteriaQuery.builder(Criteria.where("name.search").fuzzy(term))
-        .build();
+  public CompletableFuture<ResponseEntity<List<CompanyAuto>>> autocompleteFuzzySearch(@PathVariable String term) {
+    return requestExecutor.execute(
+        () -> companyAutoSearchCache.get("fuzzy", TermNormalization.NONE, term,
+            () -> companyAutoService.searchByNameFuzzy(term)),
+        () -> companyAutoSearchCache.getAsync("fuzzy", TermNormalization.NONE, term,
+            () -> companyAutoService.searchByNameFuzzyAsync(term))).thenApply(ResponseEntity::ok);
+  }
 
-    final SearchHits<CompanyAuto> searchResult = elasticsearchTemplate.search(criteriaQuery,
-        CompanyAuto.class);
-    return ResponseEntity.of(
-        Optional.of(searchResult.getSearchHits().stream().map(SearchHit::getContent).collect(
-            Collectors.toList())));
+
+  @GetMapping(value = "/search/{term}", params = "fields")
+  public ResponseEntity<List<CompanyView>> search(@PathVariable String term, @RequestParam String fields) {
+    return ResponseEntity.ok(searchProjected(Criteria.where("address").contains(term), Projection.parse(fields)));
+  }
+
+  @GetMapping(value = "/autocomplete/search/{term}", params = "fields")
+  public ResponseEntity<List<CompanyView>> autocompleteSearch(@PathVariable String term,
+      @RequestParam String fields) {
+    return ResponseEntity.ok(searchProjected(Criteria.where("name.search").is(term), Projection.parse(fields)));
+  }
+
+  @GetMapping(value = "/autocomplete/fuzzy/search/{term}", params = "fields")
+  public ResponseEntity<List<CompanyView>> autocompleteFuzzySearch(@PathVariable String term,
+      @RequestParam String fields) throws IOException {
+    return ResponseEntity.ok(companyAutoService.searchByNameFuzzy(term, Projection.parse(fields)));
   }
 
   @GetMapping("/search/telephone/{term}")
@@ -81,8 +180,57 @@ public class CompanyAutoController {
   @GetMapping("/search/owner/{term}")
   public ResponseEntity<Page<CompanyAuto>> ownerSearch(@PathVariable String term, Pageable pageable) {
 
-    final Page<CompanyAuto> companies = companyRepository.findAllByOwner(term, pageable);
+    final Page<CompanyAuto> companies = companyRepository.findAllByOwnerName(term, pageable);
 
     return ResponseEntity.ok(companies);
   }
+
+  @GetMapping("/search/owner/{name}/cursor")
+  public ResponseEntity<CursorPage<CompanyView>> ownerSearchWithCursor(@PathVariable String name,
+      @RequestParam(required = false) Integer minAge, @RequestParam(required = false) Integer maxAge,
+      @RequestParam(defaultValue = "20") int size, @RequestParam(required = false) String cursor,
+      @RequestParam(required = false) String fields) throws IOException {
+    final Projection projection = fields == null ? null : Projection.parse(fields);
+    return ResponseEntity.ok(
+        companyAutoService.searchByOwner(name, minAge, maxAge, projection, Math.min(size, 1000), cursor));
+  }
+
+  @GetMapping("/search/{term}/cursor")
+  public ResponseEntity<CursorPage<CompanyView>> searchWithCursor(@PathVariable String term,
+      @RequestParam(defaultValue = "20") int size, @RequestParam(required = false) String cursor,
+      @RequestParam(required = false) String fields) throws IOException {
+    final Projection projection = fields == null ? null : Projection.parse(fields);
+    return ResponseEntity.ok(companyAutoService.searchByAddress(term, projection, Math.min(size, 1000), cursor));
+  }
+
+  @GetMapping("/export/search/{term}")
+  public ResponseEntity<StreamingResponseBody> exportSearch(@PathVariable String term,
+      @RequestParam(required = false) String fields) {
+    final Projection projection = fields == null ? null : Projection.parse(fields);
+    return ResponseEntity.ok()
+        .contentType(NDJSON)
+        .body(outputStream -> companyAutoService.exportByAddress(term, projection, outputStream));
+  }
+
+  private List<CompanyAuto> searchEntities(Criteria criteria) {
+    final CriteriaQuery criteriaQuery = CriteriaQuery.builder(criteria)
+        .build();
+
+    final SearchHits<CompanyAuto> searchResult = elasticsearchTemplate.search(criteriaQuery,
+        CompanyAuto.class);
+    return searchResult.getSearchHits().stream().map(SearchHit::getContent).collect(Collectors.toList());
+  }
+
+  /**
+   * Only fetches the projected fields from ES and maps the hits straight to the slim view rather than the entity
+   */
+  private List<CompanyView> searchProjected(Criteria criteria, Projection projection) {
+    final CriteriaQuery criteriaQuery = CriteriaQuery.builder(criteria)
+        .withSourceFilter(new FetchSourceFilter(projection.includes(), null))
+        .build();
+
+    final SearchHits<CompanyView> searchResult = elasticsearchTemplate.search(criteriaQuery, CompanyView.class,
+        IndexCoordinates.of(CompanyType.AUTO.getIndexName()));
+    return searchResult.getSearchHits().stream().map(SearchHit::getContent).collect(Collectors.toList());
+  }
 }
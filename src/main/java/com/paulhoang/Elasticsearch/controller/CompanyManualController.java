@@ -10,52 +10,204 @@ import co.elastic.clients.elasticsearch.core.SearchRequest;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
 import co.elastic.clients.elasticsearch.core.search.Hit;
 import co.elastic.clients.elasticsearch.core.search.HitsMetadata;
+import com.paulhoang.Elasticsearch.autocomplete.AutocompleteEngine;
+import com.paulhoang.Elasticsearch.autocomplete.Suggestion;
+import com.paulhoang.Elasticsearch.config.CompanyType;
 import com.paulhoang.Elasticsearch.entity.CompanyAuto;
 import com.paulhoang.Elasticsearch.entity.CompanyManual;
+import com.paulhoang.Elasticsearch.entity.Status;
+import com.paulhoang.Elasticsearch.execution.RequestExecutor;
+import com.paulhoang.Elasticsearch.facet.FacetFilter;
+import com.paulhoang.Elasticsearch.facet.FacetSearcher;
+import com.paulhoang.Elasticsearch.facet.FacetedSearchResult;
+import com.paulhoang.Elasticsearch.ingest.GroupCommitWriter;
+import com.paulhoang.Elasticsearch.ingest.RefreshPolicy;
+import com.paulhoang.Elasticsearch.ingest.WriteResult;
+import com.paulhoang.Elasticsearch.projection.CompanyView;
+import com.paulhoang.Elasticsearch.projection.Projection;
+import com.paulhoang.Elasticsearch.search.CursorPage;
 import com.paulhoang.Elasticsearch.service.CompanyManualService;
 import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.elasticsearch.core.SearchHit;
 import org.springframework.data.elasticsearch.core.SearchHits;
 import org.springframework.data.elasticsearch.core.query.Criteria;
 import org.springframework.data.elasticsearch.core.query.CriteriaQuery;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/company/manual")
 @RequiredArgsConstructor
 public class CompanyManualController {
 
+  private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
   private final CompanyManualService companyManualService;
+  private final AutocompleteEngine autocompleteEngine;
+  private final FacetSearcher facetSearcher;
+  private final GroupCommitWriter groupCommitWriter;
+  private final RequestExecutor requestExecutor;
 
 
   @GetMapping("/{id}")
-  public ResponseEntity<CompanyManual> getCompany(@PathVariable String id) throws IOException {
-    return ResponseEntity.of(companyManualService.getCompanyById(id));
+  public CompletableFuture<ResponseEntity<CompanyManual>> getCompany(@PathVariable String id) {
+    return requestExecutor.execute(() -> companyManualService.getCompanyById(id),
+        () -> companyManualService.getCompanyByIdAsync(id)).thenApply(ResponseEntity::of);
+  }
+
+  /**
+   * Writes are grouped into bulk requests, refresh is none (the default), wait_for or immediate
+   */
+  @PostMapping
+  public CompletableFuture<ResponseEntity<WriteResult>> createCompany(@RequestBody CompanyManual company,
+      @RequestParam(required = false) String refresh) {
+    return groupCommitWriter.create(CompanyType.MANUAL, company, RefreshPolicy.parse(refresh))
+        .thenApply(result -> ResponseEntity.status(HttpStatus.CREATED).body(result));
+  }
+
+  @PutMapping("/{id}")
+  public CompletableFuture<ResponseEntity<WriteResult>> updateCompany(@PathVariable String id,
+      @RequestBody CompanyManual company, @RequestParam(required = false) String refresh) {
+    if (!id.equals(company.id())) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The id in the body has to match the path");
+    }
+    return groupCommitWriter.update(CompanyType.MANUAL, company, RefreshPolicy.parse(refresh))
+        .thenApply(ResponseEntity::ok);
+  }
+
+  @DeleteMapping("/{id}")
+  public CompletableFuture<ResponseEntity<WriteResult>> deleteCompany(@PathVariable String id,
+      @RequestParam(required = false) String refresh) {
+    return groupCommitWriter.delete(CompanyType.MANUAL, id, RefreshPolicy.parse(refresh))
+        .thenApply(ResponseEntity::ok);
+  }
+
+  @GetMapping("/batch")
+  public ResponseEntity<List<CompanyManual>> getCompanies(@RequestParam List<String> ids) throws IOException {
+    return ResponseEntity.ok(companyManualService.getCompaniesByIds(ids));
   }
 
   @GetMapping("/search/{term}")
-  public ResponseEntity<List<CompanyManual>> search(@PathVariable String term) throws IOException {
-    final List<CompanyManual> foundByAddress = companyManualService.findByAddress(term);
-    return ResponseEntity.ok(foundByAddress);
+  public CompletableFuture<ResponseEntity<List<CompanyManual>>> search(@PathVariable String term) {
+    return requestExecutor.execute(() -> companyManualService.findByAddress(term),
+        () -> companyManualService.findByAddressAsync(term)).thenApply(ResponseEntity::ok);
   }
 
   @GetMapping("/autocomplete/search/{term}")
-  public ResponseEntity<List<CompanyManual>> autocompleteSearch(@PathVariable String term) throws IOException {
-    final List<CompanyManual> foundCompanies = companyManualService.findByCompanyName(term);
-    return ResponseEntity.ok(foundCompanies);
+  public CompletableFuture<ResponseEntity<List<CompanyManual>>> autocompleteSearch(@PathVariable String term) {
+    return requestExecutor.execute(() -> companyManualService.findByCompanyName(term),
+        () -> companyManualService.findByCompanyNameAsync(term)).thenApply(ResponseEntity::ok);
+  }
+
+  @GetMapping("/autocomplete/suggest/{term}")
+  public ResponseEntity<List<Suggestion>> autocompleteSuggest(@PathVariable String term,
+      @RequestParam(defaultValue = "10") int size) throws IOException {
+    return ResponseEntity.ok(autocompleteEngine.suggest(CompanyType.MANUAL, term, Math.min(size, 100)));
+  }
+
+  /**
+   * Hits with facet counts, without any filters the counts come from the in memory rollup
+   */
+  @GetMapping("/facets")
+  public ResponseEntity<FacetedSearchResult> facets(@RequestParam(required = false) String q,
+      @RequestParam(required = false) List<String> services, @RequestParam(required = false) Status status,
+      @RequestParam(defaultValue = "10") int size, @RequestParam(defaultValue = "10") int facetSize)
+      throws IOException {
+    return ResponseEntity.ok(facetSearcher.search(CompanyType.MANUAL, new FacetFilter(q, services, status),
+        Math.min(size, 100), Math.min(facetSize, 100)));
   }
 
   @GetMapping("/autocomplete/fuzzy/search/{term}")
-  public ResponseEntity<List<CompanyManual>> autocompleteFuzzySearch(@PathVariable String term) throws IOException {
-    final List<CompanyManual> companies = companyManualService.findByCompanyNameFuzzy(term);
-    return ResponseEntity.ok(companies);
+  public CompletableFuture<ResponseEntity<List<CompanyManual>>> autocompleteFuzzySearch(@PathVariable String term) {
+    return requestExecutor.execute(() -> companyManualService.findByCompanyNameFuzzy(term),
+        () -> companyManualService.findByCompanyNameFuzzyAsync(term)).thenApply(ResponseEntity::ok);
+  }
+
+
+  @GetMapping(value = "/search/{term}", params = "fields")
+  public ResponseEntity<List<CompanyView>> search(@PathVariable String term, @RequestParam String fields)
+      throws IOException {
+    return ResponseEntity.ok(companyManualService.findByAddress(term, Projection.parse(fields)));
+  }
+
+  @GetMapping(value = "/autocomplete/search/{term}", params = "fields")
+  public ResponseEntity<List<CompanyView>> autocompleteSearch(@PathVariable String term, @RequestParam String fields)
+      throws IOException {
+    return ResponseEntity.ok(companyManualService.findByCompanyName(term, Projection.parse(fields)));
+  }
+
+  @GetMapping(value = "/autocomplete/fuzzy/search/{term}", params = "fields")
+  public ResponseEntity<List<CompanyView>> autocompleteFuzzySearch(@PathVariable String term,
+      @RequestParam String fields) throws IOException {
+    return ResponseEntity.ok(companyManualService.findByCompanyNameFuzzy(term, Projection.parse(fields)));
+  }
+
+  @GetMapping(value = "/{id}", params = "raw")
+  public ResponseEntity<byte[]> getRawCompany(@PathVariable String id) throws IOException {
+    return companyManualService.getRawCompanyById(id)
+        .map(source -> ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(source))
+        .orElseGet(() -> ResponseEntity.notFound().build());
+  }
+
+  @GetMapping(value = "/search/{term}", params = {"raw", "!fields"})
+  public ResponseEntity<byte[]> rawSearch(@PathVariable String term) throws IOException {
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+        .body(companyManualService.findRawByAddress(term));
+  }
+
+  @GetMapping(value = "/autocomplete/search/{term}", params = {"raw", "!fields"})
+  public ResponseEntity<byte[]> rawAutocompleteSearch(@PathVariable String term) throws IOException {
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+        .body(companyManualService.findRawByCompanyName(term));
+  }
+
+  @GetMapping(value = "/autocomplete/fuzzy/search/{term}", params = {"raw", "!fields"})
+  public ResponseEntity<byte[]> rawAutocompleteFuzzySearch(@PathVariable String term) throws IOException {
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+        .body(companyManualService.findRawByCompanyNameFuzzy(term));
+  }
+
+  @GetMapping("/search/owner/{name}/cursor")
+  public ResponseEntity<CursorPage<CompanyView>> ownerSearchWithCursor(@PathVariable String name,
+      @RequestParam(required = false) Integer minAge, @RequestParam(required = false) Integer maxAge,
+      @RequestParam(defaultValue = "20") int size, @RequestParam(required = false) String cursor,
+      @RequestParam(required = false) String fields) throws IOException {
+    final Projection projection = fields == null ? null : Projection.parse(fields);
+    return ResponseEntity.ok(
+        companyManualService.findByOwner(name, minAge, maxAge, projection, Math.min(size, 1000), cursor));
+  }
+
+  @GetMapping("/search/{term}/cursor")
+  public ResponseEntity<CursorPage<CompanyView>> searchWithCursor(@PathVariable String term,
+      @RequestParam(defaultValue = "20") int size, @RequestParam(required = false) String cursor,
+      @RequestParam(required = false) String fields) throws IOException {
+    final Projection projection = fields == null ? null : Projection.parse(fields);
+    return ResponseEntity.ok(companyManualService.findByAddress(term, projection, Math.min(size, 1000), cursor));
+  }
+
+  @GetMapping("/export/search/{term}")
+  public ResponseEntity<StreamingResponseBody> exportSearch(@PathVariable String term,
+      @RequestParam(required = false) String fields) {
+    final Projection projection = fields == null ? null : Projection.parse(fields);
+    return ResponseEntity.ok()
+        .contentType(NDJSON)
+        .body(outputStream -> companyManualService.exportByAddress(term, projection, outputStream));
   }
 }
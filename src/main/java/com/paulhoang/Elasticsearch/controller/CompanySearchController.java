@@ -0,0 +1,41 @@
+package com.paulhoang.Elasticsearch.controller;
+
+import com.paulhoang.Elasticsearch.execution.RequestExecutor;
+import com.paulhoang.Elasticsearch.search.FederatedSearchResult;
+import com.paulhoang.Elasticsearch.service.FederatedSearchService;
+import java.util.concurrent.CompletableFuture;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Searches across both company indices
+ */
+@RestController
+@RequestMapping("/company")
+@RequiredArgsConstructor
+public class CompanySearchController {
+
+  private final FederatedSearchService federatedSearchService;
+  private final RequestExecutor requestExecutor;
+
+  /**
+   * @param size at most 100 are returned
+   */
+  @GetMapping("/search/{term}")
+  public CompletableFuture<ResponseEntity<FederatedSearchResult>> search(@PathVariable String term,
+      @RequestParam(defaultValue = "10") int size) {
+    if (size < 1) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size has to be at least 1");
+    }
+    final int limit = Math.min(size, 100);
+    return requestExecutor.execute(() -> federatedSearchService.search(term, limit),
+        () -> federatedSearchService.searchAsync(term, limit)).thenApply(ResponseEntity::ok);
+  }
+}
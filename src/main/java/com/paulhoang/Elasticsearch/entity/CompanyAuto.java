@@ -15,9 +15,10 @@ import org.springframework.data.elasticsearch.annotations.Setting;
 
 /**
  * This entity tries to use as much features as possible from the ES dependency with auto index creation and mappings
- * (using the @Field annotation, multi fields and relationships)
+ * (using the @Field annotation, multi fields and relationships). The index is created from these annotations by the
+ * IndexBootstrapper in the background rather than by the repository at startup
  */
-@Document(indexName = "companyauto", createIndex = true, dynamic = Dynamic.TRUE)
+@Document(indexName = "companyauto", createIndex = false, dynamic = Dynamic.TRUE)
 @Setting(shards = 1, replicas = 1, settingPath = "static/index_settings.json")
 //@Mapping(mappingPath = "static") you can also use this to define the mapping of this doc instead of the annotations
 public record CompanyAuto(@Id
@@ -49,7 +50,7 @@ public record CompanyAuto(@Id
                           List<String> services,
 
                           @Field(type = FieldType.Nested)
-                          Owner owner, //todo build a relationship
+                          Owner owner,
 
                           @Field(type = FieldType.Keyword)
                           Status status
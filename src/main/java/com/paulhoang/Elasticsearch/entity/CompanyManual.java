@@ -22,7 +22,7 @@ public record CompanyManual(
     @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "MM/dd/yyyy", timezone = "GMT")
     Date dateOfIncorporation,
     List<String> services,
-    Owner owner, //todo build a relationship
+    Owner owner,
     Status status
 ) {
 
@@ -1,6 +1,24 @@
 package com.paulhoang.Elasticsearch.entity;
 
-//todo: build the reationship with company
-public record Owner(String name, Integer age) {
+import org.springframework.data.elasticsearch.annotations.Field;
+import org.springframework.data.elasticsearch.annotations.FieldType;
+import org.springframework.data.elasticsearch.annotations.InnerField;
+import org.springframework.data.elasticsearch.annotations.MultiField;
+
+/**
+ * Owners are denormalized into every company they own as a nested object. The name is a keyword so finding an
+ * owner's companies is a single term lookup inside a nested query (name.search is there for partial names) and age is
+ * an integer for range queries
+ */
+public record Owner(@MultiField(
+                        mainField = @Field(type = FieldType.Keyword),
+                        otherFields = {
+                            @InnerField(suffix = "search", type = FieldType.Text)
+                        }
+                    )
+                    String name,
+
+                    @Field(type = FieldType.Integer)
+                    Integer age) {
 
 }
@@ -0,0 +1,47 @@
+package com.paulhoang.Elasticsearch.event;
+
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * For in memory copies of an index that are warmed from a point in time scan and kept up to date from
+ * {@link IndexChangedEvent}s. The changes made while a type is warming are held back and applied once its scan is
+ * done, otherwise the scan's reset would throw them away or its older copy of a document would overwrite them
+ */
+public class IndexChangeBuffer {
+
+  private final Map<CompanyType, List<IndexChangedEvent>> held = new EnumMap<>(CompanyType.class);
+
+  /**
+   * Holds back the type's changes from now on, call before the scan's point in time is opened
+   */
+  public synchronized void hold(CompanyType type) {
+    held.put(type, new ArrayList<>());
+  }
+
+  /**
+   * Applies the change, or keeps it for later while its type is warming
+   */
+  public synchronized void apply(IndexChangedEvent event, Consumer<IndexChangedEvent> apply) {
+    final List<IndexChangedEvent> events = held.get(event.type());
+    if (events == null) {
+      apply.accept(event);
+    } else {
+      events.add(event);
+    }
+  }
+
+  /**
+   * Applies the changes held back, in the order they were made, and stops holding them back
+   */
+  public synchronized void release(CompanyType type, Consumer<IndexChangedEvent> apply) {
+    final List<IndexChangedEvent> events = held.remove(type);
+    if (events != null) {
+      events.forEach(apply);
+    }
+  }
+}
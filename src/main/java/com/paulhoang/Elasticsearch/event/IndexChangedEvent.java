@@ -0,0 +1,25 @@
+package com.paulhoang.Elasticsearch.event;
+
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Published whenever the app writes to one of the company indices. Documents holds the companies that were indexed
+ * and deletedIds the ids of companies that were removed
+ */
+public record IndexChangedEvent(CompanyType type, Collection<?> documents, Collection<String> deletedIds) {
+
+  public static IndexChangedEvent indexed(CompanyType type, Collection<?> documents) {
+    return new IndexChangedEvent(type, documents, List.of());
+  }
+
+  public static IndexChangedEvent deleted(CompanyType type, Collection<String> ids) {
+    return new IndexChangedEvent(type, List.of(), ids);
+  }
+
+  public List<String> ids() {
+    return Stream.concat(documents.stream().map(type::idOf), deletedIds.stream()).toList();
+  }
+}
@@ -0,0 +1,11 @@
+package com.paulhoang.Elasticsearch.event;
+
+import com.paulhoang.Elasticsearch.config.CompanyType;
+
+/**
+ * Published once the app's writes to one of the company indices that were sent without a refresh should have been
+ * made searchable by a scheduled refresh, so searches may match differently from when they were written
+ */
+public record IndexRefreshedEvent(CompanyType type) {
+
+}
@@ -0,0 +1,11 @@
+package com.paulhoang.Elasticsearch.event;
+
+import com.paulhoang.Elasticsearch.config.CompanyType;
+
+/**
+ * Published when the alias of a company index has been moved to another version (a reindex or a rollback), so
+ * everything read through the alias may now be different. previousIndex is null if there wasn't one
+ */
+public record IndexSwappedEvent(CompanyType type, String index, String previousIndex) {
+
+}
@@ -0,0 +1,8 @@
+package com.paulhoang.Elasticsearch.event;
+
+/**
+ * Published once the index bootstrap has finished and the company indices hold their data
+ */
+public record IndicesBootstrappedEvent() {
+
+}
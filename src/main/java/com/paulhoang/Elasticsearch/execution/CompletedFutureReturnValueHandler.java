@@ -0,0 +1,89 @@
+package com.paulhoang.Elasticsearch.execution;
+
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ResolvableType;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandlerComposite;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+/**
+ * Writes the response for a handler's future that is already complete on the request thread, as if the handler had
+ * returned the value itself, instead of starting async processing and dispatching the request a second time to write
+ * it. In blocking mode every future from {@link RequestExecutor} is complete by the time it is returned, as are cache
+ * hits in async mode. Futures still waiting on ES are passed on to the usual async handling
+ */
+final class CompletedFutureReturnValueHandler implements HandlerMethodReturnValueHandler {
+
+  private final HandlerMethodReturnValueHandlerComposite delegates;
+
+  /**
+   * @param delegates the handlers that would otherwise handle the return values, the future's value goes to them too
+   */
+  CompletedFutureReturnValueHandler(List<HandlerMethodReturnValueHandler> delegates) {
+    this.delegates = new HandlerMethodReturnValueHandlerComposite().addHandlers(delegates);
+  }
+
+  @Override
+  public boolean supportsReturnType(MethodParameter returnType) {
+    return CompletableFuture.class.isAssignableFrom(returnType.getParameterType());
+  }
+
+  @Override
+  public void handleReturnValue(Object returnValue, MethodParameter returnType, ModelAndViewContainer mavContainer,
+      NativeWebRequest webRequest) throws Exception {
+    if (!(returnValue instanceof CompletableFuture<?> future) || !future.isDone()) {
+      delegates.handleReturnValue(returnValue, returnType, mavContainer, webRequest);
+      return;
+    }
+    final Object value;
+    try {
+      value = future.join();
+    } catch (CompletionException e) {
+      // thrown as it is so the exception handlers see what the async dispatch would have shown them
+      if (e.getCause() instanceof Exception cause) {
+        throw cause;
+      }
+      throw e;
+    }
+    delegates.handleReturnValue(value, new CompletedValueParameter(returnType), mavContainer, webRequest);
+  }
+
+  /**
+   * The handler's return type with the future taken off, so {@code CompletableFuture<ResponseEntity<T>>} is handled
+   * as {@code ResponseEntity<T>}
+   */
+  private static final class CompletedValueParameter extends MethodParameter {
+
+    private final ResolvableType valueType;
+
+    CompletedValueParameter(MethodParameter futureType) {
+      super(futureType);
+      this.valueType = ResolvableType.forMethodParameter(futureType).getGeneric();
+    }
+
+    private CompletedValueParameter(CompletedValueParameter original) {
+      super(original);
+      this.valueType = original.valueType;
+    }
+
+    @Override
+    public Class<?> getParameterType() {
+      return valueType.toClass();
+    }
+
+    @Override
+    public Type getGenericParameterType() {
+      return valueType.getType();
+    }
+
+    @Override
+    public CompletedValueParameter clone() {
+      return new CompletedValueParameter(this);
+    }
+  }
+}
@@ -0,0 +1,204 @@
+package com.paulhoang.Elasticsearch.execution;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import com.paulhoang.Elasticsearch.metrics.ElasticsearchMetrics;
+import com.paulhoang.Elasticsearch.metrics.HttpMetricsInterceptor;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpStatus;
+import org.apache.http.protocol.HttpContext;
+import org.elasticsearch.client.ResponseException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Admission control in front of ES. At most es.limit requests are in flight at once, a limit that starts at
+ * es.limit.initial and moves between es.limit.min and es.limit.max with ES's latency (see {@link GradientLimit}). Each
+ * {@link RequestClass} only gets its share of the limit, and a request over it is turned away straight away with an
+ * {@link OverloadedException} rather than queued, so when ES slows down the app stops piling requests onto it, bulk
+ * loads and fuzzy searches are shed first and id lookups keep getting through.
+ * <p>
+ * The latencies the limit follows are measured as round trips on the wire: registered as an interceptor of the rest
+ * client's http client it times each exchange from the request being written to the response arriving, so time the app
+ * spends waiting for a connection or (de)serializing doesn't read as ES slowing down
+ */
+@Component
+public class ConcurrencyLimiter implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+  private static final String START = ConcurrencyLimiter.class.getName() + ".start";
+  private static final String IN_FLIGHT = ConcurrencyLimiter.class.getName() + ".inFlight";
+  private static final String ENDPOINT = ConcurrencyLimiter.class.getName() + ".endpoint";
+
+  /**
+   * A request let through, released once it has its response
+   */
+  public final class Permit {
+
+    private Permit() {
+    }
+
+    /**
+     * @param dropped whether ES rejected the request or it ran out of time, which brings the limit down
+     */
+    public void release(boolean dropped) {
+      inFlight.decrementAndGet();
+      if (dropped) {
+        limit.drop();
+      }
+    }
+  }
+
+  @FunctionalInterface
+  public interface Call<T, E extends Exception> {
+
+    T call() throws E;
+  }
+
+  private final boolean enabled;
+  private final GradientLimit limit;
+  private final Duration retryAfter;
+  private final ElasticsearchMetrics metrics;
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  public ConcurrencyLimiter(ElasticsearchMetrics metrics,
+      @Value("${es.limit.enabled:false}") boolean enabled,
+      @Value("${es.limit.initial:30}") int initialLimit,
+      @Value("${es.limit.min:10}") int minLimit,
+      @Value("${es.limit.max:60}") int maxLimit,
+      @Value("${es.limit.tolerance:3}") double tolerance,
+      @Value("${es.limit.smoothing:0.2}") double smoothing,
+      @Value("${es.limit.retryAfter:1s}") Duration retryAfter) {
+    this.metrics = metrics;
+    this.enabled = enabled;
+    this.limit = new GradientLimit(initialLimit, minLimit, maxLimit, tolerance, smoothing);
+    this.retryAfter = retryAfter;
+    if (enabled) {
+      metrics.bindConcurrencyLimit(this, ConcurrencyLimiter::limit, ConcurrencyLimiter::inFlight);
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public int limit() {
+    return limit.limit();
+  }
+
+  public int inFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * For background work (bootstrap, bulk loads) that would rather wait than be turned away: makes the call again
+   * after the Retry-After each time it's shed, up to maxAttempts times
+   */
+  public static <T, E extends Exception> T whenAdmitted(int maxAttempts, Call<T, E> call) throws E {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return call.call();
+      } catch (OverloadedException e) {
+        if (attempt >= maxAttempts) {
+          throw e;
+        }
+        try {
+          Thread.sleep(e.getRetryAfter().toMillis());
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * @throws OverloadedException when the class has used up its share of the limit
+   */
+  public Permit acquire(RequestClass requestClass) {
+    final int allowed = Math.max(1, (int) (limit.limit() * requestClass.share()));
+    while (true) {
+      final int current = inFlight.get();
+      if (current >= allowed) {
+        metrics.recordShed(requestClass.name().toLowerCase());
+        throw new OverloadedException(requestClass, retryAfter);
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return new Permit();
+      }
+    }
+  }
+
+  /**
+   * For requests made on the rest client directly, which {@link LimitingTransport} doesn't see: makes the call under a
+   * permit of its class
+   *
+   * @throws OverloadedException when the class has used up its share of the limit
+   */
+  public <T, E extends Exception> T limit(RequestClass requestClass, Call<T, E> call) throws E {
+    if (!enabled) {
+      return call.call();
+    }
+    final Permit permit = acquire(requestClass);
+    try {
+      final T result = call.call();
+      permit.release(false);
+      return result;
+    } catch (Exception e) {
+      permit.release(isOverload(e));
+      throw e;
+    }
+  }
+
+  /**
+   * ES turning a request away (429, 503) or it timing out (its socket timeout or its deadline, see
+   * {@link HedgingTransport}) is a sign of overload, any other failure isn't
+   */
+  static boolean isOverload(Throwable failure) {
+    final int status;
+    if (failure instanceof ElasticsearchException rejected) {
+      status = rejected.status();
+    } else if (failure instanceof ResponseException rejected) {
+      status = rejected.getResponse().getStatusLine().getStatusCode();
+    } else {
+      return failure instanceof ResponseStatusException timeout
+          && timeout.getStatusCode().value() == HttpStatus.SC_GATEWAY_TIMEOUT
+          || failure instanceof SocketTimeoutException;
+    }
+    return status == HttpStatus.SC_TOO_MANY_REQUESTS || status == HttpStatus.SC_SERVICE_UNAVAILABLE;
+  }
+
+  @Override
+  public void process(HttpRequest request, HttpContext context) {
+    if (enabled) {
+      context.setAttribute(START, System.nanoTime());
+      context.setAttribute(IN_FLIGHT, inFlight.get());
+      context.setAttribute(ENDPOINT, HttpMetricsInterceptor.endpointOf(request.getRequestLine().getUri()));
+    }
+  }
+
+  /**
+   * Rejections aren't timed, how quickly ES turns a request away says nothing about how quickly it serves one, they
+   * bring the limit down when the permit is released instead
+   */
+  @Override
+  public void process(HttpResponse response, HttpContext context) {
+    final int status = response.getStatusLine().getStatusCode();
+    if (context.getAttribute(START) instanceof Long start && context.getAttribute(IN_FLIGHT) instanceof Integer sentWith
+        && status != HttpStatus.SC_TOO_MANY_REQUESTS && status != HttpStatus.SC_SERVICE_UNAVAILABLE) {
+      recordRoundTrip((String) context.getAttribute(ENDPOINT), System.nanoTime() - start, sentWith);
+    }
+  }
+
+  /**
+   * @param inFlight how many requests were in flight when it was sent
+   */
+  void recordRoundTrip(String endpoint, long nanos, int inFlight) {
+    limit.update(endpoint, nanos, inFlight);
+  }
+}
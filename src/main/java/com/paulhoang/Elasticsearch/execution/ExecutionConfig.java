@@ -0,0 +1,43 @@
+package com.paulhoang.Elasticsearch.execution;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+@Configuration
+public class ExecutionConfig {
+
+  /**
+   * Shares the transport (and so the connection pool) of the blocking client
+   */
+  @Bean
+  public ElasticsearchAsyncClient elasticsearchAsyncClient(ElasticsearchClient elasticsearchClient) {
+    return new ElasticsearchAsyncClient(elasticsearchClient._transport(), elasticsearchClient._transportOptions());
+  }
+
+  /**
+   * Puts the {@link CompletedFutureReturnValueHandler} in front of the handler that starts async processing for
+   * futures, handlers added through WebMvcConfigurer only get the return values no built in handler takes
+   */
+  @Bean
+  public static BeanPostProcessor completedFutureReturnValues() {
+    return new BeanPostProcessor() {
+      @Override
+      public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof RequestMappingHandlerAdapter adapter) {
+          final List<HandlerMethodReturnValueHandler> handlers = new ArrayList<>();
+          handlers.add(new CompletedFutureReturnValueHandler(adapter.getReturnValueHandlers()));
+          handlers.addAll(adapter.getReturnValueHandlers());
+          adapter.setReturnValueHandlers(handlers);
+        }
+        return bean;
+      }
+    };
+  }
+}
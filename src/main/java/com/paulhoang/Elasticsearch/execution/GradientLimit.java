@@ -0,0 +1,69 @@
+package com.paulhoang.Elasticsearch.execution;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A concurrency limit that follows ES's latency, after the gradient limiters used for adaptive concurrency in front of
+ * services. Every round trip is compared with a baseline of how fast that endpoint answers when ES isn't queueing (a
+ * _bulk is always slower than a _doc, that says nothing about load): while round trips stay within tolerance times the
+ * baseline the limit grows by a small queue allowance, once they take longer (ES is queueing them) the limit is cut in
+ * proportion, by at most half. A request ES rejected or that ran out of time cuts it by half straight away.
+ * <p>
+ * The baseline moves quickly towards faster round trips and only slowly towards slower ones, so ES staying overloaded
+ * for minutes still reads as queueing, while a lasting change in ES's speed becomes the new normal after a
+ * few thousand round trips instead of holding the limit down forever
+ */
+final class GradientLimit {
+
+  private static final double MIN_GRADIENT = 0.5;
+  private static final double BASELINE_FALL = 0.1;
+  private static final double BASELINE_RISE = 1.0 / 5000;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final double tolerance;
+  private final double smoothing;
+  private final Map<String, Double> baselines = new HashMap<>();
+  private double limit;
+
+  GradientLimit(int initialLimit, int minLimit, int maxLimit, double tolerance, double smoothing) {
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.tolerance = tolerance;
+    this.smoothing = smoothing;
+    this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+  }
+
+  synchronized int limit() {
+    return (int) limit;
+  }
+
+  /**
+   * @param endpoint what kind of request it was (_search, _doc, _bulk...), each kind has its own baseline
+   * @param nanos the round trip, from the request being written to the response arriving
+   * @param inFlight how many requests were in flight when it was sent
+   */
+  synchronized void update(String endpoint, long nanos, int inFlight) {
+    final double previous = baselines.getOrDefault(endpoint, (double) nanos);
+    final double baseline = previous + (nanos - previous) * (nanos < previous ? BASELINE_FALL : BASELINE_RISE);
+    baselines.put(endpoint, baseline);
+    if (inFlight < limit / 2) {
+      // too little load to tell how much ES could take
+      return;
+    }
+    final double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, tolerance * baseline / Math.max(1, nanos)));
+    moveTowards(limit * gradient + Math.max(1, Math.sqrt(limit)));
+  }
+
+  /**
+   * ES rejected a request or it ran out of time
+   */
+  synchronized void drop() {
+    moveTowards(limit * MIN_GRADIENT);
+  }
+
+  private void moveTowards(double target) {
+    limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - smoothing) + target * smoothing));
+  }
+}
@@ -0,0 +1,181 @@
+package com.paulhoang.Elasticsearch.execution;
+
+import com.paulhoang.Elasticsearch.metrics.ElasticsearchMetrics;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decides how long {@link HedgingTransport} waits before hedging a read and how long it waits at most, per operation
+ * (get, mget, search, fuzzy, count) from the latencies it has seen over the last es.latency.window:
+ * <ul>
+ *   <li>the hedge goes out once a read has taken longer than es.hedge.percentile of its recent reads (but at least
+ *   es.hedge.minDelay), so only the slowest few percent are sent twice</li>
+ *   <li>the deadline is es.deadline.multiplier times es.deadline.percentile of its recent reads, kept between
+ *   es.deadline.min and es.deadline.max</li>
+ * </ul>
+ * Until an operation has es.latency.minSamples reads in the window it isn't hedged and its deadline is es.deadline.max.
+ * Hedges are limited to es.hedge.budget of the reads (a token bucket), so when ES slows down across the board hedging
+ * doesn't double the load on it
+ */
+@Component
+public class HedgingPolicy {
+
+  private static final String ENDPOINT_PREFIX = "es/";
+  private static final long NO_HEDGE = -1;
+  private static final long TOKEN = 1000;
+  private static final long MAX_TOKENS = 10 * TOKEN;
+
+  /**
+   * What the policy knows about one operation
+   */
+  static final class OperationLatency {
+
+    private final LatencyWindow window;
+    private volatile long hedgeDelayNanos = NO_HEDGE;
+    private volatile long deadlineNanos;
+
+    private OperationLatency(LatencyWindow window, long deadlineNanos) {
+      this.window = window;
+      this.deadlineNanos = deadlineNanos;
+    }
+  }
+
+  private final boolean hedgeEnabled;
+  private final boolean deadlineEnabled;
+  private final Set<String> operations;
+  private final double hedgePercentile;
+  private final long minHedgeDelayNanos;
+  private final long tokensPerRead;
+  private final double deadlinePercentile;
+  private final double deadlineMultiplier;
+  private final long minDeadlineNanos;
+  private final long maxDeadlineNanos;
+  private final int minSamples;
+  private final int windowIntervals;
+  private final ElasticsearchMetrics metrics;
+  private final Map<String, OperationLatency> latencies = new ConcurrentHashMap<>();
+  private final AtomicLong tokens = new AtomicLong();
+  private final ScheduledExecutorService scheduler;
+
+  public HedgingPolicy(ElasticsearchMetrics metrics,
+      @Value("${es.hedge.enabled:true}") boolean hedgeEnabled,
+      @Value("${es.hedge.operations:get,mget,search,count}") Set<String> operations,
+      @Value("${es.hedge.percentile:95}") double hedgePercentile,
+      @Value("${es.hedge.minDelay:2ms}") Duration minHedgeDelay,
+      @Value("${es.hedge.budget:0.05}") double budget,
+      @Value("${es.deadline.enabled:true}") boolean deadlineEnabled,
+      @Value("${es.deadline.percentile:99.9}") double deadlinePercentile,
+      @Value("${es.deadline.multiplier:3}") double deadlineMultiplier,
+      @Value("${es.deadline.min:200ms}") Duration minDeadline,
+      @Value("${es.deadline.max:10s}") Duration maxDeadline,
+      @Value("${es.latency.window:30s}") Duration window,
+      @Value("${es.latency.minSamples:100}") int minSamples) {
+    this.metrics = metrics;
+    this.hedgeEnabled = hedgeEnabled;
+    this.deadlineEnabled = deadlineEnabled;
+    this.operations = Set.copyOf(operations);
+    this.hedgePercentile = hedgePercentile;
+    this.minHedgeDelayNanos = minHedgeDelay.toNanos();
+    this.tokensPerRead = Math.round(budget * TOKEN);
+    this.deadlinePercentile = deadlinePercentile;
+    this.deadlineMultiplier = deadlineMultiplier;
+    this.minDeadlineNanos = minDeadline.toNanos();
+    this.maxDeadlineNanos = maxDeadline.toNanos();
+    this.minSamples = minSamples;
+    this.windowIntervals = (int) Math.max(1, window.toSeconds());
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "es-hedge");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleAtFixedRate(this::roll, 1, 1, TimeUnit.SECONDS);
+  }
+
+  /**
+   * @param endpoint the id of the client endpoint (es/get, es/search...), calls to the others go straight through
+   */
+  public boolean covers(String endpoint) {
+    return (hedgeEnabled || deadlineEnabled)
+        && operations.contains(endpoint.startsWith(ENDPOINT_PREFIX) ? endpoint.substring(ENDPOINT_PREFIX.length())
+        : endpoint);
+  }
+
+  /**
+   * Records the latency of a read that got a response, or how long one had been waiting when it was given up on
+   */
+  public void record(String operation, long nanos) {
+    latency(operation).window.record(nanos);
+  }
+
+  /**
+   * @return how long to wait before hedging a read, -1 to not hedge it
+   */
+  public long hedgeDelayNanos(String operation) {
+    return hedgeEnabled ? latency(operation).hedgeDelayNanos : NO_HEDGE;
+  }
+
+  /**
+   * @return how long a read gets before it's given up on, 0 for no deadline
+   */
+  public long deadlineNanos(String operation) {
+    return deadlineEnabled ? latency(operation).deadlineNanos : 0;
+  }
+
+  /**
+   * Adds a read's share of the hedge budget
+   */
+  public void onRead() {
+    tokens.updateAndGet(available -> Math.min(available + tokensPerRead, MAX_TOKENS));
+  }
+
+  /**
+   * @return whether there's budget for a hedge, taking it if there is
+   */
+  public boolean tryHedge() {
+    return tokens.getAndUpdate(available -> available >= TOKEN ? available - TOKEN : available) >= TOKEN;
+  }
+
+  ScheduledExecutorService scheduler() {
+    return scheduler;
+  }
+
+  /**
+   * Moves every operation's window on and works its hedge delay and deadline out again. Synchronized so a roll that
+   * overlaps another can't write back what it worked out from the window before the other moved it on
+   */
+  synchronized void roll() {
+    latencies.values().forEach(latency -> {
+      latency.window.roll();
+      if (latency.window.count() < minSamples) {
+        latency.hedgeDelayNanos = NO_HEDGE;
+        latency.deadlineNanos = maxDeadlineNanos;
+        return;
+      }
+      latency.hedgeDelayNanos = Math.max(minHedgeDelayNanos, latency.window.percentileNanos(hedgePercentile));
+      final long deadline = (long) (latency.window.percentileNanos(deadlinePercentile) * deadlineMultiplier);
+      latency.deadlineNanos = Math.min(maxDeadlineNanos, Math.max(minDeadlineNanos, deadline));
+    });
+  }
+
+  @PreDestroy
+  public void close() {
+    scheduler.shutdownNow();
+  }
+
+  private OperationLatency latency(String operation) {
+    return latencies.computeIfAbsent(operation, key -> {
+      final OperationLatency latency = new OperationLatency(new LatencyWindow(windowIntervals), maxDeadlineNanos);
+      metrics.bindAdaptiveTimeouts(key, latency, value -> value.hedgeDelayNanos, value -> value.deadlineNanos);
+      return latency;
+    });
+  }
+}
@@ -0,0 +1,239 @@
+package com.paulhoang.Elasticsearch.execution;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch.core.CountRequest;
+import co.elastic.clients.elasticsearch.core.GetRequest;
+import co.elastic.clients.elasticsearch.core.MgetRequest;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.Endpoint;
+import co.elastic.clients.transport.TransportOptions;
+import com.paulhoang.Elasticsearch.metrics.ElasticsearchMetrics;
+import com.paulhoang.Elasticsearch.metrics.InstrumentedTransport;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Cuts the tail latency of reads (get, mget, search and count, see {@link HedgingPolicy#covers}) caused by one slow
+ * shard copy or a GC pause on one node. A read that is still waiting after its operation's hedge delay is sent again,
+ * the rest client sends it to the next node and it gets a random {@code preference} so ES picks its shard copies
+ * afresh. Whichever answers first is returned and the other request is cancelled. A read that hasn't been answered
+ * by its deadline is cancelled and fails with a 504.
+ * <p>
+ * Blocking calls are made with the async client underneath so the calling thread can wait on both requests. Searches
+ * that walk or aggregate a whole index (scrolls, point in time pages and aggregations) go straight through without a
+ * hedge or a deadline: they take as long as the index is big, which the latencies of the ordinary reads of their
+ * operation say nothing about, and a scroll would be left open by each request
+ */
+public class HedgingTransport implements ElasticsearchTransport {
+
+  private static final String PREFERENCE = "preference";
+
+  private final ElasticsearchTransport delegate;
+  private final HedgingPolicy policy;
+  private final ElasticsearchMetrics metrics;
+
+  public HedgingTransport(ElasticsearchTransport delegate, HedgingPolicy policy, ElasticsearchMetrics metrics) {
+    this.delegate = delegate;
+    this.policy = policy;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public <RequestT, ResponseT, ErrorT> ResponseT performRequest(RequestT request,
+      Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options) throws IOException {
+    if (!hedgeable(request, endpoint)) {
+      return delegate.performRequest(request, endpoint, options);
+    }
+    final CompletableFuture<ResponseT> response = new HedgedRead<>(request, endpoint, options).start();
+    try {
+      return response.get();
+    } catch (InterruptedException e) {
+      response.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting on " + endpoint.id());
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException cause) {
+        throw cause;
+      }
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  @Override
+  public <RequestT, ResponseT, ErrorT> CompletableFuture<ResponseT> performRequestAsync(RequestT request,
+      Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options) {
+    if (!hedgeable(request, endpoint)) {
+      return delegate.performRequestAsync(request, endpoint, options);
+    }
+    return new HedgedRead<>(request, endpoint, options).start();
+  }
+
+  @Override
+  public JsonpMapper jsonpMapper() {
+    return delegate.jsonpMapper();
+  }
+
+  @Override
+  public TransportOptions options() {
+    return delegate.options();
+  }
+
+  @Override
+  public void close() throws IOException {
+    delegate.close();
+  }
+
+  private boolean hedgeable(Object request, Endpoint<?, ?, ?> endpoint) {
+    return policy.covers(endpoint.id()) && !(request instanceof SearchRequest search && isIndexWide(search));
+  }
+
+  private static boolean isIndexWide(SearchRequest search) {
+    return search.scroll() != null || search.pit() != null || !search.aggregations().isEmpty();
+  }
+
+  /**
+   * @return whether the request sets its own preference
+   */
+  private static boolean keepsPreference(Object request) {
+    if (request instanceof SearchRequest search) {
+      return search.preference() != null;
+    }
+    if (request instanceof GetRequest get) {
+      return get.preference() != null;
+    }
+    if (request instanceof MgetRequest mget) {
+      return mget.preference() != null;
+    }
+    return request instanceof CountRequest count && count.preference() != null;
+  }
+
+  /**
+   * One read, its hedge and its deadline. The first attempt to settle it (or the deadline) decides the outcome,
+   * whatever happens after that only cleans up
+   */
+  private final class HedgedRead<RequestT, ResponseT, ErrorT> {
+
+    private final RequestT request;
+    private final Endpoint<RequestT, ResponseT, ErrorT> endpoint;
+    private final TransportOptions options;
+    private final String operation;
+    private final CompletableFuture<ResponseT> response = new CompletableFuture<>();
+    private final AtomicBoolean decided = new AtomicBoolean();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final long start = System.nanoTime();
+    private volatile CompletableFuture<ResponseT> primary;
+    private volatile CompletableFuture<ResponseT> hedge;
+    private volatile ScheduledFuture<?> hedgeTimer;
+    private volatile ScheduledFuture<?> deadlineTimer;
+    private volatile boolean hedgeWon;
+
+    private HedgedRead(RequestT request, Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options) {
+      this.request = request;
+      this.endpoint = endpoint;
+      this.options = options;
+      this.operation = InstrumentedTransport.operationOf(request, endpoint);
+    }
+
+    CompletableFuture<ResponseT> start() {
+      policy.onRead();
+      final long hedgeDelay = policy.hedgeDelayNanos(operation);
+      final long deadline = policy.deadlineNanos(operation);
+      response.whenComplete((result, ex) -> finish());
+      primary = send(false, options);
+      if (hedgeDelay >= 0 && (deadline == 0 || hedgeDelay < deadline) && !response.isDone()) {
+        hedgeTimer = policy.scheduler().schedule(this::hedge, hedgeDelay, TimeUnit.NANOSECONDS);
+      }
+      if (deadline > 0 && !response.isDone()) {
+        deadlineTimer = policy.scheduler().schedule(() -> expire(deadline), deadline, TimeUnit.NANOSECONDS);
+      }
+      return response;
+    }
+
+    private CompletableFuture<ResponseT> send(boolean isHedge, TransportOptions attemptOptions) {
+      final long sent = System.nanoTime();
+      inFlight.incrementAndGet();
+      final CompletableFuture<ResponseT> attempt = delegate.performRequestAsync(request, endpoint, attemptOptions);
+      attempt.whenComplete((result, ex) -> {
+        inFlight.decrementAndGet();
+        final Throwable failure = ex instanceof CompletionException ? ex.getCause() : ex;
+        if (failure instanceof CancellationException) {
+          return;
+        }
+        if (failure == null) {
+          policy.record(operation, System.nanoTime() - sent);
+          if (decided.compareAndSet(false, true)) {
+            hedgeWon = isHedge;
+            response.complete(result);
+          }
+        } else if ((failure instanceof ElasticsearchException || inFlight.get() == 0)
+            && decided.compareAndSet(false, true)) {
+          // an error from ES would be the same from any copy, a connection failure is only final when nothing
+          // else is still trying
+          response.completeExceptionally(failure);
+        }
+      });
+      return attempt;
+    }
+
+    private void hedge() {
+      if (response.isDone() || !policy.tryHedge()) {
+        return;
+      }
+      final TransportOptions base = options != null ? options : delegate.options();
+      hedge = send(true, keepsPreference(request) ? options
+          : base.with(builder -> builder.setParameter(PREFERENCE, "hedge-" + UUID.randomUUID())));
+      if (response.isDone()) {
+        hedge.cancel(true);
+      }
+    }
+
+    private void expire(long deadline) {
+      if (decided.compareAndSet(false, true)) {
+        metrics.recordDeadlineExceeded(operation);
+        response.completeExceptionally(new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT,
+            "Elasticsearch " + operation + " took longer than its " + Duration.ofNanos(deadline).toMillis()
+                + "ms deadline"));
+      }
+    }
+
+    private void finish() {
+      cancel(hedgeTimer);
+      cancel(deadlineTimer);
+      // the primary's latency is at least what it had taken when it lost, recording that keeps the stragglers in
+      // the window, a hedge that lost was sent late so tells nothing about how long reads take
+      if (primary != null && !primary.isDone()) {
+        primary.cancel(true);
+        policy.record(operation, System.nanoTime() - start);
+      }
+      if (hedge != null && !hedge.isDone()) {
+        hedge.cancel(true);
+      }
+      if (decided.get() && !response.isCompletedExceptionally()) {
+        metrics.recordHedgedRead(operation, hedge != null, hedgeWon);
+      }
+    }
+  }
+
+  private static void cancel(ScheduledFuture<?> timer) {
+    if (timer != null) {
+      timer.cancel(false);
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package com.paulhoang.Elasticsearch.execution;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * The latencies of one operation over the last few intervals, so its percentiles follow ES as it speeds up or slows
+ * down rather than averaging over the whole run. Recording is lock free, {@link #roll()} is called once per interval
+ * to move the window on
+ */
+final class LatencyWindow {
+
+  private static final int SIGNIFICANT_DIGITS = 2;
+
+  private final int intervals;
+  private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+  private final Deque<Histogram> recent = new ArrayDeque<>();
+  private final Histogram window = new Histogram(SIGNIFICANT_DIGITS);
+
+  /**
+   * @param intervals how many intervals the window spans
+   */
+  LatencyWindow(int intervals) {
+    this.intervals = intervals;
+  }
+
+  void record(long nanos) {
+    recorder.recordValue(Math.max(0, nanos));
+  }
+
+  synchronized void roll() {
+    final Histogram interval = recorder.getIntervalHistogram();
+    window.add(interval);
+    recent.addLast(interval);
+    if (recent.size() > intervals) {
+      window.subtract(recent.removeFirst());
+    }
+  }
+
+  synchronized long count() {
+    return window.getTotalCount();
+  }
+
+  synchronized long percentileNanos(double percentile) {
+    return window.getValueAtPercentile(percentile);
+  }
+}
@@ -0,0 +1,84 @@
+package com.paulhoang.Elasticsearch.execution;
+
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.Endpoint;
+import co.elastic.clients.transport.TransportOptions;
+import com.paulhoang.Elasticsearch.execution.ConcurrencyLimiter.Permit;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Puts every client call, blocking and async and the ones made by spring data, through {@link ConcurrencyLimiter}. A
+ * call over its class's share of the limit fails with an {@link OverloadedException} before anything is sent to ES
+ */
+public class LimitingTransport implements ElasticsearchTransport {
+
+  private final ElasticsearchTransport delegate;
+  private final ConcurrencyLimiter limiter;
+
+  public LimitingTransport(ElasticsearchTransport delegate, ConcurrencyLimiter limiter) {
+    this.delegate = delegate;
+    this.limiter = limiter;
+  }
+
+  @Override
+  public <RequestT, ResponseT, ErrorT> ResponseT performRequest(RequestT request,
+      Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options) throws IOException {
+    final RequestClass requestClass = limiter.isEnabled() ? RequestClass.of(request, endpoint) : null;
+    if (requestClass == null) {
+      return delegate.performRequest(request, endpoint, options);
+    }
+    final Permit permit = limiter.acquire(requestClass);
+    try {
+      final ResponseT response = delegate.performRequest(request, endpoint, options);
+      permit.release(false);
+      return response;
+    } catch (IOException | RuntimeException e) {
+      release(permit, e);
+      throw e;
+    }
+  }
+
+  @Override
+  public <RequestT, ResponseT, ErrorT> CompletableFuture<ResponseT> performRequestAsync(RequestT request,
+      Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options) {
+    final RequestClass requestClass = limiter.isEnabled() ? RequestClass.of(request, endpoint) : null;
+    if (requestClass == null) {
+      return delegate.performRequestAsync(request, endpoint, options);
+    }
+    final Permit permit;
+    try {
+      permit = limiter.acquire(requestClass);
+    } catch (OverloadedException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    return delegate.performRequestAsync(request, endpoint, options).whenComplete((response, ex) -> {
+      if (ex == null) {
+        permit.release(false);
+      } else {
+        release(permit, ex instanceof CompletionException ? ex.getCause() : ex);
+      }
+    });
+  }
+
+  @Override
+  public JsonpMapper jsonpMapper() {
+    return delegate.jsonpMapper();
+  }
+
+  @Override
+  public TransportOptions options() {
+    return delegate.options();
+  }
+
+  @Override
+  public void close() throws IOException {
+    delegate.close();
+  }
+
+  private static void release(Permit permit, Throwable failure) {
+    permit.release(ConcurrencyLimiter.isOverload(failure));
+  }
+}
@@ -0,0 +1,43 @@
+package com.paulhoang.Elasticsearch.execution;
+
+import java.time.Duration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * An ES request turned away by {@link ConcurrencyLimiter}, answered as a 503 with a Retry-After
+ */
+public class OverloadedException extends ResponseStatusException {
+
+  private final Duration retryAfter;
+
+  public OverloadedException(RequestClass requestClass, Duration retryAfter) {
+    super(HttpStatus.SERVICE_UNAVAILABLE,
+        "Elasticsearch is at its concurrency limit for " + requestClass.name().toLowerCase() + " requests");
+    this.retryAfter = retryAfter;
+  }
+
+  public Duration getRetryAfter() {
+    return retryAfter;
+  }
+
+  /**
+   * No stack trace, one is thrown for every request shed and it always comes from the same place
+   */
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    return this;
+  }
+
+  /**
+   * Retry-After is in whole seconds, rounded up so clients never come back too early
+   */
+  @Override
+  public HttpHeaders getHeaders() {
+    final HttpHeaders headers = new HttpHeaders();
+    headers.set(HttpHeaders.RETRY_AFTER,
+        String.valueOf(Math.max(1, (retryAfter.toMillis() + 999) / 1000)));
+    return headers;
+  }
+}
@@ -0,0 +1,70 @@
+package com.paulhoang.Elasticsearch.execution;
+
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.transport.Endpoint;
+import com.paulhoang.Elasticsearch.metrics.InstrumentedTransport;
+import java.util.Set;
+
+/**
+ * The classes of ES request {@link ConcurrencyLimiter} admits, highest priority first. Each may only take up its
+ * share of the limit, so as ES slows down and the limit comes down the lower classes are turned away first and the
+ * rest of the limit is left to the ones above them
+ */
+public enum RequestClass {
+
+  /**
+   * Gets by id, multi gets and ids queries
+   */
+  LOOKUP(1.0),
+
+  /**
+   * Autocomplete and the other searches (name, address, owner, facets, federated) and counts
+   */
+  SEARCH(0.9),
+
+  /**
+   * Fuzzy name searches, the most expensive of the searches
+   */
+  FUZZY(0.75),
+
+  /**
+   * Bulk loads and single document writes
+   */
+  BULK(0.5);
+
+  private static final Set<String> LOOKUPS = Set.of("get", "mget", "get_source", "exists", "exists_source");
+  private static final Set<String> SEARCHES = Set.of("search", "msearch", "count", "open_point_in_time", "scroll");
+  private static final Set<String> WRITES = Set.of("bulk", "index", "create", "update", "delete");
+
+  private final double share;
+
+  RequestClass(double share) {
+    this.share = share;
+  }
+
+  /**
+   * The share of the concurrency limit this class can use
+   */
+  public double share() {
+    return share;
+  }
+
+  /**
+   * @return the class of a client request, null for the ones that aren't limited (index admin and cluster calls,
+   * closing a point in time or a scroll, which free resources in ES)
+   */
+  public static RequestClass of(Object request, Endpoint<?, ?, ?> endpoint) {
+    final String name = InstrumentedTransport.operationOf(request, endpoint);
+    if (name.equals("fuzzy")) {
+      return FUZZY;
+    }
+    if (LOOKUPS.contains(name)
+        || request instanceof SearchRequest search && search.query() != null && search.query().isIds()) {
+      return LOOKUP;
+    }
+    if (SEARCHES.contains(name)) {
+      return SEARCH;
+    }
+    return WRITES.contains(name) ? BULK : null;
+  }
+}
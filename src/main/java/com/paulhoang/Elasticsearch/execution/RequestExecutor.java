@@ -0,0 +1,48 @@
+package com.paulhoang.Elasticsearch.execution;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Switches the ES backed endpoints between the blocking client, where the request thread waits on ES, and the async
+ * client, where the request thread is handed back to tomcat and the response is written once ES replies. Set with
+ * {@code execution.mode=blocking|async}. In blocking mode the future is complete when it's returned and the response
+ * is written on the request thread without going async, see {@link CompletedFutureReturnValueHandler}
+ */
+@Component
+public class RequestExecutor {
+
+  public enum Mode {
+    BLOCKING, ASYNC
+  }
+
+  @FunctionalInterface
+  public interface BlockingCall<T> {
+
+    T call() throws IOException;
+  }
+
+  private final Mode mode;
+
+  public RequestExecutor(@Value("${execution.mode:blocking}") Mode mode) {
+    this.mode = mode;
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  public <T> CompletableFuture<T> execute(BlockingCall<T> blocking, Supplier<CompletableFuture<T>> async) {
+    if (mode == Mode.ASYNC) {
+      return async.get();
+    }
+    try {
+      return CompletableFuture.completedFuture(blocking.call());
+    } catch (IOException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+}
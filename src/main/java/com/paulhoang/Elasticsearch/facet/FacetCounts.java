@@ -0,0 +1,114 @@
+package com.paulhoang.Elasticsearch.facet;
+
+import com.paulhoang.Elasticsearch.facet.Facets.Bucket;
+import com.paulhoang.Elasticsearch.facet.Facets.OwnerFacets;
+import java.time.YearMonth;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * In memory rollup of the facet counts of a whole index. The facet values of every company are kept by id so an
+ * update takes the old values off the counts before adding the new ones, the counts never need a full recount. The
+ * buckets match the aggregations {@link FacetSearcher} asks ES for
+ */
+public class FacetCounts {
+
+  static final int AGE_INTERVAL = 10;
+
+  private final Map<String, FacetValues> valuesById = new HashMap<>();
+  private final Map<String, Long> services = new HashMap<>();
+  private final Map<String, Long> status = new HashMap<>();
+  private final NavigableMap<YearMonth, Long> months = new TreeMap<>();
+  private final NavigableMap<Integer, Long> ages = new TreeMap<>();
+  private long owners;
+
+  public synchronized void put(String id, Object company) {
+    remove(id);
+    final FacetValues values = FacetValues.of(company);
+    valuesById.put(id, values);
+    apply(values, 1);
+  }
+
+  public synchronized void remove(String id) {
+    final FacetValues existing = valuesById.remove(id);
+    if (existing != null) {
+      apply(existing, -1);
+    }
+  }
+
+  public synchronized void clear() {
+    valuesById.clear();
+    services.clear();
+    status.clear();
+    months.clear();
+    ages.clear();
+    owners = 0;
+  }
+
+  public synchronized int size() {
+    return valuesById.size();
+  }
+
+  /**
+   * @param size the most buckets to return for the terms facets
+   */
+  public synchronized Facets facets(int size) {
+    final Map<Integer, Long> ageBuckets = new TreeMap<>();
+    long aged = 0;
+    long ageSum = 0;
+    for (Map.Entry<Integer, Long> age : ages.entrySet()) {
+      ageBuckets.merge(Math.floorDiv(age.getKey(), AGE_INTERVAL) * AGE_INTERVAL, age.getValue(), Long::sum);
+      aged += age.getValue();
+      ageSum += (long) age.getKey() * age.getValue();
+    }
+    final OwnerFacets owner = new OwnerFacets(owners,
+        ageBuckets.entrySet().stream().map(entry -> new Bucket(entry.getKey().toString(), entry.getValue())).toList(),
+        ages.isEmpty() ? null : ages.firstKey().doubleValue(),
+        ages.isEmpty() ? null : ages.lastKey().doubleValue(),
+        aged == 0 ? null : (double) ageSum / aged);
+    return new Facets(valuesById.size(), top(services, size), top(status, size),
+        months.entrySet().stream().map(entry -> new Bucket(entry.getKey().toString(), entry.getValue())).toList(),
+        owner);
+  }
+
+  private void apply(FacetValues values, int delta) {
+    if (values.services() != null) {
+      values.services().stream().distinct().forEach(service -> count(services, service, delta));
+    }
+    if (values.status() != null) {
+      count(status, values.status(), delta);
+    }
+    if (values.incorporated() != null) {
+      count(months, values.incorporated(), delta);
+    }
+    if (values.owner()) {
+      owners += delta;
+    }
+    if (values.ownerAge() != null) {
+      count(ages, values.ownerAge(), delta);
+    }
+  }
+
+  private static <K> void count(Map<K, Long> counts, K key, int delta) {
+    counts.compute(key, (k, count) -> {
+      final long updated = (count == null ? 0 : count) + delta;
+      return updated <= 0 ? null : updated;
+    });
+  }
+
+  /**
+   * Highest count first and ties by key, the order of an ES terms aggregation
+   */
+  private static List<Bucket> top(Map<String, Long> counts, int size) {
+    return counts.entrySet().stream()
+        .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder())
+            .thenComparing(Map.Entry.comparingByKey()))
+        .limit(size)
+        .map(entry -> new Bucket(entry.getKey(), entry.getValue()))
+        .toList();
+  }
+}
@@ -0,0 +1,22 @@
+package com.paulhoang.Elasticsearch.facet;
+
+import com.paulhoang.Elasticsearch.entity.Status;
+import java.util.List;
+
+/**
+ * Narrows a faceted search, every part is optional
+ *
+ * @param term matched against the name and the address
+ * @param services companies offering any of these
+ */
+public record FacetFilter(String term, List<String> services, Status status) {
+
+  public FacetFilter {
+    term = term == null || term.isBlank() ? null : term;
+    services = services == null ? List.of() : List.copyOf(services);
+  }
+
+  public boolean isEmpty() {
+    return term == null && services.isEmpty() && status == null;
+  }
+}
@@ -0,0 +1,198 @@
+package com.paulhoang.Elasticsearch.facet;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
+import co.elastic.clients.elasticsearch._types.aggregations.CalendarInterval;
+import co.elastic.clients.elasticsearch._types.aggregations.NestedAggregate;
+import co.elastic.clients.elasticsearch._types.aggregations.StatsAggregate;
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import com.paulhoang.Elasticsearch.event.IndexChangeBuffer;
+import com.paulhoang.Elasticsearch.event.IndexChangedEvent;
+import com.paulhoang.Elasticsearch.event.IndexSwappedEvent;
+import com.paulhoang.Elasticsearch.event.IndicesBootstrappedEvent;
+import com.paulhoang.Elasticsearch.facet.Facets.Bucket;
+import com.paulhoang.Elasticsearch.facet.Facets.OwnerFacets;
+import com.paulhoang.Elasticsearch.projection.CompanyView;
+import com.paulhoang.Elasticsearch.service.IndexScanner;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Searches that return facet counts with the hits: terms over services and status, a monthly histogram of
+ * dateOfIncorporation and a nested aggregation over owner. Filtered searches have ES aggregate the matching companies,
+ * the unfiltered counts (the dashboard view) come from a {@link FacetCounts} rollup per index that is warmed from ES
+ * once the bootstrap has finished and kept up to date from {@link IndexChangedEvent}s, until it's warm (or if warming
+ * failed) they're aggregated by ES too
+ */
+@Component
+@Slf4j
+public class FacetSearcher {
+
+  private static final List<String> SOURCE_FIELDS = List.of("id", "services", "status", "dateOfIncorporation",
+      "owner");
+  private static final int WARM_ATTEMPTS = 5;
+
+  private final ElasticsearchClient elasticsearchClient;
+  private final IndexScanner indexScanner;
+  private final boolean rollupEnabled;
+  private final Map<CompanyType, FacetCounts> rollups = new EnumMap<>(CompanyType.class);
+  private final Set<CompanyType> warm = ConcurrentHashMap.newKeySet();
+  private final IndexChangeBuffer changes = new IndexChangeBuffer();
+
+  public FacetSearcher(ElasticsearchClient elasticsearchClient, IndexScanner indexScanner,
+      @Value("${facets.rollup.enabled:true}") boolean rollupEnabled) {
+    this.elasticsearchClient = elasticsearchClient;
+    this.indexScanner = indexScanner;
+    this.rollupEnabled = rollupEnabled;
+    for (CompanyType type : CompanyType.values()) {
+      rollups.put(type, new FacetCounts());
+    }
+  }
+
+  /**
+   * @param size the number of hits to return
+   * @param facetSize the most buckets to return for the terms facets
+   */
+  public FacetedSearchResult search(CompanyType type, FacetFilter filter, int size, int facetSize)
+      throws IOException {
+    if (filter.isEmpty() && rollupEnabled && warm.contains(type)) {
+      final Facets facets = rollups.get(type).facets(facetSize);
+      final List<CompanyView> hits = size == 0 ? List.of() : elasticsearchClient.search(s -> s
+              .index(type.getIndexName())
+              .size(size)
+              .trackTotalHits(total -> total.enabled(false)),
+          CompanyView.class).hits().hits().stream().map(Hit::source).toList();
+      return new FacetedSearchResult(hits, facets.total(), facets);
+    }
+
+    final SearchResponse<CompanyView> response = elasticsearchClient.search(s -> s
+            .index(type.getIndexName())
+            .query(query(filter))
+            .size(size)
+            .trackTotalHits(total -> total.enabled(true))
+            .aggregations("services", a -> a.terms(t -> t.field("services").size(facetSize)))
+            .aggregations("status", a -> a.terms(t -> t.field("status").size(facetSize)))
+            .aggregations("dateOfIncorporation", a -> a.dateHistogram(h -> h
+                .field("dateOfIncorporation")
+                .calendarInterval(CalendarInterval.Month)
+                .format("yyyy-MM")
+                .minDocCount(1)))
+            .aggregations("owner", a -> a
+                .nested(n -> n.path("owner"))
+                .aggregations("age", age -> age.histogram(h -> h
+                    .field("owner.age")
+                    .interval((double) FacetCounts.AGE_INTERVAL)
+                    .minDocCount(1)))
+                .aggregations("ageStats", age -> age.stats(stats -> stats.field("owner.age")))),
+        CompanyView.class);
+
+    final long total = response.hits().total() == null ? 0 : response.hits().total().value();
+    final List<CompanyView> hits = response.hits().hits().stream().map(Hit::source).toList();
+    return new FacetedSearchResult(hits, total, facets(total, response.aggregations()));
+  }
+
+  @EventListener
+  public void onIndicesBootstrapped(IndicesBootstrappedEvent event) {
+    if (rollupEnabled) {
+      for (CompanyType type : CompanyType.values()) {
+        warm(type);
+      }
+    }
+  }
+
+  /**
+   * Recounted from the version now behind the alias, the first version is warmed once the bootstrap is done instead
+   */
+  @EventListener
+  public void onIndexSwapped(IndexSwappedEvent event) {
+    if (rollupEnabled && event.previousIndex() != null) {
+      warm(event.type());
+    }
+  }
+
+  @EventListener
+  public void onIndexChanged(IndexChangedEvent event) {
+    changes.apply(event, this::apply);
+  }
+
+  /**
+   * The changes made while the type warms are applied after its scan
+   */
+  public void warm(CompanyType type) {
+    warm.remove(type);
+    changes.hold(type);
+    final FacetCounts rollup = rollups.get(type);
+    final long scanned;
+    try {
+      scanned = indexScanner.scanWithRetries(type.getIndexName(), SOURCE_FIELDS, CompanyView.class,
+          rollup::clear, company -> rollup.put(company.id(), company), WARM_ATTEMPTS);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Failed to roll up the facet counts for {}, falling back to ES", type.getIndexName(), e);
+      return;
+    } finally {
+      changes.release(type, this::apply);
+    }
+    warm.add(type);
+    log.info("Facet counts for {} rolled up from {} companies", type.getIndexName(), scanned);
+  }
+
+  private void apply(IndexChangedEvent event) {
+    final FacetCounts rollup = rollups.get(event.type());
+    event.documents().forEach(company -> rollup.put(event.type().idOf(company), company));
+    event.deletedIds().forEach(rollup::remove);
+  }
+
+  private static Query query(FacetFilter filter) {
+    final BoolQuery.Builder bool = new BoolQuery.Builder();
+    if (filter.term() != null) {
+      bool.must(must -> must.multiMatch(match -> match.fields("name.search", "address").query(filter.term())));
+    }
+    if (!filter.services().isEmpty()) {
+      bool.filter(f -> f.terms(terms -> terms
+          .field("services")
+          .terms(values -> values.value(filter.services().stream().map(FieldValue::of).toList()))));
+    }
+    if (filter.status() != null) {
+      bool.filter(f -> f.term(term -> term.field("status").value(filter.status().name())));
+    }
+    return Query.of(q -> q.bool(bool.build()));
+  }
+
+  private static Facets facets(long total, Map<String, Aggregate> aggregations) {
+    final NestedAggregate owner = aggregations.get("owner").nested();
+    final StatsAggregate ageStats = owner.aggregations().get("ageStats").stats();
+    final boolean aged = ageStats.count() > 0;
+    return new Facets(total,
+        terms(aggregations.get("services")),
+        terms(aggregations.get("status")),
+        aggregations.get("dateOfIncorporation").dateHistogram().buckets().array().stream()
+            .map(bucket -> new Bucket(bucket.keyAsString(), bucket.docCount()))
+            .toList(),
+        new OwnerFacets(owner.docCount(),
+            owner.aggregations().get("age").histogram().buckets().array().stream()
+                .map(bucket -> new Bucket(String.valueOf((long) bucket.key()), bucket.docCount()))
+                .toList(),
+            aged ? ageStats.min() : null,
+            aged ? ageStats.max() : null,
+            aged ? ageStats.avg() : null));
+  }
+
+  private static List<Bucket> terms(Aggregate aggregate) {
+    return aggregate.sterms().buckets().array().stream()
+        .map(bucket -> new Bucket(bucket.key().stringValue(), bucket.docCount()))
+        .toList();
+  }
+}
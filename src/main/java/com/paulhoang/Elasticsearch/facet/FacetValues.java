@@ -0,0 +1,58 @@
+package com.paulhoang.Elasticsearch.facet;
+
+import com.paulhoang.Elasticsearch.entity.CompanyAuto;
+import com.paulhoang.Elasticsearch.entity.CompanyManual;
+import com.paulhoang.Elasticsearch.projection.CompanyView;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+/**
+ * The facet fields of one company
+ */
+record FacetValues(List<String> services, String status, YearMonth incorporated, boolean owner, Integer ownerAge) {
+
+  private static final DateTimeFormatter SEED_DATE = DateTimeFormatter.ofPattern("MM/dd/yyyy");
+
+  static FacetValues of(Object company) {
+    if (company instanceof CompanyManual manual) {
+      return new FacetValues(manual.services(), manual.status() == null ? null : manual.status().name(),
+          manual.dateOfIncorporation() == null ? null
+              : YearMonth.from(manual.dateOfIncorporation().toInstant().atZone(ZoneOffset.UTC)),
+          manual.owner() != null, manual.owner() == null ? null : manual.owner().age());
+    }
+    if (company instanceof CompanyAuto auto) {
+      return new FacetValues(auto.services(), auto.status() == null ? null : auto.status().name(),
+          auto.dateOfIncorporation() == null ? null : YearMonth.from(auto.dateOfIncorporation()),
+          auto.owner() != null, auto.owner() == null ? null : auto.owner().age());
+    }
+    final CompanyView view = (CompanyView) company;
+    return new FacetValues(view.services(), view.status(), yearMonth(view.dateOfIncorporation()),
+        view.owner() != null, view.owner() == null ? null : view.owner().age());
+  }
+
+  /**
+   * Dates are stored however the writer serialized them: epoch millis for the manual index, an ISO date for the auto
+   * one and the seed data's own format for documents that came straight from it
+   */
+  static YearMonth yearMonth(String date) {
+    if (date == null || date.isBlank()) {
+      return null;
+    }
+    try {
+      if (date.chars().allMatch(Character::isDigit)) {
+        return YearMonth.from(Instant.ofEpochMilli(Long.parseLong(date)).atZone(ZoneOffset.UTC));
+      }
+      if (date.contains("/")) {
+        return YearMonth.from(LocalDate.parse(date, SEED_DATE));
+      }
+      return YearMonth.from(LocalDate.parse(date.substring(0, Math.min(10, date.length()))));
+    } catch (DateTimeParseException | NumberFormatException e) {
+      return null;
+    }
+  }
+}
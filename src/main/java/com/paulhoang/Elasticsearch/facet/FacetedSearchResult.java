@@ -0,0 +1,11 @@
+package com.paulhoang.Elasticsearch.facet;
+
+import com.paulhoang.Elasticsearch.projection.CompanyView;
+import java.util.List;
+
+/**
+ * @param total the number of companies that match, the hits are only the first page of them
+ */
+public record FacetedSearchResult(List<CompanyView> hits, long total, Facets facets) {
+
+}
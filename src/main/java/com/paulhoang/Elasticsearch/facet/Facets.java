@@ -0,0 +1,26 @@
+package com.paulhoang.Elasticsearch.facet;
+
+import java.util.List;
+
+/**
+ * Counts of companies per value of the facet fields, highest count first for the terms facets and in key order for
+ * the histograms (months as yyyy-MM and owner ages in buckets of ten). owner is a nested aggregation so its count is
+ * the number of owners rather than companies
+ */
+public record Facets(long total,
+                     List<Bucket> services,
+                     List<Bucket> status,
+                     List<Bucket> dateOfIncorporation,
+                     OwnerFacets owner) {
+
+  public record Bucket(String key, long count) {
+
+  }
+
+  /**
+   * The age stats are null when there are no owners
+   */
+  public record OwnerFacets(long count, List<Bucket> age, Double minAge, Double maxAge, Double avgAge) {
+
+  }
+}
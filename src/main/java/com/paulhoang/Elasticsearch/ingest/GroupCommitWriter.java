@@ -0,0 +1,362 @@
+package com.paulhoang.Elasticsearch.ingest;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.json.JsonData;
+import com.paulhoang.Elasticsearch.bootstrap.Reindexer;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import com.paulhoang.Elasticsearch.event.IndexChangedEvent;
+import com.paulhoang.Elasticsearch.event.IndexRefreshedEvent;
+import com.paulhoang.Elasticsearch.metrics.ElasticsearchMetrics;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.elasticsearch.core.convert.ElasticsearchConverter;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Group commit for the company write endpoints. Every write joins the pending batch and the batch goes to ES as one
+ * _bulk request once it reaches es.write.maxDocs documents or es.write.maxBytes bytes, or es.write.linger after its
+ * first write, whichever comes first. Callers get a future that completes when their item of the bulk response is in.
+ * <p>
+ * Writes hold a slot from es.write.capacity until they complete, when every slot is taken new writes wait up to
+ * es.write.enqueueTimeout and are then turned away with a 429 so backpressure reaches the callers. Items rejected by
+ * ES with a 429, or with a version conflict on an update, go back into a later batch with exponential backoff, up to
+ * es.write.retry.maxAttempts attempts. The changes of every batch are published as {@link IndexChangedEvent}s before
+ * its futures complete so nothing cached can be read stale after a write has returned. A batch sent without a refresh
+ * only becomes searchable with the next scheduled refresh, so es.write.searchableAfter later (the index's 1s refresh
+ * interval plus the time a refresh takes) an {@link IndexRefreshedEvent} follows to drop the search results cached in
+ * between. While an index is being reindexed its writes are turned away with a 503, they'd go to the version that's
+ * about to be replaced
+ */
+@Component
+@Slf4j
+public class GroupCommitWriter {
+
+  /**
+   * An update replaces the whole document: a partial doc would keep the fields that were cleared, as the converter
+   * leaves out nulls. Unlike an index op it still fails if the document doesn't exist
+   */
+  private static final String REPLACE_SOURCE = "ctx._source.clear(); ctx._source.putAll(params.doc)";
+
+  private static final String CLAZZ_FIELD = "clazz";
+
+  private enum Operation {
+    CREATE, UPDATE, DELETE
+  }
+
+  private record PendingWrite(Operation operation, CompanyType type, String id, Object company, Document document,
+                              long bytes, RefreshPolicy refresh, CompletableFuture<WriteResult> future,
+                              int attempt) {
+
+    PendingWrite retry() {
+      return new PendingWrite(operation, type, id, company, document, bytes, refresh, future, attempt + 1);
+    }
+  }
+
+  private final ElasticsearchClient elasticsearchClient;
+  private final ElasticsearchConverter elasticsearchConverter;
+  private final ApplicationEventPublisher eventPublisher;
+  private final Reindexer reindexer;
+  private final int maxDocs;
+  private final long maxBytes;
+  private final Duration linger;
+  private final Duration enqueueTimeout;
+  private final int maxAttempts;
+  private final Duration backoff;
+  private final Duration maxBackoff;
+  private final RefreshPolicy defaultRefresh;
+  private final Duration searchableAfter;
+  private final int capacity;
+  private final Semaphore slots;
+  private final ScheduledExecutorService scheduler;
+  private final ExecutorService senders;
+
+  private List<PendingWrite> pending = new ArrayList<>();
+  private long pendingBytes;
+  private ScheduledFuture<?> scheduledFlush;
+
+  public GroupCommitWriter(ElasticsearchClient elasticsearchClient, ElasticsearchConverter elasticsearchConverter,
+      ApplicationEventPublisher eventPublisher, ElasticsearchMetrics metrics, Reindexer reindexer,
+      @Value("${es.write.maxDocs:500}") int maxDocs,
+      @Value("${es.write.maxBytes:5242880}") long maxBytes,
+      @Value("${es.write.linger:5ms}") Duration linger,
+      @Value("${es.write.concurrency:4}") int concurrency,
+      @Value("${es.write.capacity:10000}") int capacity,
+      @Value("${es.write.enqueueTimeout:100ms}") Duration enqueueTimeout,
+      @Value("${es.write.retry.maxAttempts:5}") int maxAttempts,
+      @Value("${es.write.retry.backoff:50ms}") Duration backoff,
+      @Value("${es.write.retry.maxBackoff:2s}") Duration maxBackoff,
+      @Value("${es.write.refresh:none}") RefreshPolicy defaultRefresh,
+      @Value("${es.write.searchableAfter:2s}") Duration searchableAfter) {
+    this.elasticsearchClient = elasticsearchClient;
+    this.elasticsearchConverter = elasticsearchConverter;
+    this.eventPublisher = eventPublisher;
+    this.reindexer = reindexer;
+    this.maxDocs = maxDocs;
+    this.maxBytes = maxBytes;
+    this.linger = linger;
+    this.enqueueTimeout = enqueueTimeout;
+    this.maxAttempts = maxAttempts;
+    this.backoff = backoff;
+    this.maxBackoff = maxBackoff;
+    this.defaultRefresh = defaultRefresh;
+    this.searchableAfter = searchableAfter;
+    this.capacity = capacity;
+    this.slots = new Semaphore(capacity);
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "write-scheduler"));
+    this.senders = Executors.newFixedThreadPool(concurrency, runnable -> daemon(runnable, "write-sender"));
+    metrics.bindWriteQueue(this, writer -> writer.capacity - writer.slots.availablePermits());
+  }
+
+  /**
+   * Fails with a 409 if the id already exists
+   *
+   * @param refresh null for es.write.refresh
+   */
+  public CompletableFuture<WriteResult> create(CompanyType type, Object company, RefreshPolicy refresh) {
+    return submit(Operation.CREATE, type, type.idOf(company), company, refresh);
+  }
+
+  /**
+   * Replaces an existing company, fields left out of it are removed, fails with a 404 if there isn't one
+   */
+  public CompletableFuture<WriteResult> update(CompanyType type, Object company, RefreshPolicy refresh) {
+    return submit(Operation.UPDATE, type, type.idOf(company), company, refresh);
+  }
+
+  /**
+   * Fails with a 404 if there's nothing to delete
+   */
+  public CompletableFuture<WriteResult> delete(CompanyType type, String id, RefreshPolicy refresh) {
+    return submit(Operation.DELETE, type, id, null, refresh);
+  }
+
+  @PreDestroy
+  public void close() throws InterruptedException {
+    flush();
+    senders.shutdown();
+    senders.awaitTermination(10, TimeUnit.SECONDS);
+    scheduler.shutdownNow();
+  }
+
+  private CompletableFuture<WriteResult> submit(Operation operation, CompanyType type, String id, Object company,
+      RefreshPolicy refresh) {
+    if (id == null || id.isBlank()) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A company needs an id");
+    }
+    if (reindexer.isReindexing(type)) {
+      throw reindexing(type);
+    }
+    try {
+      if (!slots.tryAcquire(enqueueTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+        throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many writes waiting to be indexed");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Interrupted waiting to write");
+    }
+
+    final CompletableFuture<WriteResult> future = new CompletableFuture<>();
+    future.whenComplete((result, e) -> slots.release());
+    try {
+      final Document document = company == null ? null : toDocument(company);
+      final long bytes = document == null ? id.length() : document.toJson().length();
+      enqueue(new PendingWrite(operation, type, id, company, document, bytes,
+          refresh == null ? defaultRefresh : refresh, future, 1));
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /**
+   * The company as the seed data loader writes it. CompanyManual's clazz is read from the _class the converter writes
+   * anyway, and the manual index is read with Jackson, which fails on any field it doesn't know, so the converter's
+   * own clazz field is left out
+   */
+  private Document toDocument(Object company) {
+    final Document document = elasticsearchConverter.mapObject(company);
+    document.remove(CLAZZ_FIELD);
+    return document;
+  }
+
+  private void enqueue(PendingWrite write) {
+    List<PendingWrite> batch = null;
+    synchronized (this) {
+      pending.add(write);
+      pendingBytes += write.bytes();
+      if (pending.size() >= maxDocs || pendingBytes >= maxBytes) {
+        batch = takePending();
+      } else if (scheduledFlush == null) {
+        scheduledFlush = scheduler.schedule(this::flush, linger.toNanos(), TimeUnit.NANOSECONDS);
+      }
+    }
+    if (batch != null) {
+      final List<PendingWrite> toSend = batch;
+      senders.execute(() -> send(toSend));
+    }
+  }
+
+  private void flush() {
+    final List<PendingWrite> batch;
+    synchronized (this) {
+      batch = takePending();
+    }
+    if (!batch.isEmpty()) {
+      senders.execute(() -> send(batch));
+    }
+  }
+
+  private List<PendingWrite> takePending() {
+    final List<PendingWrite> batch = pending;
+    pending = new ArrayList<>();
+    pendingBytes = 0;
+    if (scheduledFlush != null) {
+      scheduledFlush.cancel(false);
+      scheduledFlush = null;
+    }
+    return batch;
+  }
+
+  private void send(List<PendingWrite> pendingBatch) {
+    // a reindex may have started since they were queued
+    final List<PendingWrite> batch = new ArrayList<>(pendingBatch.size());
+    for (PendingWrite write : pendingBatch) {
+      if (reindexer.isReindexing(write.type())) {
+        write.future().completeExceptionally(reindexing(write.type()));
+      } else {
+        batch.add(write);
+      }
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+    final RefreshPolicy refresh = batch.stream().map(PendingWrite::refresh).max(Comparator.naturalOrder())
+        .orElse(RefreshPolicy.NONE);
+    final BulkResponse response;
+    try {
+      response = elasticsearchClient.bulk(builder -> builder
+          .refresh(refresh.toRefresh())
+          .operations(batch.stream().map(GroupCommitWriter::toBulkOperation).toList()));
+    } catch (IOException | RuntimeException e) {
+      final boolean retryable = e instanceof IOException
+          || e instanceof ElasticsearchException elasticsearchException && elasticsearchException.status() == 429;
+      log.warn("Bulk request of {} writes failed{}", batch.size(), retryable ? ", retrying" : "", e);
+      batch.forEach(write -> {
+        if (retryable && write.attempt() < maxAttempts) {
+          retry(write);
+        } else {
+          write.future().completeExceptionally(e);
+        }
+      });
+      return;
+    }
+
+    final Map<CompanyType, List<Object>> indexed = new EnumMap<>(CompanyType.class);
+    final Map<CompanyType, List<String>> deleted = new EnumMap<>(CompanyType.class);
+    final List<Runnable> completions = new ArrayList<>();
+    final List<BulkResponseItem> items = response.items();
+    for (int i = 0; i < batch.size(); i++) {
+      final PendingWrite write = batch.get(i);
+      final BulkResponseItem item = items.get(i);
+      if (write.operation() == Operation.DELETE && item.status() == 404) {
+        // deletes of missing documents come back as a 404 without an error
+        completions.add(() -> write.future().completeExceptionally(
+            new ResponseStatusException(HttpStatus.NOT_FOUND, "No company " + write.id())));
+      } else if (item.error() == null) {
+        if (write.operation() == Operation.DELETE) {
+          deleted.computeIfAbsent(write.type(), type -> new ArrayList<>()).add(write.id());
+        } else {
+          indexed.computeIfAbsent(write.type(), type -> new ArrayList<>()).add(write.company());
+        }
+        final WriteResult result = new WriteResult(write.id(), item.result(), item.version(), write.attempt());
+        completions.add(() -> write.future().complete(result));
+      } else if (isRetryable(write, item.status()) && write.attempt() < maxAttempts) {
+        retry(write);
+      } else {
+        final ResponseStatusException failure = new ResponseStatusException(HttpStatusCode.valueOf(item.status()),
+            item.error().reason());
+        completions.add(() -> write.future().completeExceptionally(failure));
+      }
+    }
+    indexed.forEach((type, companies) -> eventPublisher.publishEvent(IndexChangedEvent.indexed(type, companies)));
+    deleted.forEach((type, ids) -> eventPublisher.publishEvent(IndexChangedEvent.deleted(type, ids)));
+    if (refresh == RefreshPolicy.NONE) {
+      final Set<CompanyType> changed = EnumSet.noneOf(CompanyType.class);
+      changed.addAll(indexed.keySet());
+      changed.addAll(deleted.keySet());
+      if (!changed.isEmpty()) {
+        scheduler.schedule(() -> changed.forEach(type -> eventPublisher.publishEvent(new IndexRefreshedEvent(type))),
+            searchableAfter.toNanos(), TimeUnit.NANOSECONDS);
+      }
+    }
+    completions.forEach(Runnable::run);
+  }
+
+  private static ResponseStatusException reindexing(CompanyType type) {
+    return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+        type.getIndexName() + " is being reindexed, try again once it's done");
+  }
+
+  private static boolean isRetryable(PendingWrite write, int status) {
+    // a conflict on a create means the id is taken, retrying won't change that
+    return status == 429 || status == 409 && write.operation() != Operation.CREATE;
+  }
+
+  private void retry(PendingWrite write) {
+    final long ceiling = Math.min(maxBackoff.toNanos(), backoff.toNanos() << Math.min(write.attempt() - 1, 20));
+    final long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    scheduler.schedule(() -> enqueue(write.retry()), delay, TimeUnit.NANOSECONDS);
+  }
+
+  private static BulkOperation toBulkOperation(PendingWrite write) {
+    final String index = write.type().getIndexName();
+    return switch (write.operation()) {
+      case CREATE -> BulkOperation.of(b -> b.create(create -> create
+          .index(index)
+          .id(write.id())
+          .document(write.document())));
+      case UPDATE -> BulkOperation.of(b -> b.update(update -> update
+          .index(index)
+          .id(write.id())
+          .action(action -> action.script(script -> script.inline(inline -> inline
+              .source(REPLACE_SOURCE)
+              .params("doc", JsonData.of(write.document())))))));
+      case DELETE -> BulkOperation.of(b -> b.delete(delete -> delete
+          .index(index)
+          .id(write.id())));
+    };
+  }
+
+  private static Thread daemon(Runnable runnable, String name) {
+    final Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+}
@@ -0,0 +1,50 @@
+package com.paulhoang.Elasticsearch.ingest;
+
+import co.elastic.clients.elasticsearch._types.Refresh;
+import java.util.Locale;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * When a write becomes visible to searches. Writes are grouped into bulk requests and a bulk request has a single
+ * refresh setting, so a batch is sent with the strictest policy any of its writes asked for
+ */
+public enum RefreshPolicy {
+  /**
+   * Visible after the next scheduled refresh, the cheapest
+   */
+  NONE(Refresh.False),
+  /**
+   * The write completes once a scheduled refresh has made it visible
+   */
+  WAIT_FOR(Refresh.WaitFor),
+  /**
+   * Forces a refresh straight after the bulk request, expensive under load
+   */
+  IMMEDIATE(Refresh.True);
+
+  private final Refresh refresh;
+
+  RefreshPolicy(Refresh refresh) {
+    this.refresh = refresh;
+  }
+
+  public Refresh toRefresh() {
+    return refresh;
+  }
+
+  /**
+   * @param value the policy in any case, e.g. wait_for
+   * @return null if value is null
+   */
+  public static RefreshPolicy parse(String value) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown refresh policy " + value);
+    }
+  }
+}
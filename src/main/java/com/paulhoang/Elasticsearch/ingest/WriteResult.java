@@ -0,0 +1,9 @@
+package com.paulhoang.Elasticsearch.ingest;
+
+/**
+ * @param result what ES did with the document (created, updated, noop, deleted)
+ * @param attempts how many bulk requests it took, more than one if it was retried
+ */
+public record WriteResult(String id, String result, Long version, int attempts) {
+
+}
@@ -0,0 +1,143 @@
+package com.paulhoang.Elasticsearch.loader;
+
+import com.paulhoang.Elasticsearch.execution.ConcurrencyLimiter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.elasticsearch.BulkFailureException;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+
+/**
+ * Collects index queries for a single index and sends them as bulk requests once the batch reaches either the max
+ * number of documents or the max (estimated) number of bytes. Only {@code concurrency} bulk requests are allowed in
+ * flight, adding to a full indexer blocks the caller until a slot frees up so memory stays bounded no matter how big
+ * the source data is.
+ * <p>
+ * Not thread safe, documents are expected to be added from a single thread. afterBatch is called with every batch once
+ * it has been sent (whether or not some of it failed) so caches etc. can be invalidated
+ */
+@Slf4j
+public class BulkIndexer implements AutoCloseable {
+
+  private static final int MAX_REPORTED_FAILURES = 100;
+  private static final int MAX_SHED_ATTEMPTS = 60;
+
+  private final ElasticsearchOperations elasticsearchOperations;
+  private final IndexCoordinates index;
+  private final int maxDocs;
+  private final long maxBytes;
+  private final int concurrency;
+  private final Semaphore inFlight;
+  private final ExecutorService executor;
+  private final Consumer<List<IndexQuery>> afterBatch;
+
+  private final AtomicLong indexed = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final Map<String, String> failures = new ConcurrentHashMap<>();
+
+  private List<IndexQuery> batch = new ArrayList<>();
+  private long batchBytes;
+  private long batches;
+
+  public BulkIndexer(ElasticsearchOperations elasticsearchOperations, IndexCoordinates index, int maxDocs,
+      long maxBytes, int concurrency, Consumer<List<IndexQuery>> afterBatch) {
+    this.elasticsearchOperations = elasticsearchOperations;
+    this.index = index;
+    this.maxDocs = maxDocs;
+    this.maxBytes = maxBytes;
+    this.concurrency = concurrency;
+    this.inFlight = new Semaphore(concurrency);
+    this.executor = Executors.newFixedThreadPool(concurrency);
+    this.afterBatch = afterBatch;
+  }
+
+  public void add(IndexQuery indexQuery, long estimatedBytes) {
+    if (!batch.isEmpty() && (batch.size() >= maxDocs || batchBytes + estimatedBytes > maxBytes)) {
+      flush();
+    }
+    batch.add(indexQuery);
+    batchBytes += estimatedBytes;
+  }
+
+  public void flush() {
+    if (batch.isEmpty()) {
+      return;
+    }
+    final List<IndexQuery> toSend = batch;
+    final long batchNumber = ++batches;
+    batch = new ArrayList<>();
+    batchBytes = 0;
+
+    inFlight.acquireUninterruptibly();
+    try {
+      executor.execute(() -> {
+        try {
+          send(toSend, batchNumber);
+          afterBatch.accept(toSend);
+        } finally {
+          inFlight.release();
+        }
+      });
+    } catch (RuntimeException e) {
+      inFlight.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Flushes whatever is left in the current batch and waits for all in flight bulk requests to complete
+   */
+  public BulkLoadResult finish() {
+    flush();
+    inFlight.acquireUninterruptibly(concurrency);
+    inFlight.release(concurrency);
+    final BulkLoadResult result = new BulkLoadResult(index.getIndexName(), batches, indexed.get(), failed.get(),
+        Map.copyOf(failures));
+    log.info("Bulk load into {} finished, {} batches, {} indexed, {} failed", result.index(), result.batches(),
+        result.indexed(), result.failed());
+    return result;
+  }
+
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+  private void send(List<IndexQuery> queries, long batchNumber) {
+    try {
+      bulkIndex(queries);
+      indexed.addAndGet(queries.size());
+    } catch (BulkFailureException e) {
+      final Map<String, String> failedDocuments = e.getFailedDocuments();
+      indexed.addAndGet(queries.size() - failedDocuments.size());
+      failed.addAndGet(failedDocuments.size());
+      log.warn("Batch {} into {} had {} of {} documents fail", batchNumber, index.getIndexName(),
+          failedDocuments.size(), queries.size());
+      failedDocuments.forEach((id, reason) -> {
+        if (failures.size() < MAX_REPORTED_FAILURES) {
+          failures.put(id, reason);
+        }
+      });
+    } catch (RuntimeException e) {
+      failed.addAndGet(queries.size());
+      log.error("Batch {} into {} failed completely", batchNumber, index.getIndexName(), e);
+    }
+  }
+
+  /**
+   * Bulk loads are the first requests shed when ES is at its concurrency limit, a shed batch is sent again once the
+   * limiter's Retry-After is up rather than lost
+   */
+  private void bulkIndex(List<IndexQuery> queries) {
+    ConcurrencyLimiter.whenAdmitted(MAX_SHED_ATTEMPTS, () -> elasticsearchOperations.bulkIndex(queries, index));
+  }
+}
@@ -0,0 +1,11 @@
+package com.paulhoang.Elasticsearch.loader;
+
+import java.util.Map;
+
+/**
+ * Summary of a bulk load into a single index, failures holds the id and reason of (at most the first 100) documents
+ * that ES rejected
+ */
+public record BulkLoadResult(String index, long batches, long indexed, long failed, Map<String, String> failures) {
+
+}
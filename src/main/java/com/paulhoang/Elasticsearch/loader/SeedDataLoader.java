@@ -0,0 +1,326 @@
+package com.paulhoang.Elasticsearch.loader;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.indices.IndexSettings;
+import co.elastic.clients.elasticsearch.indices.IndexState;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import com.paulhoang.Elasticsearch.event.IndexChangedEvent;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+import org.springframework.data.elasticsearch.core.query.IndexQuery.OpType;
+import org.springframework.stereotype.Component;
+
+/**
+ * Streams a JSON array of companies into an index. Rather than reading the whole file into a list, the array is
+ * walked token by token so only one record (plus the batches waiting to be sent) is ever held in memory.
+ * <p>
+ * {@link #sync} is the incremental version: the content hash of every record is compared with the one in the
+ * index's {@link SeedManifest} and only new or changed records are sent
+ */
+@Component
+@Slf4j
+public class SeedDataLoader {
+
+  private final ElasticsearchOperations elasticsearchOperations;
+  private final ElasticsearchClient elasticsearchClient;
+  private final ApplicationEventPublisher eventPublisher;
+  private final JsonMapper jsonMapper;
+  private final int maxDocs;
+  private final long maxBytes;
+  private final int concurrency;
+  private final Path manifestDir;
+
+  public SeedDataLoader(ElasticsearchOperations elasticsearchOperations, ElasticsearchClient elasticsearchClient,
+      ApplicationEventPublisher eventPublisher,
+      @Value("${es.bulk.maxDocs:1000}") int maxDocs,
+      @Value("${es.bulk.maxBytes:5242880}") long maxBytes,
+      @Value("${es.bulk.concurrency:2}") int concurrency,
+      @Value("${es.sync.manifestDir:.es-sync}") Path manifestDir) {
+    this.elasticsearchOperations = elasticsearchOperations;
+    this.elasticsearchClient = elasticsearchClient;
+    this.eventPublisher = eventPublisher;
+    this.maxDocs = maxDocs;
+    this.maxBytes = maxBytes;
+    this.concurrency = concurrency;
+    this.manifestDir = manifestDir;
+    this.jsonMapper = new JsonMapper();
+    this.jsonMapper.registerModule(new JavaTimeModule());
+  }
+
+  public BulkLoadResult load(Path path, CompanyType type) throws IOException {
+    return load(path, EnumSet.of(type)).get(type);
+  }
+
+  public BulkLoadResult load(InputStream inputStream, CompanyType type) throws IOException {
+    return load(inputStream, EnumSet.of(type)).get(type);
+  }
+
+  public Map<CompanyType, BulkLoadResult> load(Path path, Set<CompanyType> types) throws IOException {
+    try (InputStream inputStream = Files.newInputStream(path)) {
+      return load(inputStream, types);
+    }
+  }
+
+  /**
+   * Parses the seed data once and feeds every record to a bulk indexer per type, so loading several indices costs a
+   * single pass over the source
+   */
+  public Map<CompanyType, BulkLoadResult> load(InputStream inputStream, Set<CompanyType> types) throws IOException {
+    final Map<CompanyType, String> indices = new EnumMap<>(CompanyType.class);
+    types.forEach(type -> indices.put(type, type.getIndexName()));
+    return load(inputStream, indices);
+  }
+
+  /**
+   * @param indices the index (or alias) to load each type into
+   */
+  public Map<CompanyType, BulkLoadResult> load(InputStream inputStream, Map<CompanyType, String> indices)
+      throws IOException {
+    return loadAndSync(inputStream, indices, Set.of(), false).loads();
+  }
+
+  /**
+   * Upserts only the records that are new or have changed since the last sync, in a single pass over the source like
+   * {@link #load(InputStream, Set)}. If an index's manifest doesn't describe it (no manifest yet, the index was
+   * recreated or has been written to by something else) every record is sent and nothing can be deleted
+   *
+   * @param deleteMissing delete the documents of records that are no longer in the source
+   */
+  public Map<CompanyType, SyncResult> sync(InputStream inputStream, Set<CompanyType> types, boolean deleteMissing)
+      throws IOException {
+    return loadAndSync(inputStream, Map.of(), types, deleteMissing).syncs();
+  }
+
+  /**
+   * Loads some indices and delta syncs others in the same pass over the source, e.g. the first version of an index
+   * that is being built along with the existing index of the other type
+   *
+   * @param indices the index (or alias) to load each type into
+   * @param syncTypes the types whose index is delta synced, see {@link #sync}
+   */
+  public SeedResults loadAndSync(InputStream inputStream, Map<CompanyType, String> indices, Set<CompanyType> syncTypes,
+      boolean deleteMissing) throws IOException {
+    if (!indices.isEmpty()) {
+      log.info("Streaming seed data into {}", indices.values());
+    }
+    if (!syncTypes.isEmpty()) {
+      log.info("Delta syncing seed data into {}", syncTypes);
+    }
+    final Map<CompanyType, BulkIndexer> bulkIndexers = new EnumMap<>(CompanyType.class);
+    final Map<CompanyType, IndexSync> syncs = new EnumMap<>(CompanyType.class);
+    try {
+      indices.forEach((type, index) -> bulkIndexers.put(type, bulkIndexer(type, index)));
+      for (CompanyType type : syncTypes) {
+        syncs.put(type, new IndexSync(type));
+      }
+      readRecords(inputStream, (record, size) -> {
+        for (Map.Entry<CompanyType, BulkIndexer> entry : bulkIndexers.entrySet()) {
+          entry.getValue().add(indexQuery(entry.getKey(), record, OpType.CREATE), size);
+        }
+        if (!syncs.isEmpty()) {
+          final String id = record.path("id").asText();
+          final String hash = hash(record);
+          for (IndexSync sync : syncs.values()) {
+            sync.offer(id, hash, record, size);
+          }
+        }
+      });
+
+      final Map<CompanyType, BulkLoadResult> loads = new EnumMap<>(CompanyType.class);
+      bulkIndexers.forEach((type, bulkIndexer) -> loads.put(type, bulkIndexer.finish()));
+      final Map<CompanyType, SyncResult> syncResults = new EnumMap<>(CompanyType.class);
+      for (Map.Entry<CompanyType, IndexSync> entry : syncs.entrySet()) {
+        syncResults.put(entry.getKey(), entry.getValue().finish(deleteMissing));
+      }
+      return new SeedResults(loads, syncResults);
+    } finally {
+      bulkIndexers.values().forEach(BulkIndexer::close);
+      syncs.values().forEach(sync -> sync.bulkIndexer.close());
+    }
+  }
+
+  @FunctionalInterface
+  private interface RecordConsumer {
+
+    void accept(JsonNode record, long size) throws IOException;
+  }
+
+  private void readRecords(InputStream inputStream, RecordConsumer consumer) throws IOException {
+    try (JsonParser parser = jsonMapper.getFactory().createParser(inputStream)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        throw new IOException("Seed data must be a JSON array of companies");
+      }
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        final long start = parser.currentTokenLocation().getByteOffset();
+        final JsonNode record = jsonMapper.readTree(parser);
+        consumer.accept(record, parser.currentLocation().getByteOffset() - start);
+      }
+    }
+  }
+
+  private BulkIndexer bulkIndexer(CompanyType type, String index) {
+    return new BulkIndexer(elasticsearchOperations, IndexCoordinates.of(index), maxDocs, maxBytes,
+        concurrency, batch -> eventPublisher.publishEvent(
+        IndexChangedEvent.indexed(type, batch.stream().map(IndexQuery::getObject).toList())));
+  }
+
+  private IndexQuery indexQuery(CompanyType type, JsonNode record, OpType opType) throws IOException {
+    final Object company = jsonMapper.treeToValue(record, type.getClazz());
+    final IndexQuery iq = new IndexQuery();
+    iq.setId(type.idOf(company));
+    iq.setObject(company);
+    iq.setOpType(opType);
+    return iq;
+  }
+
+  private String hash(JsonNode record) throws IOException {
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return HexFormat.of().formatHex(digest.digest(jsonMapper.writeValueAsBytes(record)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * The state of the sync of a single index
+   */
+  private class IndexSync {
+
+    private final CompanyType type;
+    private final Path manifestPath;
+    private final SeedManifest manifest;
+    private final boolean resend;
+    private final BulkIndexer bulkIndexer;
+    private final Map<String, String> seen = new HashMap<>();
+    private long created;
+    private long updated;
+    private long resent;
+    private long unchanged;
+
+    IndexSync(CompanyType type) throws IOException {
+      this.type = type;
+      this.manifestPath = manifestDir.resolve(type.getIndexName() + ".json");
+      final SeedManifest current = SeedManifest.read(manifestPath);
+      final long count = elasticsearchClient.count(builder -> builder.index(type.getIndexName())).count();
+      final boolean trusted = current.describes(indexUuid(), count);
+      // an empty index can't have any of the records, otherwise there's no knowing which ones it has
+      this.resend = !trusted && count > 0;
+      if (resend) {
+        log.info("Manifest at {} doesn't match the {} documents in {}, every record will be sent", manifestPath,
+            count, type.getIndexName());
+      }
+      this.manifest = trusted ? current : SeedManifest.empty();
+      this.bulkIndexer = bulkIndexer(type, type.getIndexName());
+    }
+
+    void offer(String id, String hash, JsonNode record, long size) throws IOException {
+      seen.put(id, hash);
+      final String previous = manifest.hashes().get(id);
+      if (hash.equals(previous)) {
+        unchanged++;
+        return;
+      }
+      if (previous != null) {
+        updated++;
+      } else if (resend) {
+        resent++;
+      } else {
+        created++;
+      }
+      bulkIndexer.add(indexQuery(type, record, OpType.INDEX), size);
+    }
+
+    SyncResult finish(boolean deleteMissing) throws IOException {
+      final BulkLoadResult load = bulkIndexer.finish();
+
+      final Set<String> missing = new HashSet<>(manifest.hashes().keySet());
+      missing.removeAll(seen.keySet());
+      final Set<String> deleted = deleteMissing ? delete(missing) : Set.of();
+
+      // records that are still in the index but not the source stay in the manifest so it keeps matching the index
+      final Map<String, String> hashes = new HashMap<>(manifest.hashes());
+      hashes.keySet().removeAll(deleted);
+      hashes.putAll(seen);
+      if (load.failed() > load.failures().size()) {
+        // not every failed id is known so the next sync can't trust the manifest anyway
+        Files.deleteIfExists(manifestPath);
+      } else {
+        load.failures().keySet().forEach(hashes::remove);
+        new SeedManifest(indexUuid(), hashes).write(manifestPath);
+      }
+
+      final SyncResult result = new SyncResult(type.getIndexName(), created, updated, resent, unchanged,
+          deleted.size(), load.failed(), load.failures());
+      log.info("Delta sync of {} finished, {} created, {} updated, {} resent, {} unchanged, {} deleted, {} failed",
+          result.index(), result.created(), result.updated(), result.resent(), result.unchanged(), result.deleted(),
+          result.failed());
+      return result;
+    }
+
+    /**
+     * @return the ids that are gone from the index
+     */
+    private Set<String> delete(Set<String> ids) throws IOException {
+      final Set<String> deleted = new HashSet<>();
+      final List<String> remaining = new ArrayList<>(ids);
+      for (int from = 0; from < remaining.size(); from += maxDocs) {
+        final List<BulkOperation> operations = remaining.subList(from, Math.min(from + maxDocs, remaining.size()))
+            .stream()
+            .map(id -> BulkOperation.of(op -> op.delete(delete -> delete.id(id))))
+            .toList();
+        final BulkResponse response = elasticsearchClient.bulk(builder -> builder.index(type.getIndexName())
+            .operations(operations));
+        final List<String> batch = new ArrayList<>();
+        for (BulkResponseItem item : response.items()) {
+          if (item.error() == null || item.status() == 404) {
+            batch.add(item.id());
+          } else {
+            log.warn("Failed to delete {} from {}: {}", item.id(), type.getIndexName(), item.error().reason());
+          }
+        }
+        deleted.addAll(batch);
+        eventPublisher.publishEvent(IndexChangedEvent.deleted(type, batch));
+      }
+      return deleted;
+    }
+
+    private String indexUuid() throws IOException {
+      // the index name is usually an alias so the settings come back under the concrete index's name
+      final IndexSettings settings = elasticsearchClient.indices()
+          .getSettings(builder -> builder.index(type.getIndexName()))
+          .result().values().stream().findFirst().map(IndexState::settings).orElse(null);
+      if (settings == null) {
+        return null;
+      }
+      return settings.uuid() != null ? settings.uuid() : settings.index() == null ? null : settings.index().uuid();
+    }
+  }
+}
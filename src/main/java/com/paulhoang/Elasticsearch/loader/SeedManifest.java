@@ -0,0 +1,50 @@
+package com.paulhoang.Elasticsearch.loader;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The content hash of every seed record in an index as of the last sync, kept in a local file. It only describes the
+ * index it was written for (identified by its uuid) so a deleted and recreated index never matches an old manifest
+ */
+public record SeedManifest(String indexUuid, Map<String, String> hashes) {
+
+  private static final JsonMapper JSON_MAPPER = new JsonMapper();
+
+  public static SeedManifest empty() {
+    return new SeedManifest(null, Map.of());
+  }
+
+  /**
+   * @return the manifest in the file or an empty one if there isn't one
+   */
+  public static SeedManifest read(Path path) throws IOException {
+    if (!Files.exists(path)) {
+      return empty();
+    }
+    return JSON_MAPPER.readValue(path.toFile(), SeedManifest.class);
+  }
+
+  /**
+   * @param documentCount the number of documents in the index right now
+   * @return true if the index still holds exactly what this manifest says it does
+   */
+  public boolean describes(String uuid, long documentCount) {
+    return indexUuid != null && Objects.equals(indexUuid, uuid) && hashes.size() == documentCount;
+  }
+
+  /**
+   * Writes to a temporary file first so a crash mid write never leaves a half written manifest behind
+   */
+  public void write(Path path) throws IOException {
+    Files.createDirectories(path.toAbsolutePath().getParent());
+    final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    JSON_MAPPER.writeValue(temp.toFile(), this);
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
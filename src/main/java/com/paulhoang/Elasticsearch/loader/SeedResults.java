@@ -0,0 +1,12 @@
+package com.paulhoang.Elasticsearch.loader;
+
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import java.util.Map;
+
+/**
+ * What a single pass over the seed data did to each index, the ones it was loaded into are in loads and the delta
+ * synced ones in syncs
+ */
+public record SeedResults(Map<CompanyType, BulkLoadResult> loads, Map<CompanyType, SyncResult> syncs) {
+
+}
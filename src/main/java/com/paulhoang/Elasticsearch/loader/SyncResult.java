@@ -0,0 +1,13 @@
+package com.paulhoang.Elasticsearch.loader;
+
+import java.util.Map;
+
+/**
+ * Summary of a delta sync of the seed data into a single index. Created, updated and resent records are the ones sent
+ * to ES, resent being those sent because the manifest couldn't be trusted so whether ES already had them isn't known.
+ * Failed counts the ones ES rejected (failures holds the id and reason of at most the first 100 of them)
+ */
+public record SyncResult(String index, long created, long updated, long resent, long unchanged, long deleted,
+                         long failed, Map<String, String> failures) {
+
+}
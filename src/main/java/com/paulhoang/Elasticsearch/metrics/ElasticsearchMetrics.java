@@ -0,0 +1,251 @@
+package com.paulhoang.Elasticsearch.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import lombok.RequiredArgsConstructor;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.stereotype.Component;
+
+/**
+ * Meters for every call made to elasticsearch. Latency is recorded at three layers so it can be split up:
+ * <ul>
+ *   <li>{@code es.client.requests} - the whole client call, including request serialization and response mapping</li>
+ *   <li>{@code es.http.requests} - from the request being written on the connection it leased to the response
+ *   headers arriving, so network and ES time</li>
+ *   <li>{@code es.took} - the time ES itself reports spending on searches and bulks</li>
+ * </ul>
+ * client - http is (de)serialization overhead and waiting for a connection from the pool ({@code es.pool.pending}),
+ * http - took is network and ES queueing. The connection pool and the nodes are metered as well ({@code es.pool.*},
+ * {@code es.node.*}).
+ * <p>
+ * The meters recorded to on every request are built once per set of tag values and looked up from then on
+ */
+@Component
+@RequiredArgsConstructor
+public class ElasticsearchMetrics {
+
+  /**
+   * The tag values a meter was built with, unused ones are null
+   */
+  private record Tags(String first, String second, String third) {
+
+  }
+
+  private final MeterRegistry meterRegistry;
+  private final Map<Tags, Timer> clientTimers = new ConcurrentHashMap<>();
+  private final Map<Tags, Timer> httpTimers = new ConcurrentHashMap<>();
+  private final Map<String, Timer> tookTimers = new ConcurrentHashMap<>();
+  private final Map<String, DistributionSummary> hitSummaries = new ConcurrentHashMap<>();
+  private final Map<String, DistributionSummary> responseSizeSummaries = new ConcurrentHashMap<>();
+  private final Map<String, Counter> bulkItemCounters = new ConcurrentHashMap<>();
+  private final Map<String, DistributionSummary> nameQuerySummaries = new ConcurrentHashMap<>();
+  private final Map<String, Counter> nodeFailureCounters = new ConcurrentHashMap<>();
+  private final Map<Tags, Counter> hedgedReadCounters = new ConcurrentHashMap<>();
+  private final Map<String, Counter> deadlineCounters = new ConcurrentHashMap<>();
+  private final Map<String, Counter> shedCounters = new ConcurrentHashMap<>();
+
+  public void recordClient(String operation, long nanos, boolean success) {
+    meter(clientTimers, new Tags(operation, success ? "success" : "error", null),
+        tags -> Timer.builder("es.client.requests")
+            .description("Elasticsearch client calls, including serialization and deserialization")
+            .tag("operation", tags.first())
+            .tag("outcome", tags.second())
+            .publishPercentileHistogram()
+            .register(meterRegistry))
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void recordHttp(String endpoint, int status, long nanos) {
+    meter(httpTimers, new Tags(endpoint, String.valueOf(status), null),
+        tags -> Timer.builder("es.http.requests")
+            .description("Elasticsearch http exchanges from the request being sent to the response headers")
+            .tag("endpoint", tags.first())
+            .tag("status", tags.second())
+            .publishPercentileHistogram()
+            .register(meterRegistry))
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void recordTook(String operation, long millis) {
+    meter(tookTimers, operation, tag -> Timer.builder("es.took")
+            .description("Time elasticsearch reports spending on the request")
+            .tag("operation", tag)
+            .publishPercentileHistogram()
+            .register(meterRegistry))
+        .record(millis, TimeUnit.MILLISECONDS);
+  }
+
+  public void recordHits(String operation, long hits) {
+    meter(hitSummaries, operation, tag -> DistributionSummary.builder("es.hits")
+            .description("Documents returned per request")
+            .tag("operation", tag)
+            .register(meterRegistry))
+        .record(hits);
+  }
+
+  public void recordResponseSize(String endpoint, long bytes) {
+    meter(responseSizeSummaries, endpoint, tag -> DistributionSummary.builder("es.response.size")
+            .description("Elasticsearch response body size")
+            .baseUnit("bytes")
+            .tag("endpoint", tag)
+            .register(meterRegistry))
+        .record(bytes);
+  }
+
+  public void recordBulkItems(long succeeded, long failed) {
+    bulkItems("success").increment(succeeded);
+    bulkItems("failure").increment(failed);
+  }
+
+  /**
+   * Hits of each query run for a planned name search, the count per strategy shows how often each one runs
+   */
+  public void recordNameQuery(String strategy, long hits) {
+    meter(nameQuerySummaries, strategy, tag -> DistributionSummary.builder("es.name.queries")
+            .description("Name search queries by the strategy the planner picked, with the hits each returned")
+            .tag("strategy", tag)
+            .register(meterRegistry))
+        .record(hits);
+  }
+
+  public void recordNodeFailure(String node) {
+    meter(nodeFailureCounters, node, tag -> Counter.builder("es.node.failures")
+            .description("Requests that failed against a node and got it marked dead")
+            .tag("node", tag)
+            .register(meterRegistry))
+        .increment();
+  }
+
+  /**
+   * Gauges of how many connections of the pool are in use, idle and at most allowed, and how many requests are
+   * waiting for one
+   */
+  public void bindConnectionPool(PoolingNHttpClientConnectionManager connectionManager) {
+    poolGauge(connectionManager, "leased", PoolStats::getLeased);
+    poolGauge(connectionManager, "available", PoolStats::getAvailable);
+    poolGauge(connectionManager, "max", PoolStats::getMax);
+    Gauge.builder("es.pool.pending", connectionManager, manager -> manager.getTotalStats().getPending())
+        .description("Requests waiting for a connection from the pool")
+        .strongReference(true)
+        .register(meterRegistry);
+  }
+
+  public <T> void bindNodeLatency(String node, T source, ToDoubleFunction<T> nanos) {
+    Gauge.builder("es.node.latency", source, value -> nanos.applyAsDouble(value) / 1_000_000_000d)
+        .description("Moving average of the node's response time used to pick nodes")
+        .baseUnit("seconds")
+        .tag("node", node)
+        .strongReference(true)
+        .register(meterRegistry);
+  }
+
+  /**
+   * Gauge of the writes taken by the group commit writer that haven't completed yet
+   */
+  public <T> void bindWriteQueue(T source, ToDoubleFunction<T> outstanding) {
+    Gauge.builder("es.write.outstanding", source, outstanding)
+        .description("Company writes waiting for or in a bulk request")
+        .strongReference(true)
+        .register(meterRegistry);
+  }
+
+  /**
+   * Counts the reads that got a response, by whether they were hedged and which request answered
+   */
+  public void recordHedgedRead(String operation, boolean hedged, boolean hedgeWon) {
+    meter(hedgedReadCounters, new Tags(operation, String.valueOf(hedged), hedgeWon ? "hedge" : "primary"),
+        tags -> Counter.builder("es.hedge.reads")
+            .description("Elasticsearch reads that got a response, by whether a hedge was sent and which one answered")
+            .tag("operation", tags.first())
+            .tag("hedged", tags.second())
+            .tag("winner", tags.third())
+            .register(meterRegistry))
+        .increment();
+  }
+
+  public void recordDeadlineExceeded(String operation) {
+    meter(deadlineCounters, operation, tag -> Counter.builder("es.deadline.exceeded")
+            .description("Elasticsearch reads given up on at their deadline")
+            .tag("operation", tag)
+            .register(meterRegistry))
+        .increment();
+  }
+
+  /**
+   * Gauges of the hedge delay (NaN while the operation isn't hedged) and deadline worked out for an operation
+   */
+  public <T> void bindAdaptiveTimeouts(String operation, T source, ToDoubleFunction<T> hedgeDelayNanos,
+      ToDoubleFunction<T> deadlineNanos) {
+    Gauge.builder("es.hedge.delay", source, value -> {
+          final double nanos = hedgeDelayNanos.applyAsDouble(value);
+          return nanos < 0 ? Double.NaN : nanos / 1_000_000_000d;
+        })
+        .description("How long a read waits before it is hedged")
+        .baseUnit("seconds")
+        .tag("operation", operation)
+        .strongReference(true)
+        .register(meterRegistry);
+    Gauge.builder("es.deadline", source, value -> deadlineNanos.applyAsDouble(value) / 1_000_000_000d)
+        .description("How long a read waits at most")
+        .baseUnit("seconds")
+        .tag("operation", operation)
+        .strongReference(true)
+        .register(meterRegistry);
+  }
+
+  /**
+   * Gauges of the adaptive concurrency limit in front of ES and the requests in flight under it
+   */
+  public <T> void bindConcurrencyLimit(T source, ToDoubleFunction<T> limit, ToDoubleFunction<T> inFlight) {
+    Gauge.builder("es.limit", source, limit)
+        .description("How many Elasticsearch requests are allowed in flight at once")
+        .strongReference(true)
+        .register(meterRegistry);
+    Gauge.builder("es.limit.inflight", source, inFlight)
+        .description("Elasticsearch requests in flight under the concurrency limit")
+        .strongReference(true)
+        .register(meterRegistry);
+  }
+
+  public void recordShed(String requestClass) {
+    meter(shedCounters, requestClass, tag -> Counter.builder("es.limit.rejected")
+            .description("Elasticsearch requests turned away by the concurrency limit, by their class")
+            .tag("class", tag)
+            .register(meterRegistry))
+        .increment();
+  }
+
+  private void poolGauge(PoolingNHttpClientConnectionManager connectionManager, String state,
+      ToDoubleFunction<PoolStats> value) {
+    Gauge.builder("es.pool.connections", connectionManager,
+            manager -> value.applyAsDouble(manager.getTotalStats()))
+        .description("Connections in the elasticsearch client's pool")
+        .tag("state", state)
+        .strongReference(true)
+        .register(meterRegistry);
+  }
+
+  private Counter bulkItems(String result) {
+    return meter(bulkItemCounters, result, tag -> Counter.builder("es.bulk.items")
+        .description("Bulk items by result")
+        .tag("result", tag)
+        .register(meterRegistry));
+  }
+
+  /**
+   * The meter built for these tag values, registering it the first time they're seen
+   */
+  private static <K, M> M meter(Map<K, M> meters, K tags, Function<K, M> register) {
+    final M meter = meters.get(tags);
+    return meter != null ? meter : meters.computeIfAbsent(tags, register);
+  }
+}
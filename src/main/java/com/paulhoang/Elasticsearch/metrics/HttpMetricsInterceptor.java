@@ -0,0 +1,59 @@
+package com.paulhoang.Elasticsearch.metrics;
+
+import lombok.RequiredArgsConstructor;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Registered as both the first request and last response interceptor of the rest client's http client so it sees
+ * the raw exchange, before the java client serializes or after it deserializes anything. The http client runs the
+ * interceptors once it has leased a connection for the request, so waiting for one isn't part of the time
+ */
+@RequiredArgsConstructor
+public class HttpMetricsInterceptor implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+  private static final String START = HttpMetricsInterceptor.class.getName() + ".start";
+  private static final String ENDPOINT = HttpMetricsInterceptor.class.getName() + ".endpoint";
+
+  private final ElasticsearchMetrics metrics;
+
+  @Override
+  public void process(HttpRequest request, HttpContext context) {
+    context.setAttribute(START, System.nanoTime());
+    context.setAttribute(ENDPOINT, endpointOf(request.getRequestLine().getUri()));
+  }
+
+  @Override
+  public void process(HttpResponse response, HttpContext context) {
+    if (!(context.getAttribute(START) instanceof Long start)) {
+      return;
+    }
+    final String endpoint = (String) context.getAttribute(ENDPOINT);
+    metrics.recordHttp(endpoint, response.getStatusLine().getStatusCode(), System.nanoTime() - start);
+    final Header contentLength = response.getFirstHeader(HttpHeaders.CONTENT_LENGTH);
+    if (contentLength != null) {
+      metrics.recordResponseSize(endpoint, Long.parseLong(contentLength.getValue()));
+    } else if (response.getEntity() != null && response.getEntity().getContentLength() >= 0) {
+      metrics.recordResponseSize(endpoint, response.getEntity().getContentLength());
+    }
+  }
+
+  /**
+   * The first underscore path segment (_search, _doc, _bulk...) so index names and ids don't explode the tag values
+   */
+  public static String endpointOf(String uri) {
+    final int query = uri.indexOf('?');
+    final String path = query < 0 ? uri : uri.substring(0, query);
+    for (String segment : path.split("/")) {
+      if (segment.startsWith("_")) {
+        return segment;
+      }
+    }
+    return path.chars().filter(c -> c == '/').count() <= 1 ? "index" : "other";
+  }
+}
@@ -0,0 +1,102 @@
+package com.paulhoang.Elasticsearch.metrics;
+
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.MgetResponse;
+import co.elastic.clients.elasticsearch.core.MsearchResponse;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.Endpoint;
+import co.elastic.clients.transport.TransportOptions;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Times every request going through the java client (blocking and async, and so spring data too) and records what
+ * ES reports back about it
+ */
+@RequiredArgsConstructor
+public class InstrumentedTransport implements ElasticsearchTransport {
+
+  private static final String ENDPOINT_PREFIX = "es/";
+
+  private final ElasticsearchTransport delegate;
+  private final ElasticsearchMetrics metrics;
+
+  @Override
+  public <RequestT, ResponseT, ErrorT> ResponseT performRequest(RequestT request,
+      Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options) throws IOException {
+    final String operation = operationOf(request, endpoint);
+    final long start = System.nanoTime();
+    boolean success = false;
+    try {
+      final ResponseT response = delegate.performRequest(request, endpoint, options);
+      success = true;
+      recordResponse(operation, response);
+      return response;
+    } finally {
+      metrics.recordClient(operation, System.nanoTime() - start, success);
+    }
+  }
+
+  @Override
+  public <RequestT, ResponseT, ErrorT> CompletableFuture<ResponseT> performRequestAsync(RequestT request,
+      Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options) {
+    final String operation = operationOf(request, endpoint);
+    final long start = System.nanoTime();
+    return delegate.performRequestAsync(request, endpoint, options).whenComplete((response, ex) -> {
+      metrics.recordClient(operation, System.nanoTime() - start, ex == null);
+      if (ex == null) {
+        recordResponse(operation, response);
+      }
+    });
+  }
+
+  @Override
+  public JsonpMapper jsonpMapper() {
+    return delegate.jsonpMapper();
+  }
+
+  @Override
+  public TransportOptions options() {
+    return delegate.options();
+  }
+
+  @Override
+  public void close() throws IOException {
+    delegate.close();
+  }
+
+  /**
+   * The endpoint id without its es/ prefix (get, search, count, bulk, indices.put_mapping...), with fuzzy searches (a
+   * fuzzy query or a match with fuzziness) split out of search
+   */
+  public static String operationOf(Object request, Endpoint<?, ?, ?> endpoint) {
+    if (request instanceof SearchRequest searchRequest && searchRequest.query() != null
+        && (searchRequest.query().isFuzzy()
+        || searchRequest.query().isMatch() && searchRequest.query().match().fuzziness() != null)) {
+      return "fuzzy";
+    }
+    final String id = endpoint.id();
+    return id.startsWith(ENDPOINT_PREFIX) ? id.substring(ENDPOINT_PREFIX.length()) : id;
+  }
+
+  private void recordResponse(String operation, Object response) {
+    if (response instanceof SearchResponse<?> searchResponse) {
+      metrics.recordTook(operation, searchResponse.took());
+      metrics.recordHits(operation, searchResponse.hits().hits().size());
+    } else if (response instanceof MsearchResponse<?> msearchResponse) {
+      metrics.recordTook(operation, msearchResponse.took());
+    } else if (response instanceof MgetResponse<?> mgetResponse) {
+      metrics.recordHits(operation, mgetResponse.docs().stream()
+          .filter(item -> item.isResult() && item.result().found())
+          .count());
+    } else if (response instanceof BulkResponse bulkResponse) {
+      metrics.recordTook(operation, bulkResponse.took());
+      final long failed = bulkResponse.items().stream().filter(item -> item.error() != null).count();
+      metrics.recordBulkItems(bulkResponse.items().size() - failed, failed);
+    }
+  }
+}
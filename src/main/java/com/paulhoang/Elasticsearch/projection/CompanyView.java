@@ -0,0 +1,23 @@
+package com.paulhoang.Elasticsearch.projection;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.paulhoang.Elasticsearch.entity.Owner;
+import java.util.List;
+
+/**
+ * Slim read model for projected responses, only the fields ES returned are set (and serialized). Dates are kept as
+ * the raw strings from the _source as there's no point parsing them just to write them back out
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record CompanyView(String id,
+                          String name,
+                          String telephone,
+                          String address,
+                          String dateOfIncorporation,
+                          List<String> services,
+                          Owner owner,
+                          String status) {
+
+}
@@ -0,0 +1,62 @@
+package com.paulhoang.Elasticsearch.projection;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * The _source fields a caller asked for, either a predefined view (e.g. {@code ?fields=summary}) or a comma separated
+ * list of fields (e.g. {@code ?fields=id,name,owner.name})
+ */
+public record Projection(List<String> fields) {
+
+  public enum View {
+    SUMMARY(List.of("id", "name")),
+    CONTACT(List.of("id", "name", "telephone", "address")),
+    FULL(List.of("id", "name", "telephone", "address", "dateOfIncorporation", "services", "owner", "status"));
+
+    private final List<String> fields;
+
+    View(List<String> fields) {
+      this.fields = fields;
+    }
+
+    public List<String> getFields() {
+      return fields;
+    }
+  }
+
+  private static final Set<String> ALLOWED_FIELDS = Set.of("id", "name", "telephone", "address",
+      "dateOfIncorporation", "services", "owner", "owner.name", "owner.age", "status");
+
+  public static Projection parse(String fields) {
+    final String trimmed = fields.trim();
+    for (View view : View.values()) {
+      if (view.name().equals(trimmed.toUpperCase(Locale.ROOT))) {
+        return new Projection(view.getFields());
+      }
+    }
+
+    final List<String> requested = Arrays.stream(trimmed.split(","))
+        .map(String::trim)
+        .filter(field -> !field.isEmpty())
+        .distinct()
+        .toList();
+    if (requested.isEmpty()) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "No fields requested");
+    }
+    for (String field : requested) {
+      if (!ALLOWED_FIELDS.contains(field)) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown field " + field);
+      }
+    }
+    return new Projection(requested);
+  }
+
+  public String[] includes() {
+    return fields.toArray(String[]::new);
+  }
+}
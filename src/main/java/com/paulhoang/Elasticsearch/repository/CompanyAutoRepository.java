@@ -4,6 +4,7 @@ import com.paulhoang.Elasticsearch.entity.CompanyAuto;
 import java.util.Optional;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.elasticsearch.annotations.Query;
 import org.springframework.data.elasticsearch.repository.ElasticsearchRepository;
 import org.springframework.stereotype.Repository;
 
@@ -12,6 +13,10 @@ public interface CompanyAutoRepository extends ElasticsearchRepository<CompanyAu
 
   Optional<CompanyAuto> findByTelephone(String telephone);
 
-  Page<CompanyAuto> findAllByOwner(String owner, Pageable pageable);
+  /**
+   * owner is nested so a derived query can't reach into it, this is a term lookup on owner.name inside a nested query
+   */
+  @Query("{\"nested\": {\"path\": \"owner\", \"score_mode\": \"none\", \"query\": {\"term\": {\"owner.name\": \"?0\"}}}}")
+  Page<CompanyAuto> findAllByOwnerName(String name, Pageable pageable);
 
 }
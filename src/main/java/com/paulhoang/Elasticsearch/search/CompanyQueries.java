@@ -0,0 +1,158 @@
+package com.paulhoang.Elasticsearch.search;
+
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.query_dsl.ChildScoreMode;
+import co.elastic.clients.elasticsearch._types.query_dsl.Operator;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.json.JsonData;
+import com.paulhoang.Elasticsearch.autocomplete.NameNormalizer;
+import java.util.Collection;
+import java.util.regex.Pattern;
+
+/**
+ * The ES queries behind the company search endpoints, shared by everything that talks to ES with the java client
+ */
+public final class CompanyQueries {
+
+  static final int FUZZY_PREFIX_LENGTH = 1;
+  static final int FUZZY_MAX_EXPANSIONS = 50;
+  private static final String QUERY_STRING_SYNTAX = "\\+-!():^[]\"{}~*?|&/";
+  private static final Pattern BOOLEAN_OPERATOR = Pattern.compile("\\b(AND|OR|NOT)\\b");
+
+  private CompanyQueries() {
+  }
+
+  public static Query address(String address) {
+    return Query.of(q -> q
+        .match(t -> t
+            .field("address")
+            .query(address)
+        )
+    );
+  }
+
+  /**
+   * Same as the {@code Criteria.where("address").contains(term)} used by the auto controller: the term is escaped so
+   * it's never read as query_string syntax and every word of it has to match
+   */
+  public static Query addressContains(String term) {
+    return Query.of(q -> q
+        .queryString(t -> t
+            .fields("address")
+            .query("*" + escape(term) + "*")
+            .analyzeWildcard(true)
+            .defaultOperator(Operator.And)
+        )
+    );
+  }
+
+  /**
+   * The term with the same query_string syntax escaped as Spring Data's CriteriaQueryProcessor escapes, and the boolean
+   * operators, which it leaves alone, escaped too so they're searched for as words
+   */
+  static String escape(String term) {
+    final StringBuilder escaped = new StringBuilder(term.length());
+    for (char c : term.toCharArray()) {
+      if (QUERY_STRING_SYNTAX.indexOf(c) >= 0) {
+        escaped.append('\\');
+      }
+      escaped.append(c);
+    }
+    return BOOLEAN_OPERATOR.matcher(escaped).replaceAll("\\\\$1");
+  }
+
+  public static Query companyName(String companyName) {
+    return Query.of(q -> q
+        .match(t -> t
+            .field("name.search")
+            .query(companyName)
+        )
+    );
+  }
+
+  /**
+   * Like {@link #companyName(String)} but every term has to match, the equivalent of
+   * {@code Criteria.where("name.search").is(term)}
+   */
+  public static Query companyNameAllTerms(String companyName) {
+    return Query.of(q -> q
+        .match(t -> t
+            .field("name.search")
+            .query(companyName)
+            .operator(Operator.And)
+        )
+    );
+  }
+
+  /**
+   * Companies with exactly one of the names, a terms lookup on the keyword so nothing is analyzed or scored by
+   * relevance
+   */
+  public static Query companyNameExact(Collection<String> names) {
+    return Query.of(q -> q
+        .terms(t -> t
+            .field("name")
+            .terms(values -> values.value(names.stream().map(FieldValue::of).toList()))
+        )
+    );
+  }
+
+  public static Query companyNameFuzzy(String companyName) {
+    return companyNameFuzzy(companyName, FUZZY_PREFIX_LENGTH, FUZZY_MAX_EXPANSIONS);
+  }
+
+  /**
+   * Every word of the name has to match a word of the company's name within AUTO fuzziness (no edits up to 2 chars,
+   * 1 up to 5 and 2 after that). The words are taken whole with the standard analyzer rather than being edge ngrammed
+   * like the rest of the name.search lookups, folded first as the standard analyzer doesn't, and the first
+   * {@code prefixLength} chars have to match exactly so only the grams that share them are expanded, at most
+   * {@code maxExpansions} of them
+   */
+  public static Query companyNameFuzzy(String companyName, int prefixLength, int maxExpansions) {
+    return Query.of(q -> q
+        .match(t -> t
+            .field("name.search")
+            .query(NameNormalizer.normalize(companyName))
+            .analyzer("standard")
+            .operator(Operator.And)
+            .fuzziness("AUTO")
+            .prefixLength(prefixLength)
+            .maxExpansions(maxExpansions)
+        )
+    );
+  }
+
+  /**
+   * An owner's companies: an exact match on the owner's name inside a nested query, optionally narrowed to an age
+   * range. Everything is in filter context as there's nothing to score
+   *
+   * @param minAge null for no lower bound
+   * @param maxAge null for no upper bound
+   */
+  public static Query owner(String name, Integer minAge, Integer maxAge) {
+    return Query.of(q -> q
+        .nested(n -> n
+            .path("owner")
+            .scoreMode(ChildScoreMode.None)
+            .query(nested -> nested
+                .bool(b -> {
+                  b.filter(f -> f.term(t -> t.field("owner.name").value(name)));
+                  if (minAge != null || maxAge != null) {
+                    b.filter(f -> f.range(r -> {
+                      r.field("owner.age");
+                      if (minAge != null) {
+                        r.gte(JsonData.of(minAge));
+                      }
+                      if (maxAge != null) {
+                        r.lte(JsonData.of(maxAge));
+                      }
+                      return r;
+                    }));
+                  }
+                  return b;
+                })
+            )
+        )
+    );
+  }
+}
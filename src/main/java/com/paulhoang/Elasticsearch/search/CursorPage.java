@@ -0,0 +1,10 @@
+package com.paulhoang.Elasticsearch.search;
+
+import java.util.List;
+
+/**
+ * A page of results, pass the cursor back to get the next page. The cursor is null on the last page
+ */
+public record CursorPage<T>(List<T> items, String cursor) {
+
+}
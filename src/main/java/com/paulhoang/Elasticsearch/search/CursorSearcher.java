@@ -0,0 +1,125 @@
+package com.paulhoang.Elasticsearch.search;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paulhoang.Elasticsearch.projection.Projection;
+import com.paulhoang.Elasticsearch.service.IndexScanner;
+import com.paulhoang.Elasticsearch.service.IndexScanner.Page;
+import com.paulhoang.Elasticsearch.service.IndexScanner.Position;
+import com.paulhoang.Elasticsearch.service.IndexScanner.ScanRequest;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Base64;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Deep pagination over the {@link IndexScanner}'s point in time walk of the matches. Unlike from/size every page costs
+ * the same, however deep it is, and pages are consistent with each other. The cursor handed back to callers is the PIT
+ * id and the sort values of the last hit, base64 encoded
+ */
+@Component
+public class CursorSearcher {
+
+  private static final int EXPORT_PAGE_SIZE = 1000;
+
+  private record Cursor(String pitId, List<Object> searchAfter) {
+
+  }
+
+  private final IndexScanner indexScanner;
+  private final ObjectMapper objectMapper;
+  private final String keepAlive;
+
+  public CursorSearcher(IndexScanner indexScanner, ObjectMapper objectMapper,
+      @Value("${search.cursor.keepAlive:1m}") String keepAlive) {
+    this.indexScanner = indexScanner;
+    this.objectMapper = objectMapper;
+    this.keepAlive = keepAlive;
+  }
+
+  /**
+   * @param cursor null for the first page, otherwise the cursor of the previous page. The query has to be the same
+   * one the cursor was created with
+   * @throws ResponseStatusException 410 when the cursor's point in time has expired (it isn't kept open for longer
+   * than the keep alive between pages), the search has to be started again
+   */
+  public <T> CursorPage<T> search(String index, Query query, Class<T> clazz, Projection projection, int size,
+      String cursor) throws IOException {
+    final Position position = cursor == null ? null : decode(cursor);
+    final Page<T> page;
+    try {
+      page = indexScanner.page(scanRequest(index, query, projection, size), position, clazz);
+    } catch (ElasticsearchException e) {
+      if (position != null && e.status() == HttpStatus.NOT_FOUND.value()) {
+        throw new ResponseStatusException(HttpStatus.GONE, "Cursor expired");
+      }
+      throw e;
+    }
+    final List<T> items = page.hits().stream().map(Hit::source).toList();
+    return new CursorPage<>(items, page.next() == null ? null : encode(page.next()));
+  }
+
+  /**
+   * Writes every match as a line of JSON, each page is flushed as soon as it's fetched
+   */
+  public long export(String index, Query query, Projection projection, OutputStream outputStream)
+      throws IOException {
+    try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+      generator.setRootValueSeparator(null);
+      return indexScanner.scan(scanRequest(index, query, projection, EXPORT_PAGE_SIZE), JsonNode.class, hits -> {
+        for (Hit<JsonNode> hit : hits) {
+          generator.writeTree(hit.source());
+          generator.writeRaw('\n');
+        }
+        generator.flush();
+      });
+    }
+  }
+
+  /**
+   * Searches are made on behalf of a caller, so one the limiter sheds fails straight away rather than waiting
+   */
+  private ScanRequest scanRequest(String index, Query query, Projection projection, int size) {
+    return new ScanRequest(index, query, projection == null ? null : projection.fields(), size, keepAlive, 1);
+  }
+
+  private String encode(Position position) throws IOException {
+    final Cursor cursor = new Cursor(position.pitId(), position.searchAfter().stream().map(FieldValue::_get).toList());
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(cursor));
+  }
+
+  private Position decode(String cursor) {
+    try {
+      final Cursor decoded = objectMapper.readValue(Base64.getUrlDecoder().decode(cursor), Cursor.class);
+      if (decoded.pitId() == null || decoded.searchAfter() == null) {
+        throw new IllegalArgumentException("Incomplete cursor");
+      }
+      return new Position(decoded.pitId(),
+          decoded.searchAfter().stream().map(CursorSearcher::toFieldValue).toList());
+    } catch (IOException | IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+    }
+  }
+
+  private static FieldValue toFieldValue(Object value) {
+    if (value == null) {
+      return FieldValue.NULL;
+    } else if (value instanceof Double || value instanceof Float) {
+      return FieldValue.of(((Number) value).doubleValue());
+    } else if (value instanceof Number number) {
+      return FieldValue.of(number.longValue());
+    } else if (value instanceof Boolean bool) {
+      return FieldValue.of(bool);
+    }
+    return FieldValue.of(value.toString());
+  }
+}
@@ -0,0 +1,14 @@
+package com.paulhoang.Elasticsearch.search;
+
+import com.paulhoang.Elasticsearch.projection.CompanyView;
+import com.paulhoang.Elasticsearch.search.RankFusion.Fused;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The merged hits of a federated search, plus the reason for every sub-search that failed (its hits are missing but
+ * the rest are still returned)
+ */
+public record FederatedSearchResult(List<Fused<CompanyView>> hits, Map<String, String> failures) {
+
+}
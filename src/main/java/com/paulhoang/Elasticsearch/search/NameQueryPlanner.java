@@ -0,0 +1,259 @@
+package com.paulhoang.Elasticsearch.search;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.core.search.QueryProfile;
+import com.paulhoang.Elasticsearch.autocomplete.AutocompleteEngine;
+import com.paulhoang.Elasticsearch.autocomplete.NameNormalizer;
+import com.paulhoang.Elasticsearch.autocomplete.Suggestion;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import com.paulhoang.Elasticsearch.metrics.ElasticsearchMetrics;
+import com.paulhoang.Elasticsearch.projection.Projection;
+import com.paulhoang.Elasticsearch.search.NameQueryProfile.QueryTiming;
+import com.paulhoang.Elasticsearch.search.RawSourceSearcher.RawHit;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Plans the typo tolerant name searches so the cheapest query that finds enough companies is the one that runs,
+ * rather than always a fuzzy query over name.search whose edge ngrams give it a huge number of terms to expand. The
+ * plan is a list of {@link NameStrategy}s, cheapest first, worked out from the term and (once the autocomplete prefix
+ * index is warm) from what's in the index:
+ * <ul>
+ *   <li>{@link NameStrategy#EXACT} only when companies have exactly that name</li>
+ *   <li>{@link NameStrategy#PREFIX} unless the only names it prefixes are those exact ones, or it prefixes none</li>
+ *   <li>{@link NameStrategy#FUZZY} unless the prefix matches are already search.name.minHits, or no word of the term
+ *   is long enough to be fuzzy matched</li>
+ * </ul>
+ * Without the prefix index it's prefix then fuzzy. Each query only runs if the ones before it found fewer than
+ * search.name.minHits companies, and the hits of all the queries that ran are merged in order. A search.name.profileRate
+ * share of the queries go to ES with profile on and the last profiles are kept for /admin/profiles/name
+ */
+@Component
+@Slf4j
+public class NameQueryPlanner {
+
+  /**
+   * The number of hits the name searches have always returned, ES's default size
+   */
+  public static final int DEFAULT_SIZE = 10;
+
+  /**
+   * AUTO fuzziness allows no edits below this length
+   */
+  static final int MIN_FUZZY_LENGTH = 3;
+  private static final int MAX_PROFILES = 50;
+  private static final int MAX_DESCRIPTION_LENGTH = 300;
+
+  record PlannedQuery(NameStrategy strategy, Query query) {
+
+  }
+
+  private final ElasticsearchClient elasticsearchClient;
+  private final ElasticsearchAsyncClient elasticsearchAsyncClient;
+  private final RawSourceSearcher rawSourceSearcher;
+  private final AutocompleteEngine autocompleteEngine;
+  private final ElasticsearchMetrics metrics;
+  private final int minHits;
+  private final int prefixLength;
+  private final int maxExpansions;
+  private final double profileRate;
+  private final Deque<NameQueryProfile> profiles = new ArrayDeque<>();
+
+  public NameQueryPlanner(ElasticsearchClient elasticsearchClient, ElasticsearchAsyncClient elasticsearchAsyncClient,
+      RawSourceSearcher rawSourceSearcher, AutocompleteEngine autocompleteEngine, ElasticsearchMetrics metrics,
+      @Value("${search.name.minHits:5}") int minHits,
+      @Value("${search.name.fuzzy.prefixLength:1}") int prefixLength,
+      @Value("${search.name.fuzzy.maxExpansions:50}") int maxExpansions,
+      @Value("${search.name.profileRate:0.01}") double profileRate) {
+    this.elasticsearchClient = elasticsearchClient;
+    this.elasticsearchAsyncClient = elasticsearchAsyncClient;
+    this.rawSourceSearcher = rawSourceSearcher;
+    this.autocompleteEngine = autocompleteEngine;
+    this.metrics = metrics;
+    this.minHits = minHits;
+    this.prefixLength = prefixLength;
+    this.maxExpansions = maxExpansions;
+    this.profileRate = profileRate;
+  }
+
+  /**
+   * @param projection the _source fields to fetch, null for the whole document
+   * @return at most size hits, the ones of the cheaper queries first
+   */
+  public <T> List<Hit<T>> search(CompanyType type, String term, Class<T> clazz, Projection projection, int size)
+      throws IOException {
+    try {
+      return run(type, term, projection, size, request -> {
+        try {
+          return CompletableFuture.completedFuture(elasticsearchClient.search(request, clazz));
+        } catch (IOException e) {
+          return CompletableFuture.failedFuture(e);
+        }
+      }).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException cause) {
+        throw cause;
+      }
+      throw e.getCause() instanceof RuntimeException cause ? cause : e;
+    }
+  }
+
+  public <T> CompletableFuture<List<Hit<T>>> searchAsync(CompanyType type, String term, Class<T> clazz,
+      Projection projection, int size) {
+    return run(type, term, projection, size, request -> elasticsearchAsyncClient.search(request, clazz));
+  }
+
+  /**
+   * The same plan with the hits read as the raw _source bytes by {@link RawSourceSearcher}, these queries aren't
+   * profiled
+   *
+   * @return the _source of at most size hits as a JSON array, the ones of the cheaper queries first
+   */
+  public byte[] searchRaw(CompanyType type, String term, int size) throws IOException {
+    final Map<String, RawHit> found = new LinkedHashMap<>();
+    for (PlannedQuery planned : plan(type, term)) {
+      if (found.size() >= minHits) {
+        break;
+      }
+      final List<RawHit> hits = rawSourceSearcher.searchHits(type.getIndexName(), planned.query(), size);
+      metrics.recordNameQuery(planned.strategy().name().toLowerCase(), hits.size());
+      hits.forEach(hit -> found.putIfAbsent(hit.id(), hit));
+    }
+    return RawSourceSearcher.toArray(found.values().stream().limit(size).toList());
+  }
+
+  /**
+   * The fuzzy query of the plan, for searches that send all their queries at once and so can't wait to see what the
+   * cheaper ones find
+   *
+   * @return empty when the plan has no fuzzy query, e.g. the prefix index knows of enough names it prefixes
+   */
+  public Optional<Query> fuzzyQuery(CompanyType type, String term) {
+    return plan(type, term).stream()
+        .filter(planned -> planned.strategy() == NameStrategy.FUZZY)
+        .map(PlannedQuery::query)
+        .findFirst();
+  }
+
+  /**
+   * The profiles of the sampled queries, latest first
+   */
+  public synchronized List<NameQueryProfile> profiles() {
+    return List.copyOf(profiles);
+  }
+
+  List<PlannedQuery> plan(CompanyType type, String term) {
+    final List<String> words = NameNormalizer.tokenize(term);
+    if (words.isEmpty()) {
+      return List.of();
+    }
+    final boolean fuzzy = words.stream().anyMatch(word -> word.length() >= MIN_FUZZY_LENGTH);
+    final PlannedQuery prefixQuery = new PlannedQuery(NameStrategy.PREFIX, CompanyQueries.companyNameAllTerms(term));
+    final PlannedQuery fuzzyQuery = new PlannedQuery(NameStrategy.FUZZY,
+        CompanyQueries.companyNameFuzzy(term, prefixLength, maxExpansions));
+
+    final Optional<List<Suggestion>> known = autocompleteEngine.suggestLocally(type, term, minHits);
+    if (known.isEmpty()) {
+      return fuzzy ? List.of(prefixQuery, fuzzyQuery) : List.of(prefixQuery);
+    }
+    final List<PlannedQuery> plan = new ArrayList<>();
+    final List<String> exactNames = known.get().stream()
+        .map(Suggestion::name)
+        .filter(name -> NameNormalizer.tokenize(name).equals(words))
+        .distinct()
+        .toList();
+    if (!exactNames.isEmpty()) {
+      plan.add(new PlannedQuery(NameStrategy.EXACT, CompanyQueries.companyNameExact(exactNames)));
+    }
+    if (known.get().stream().anyMatch(suggestion -> !exactNames.contains(suggestion.name()))) {
+      plan.add(prefixQuery);
+    }
+    if (known.get().size() < minHits && fuzzy) {
+      plan.add(fuzzyQuery);
+    }
+    return plan;
+  }
+
+  private <T> CompletableFuture<List<Hit<T>>> run(CompanyType type, String term, Projection projection, int size,
+      Function<SearchRequest, CompletableFuture<SearchResponse<T>>> search) {
+    return next(type, term, projection, size, plan(type, term), 0, new LinkedHashMap<>(), search);
+  }
+
+  private <T> CompletableFuture<List<Hit<T>>> next(CompanyType type, String term, Projection projection, int size,
+      List<PlannedQuery> plan, int step, Map<String, Hit<T>> found,
+      Function<SearchRequest, CompletableFuture<SearchResponse<T>>> search) {
+    if (step == plan.size() || found.size() >= minHits) {
+      return CompletableFuture.completedFuture(found.values().stream().limit(size).toList());
+    }
+    final PlannedQuery planned = plan.get(step);
+    final boolean profile = profileRate > 0 && ThreadLocalRandom.current().nextDouble() < profileRate;
+    return search.apply(request(type, planned.query(), projection, size, profile)).thenCompose(response -> {
+      metrics.recordNameQuery(planned.strategy().name().toLowerCase(), response.hits().hits().size());
+      if (profile) {
+        capture(type, term, planned.strategy(), response);
+      }
+      response.hits().hits().forEach(hit -> found.putIfAbsent(hit.id(), hit));
+      return next(type, term, projection, size, plan, step + 1, found, search);
+    });
+  }
+
+  private static SearchRequest request(CompanyType type, Query query, Projection projection, int size,
+      boolean profile) {
+    return SearchRequest.of(s -> {
+      s.index(type.getIndexName()).query(query).size(size);
+      if (projection != null) {
+        s.source(source -> source.filter(filter -> filter.includes(projection.fields())));
+      }
+      if (profile) {
+        s.profile(true);
+      }
+      return s;
+    });
+  }
+
+  private void capture(CompanyType type, String term, NameStrategy strategy, SearchResponse<?> response) {
+    if (response.profile() == null) {
+      return;
+    }
+    final List<QueryTiming> timings = new ArrayList<>();
+    response.profile().shards().forEach(shard -> shard.searches().forEach(
+        search -> search.query().forEach(query -> flatten(shard.id(), 0, query, timings))));
+    final NameQueryProfile profile = new NameQueryProfile(Instant.now(), type.getIndexName(), term, strategy,
+        response.took(), response.hits().hits().size(), timings);
+    log.debug("Profiled {} name query for '{}': {}", strategy, term, profile);
+    synchronized (this) {
+      profiles.addFirst(profile);
+      if (profiles.size() > MAX_PROFILES) {
+        profiles.removeLast();
+      }
+    }
+  }
+
+  private static void flatten(String shard, int depth, QueryProfile query, List<QueryTiming> timings) {
+    final String description = query.description();
+    timings.add(new QueryTiming(shard, depth, query.type(),
+        description.length() > MAX_DESCRIPTION_LENGTH ? description.substring(0, MAX_DESCRIPTION_LENGTH) + "..."
+            : description,
+        query.timeInNanos()));
+    query.children().forEach(child -> flatten(shard, depth + 1, child, timings));
+  }
+}
@@ -0,0 +1,18 @@
+package com.paulhoang.Elasticsearch.search;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * What ES reported about a sampled name query with profile on, the query tree of every shard flattened depth first
+ */
+public record NameQueryProfile(Instant sampledAt, String index, String term, NameStrategy strategy, long tookMillis,
+                               int hits, List<QueryTiming> queries) {
+
+  /**
+   * @param depth 0 for the query that was sent, 1 for what it was rewritten into and so on
+   */
+  public record QueryTiming(String shard, int depth, String type, String description, long timeNanos) {
+
+  }
+}
@@ -0,0 +1,20 @@
+package com.paulhoang.Elasticsearch.search;
+
+/**
+ * The ways {@link NameQueryPlanner} can look a name up, cheapest first
+ */
+public enum NameStrategy {
+  /**
+   * The companies with exactly the names the term was found to be, see {@link CompanyQueries#companyNameExact}
+   */
+  EXACT,
+  /**
+   * Every word of the term starts a word of the name, see {@link CompanyQueries#companyNameAllTerms}
+   */
+  PREFIX,
+  /**
+   * Every word of the term is within a couple of edits of a word of the name, see
+   * {@link CompanyQueries#companyNameFuzzy(String, int, int)}
+   */
+  FUZZY
+}
@@ -0,0 +1,67 @@
+package com.paulhoang.Elasticsearch.search;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges ranked result lists with reciprocal rank fusion, a document scores {@code 1 / (60 + rank)} for every list it
+ * is in. Only the ranks are used as the ES scores of different queries (and indices) aren't comparable, so a company
+ * near the top of several lists beats one at the top of a single list. Ties go to the best single rank, then the id
+ */
+public class RankFusion<T> {
+
+  static final int RANK_CONSTANT = 60;
+
+  public record Fused<T>(String id, double score, List<String> matchedBy, T item) {
+
+  }
+
+  private static final class Entry<T> {
+
+    private final T item;
+    private final List<String> matchedBy = new ArrayList<>();
+    private double score;
+    private int bestRank = Integer.MAX_VALUE;
+
+    private Entry(T item) {
+      this.item = item;
+    }
+  }
+
+  private final Map<String, Entry<T>> entries = new LinkedHashMap<>();
+
+  /**
+   * @param list the name the list is reported as in {@link Fused#matchedBy()}
+   * @param ids the ids in rank order, best first
+   * @param items the documents for the ids, the first list a document turns up in is the one it's taken from
+   */
+  public void add(String list, List<String> ids, List<T> items) {
+    for (int rank = 1; rank <= ids.size(); rank++) {
+      final T item = items.get(rank - 1);
+      final Entry<T> entry = entries.computeIfAbsent(ids.get(rank - 1), id -> new Entry<>(item));
+      if (entry.matchedBy.contains(list)) {
+        continue;
+      }
+      entry.matchedBy.add(list);
+      entry.score += 1.0 / (RANK_CONSTANT + rank);
+      entry.bestRank = Math.min(entry.bestRank, rank);
+    }
+  }
+
+  /**
+   * @return the best {@code size} documents, highest score first
+   */
+  public List<Fused<T>> top(int size) {
+    return entries.entrySet().stream()
+        .sorted(Comparator.<Map.Entry<String, Entry<T>>>comparingDouble(entry -> -entry.getValue().score)
+            .thenComparingInt(entry -> entry.getValue().bestRank)
+            .thenComparing(Map.Entry::getKey))
+        .limit(size)
+        .map(entry -> new Fused<>(entry.getKey(), entry.getValue().score, List.copyOf(entry.getValue().matchedBy),
+            entry.getValue().item))
+        .toList();
+  }
+}
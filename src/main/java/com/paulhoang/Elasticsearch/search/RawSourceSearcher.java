@@ -0,0 +1,139 @@
+package com.paulhoang.Elasticsearch.search;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.json.JsonpMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.paulhoang.Elasticsearch.execution.ConcurrencyLimiter;
+import com.paulhoang.Elasticsearch.execution.RequestClass;
+import jakarta.json.stream.JsonGenerator;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.UriUtils;
+
+/**
+ * Reads documents as the raw _source bytes ES returns, for endpoints that only pass them on. Nothing is mapped to an
+ * entity and back: a get is ES's _source api copied straight through and a search has each hit's _source sliced out
+ * of the response by byte offset and spliced into a JSON array. These go out on the rest client rather than the java
+ * client, so they take their permits from {@link ConcurrencyLimiter} themselves: a get as a lookup, a search as a
+ * search
+ */
+@Component
+public class RawSourceSearcher {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private final RestClient restClient;
+  private final JsonpMapper jsonpMapper;
+  private final ConcurrencyLimiter limiter;
+
+  public RawSourceSearcher(RestClient restClient, ElasticsearchClient elasticsearchClient,
+      ConcurrencyLimiter limiter) {
+    this.restClient = restClient;
+    this.jsonpMapper = elasticsearchClient._jsonpMapper();
+    this.limiter = limiter;
+  }
+
+  public Optional<byte[]> getSource(String index, String id) throws IOException {
+    try {
+      final Request request = new Request("GET", "/" + index + "/_source/"
+          + UriUtils.encodePathSegment(id, StandardCharsets.UTF_8));
+      return Optional.of(limiter.limit(RequestClass.LOOKUP, () -> read(restClient.performRequest(request))));
+    } catch (ResponseException e) {
+      if (e.getResponse().getStatusLine().getStatusCode() == 404) {
+        return Optional.empty();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * A hit's _source, {@code length} bytes from {@code offset} of the search response it came in
+   */
+  public record RawHit(String id, byte[] response, int offset, int length) {
+
+  }
+
+  /**
+   * @return the _source of every hit as a JSON array
+   */
+  public byte[] searchSources(String index, Query query) throws IOException {
+    return toArray(searchHits(index, query, null));
+  }
+
+  /**
+   * @param size how many hits to ask for, null for ES's default
+   * @return the hits in the order ES returned them
+   */
+  public List<RawHit> searchHits(String index, Query query, Integer size) throws IOException {
+    final Request request = new Request("POST", "/" + index + "/_search");
+    request.addParameter("filter_path", "hits.hits._id,hits.hits._source");
+    request.setJsonEntity(toJson(SearchRequest.of(s -> s.query(query).size(size))));
+    final byte[] body = limiter.limit(RequestClass.SEARCH, () -> read(restClient.performRequest(request)));
+
+    final List<RawHit> hits = new ArrayList<>();
+    try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+      String id = null;
+      JsonToken token;
+      while ((token = parser.nextToken()) != null) {
+        if (token != JsonToken.FIELD_NAME) {
+          continue;
+        }
+        if ("_id".equals(parser.getCurrentName())) {
+          id = parser.nextTextValue();
+        } else if ("_source".equals(parser.getCurrentName())) {
+          parser.nextToken();
+          final int start = (int) parser.currentTokenLocation().getByteOffset();
+          parser.skipChildren();
+          final int end = (int) parser.currentLocation().getByteOffset();
+          hits.add(new RawHit(id, body, start, end - start));
+          id = null;
+        }
+      }
+    }
+    return hits;
+  }
+
+  /**
+   * @return the hits' _source spliced into a JSON array
+   */
+  public static byte[] toArray(List<RawHit> hits) {
+    final ByteArrayOutputStream sources = new ByteArrayOutputStream(
+        hits.stream().mapToInt(RawHit::length).sum() + hits.size() + 1);
+    sources.write('[');
+    for (int i = 0; i < hits.size(); i++) {
+      if (i > 0) {
+        sources.write(',');
+      }
+      sources.write(hits.get(i).response(), hits.get(i).offset(), hits.get(i).length());
+    }
+    sources.write(']');
+    return sources.toByteArray();
+  }
+
+  private static byte[] read(Response response) throws IOException {
+    return EntityUtils.toByteArray(response.getEntity());
+  }
+
+  private String toJson(SearchRequest searchRequest) {
+    final StringWriter writer = new StringWriter();
+    try (JsonGenerator generator = jsonpMapper.jsonProvider().createGenerator(writer)) {
+      searchRequest.serialize(generator, jsonpMapper);
+    }
+    return writer.toString();
+  }
+}
@@ -0,0 +1,176 @@
+package com.paulhoang.Elasticsearch.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import com.paulhoang.Elasticsearch.batch.RequestCoalescer;
+import com.paulhoang.Elasticsearch.cache.DocumentCache;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import com.paulhoang.Elasticsearch.entity.CompanyAuto;
+import com.paulhoang.Elasticsearch.projection.CompanyView;
+import com.paulhoang.Elasticsearch.projection.Projection;
+import com.paulhoang.Elasticsearch.repository.CompanyAutoRepository;
+import com.paulhoang.Elasticsearch.search.CompanyQueries;
+import com.paulhoang.Elasticsearch.search.CursorPage;
+import com.paulhoang.Elasticsearch.search.CursorSearcher;
+import com.paulhoang.Elasticsearch.search.NameQueryPlanner;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.convert.ElasticsearchConverter;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.stereotype.Service;
+
+@Service
+public class CompanyAutoService {
+
+  private static final String INDEX = CompanyType.AUTO.getIndexName();
+
+  private final CompanyAutoRepository companyRepository;
+  private final DocumentCache<CompanyAuto> companyAutoCache;
+  private final CursorSearcher cursorSearcher;
+  private final ElasticsearchAsyncClient elasticsearchAsyncClient;
+  private final ElasticsearchConverter elasticsearchConverter;
+  private final RequestCoalescer<String, CompanyAuto> coalescer;
+  private final NameQueryPlanner nameQueryPlanner;
+
+  public CompanyAutoService(CompanyAutoRepository companyRepository, DocumentCache<CompanyAuto> companyAutoCache,
+      CursorSearcher cursorSearcher, ElasticsearchAsyncClient elasticsearchAsyncClient,
+      ElasticsearchConverter elasticsearchConverter, NameQueryPlanner nameQueryPlanner,
+      @Value("${batch.coalesce.enabled:true}") boolean coalesce,
+      @Value("${batch.coalesce.window:2ms}") Duration window,
+      @Value("${batch.coalesce.maxSize:100}") int maxBatchSize) {
+    this.companyRepository = companyRepository;
+    this.companyAutoCache = companyAutoCache;
+    this.cursorSearcher = cursorSearcher;
+    this.elasticsearchAsyncClient = elasticsearchAsyncClient;
+    this.elasticsearchConverter = elasticsearchConverter;
+    this.nameQueryPlanner = nameQueryPlanner;
+    this.coalescer = coalesce ? new RequestCoalescer<>("companyauto", this::fetchCompanies, window, maxBatchSize)
+        : null;
+  }
+
+  @PreDestroy
+  public void close() {
+    if (coalescer != null) {
+      coalescer.close();
+    }
+  }
+
+  public Optional<CompanyAuto> getCompanyById(String id) {
+    if (coalescer == null) {
+      return companyAutoCache.get(id, companyRepository::findById);
+    }
+    return companyAutoCache.get(id, key -> Optional.ofNullable(coalescer.get(key)));
+  }
+
+  /**
+   * Non blocking version of {@link #getCompanyById(String)}. The java client reads the raw _source and spring data's
+   * converter turns it into the entity, the same as the repository would
+   */
+  @SuppressWarnings("unchecked")
+  public CompletableFuture<Optional<CompanyAuto>> getCompanyByIdAsync(String id) {
+    return companyAutoCache.getAsync(id, key -> elasticsearchAsyncClient
+        .get(builder -> builder.index(INDEX).id(key), Map.class)
+        .thenApply(response -> response.found() && response.source() != null
+            ? Optional.of(toCompany(response.id(), response.source())) : Optional.empty()));
+  }
+
+  public CompletableFuture<List<CompanyAuto>> searchByAddressAsync(String term) {
+    return searchAsync(CompanyQueries.addressContains(term));
+  }
+
+  public CompletableFuture<List<CompanyAuto>> searchByNameAsync(String term) {
+    return searchAsync(CompanyQueries.companyNameAllTerms(term));
+  }
+
+  /**
+   * Typo tolerant, the queries are planned by {@link NameQueryPlanner}
+   */
+  @SuppressWarnings("unchecked")
+  public List<CompanyAuto> searchByNameFuzzy(String term) throws IOException {
+    return nameQueryPlanner.search(CompanyType.AUTO, term, Map.class, null, NameQueryPlanner.DEFAULT_SIZE).stream()
+        .map(hit -> toCompany(hit.id(), hit.source()))
+        .toList();
+  }
+
+  public List<CompanyView> searchByNameFuzzy(String term, Projection projection) throws IOException {
+    return nameQueryPlanner.search(CompanyType.AUTO, term, CompanyView.class, projection,
+        NameQueryPlanner.DEFAULT_SIZE).stream().map(Hit::source).toList();
+  }
+
+  @SuppressWarnings("unchecked")
+  public CompletableFuture<List<CompanyAuto>> searchByNameFuzzyAsync(String term) {
+    return nameQueryPlanner.searchAsync(CompanyType.AUTO, term, Map.class, null, NameQueryPlanner.DEFAULT_SIZE)
+        .thenApply(hits -> hits.stream().map(hit -> toCompany(hit.id(), hit.source())).toList());
+  }
+
+  /**
+   * @return the companies found in the same order as the ids, missing ids are skipped
+   */
+  public List<CompanyAuto> getCompaniesByIds(Collection<String> ids) {
+    final Map<String, Optional<CompanyAuto>> companies = companyAutoCache.getAll(ids, missing -> {
+      final Map<String, CompanyAuto> found = fetchCompanies(missing);
+      final Map<String, Optional<CompanyAuto>> result = new HashMap<>();
+      missing.forEach(id -> result.put(id, Optional.ofNullable(found.get(id))));
+      return result;
+    });
+    return ids.stream().map(companies::get).flatMap(Optional::stream).toList();
+  }
+
+  /**
+   * Cursor paged version of the address search, hits are returned as views as the java client can't read the dates
+   * spring data writes back into the entity
+   *
+   * @param projection the fields to return, null for all of them
+   * @param cursor null for the first page
+   */
+  public CursorPage<CompanyView> searchByAddress(String term, Projection projection, int size, String cursor)
+      throws IOException {
+    return cursorSearcher.search(INDEX, CompanyQueries.addressContains(term),
+        CompanyView.class, projection, size, cursor);
+  }
+
+  /**
+   * Cursor paged companies of an owner, see {@link CompanyQueries#owner}
+   */
+  public CursorPage<CompanyView> searchByOwner(String name, Integer minAge, Integer maxAge, Projection projection,
+      int size, String cursor) throws IOException {
+    return cursorSearcher.search(INDEX, CompanyQueries.owner(name, minAge, maxAge), CompanyView.class, projection,
+        size, cursor);
+  }
+
+  public long exportByAddress(String term, Projection projection, OutputStream outputStream) throws IOException {
+    return cursorSearcher.export(INDEX, CompanyQueries.addressContains(term), projection,
+        outputStream);
+  }
+
+  private Map<String, CompanyAuto> fetchCompanies(Set<String> ids) {
+    final Map<String, CompanyAuto> companies = new HashMap<>();
+    companyRepository.findAllById(ids).forEach(company -> companies.put(company.id(), company));
+    return companies;
+  }
+
+  @SuppressWarnings("unchecked")
+  private CompletableFuture<List<CompanyAuto>> searchAsync(Query query) {
+    return elasticsearchAsyncClient.search(s -> s.index(INDEX).query(query), Map.class)
+        .thenApply(searchResponse -> searchResponse.hits().hits().stream()
+            .map(hit -> toCompany(hit.id(), hit.source()))
+            .toList());
+  }
+
+  private CompanyAuto toCompany(String id, Map<String, Object> source) {
+    final Document document = Document.from(source);
+    document.setId(id);
+    return elasticsearchConverter.read(CompanyAuto.class, document);
+  }
+}
@@ -1,50 +1,185 @@
 package com.paulhoang.Elasticsearch.service;
 
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
 import co.elastic.clients.elasticsearch.core.GetRequest;
 import co.elastic.clients.elasticsearch.core.GetResponse;
+import co.elastic.clients.elasticsearch.core.MgetRequest;
+import co.elastic.clients.elasticsearch.core.MgetResponse;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.mget.MultiGetResponseItem;
 import co.elastic.clients.elasticsearch.core.search.Hit;
+import com.paulhoang.Elasticsearch.batch.RequestCoalescer;
+import com.paulhoang.Elasticsearch.cache.DocumentCache;
+import com.paulhoang.Elasticsearch.cache.SearchResultCache;
+import com.paulhoang.Elasticsearch.cache.SearchResultCache.TermNormalization;
+import com.paulhoang.Elasticsearch.config.CompanyType;
 import com.paulhoang.Elasticsearch.entity.CompanyManual;
+import com.paulhoang.Elasticsearch.projection.CompanyView;
+import com.paulhoang.Elasticsearch.projection.Projection;
+import com.paulhoang.Elasticsearch.search.CompanyQueries;
+import com.paulhoang.Elasticsearch.search.CursorPage;
+import com.paulhoang.Elasticsearch.search.CursorSearcher;
+import com.paulhoang.Elasticsearch.search.NameQueryPlanner;
+import com.paulhoang.Elasticsearch.search.RawSourceSearcher;
+import jakarta.annotation.PreDestroy;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
-import lombok.AllArgsConstructor;
-import org.springframework.http.ResponseEntity;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service
-@AllArgsConstructor
 public class CompanyManualService {
 
+  private static final String INDEX = "companymanual";
+
   private final ElasticsearchClient elasticsearchClient;
+  private final DocumentCache<CompanyManual> companyManualCache;
+  private final SearchResultCache<CompanyManual> companyManualSearchCache;
+  private final CursorSearcher cursorSearcher;
+  private final RawSourceSearcher rawSourceSearcher;
+  private final ElasticsearchAsyncClient elasticsearchAsyncClient;
+  private final RequestCoalescer<String, CompanyManual> coalescer;
+  private final NameQueryPlanner nameQueryPlanner;
+
+  public CompanyManualService(ElasticsearchClient elasticsearchClient,
+      DocumentCache<CompanyManual> companyManualCache, SearchResultCache<CompanyManual> companyManualSearchCache,
+      CursorSearcher cursorSearcher, RawSourceSearcher rawSourceSearcher,
+      ElasticsearchAsyncClient elasticsearchAsyncClient, NameQueryPlanner nameQueryPlanner,
+      @Value("${batch.coalesce.enabled:true}") boolean coalesce,
+      @Value("${batch.coalesce.window:2ms}") Duration window,
+      @Value("${batch.coalesce.maxSize:100}") int maxBatchSize) {
+    this.elasticsearchClient = elasticsearchClient;
+    this.companyManualCache = companyManualCache;
+    this.companyManualSearchCache = companyManualSearchCache;
+    this.cursorSearcher = cursorSearcher;
+    this.rawSourceSearcher = rawSourceSearcher;
+    this.elasticsearchAsyncClient = elasticsearchAsyncClient;
+    this.nameQueryPlanner = nameQueryPlanner;
+    this.coalescer = coalesce ? new RequestCoalescer<>("companymanual", this::fetchCompanies, window, maxBatchSize)
+        : null;
+  }
+
+  @PreDestroy
+  public void close() {
+    if (coalescer != null) {
+      coalescer.close();
+    }
+  }
 
   public Optional<CompanyManual> getCompanyById(String id) throws IOException {
-    final GetResponse<CompanyManual> companyManualGetResponse = elasticsearchClient.get(
-        GetRequest.of(builder -> builder.index("companymanual").id(id)), CompanyManual.class);
+    try {
+      if (coalescer == null) {
+        return companyManualCache.get(id, this::fetchCompanyById);
+      }
+      return companyManualCache.get(id, key -> Optional.ofNullable(coalescer.get(key)));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Non blocking version of {@link #getCompanyById(String)}, misses go straight to ES rather than being coalesced as
+   * coalescing needs a thread to wait on the batch
+   */
+  public CompletableFuture<Optional<CompanyManual>> getCompanyByIdAsync(String id) {
+    return companyManualCache.getAsync(id, key -> elasticsearchAsyncClient
+        .get(GetRequest.of(builder -> builder.index(INDEX).id(key)), CompanyManual.class)
+        .thenApply(response -> response.found() ? Optional.ofNullable(response.source()) : Optional.empty()));
+  }
+
+  /**
+   * Fetches all the ids with a single _mget (for the ones that aren't cached)
+   *
+   * @return the companies found in the same order as the ids, missing ids are skipped
+   */
+  public List<CompanyManual> getCompaniesByIds(Collection<String> ids) throws IOException {
+    try {
+      final Map<String, Optional<CompanyManual>> companies = companyManualCache.getAll(ids, missing -> {
+        final Map<String, CompanyManual> found = fetchCompanies(missing);
+        final Map<String, Optional<CompanyManual>> result = new HashMap<>();
+        missing.forEach(id -> result.put(id, Optional.ofNullable(found.get(id))));
+        return result;
+      });
+      return ids.stream().map(companies::get).flatMap(Optional::stream).toList();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private Optional<CompanyManual> fetchCompanyById(String id) {
+    try {
+      final GetResponse<CompanyManual> companyManualGetResponse = elasticsearchClient.get(
+          GetRequest.of(builder -> builder.index(INDEX).id(id)), CompanyManual.class);
 
-    if (companyManualGetResponse.found()){
-      return Optional.empty();
-    } else {
-      return Optional.of(companyManualGetResponse.source());
+      if (companyManualGetResponse.found()) {
+        return Optional.ofNullable(companyManualGetResponse.source());
+      } else {
+        return Optional.empty();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Map<String, CompanyManual> fetchCompanies(Set<String> ids) {
+    try {
+      final MgetResponse<CompanyManual> mgetResponse = elasticsearchClient.mget(
+          MgetRequest.of(builder -> builder.index(INDEX).ids(List.copyOf(ids))), CompanyManual.class);
+
+      final Map<String, CompanyManual> companies = new HashMap<>();
+      for (MultiGetResponseItem<CompanyManual> item : mgetResponse.docs()) {
+        if (item.isResult() && item.result().found()) {
+          companies.put(item.result().id(), item.result().source());
+        }
+      }
+      return companies;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
     }
   }
 
   public List<CompanyManual> findByAddress(String address) throws IOException {
-    final SearchResponse<CompanyManual> searchResponse = elasticsearchClient.search(s -> s
-            .index("companymanual")
-            .query(q -> q
-                .match(t -> t
-                    .field("address")
-                    .query(address)
-                )
-            ),
-        CompanyManual.class);
-
-
-    final List<Hit<CompanyManual>> hits = searchResponse.hits().hits();
-    return hits.stream().map(Hit::source).collect(Collectors.toList());
+    return companyManualSearchCache.get("address", TermNormalization.TEXT, address,
+        () -> search(CompanyQueries.address(address), CompanyManual.class, null));
+  }
+
+  public List<CompanyView> findByAddress(String address, Projection projection) throws IOException {
+    return search(CompanyQueries.address(address), CompanyView.class, projection);
+  }
+
+  /**
+   * @param projection the fields to return, null for all of them
+   * @param cursor null for the first page
+   */
+  public CursorPage<CompanyView> findByAddress(String address, Projection projection, int size, String cursor)
+      throws IOException {
+    return cursorSearcher.search(INDEX, CompanyQueries.address(address), CompanyView.class, projection, size,
+        cursor);
+  }
+
+  /**
+   * Cursor paged companies of an owner, see {@link CompanyQueries#owner}
+   */
+  public CursorPage<CompanyView> findByOwner(String name, Integer minAge, Integer maxAge, Projection projection,
+      int size, String cursor) throws IOException {
+    return cursorSearcher.search(INDEX, CompanyQueries.owner(name, minAge, maxAge), CompanyView.class, projection,
+        size, cursor);
+  }
+
+  public long exportByAddress(String address, Projection projection, OutputStream outputStream) throws IOException {
+    return cursorSearcher.export(INDEX, CompanyQueries.address(address), projection, outputStream);
   }
 
   /**
@@ -54,37 +189,94 @@ public class CompanyManualService {
    * @return
    */
   public List<CompanyManual> findByCompanyName(String companyName) throws IOException {
-    final SearchResponse<CompanyManual> searchResponse = elasticsearchClient.search(s -> s
-            .index("companymanual")
-            .query(q -> q
-                .match(t -> t
-                    .field("name.search")
-                    .query(companyName)
-                )
-            ),
-        CompanyManual.class);
-
+    return companyManualSearchCache.get("name", TermNormalization.NAME, companyName,
+        () -> search(CompanyQueries.companyName(companyName), CompanyManual.class, null));
+  }
 
-    final List<Hit<CompanyManual>> hits = searchResponse.hits().hits();
-    final List<CompanyManual> companies = hits.stream().map(Hit::source).collect(Collectors.toList());
-    return companies;
+  public List<CompanyView> findByCompanyName(String companyName, Projection projection) throws IOException {
+    return search(CompanyQueries.companyName(companyName), CompanyView.class, projection);
   }
 
+  /**
+   * Typo tolerant, the queries are planned by {@link NameQueryPlanner}
+   */
   public List<CompanyManual> findByCompanyNameFuzzy(String companyName) throws IOException {
-    final SearchResponse<CompanyManual> searchResponse = elasticsearchClient.search(s -> s
-            .index("companymanual")
-            .query(q -> q
-                .fuzzy(t -> t
-                    .field("name.search")
-                    .value(companyName)
-                )
-            ),
-        CompanyManual.class);
-
-
-    final List<Hit<CompanyManual>> hits = searchResponse.hits().hits();
-    final List<CompanyManual> companies = hits.stream().map(Hit::source).collect(Collectors.toList());
-    return companies;
+    return companyManualSearchCache.get("fuzzy", TermNormalization.NONE, companyName,
+        () -> sources(nameQueryPlanner.search(CompanyType.MANUAL, companyName, CompanyManual.class, null,
+            NameQueryPlanner.DEFAULT_SIZE)));
+  }
+
+  public List<CompanyView> findByCompanyNameFuzzy(String companyName, Projection projection) throws IOException {
+    return sources(nameQueryPlanner.search(CompanyType.MANUAL, companyName, CompanyView.class, projection,
+        NameQueryPlanner.DEFAULT_SIZE));
+  }
+
+  /**
+   * The document's _source as ES stores it, never mapped to a {@link CompanyManual} and not cached
+   */
+  public Optional<byte[]> getRawCompanyById(String id) throws IOException {
+    return rawSourceSearcher.getSource(INDEX, id);
+  }
+
+  /**
+   * The raw versions of the searches return the hits' _source as a JSON array, never mapped to
+   * {@link CompanyManual}s and not cached
+   */
+  public byte[] findRawByAddress(String address) throws IOException {
+    return rawSourceSearcher.searchSources(INDEX, CompanyQueries.address(address));
+  }
+
+  public byte[] findRawByCompanyName(String companyName) throws IOException {
+    return rawSourceSearcher.searchSources(INDEX, CompanyQueries.companyName(companyName));
+  }
+
+  /**
+   * Planned by {@link NameQueryPlanner} like the other fuzzy searches
+   */
+  public byte[] findRawByCompanyNameFuzzy(String companyName) throws IOException {
+    return nameQueryPlanner.searchRaw(CompanyType.MANUAL, companyName, NameQueryPlanner.DEFAULT_SIZE);
+  }
+
+  public CompletableFuture<List<CompanyManual>> findByAddressAsync(String address) {
+    return companyManualSearchCache.getAsync("address", TermNormalization.TEXT, address,
+        () -> searchAsync(CompanyQueries.address(address)));
+  }
+
+  public CompletableFuture<List<CompanyManual>> findByCompanyNameAsync(String companyName) {
+    return companyManualSearchCache.getAsync("name", TermNormalization.NAME, companyName,
+        () -> searchAsync(CompanyQueries.companyName(companyName)));
+  }
+
+  public CompletableFuture<List<CompanyManual>> findByCompanyNameFuzzyAsync(String companyName) {
+    return companyManualSearchCache.getAsync("fuzzy", TermNormalization.NONE, companyName,
+        () -> nameQueryPlanner.searchAsync(CompanyType.MANUAL, companyName, CompanyManual.class, null,
+            NameQueryPlanner.DEFAULT_SIZE).thenApply(CompanyManualService::sources));
+  }
+
+  /**
+   * @param projection the _source fields to fetch, null for the whole document
+   */
+  private <T> List<T> search(Query query, Class<T> clazz, Projection projection) throws IOException {
+    final SearchResponse<T> searchResponse = elasticsearchClient.search(s -> {
+          s.index(INDEX).query(query);
+          if (projection != null) {
+            s.source(source -> source.filter(filter -> filter.includes(projection.fields())));
+          }
+          return s;
+        },
+        clazz);
+
+    return sources(searchResponse.hits().hits());
+  }
+
+  private static <T> List<T> sources(List<Hit<T>> hits) {
+    return hits.stream().map(Hit::source).collect(Collectors.toList());
+  }
+
+  private CompletableFuture<List<CompanyManual>> searchAsync(Query query) {
+    return elasticsearchAsyncClient.search(s -> s.index(INDEX).query(query), CompanyManual.class)
+        .thenApply(searchResponse -> searchResponse.hits().hits().stream().map(Hit::source)
+            .collect(Collectors.toList()));
   }
 
 }
@@ -0,0 +1,101 @@
+package com.paulhoang.Elasticsearch.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.MsearchRequest;
+import co.elastic.clients.elasticsearch.core.MsearchResponse;
+import co.elastic.clients.elasticsearch.core.msearch.MultiSearchResponseItem;
+import co.elastic.clients.elasticsearch.core.msearch.RequestItem;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import com.paulhoang.Elasticsearch.projection.CompanyView;
+import com.paulhoang.Elasticsearch.search.CompanyQueries;
+import com.paulhoang.Elasticsearch.search.FederatedSearchResult;
+import com.paulhoang.Elasticsearch.search.NameQueryPlanner;
+import com.paulhoang.Elasticsearch.search.RankFusion;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+/**
+ * Searches both company indices at once: the address, name and fuzzy name queries of the manual and auto endpoints go
+ * to ES as one _msearch, so it's a single round trip and ES runs the sub-searches in parallel. The hit lists are
+ * merged by company id with {@link RankFusion}. As the sub-searches all go at once the fuzzy ones can't wait on what
+ * the name ones find, {@link NameQueryPlanner} only decides whether each index gets one and bounds its expansions
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class FederatedSearchService {
+
+  private record SubSearch(String name, CompanyType type, Query query) {
+
+  }
+
+  private final ElasticsearchClient elasticsearchClient;
+  private final ElasticsearchAsyncClient elasticsearchAsyncClient;
+  private final NameQueryPlanner nameQueryPlanner;
+
+  public FederatedSearchResult search(String term, int size) throws IOException {
+    final List<SubSearch> subSearches = subSearches(term);
+    return merge(subSearches, elasticsearchClient.msearch(request(subSearches, size), CompanyView.class), size);
+  }
+
+  public CompletableFuture<FederatedSearchResult> searchAsync(String term, int size) {
+    final List<SubSearch> subSearches = subSearches(term);
+    return elasticsearchAsyncClient.msearch(request(subSearches, size), CompanyView.class)
+        .thenApply(response -> merge(subSearches, response, size));
+  }
+
+  /**
+   * The same queries as the endpoints of each controller, manual first so its documents are the ones returned for
+   * companies found in both indices
+   */
+  private List<SubSearch> subSearches(String term) {
+    final List<SubSearch> subSearches = new ArrayList<>();
+    subSearches.add(new SubSearch("manual.address", CompanyType.MANUAL, CompanyQueries.address(term)));
+    subSearches.add(new SubSearch("manual.name", CompanyType.MANUAL, CompanyQueries.companyName(term)));
+    nameQueryPlanner.fuzzyQuery(CompanyType.MANUAL, term)
+        .ifPresent(query -> subSearches.add(new SubSearch("manual.fuzzy", CompanyType.MANUAL, query)));
+    subSearches.add(new SubSearch("auto.address", CompanyType.AUTO, CompanyQueries.addressContains(term)));
+    subSearches.add(new SubSearch("auto.name", CompanyType.AUTO, CompanyQueries.companyNameAllTerms(term)));
+    nameQueryPlanner.fuzzyQuery(CompanyType.AUTO, term)
+        .ifPresent(query -> subSearches.add(new SubSearch("auto.fuzzy", CompanyType.AUTO, query)));
+    return subSearches;
+  }
+
+  private MsearchRequest request(List<SubSearch> subSearches, int size) {
+    return MsearchRequest.of(builder -> {
+      subSearches.forEach(subSearch -> builder.searches(RequestItem.of(item -> item
+          .header(header -> header.index(subSearch.type().getIndexName()))
+          .body(body -> body.query(subSearch.query()).size(size)))));
+      return builder;
+    });
+  }
+
+  private FederatedSearchResult merge(List<SubSearch> subSearches, MsearchResponse<CompanyView> response, int size) {
+    final RankFusion<CompanyView> fusion = new RankFusion<>();
+    final Map<String, String> failures = new LinkedHashMap<>();
+    final List<MultiSearchResponseItem<CompanyView>> items = response.responses();
+    for (int i = 0; i < items.size(); i++) {
+      final String name = subSearches.get(i).name();
+      final MultiSearchResponseItem<CompanyView> item = items.get(i);
+      if (item.isFailure()) {
+        final String reason = item.failure().error().reason();
+        log.warn("Federated sub-search {} failed: {}", name, reason);
+        failures.put(name, reason == null ? item.failure().error().type() : reason);
+        continue;
+      }
+      final List<Hit<CompanyView>> hits = item.result().hits().hits();
+      fusion.add(name, hits.stream().map(Hit::id).toList(), hits.stream().map(Hit::source).toList());
+    }
+    return new FederatedSearchResult(fusion.top(size), failures);
+  }
+}
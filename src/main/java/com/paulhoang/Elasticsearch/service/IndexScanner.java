@@ -0,0 +1,187 @@
+package com.paulhoang.Elasticsearch.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import com.paulhoang.Elasticsearch.execution.ConcurrencyLimiter;
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Walks the documents of an index with a point in time and search_after, only the requested source fields are
+ * fetched and one page is held in memory at a time. Every page costs the same however deep it is, and pages are
+ * consistent with each other as they all search the same point in time.
+ * <p>
+ * {@link #scan(String, List, Class, Consumer)} walks a whole index in the background, a page shed by the
+ * {@link ConcurrencyLimiter} is asked for again rather than failing the scan. {@link #page} fetches a single page so
+ * a walk can be spread over several requests
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class IndexScanner {
+
+  private static final int PAGE_SIZE = 1000;
+  private static final String KEEP_ALIVE = "1m";
+  // well inside the keep alive, so the point in time is still open once a shed page is let through
+  private static final int MAX_SHED_ATTEMPTS = 30;
+  private static final long FIRST_RETRY_MILLIS = 1000;
+
+  /**
+   * @param query null to walk every document in index order, otherwise the matches are walked best first
+   * @param sourceFields null for the whole source
+   * @param keepAlive how long the point in time is kept open after each page
+   * @param maxShedAttempts how many times a call shed by the {@link ConcurrencyLimiter} is made, 1 to fail straight
+   * away
+   */
+  public record ScanRequest(String index, Query query, List<String> sourceFields, int pageSize, String keepAlive,
+                            int maxShedAttempts) {
+
+  }
+
+  /**
+   * Where a walk is up to, the point in time it searches and the sort values of the last hit it has seen
+   */
+  public record Position(String pitId, List<FieldValue> searchAfter) {
+
+  }
+
+  /**
+   * @param next where the walk carries on from, null after the last page (the point in time is closed by then)
+   */
+  public record Page<T>(List<Hit<T>> hits, Position next) {
+
+  }
+
+  @FunctionalInterface
+  public interface PageConsumer<T> {
+
+    void accept(List<Hit<T>> hits) throws IOException;
+  }
+
+  private final ElasticsearchClient elasticsearchClient;
+
+  public <T> long scan(String index, List<String> sourceFields, Class<T> clazz, Consumer<T> consumer)
+      throws IOException {
+    return scan(new ScanRequest(index, null, sourceFields, PAGE_SIZE, KEEP_ALIVE, MAX_SHED_ATTEMPTS), clazz,
+        hits -> hits.forEach(hit -> consumer.accept(hit.source())));
+  }
+
+  /**
+   * Walks every match of the request, a page at a time
+   *
+   * @return the number of hits walked
+   */
+  public <T> long scan(ScanRequest request, Class<T> clazz, PageConsumer<T> consumer) throws IOException {
+    Position position = open(request);
+    long scanned = 0;
+    try {
+      while (position != null) {
+        final Page<T> page = fetch(request, position, clazz);
+        // before the consumer, the point in time is already closed after the last page
+        position = page.next();
+        consumer.accept(page.hits());
+        scanned += page.hits().size();
+      }
+      return scanned;
+    } finally {
+      if (position != null) {
+        close(position);
+      }
+    }
+  }
+
+  /**
+   * @param position null for the first page, which opens the point in time
+   */
+  public <T> Page<T> page(ScanRequest request, Position position, Class<T> clazz) throws IOException {
+    if (position != null) {
+      return fetch(request, position, clazz);
+    }
+    final Position first = open(request);
+    try {
+      return fetch(request, first, clazz);
+    } catch (IOException | RuntimeException e) {
+      close(first);
+      throw e;
+    }
+  }
+
+  /**
+   * {@link #scan} for warming an in memory copy of an index: a scan that fails is made again from the start, after
+   * reset has thrown away what the failed one fed to the consumer, up to maxAttempts times with the pause between them
+   * doubling from a second
+   */
+  public <T> long scanWithRetries(String index, List<String> sourceFields, Class<T> clazz, Runnable reset,
+      Consumer<T> consumer, int maxAttempts) throws IOException {
+    long pauseMillis = FIRST_RETRY_MILLIS;
+    for (int attempt = 1; ; attempt++) {
+      reset.run();
+      try {
+        return scan(index, sourceFields, clazz, consumer);
+      } catch (IOException | RuntimeException e) {
+        if (attempt >= maxAttempts) {
+          throw e;
+        }
+        log.warn("Scan of {} failed, trying again in {} ms: {}", index, pauseMillis, e.toString());
+        try {
+          Thread.sleep(pauseMillis);
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+        pauseMillis *= 2;
+      }
+    }
+  }
+
+  private Position open(ScanRequest request) throws IOException {
+    final String pitId = ConcurrencyLimiter.whenAdmitted(request.maxShedAttempts(),
+        () -> elasticsearchClient.openPointInTime(builder -> builder.index(request.index())
+            .keepAlive(time -> time.time(request.keepAlive())))).id();
+    return new Position(pitId, null);
+  }
+
+  /**
+   * Closes the point in time once the last page has been fetched
+   */
+  private <T> Page<T> fetch(ScanRequest request, Position position, Class<T> clazz) throws IOException {
+    final SearchResponse<T> response = ConcurrencyLimiter.whenAdmitted(request.maxShedAttempts(),
+        () -> elasticsearchClient.search(s -> {
+          s.pit(pit -> pit.id(position.pitId()).keepAlive(time -> time.time(request.keepAlive())))
+              .size(request.pageSize())
+              .trackTotalHits(track -> track.enabled(false));
+          if (request.query() != null) {
+            s.query(request.query()).sort(sort -> sort.score(score -> score.order(SortOrder.Desc)));
+          }
+          s.sort(sort -> sort.field(field -> field.field("_shard_doc").order(SortOrder.Asc)));
+          if (request.sourceFields() != null) {
+            s.source(source -> source.filter(filter -> filter.includes(request.sourceFields())));
+          }
+          if (position.searchAfter() != null) {
+            s.searchAfter(position.searchAfter());
+          }
+          return s;
+        }, clazz));
+
+    final List<Hit<T>> hits = response.hits().hits();
+    final String pitId = Objects.requireNonNullElse(response.pitId(), position.pitId());
+    if (hits.size() < request.pageSize()) {
+      close(new Position(pitId, null));
+      return new Page<>(hits, null);
+    }
+    return new Page<>(hits, new Position(pitId, hits.get(hits.size() - 1).sort()));
+  }
+
+  private void close(Position position) throws IOException {
+    elasticsearchClient.closePointInTime(builder -> builder.id(position.pitId()));
+  }
+}
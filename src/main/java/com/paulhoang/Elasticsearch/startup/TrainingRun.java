@@ -0,0 +1,86 @@
+package com.paulhoang.Elasticsearch.startup;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.IntConsumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * The training run of the fast start build (see the fastStartArchive task). With {@code startup.training=true} the
+ * index bootstrap is left alone, and once the app is up it serves each of startup.training.requests to itself, so the
+ * classes behind a first request are loaded too, then shuts down. The JVM writes every class it loaded into the CDS
+ * archive as it exits.
+ * <p>
+ * None of this needs ES. Requests that can't reach it fail, but they get as far as the client, which is what matters
+ * here
+ */
+@Component
+@Slf4j
+public class TrainingRun {
+
+  private final boolean training;
+  private final List<String> requests;
+  private final IntConsumer exit;
+
+  @Autowired
+  public TrainingRun(@Value("${startup.training:false}") boolean training,
+      @Value("${startup.training.requests:}") List<String> requests) {
+    this(training, requests, System::exit);
+  }
+
+  /**
+   * @param exit ends the JVM with the exit code once the app has been shut down
+   */
+  TrainingRun(boolean training, List<String> requests, IntConsumer exit) {
+    this.training = training;
+    this.requests = requests;
+    this.exit = exit;
+  }
+
+  public boolean isTraining() {
+    return training;
+  }
+
+  @EventListener
+  public void onReady(ApplicationReadyEvent event) {
+    if (!training) {
+      return;
+    }
+    final ConfigurableApplicationContext context = event.getApplicationContext();
+    if (context instanceof WebServerApplicationContext webContext) {
+      serve(webContext.getWebServer().getPort());
+    }
+    log.info("Training run done, exiting");
+    exit.accept(SpringApplication.exit(context, () -> 0));
+  }
+
+  private void serve(int port) {
+    final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    for (String path : requests) {
+      try {
+        final HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+            .timeout(Duration.ofSeconds(30))
+            .build();
+        log.info("Training request {} answered {}", path, client.send(request, BodyHandlers.discarding()).statusCode());
+      } catch (Exception e) {
+        log.warn("Training request {} failed: {}", path, e.toString());
+        if (e instanceof InterruptedException) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+}
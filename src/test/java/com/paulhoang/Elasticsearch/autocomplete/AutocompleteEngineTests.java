@@ -0,0 +1,86 @@
+package com.paulhoang.Elasticsearch.autocomplete;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.query_dsl.Operator;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import com.paulhoang.Elasticsearch.entity.CompanyAuto;
+import com.paulhoang.Elasticsearch.entity.Status;
+import com.paulhoang.Elasticsearch.event.IndexChangedEvent;
+import com.paulhoang.Elasticsearch.service.IndexScanner;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+
+class AutocompleteEngineTests {
+
+  private final List<SearchRequest> searches = new ArrayList<>();
+
+  /**
+   * Finds nothing, keeping the requests it was sent
+   */
+  private final ElasticsearchClient elasticsearchClient = new ElasticsearchClient(null) {
+    @Override
+    public <T> SearchResponse<T> search(SearchRequest request, Class<T> clazz) {
+      searches.add(request);
+      return SearchResponse.of(response -> response
+          .took(1)
+          .timedOut(false)
+          .shards(shards -> shards.total(1).successful(1).failed(0))
+          .hits(hits -> hits.hits(List.of())));
+    }
+  };
+
+  /**
+   * Scans acme (1) and bolt (2), with the writes of duringScan made once it has reset the prefix index
+   */
+  private final List<IndexChangedEvent> duringScan = new ArrayList<>();
+  private final IndexScanner indexScanner = new IndexScanner(null) {
+    @Override
+    public <T> long scanWithRetries(String index, List<String> sourceFields, Class<T> clazz, Runnable reset,
+        Consumer<T> consumer, int maxAttempts) {
+      reset.run();
+      duringScan.forEach(autocompleteEngine::onIndexChanged);
+      consumer.accept(clazz.cast(new Suggestion("1", "Acme")));
+      consumer.accept(clazz.cast(new Suggestion("2", "Bolt")));
+      return 2;
+    }
+  };
+
+  private final AutocompleteEngine autocompleteEngine = new AutocompleteEngine(elasticsearchClient, indexScanner,
+      true);
+
+  @Test
+  void fallbackToEsNeedsEveryTermLikeThePrefixIndex() throws IOException {
+    autocompleteEngine.suggest(CompanyType.MANUAL, "acme ltd", 5);
+
+    assertEquals(1, searches.size());
+    assertEquals("companymanual", searches.get(0).index().get(0));
+    assertEquals(Operator.And, searches.get(0).query().match().operator());
+  }
+
+  @Test
+  void writesMadeWhileWarmingAreAppliedOverTheScan() {
+    autocompleteEngine.onIndexChanged(IndexChangedEvent.indexed(CompanyType.AUTO, List.of(auto("9", "Acme Old"))));
+    duringScan.add(IndexChangedEvent.deleted(CompanyType.AUTO, List.of("1")));
+    duringScan.add(IndexChangedEvent.indexed(CompanyType.AUTO, List.of(auto("2", "Acme Bolts"), auto("3", "Acme"))));
+
+    autocompleteEngine.warm(CompanyType.AUTO);
+
+    assertEquals(List.of(new Suggestion("2", "Acme Bolts"), new Suggestion("3", "Acme")),
+        autocompleteEngine.suggestLocally(CompanyType.AUTO, "acme", 5).orElseThrow());
+    // once warm, writes are applied straight away
+    autocompleteEngine.onIndexChanged(IndexChangedEvent.deleted(CompanyType.AUTO, List.of("3")));
+    assertEquals(List.of(new Suggestion("2", "Acme Bolts")),
+        autocompleteEngine.suggestLocally(CompanyType.AUTO, "acme", 5).orElseThrow());
+  }
+
+  private static CompanyAuto auto(String id, String name) {
+    return new CompanyAuto(id, name, null, null, null, List.of(), null, Status.ACTIVE);
+  }
+}
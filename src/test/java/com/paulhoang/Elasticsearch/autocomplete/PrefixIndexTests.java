@@ -0,0 +1,36 @@
+package com.paulhoang.Elasticsearch.autocomplete;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class PrefixIndexTests {
+
+  private final PrefixIndex prefixIndex = new PrefixIndex();
+
+  @Test
+  void matchesFoldedPrefixOfAnyToken() {
+    prefixIndex.put("1", "McClure, Hòdkïéwicz and Romàguera");
+    prefixIndex.put("2", "Terry-Abshiré");
+
+    assertEquals(List.of(new Suggestion("1", "McClure, Hòdkïéwicz and Romàguera")), prefixIndex.search("hodk", 10));
+    assertEquals(List.of(new Suggestion("2", "Terry-Abshiré")), prefixIndex.search("ABSHIRE", 10));
+    assertEquals(List.of(new Suggestion("1", "McClure, Hòdkïéwicz and Romàguera")),
+        prefixIndex.search("mcc hod", 10));
+  }
+
+  @Test
+  void updatesReplaceTheOldName() {
+    prefixIndex.put("1", "Cronin-Nàder");
+    prefixIndex.put("1", "Ullrîch Group");
+
+    assertTrue(prefixIndex.search("cronin", 10).isEmpty());
+    assertEquals(List.of(new Suggestion("1", "Ullrîch Group")), prefixIndex.search("ullr", 10));
+
+    prefixIndex.remove("1");
+    assertTrue(prefixIndex.search("ullr", 10).isEmpty());
+    assertEquals(0, prefixIndex.size());
+  }
+}
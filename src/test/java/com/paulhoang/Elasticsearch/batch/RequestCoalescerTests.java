@@ -0,0 +1,94 @@
+package com.paulhoang.Elasticsearch.batch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class RequestCoalescerTests {
+
+  private final List<Set<String>> batches = new CopyOnWriteArrayList<>();
+  private final CountDownLatch slowLoad = new CountDownLatch(1);
+
+  // a batch with "slow" in it holds the loader until slowLoad is counted down
+  private final Function<Set<String>, Map<String, String>> loader = ids -> {
+    batches.add(Set.copyOf(ids));
+    if (ids.contains("slow")) {
+      try {
+        slowLoad.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return ids.stream().filter(id -> !id.equals("missing"))
+        .collect(Collectors.toMap(Function.identity(), id -> "company " + id));
+  };
+
+  @Test
+  void uncontendedLookupIsSentWithoutWaitingForTheWindow() {
+    final RequestCoalescer<String, String> coalescer = new RequestCoalescer<>("test", loader,
+        Duration.ofMinutes(1), 100);
+
+    assertEquals("company 1", coalescer.submit("1").orTimeout(5, TimeUnit.SECONDS).join());
+    assertEquals(List.of(Set.of("1")), batches);
+  }
+
+  @Test
+  void lookupsArrivingWhileABatchLoadsShareTheNextOne() {
+    final RequestCoalescer<String, String> coalescer = new RequestCoalescer<>("test", loader,
+        Duration.ofMinutes(1), 100);
+
+    final CompletableFuture<String> slow = coalescer.submit("slow");
+    final CompletableFuture<String> first = coalescer.submit("1");
+    final CompletableFuture<String> second = coalescer.submit("2");
+    final CompletableFuture<String> missing = coalescer.submit("missing");
+    assertFalse(first.isDone());
+    slowLoad.countDown();
+
+    assertEquals("company slow", slow.join());
+    assertEquals("company 1", first.orTimeout(5, TimeUnit.SECONDS).join());
+    assertEquals("company 2", second.join());
+    assertNull(missing.join());
+    assertEquals(List.of(Set.of("slow"), Set.of("1", "2", "missing")), batches);
+  }
+
+  @Test
+  void fullBatchIsSentWithoutWaitingForTheOneLoading() {
+    final RequestCoalescer<String, String> coalescer = new RequestCoalescer<>("test", loader,
+        Duration.ofMinutes(1), 2);
+
+    coalescer.submit("slow");
+    final CompletableFuture<String> first = coalescer.submit("1");
+    final CompletableFuture<String> second = coalescer.submit("2");
+
+    assertEquals("company 1", first.orTimeout(5, TimeUnit.SECONDS).join());
+    assertEquals("company 2", second.join());
+    assertEquals(List.of(Set.of("slow"), Set.of("1", "2")), batches);
+    slowLoad.countDown();
+  }
+
+  @Test
+  void closingLoadsWhatIsPending() {
+    final RequestCoalescer<String, String> coalescer = new RequestCoalescer<>("test", loader,
+        Duration.ofMinutes(1), 100);
+
+    coalescer.submit("slow");
+    final CompletableFuture<String> pending = coalescer.submit("1");
+    coalescer.close();
+
+    assertEquals("company 1", pending.getNow(null));
+    assertEquals("company 2", coalescer.submit("2").getNow(null));
+    slowLoad.countDown();
+  }
+}
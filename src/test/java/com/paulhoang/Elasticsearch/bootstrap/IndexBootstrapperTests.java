@@ -0,0 +1,217 @@
+package com.paulhoang.Elasticsearch.bootstrap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.CountRequest;
+import co.elastic.clients.elasticsearch.core.CountResponse;
+import co.elastic.clients.elasticsearch.indices.ElasticsearchIndicesClient;
+import co.elastic.clients.elasticsearch.indices.ExistsRequest;
+import co.elastic.clients.transport.endpoints.BooleanResponse;
+import com.paulhoang.Elasticsearch.bootstrap.IndexBootstrapper.State;
+import com.paulhoang.Elasticsearch.bootstrap.IndexBootstrapper.SyncMode;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import com.paulhoang.Elasticsearch.event.IndicesBootstrappedEvent;
+import com.paulhoang.Elasticsearch.loader.BulkLoadResult;
+import com.paulhoang.Elasticsearch.loader.SeedDataLoader;
+import com.paulhoang.Elasticsearch.loader.SeedResults;
+import com.paulhoang.Elasticsearch.loader.SyncResult;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.core.io.ByteArrayResource;
+
+class IndexBootstrapperTests {
+
+  private static final String NEW_VERSION = "-v2";
+
+  private record Pass(Map<CompanyType, String> indices, Set<CompanyType> syncTypes) {
+
+  }
+
+  private final Set<String> existing = new HashSet<>();
+  private final Map<String, Long> counts = new HashMap<>();
+  private final List<Pass> passes = new CopyOnWriteArrayList<>();
+  private final List<Object> events = new CopyOnWriteArrayList<>();
+  private volatile CompletableFuture<Void> loading = CompletableFuture.completedFuture(null);
+  private volatile long rejected;
+
+  private final ElasticsearchClient elasticsearchClient = new ElasticsearchClient(null) {
+    @Override
+    public ElasticsearchIndicesClient indices() {
+      return new ElasticsearchIndicesClient(null) {
+        @Override
+        public BooleanResponse exists(ExistsRequest request) {
+          return new BooleanResponse(existing.contains(request.index().get(0)));
+        }
+      };
+    }
+
+    @Override
+    public CountResponse count(CountRequest request) {
+      return CountResponse.of(count -> count.count(counts.getOrDefault(request.index().get(0), 0L))
+          .shards(shards -> shards.total(1).successful(1).failed(0)));
+    }
+  };
+
+  /**
+   * Records each pass over the seed data and reports every record as loaded or synced
+   */
+  private final SeedDataLoader seedDataLoader = new SeedDataLoader(null, null, null, 1000, 5242880, 1, Path.of(".")) {
+    @Override
+    public SeedResults loadAndSync(InputStream inputStream, Map<CompanyType, String> indices,
+        Set<CompanyType> syncTypes, boolean deleteMissing) {
+      passes.add(new Pass(Map.copyOf(indices), Set.copyOf(syncTypes)));
+      loading.join();
+      final Map<CompanyType, BulkLoadResult> loads = new EnumMap<>(CompanyType.class);
+      indices.forEach((type, index) -> loads.put(type,
+          new BulkLoadResult(index, 1, 3 - rejected, rejected, rejected > 0 ? Map.of("1", "mapper_parsing_exception")
+              : Map.of())));
+      final Map<CompanyType, SyncResult> syncs = new EnumMap<>(CompanyType.class);
+      syncTypes.forEach(type -> syncs.put(type, new SyncResult(type.getIndexName(), 0, 1, 0, 2, 0, 0, Map.of())));
+      return new SeedResults(loads, syncs);
+    }
+  };
+
+  /**
+   * Builds every type as a new version and leaves the versioning itself out
+   */
+  private final Reindexer reindexer = new Reindexer(null, null, events::add, new ByteArrayResource(new byte[0])) {
+    @Override
+    public synchronized Map<CompanyType, ReindexResult> reindex(Set<CompanyType> types, Loader loader)
+        throws IOException {
+      final Map<CompanyType, String> indices = new EnumMap<>(CompanyType.class);
+      types.forEach(type -> indices.put(type, type.getIndexName() + NEW_VERSION));
+      final Map<CompanyType, ReindexResult> results = new EnumMap<>(CompanyType.class);
+      loader.load(indices).forEach((type, result) -> results.put(type,
+          new ReindexResult(type, indices.get(type), null, result, result.failed() == 0)));
+      return results;
+    }
+  };
+
+  private IndexBootstrapper bootstrapper(SyncMode syncMode) {
+    return new IndexBootstrapper(elasticsearchClient, seedDataLoader, reindexer, events::add,
+        new ByteArrayResource("[]".getBytes()), false, syncMode, false);
+  }
+
+  @Test
+  void missingIndexIsBuiltInTheSamePassThatLoadsTheEmptyOne() {
+    existing.add(CompanyType.MANUAL.getIndexName());
+    final IndexBootstrapper bootstrapper = bootstrapper(SyncMode.CREATE);
+
+    bootstrapper.start().join();
+
+    assertEquals(List.of(new Pass(Map.of(CompanyType.AUTO, CompanyType.AUTO.getIndexName() + NEW_VERSION,
+        CompanyType.MANUAL, CompanyType.MANUAL.getIndexName()), Set.of())), passes);
+    assertEquals(State.READY, bootstrapper.status().state());
+    assertEquals(Set.of(CompanyType.AUTO, CompanyType.MANUAL), bootstrapper.status().loadResults().keySet());
+    assertEquals(CompanyType.AUTO.getIndexName() + NEW_VERSION,
+        bootstrapper.status().loadResults().get(CompanyType.AUTO).index());
+  }
+
+  @Test
+  void deltaSyncOfTheExistingIndexSharesThePassWithTheBuild() {
+    existing.add(CompanyType.MANUAL.getIndexName());
+    final IndexBootstrapper bootstrapper = bootstrapper(SyncMode.DELTA);
+
+    bootstrapper.start().join();
+
+    assertEquals(List.of(new Pass(Map.of(CompanyType.AUTO, CompanyType.AUTO.getIndexName() + NEW_VERSION),
+        Set.of(CompanyType.MANUAL))), passes);
+    assertEquals(Set.of(CompanyType.AUTO), bootstrapper.status().loadResults().keySet());
+    assertEquals(Set.of(CompanyType.MANUAL), bootstrapper.status().syncResults().keySet());
+  }
+
+  @Test
+  void warmingRefusesTrafficUntilTheDataIsLoaded() {
+    loading = new CompletableFuture<>();
+    final IndexBootstrapper bootstrapper = bootstrapper(SyncMode.CREATE);
+
+    final CompletableFuture<Void> bootstrapped = bootstrapper.start();
+    // boot reports the app ready once it has started
+    bootstrapper.onReadinessChange(new AvailabilityChangeEvent<>(this, ReadinessState.ACCEPTING_TRAFFIC));
+
+    assertEquals(State.WARMING, bootstrapper.status().state());
+    assertEquals(List.of(ReadinessState.REFUSING_TRAFFIC, ReadinessState.REFUSING_TRAFFIC), readiness());
+
+    loading.complete(null);
+    bootstrapped.join();
+    assertEquals(State.READY, bootstrapper.status().state());
+    assertEquals(ReadinessState.ACCEPTING_TRAFFIC, readiness().get(readiness().size() - 1));
+    assertTrue(events.stream().anyMatch(IndicesBootstrappedEvent.class::isInstance));
+
+    bootstrapper.onReadinessChange(new AvailabilityChangeEvent<>(this, ReadinessState.ACCEPTING_TRAFFIC));
+    assertEquals(ReadinessState.ACCEPTING_TRAFFIC, readiness().get(readiness().size() - 1));
+  }
+
+  @Test
+  void failedBootstrapKeepsRefusingTraffic() {
+    loading = CompletableFuture.failedFuture(new IllegalStateException("ES went away"));
+    final IndexBootstrapper bootstrapper = bootstrapper(SyncMode.CREATE);
+
+    assertThrows(CompletionException.class, () -> bootstrapper.start().join());
+
+    assertEquals(State.FAILED, bootstrapper.status().state());
+    assertEquals(List.of(ReadinessState.REFUSING_TRAFFIC), readiness());
+    assertTrue(events.stream().noneMatch(IndicesBootstrappedEvent.class::isInstance));
+  }
+
+  @Test
+  void buildThatEsRejectedSomeOfFailsTheBootstrap() {
+    existing.add(CompanyType.MANUAL.getIndexName());
+    counts.put(CompanyType.MANUAL.getIndexName(), 1000L);
+    rejected = 1;
+    final IndexBootstrapper bootstrapper = bootstrapper(SyncMode.CREATE);
+
+    assertThrows(CompletionException.class, () -> bootstrapper.start().join());
+
+    assertEquals(State.FAILED, bootstrapper.status().state());
+    assertEquals(1, bootstrapper.status().loadResults().get(CompanyType.AUTO).failed());
+    assertEquals(List.of(ReadinessState.REFUSING_TRAFFIC), readiness());
+  }
+
+  @Test
+  void readinessIsLeftToBootWhenTheBootstrapIsNotRun() {
+    final IndexBootstrapper bootstrapper = bootstrapper(SyncMode.CREATE);
+
+    bootstrapper.onReadinessChange(new AvailabilityChangeEvent<>(this, ReadinessState.ACCEPTING_TRAFFIC));
+
+    assertTrue(readiness().isEmpty());
+  }
+
+  @Test
+  void populatedIndicesAreLeftAlone() {
+    for (CompanyType type : CompanyType.values()) {
+      existing.add(type.getIndexName());
+      counts.put(type.getIndexName(), 1000L);
+    }
+    final IndexBootstrapper bootstrapper = bootstrapper(SyncMode.CREATE);
+
+    bootstrapper.start().join();
+
+    assertTrue(passes.isEmpty());
+    assertEquals(State.READY, bootstrapper.status().state());
+    assertEquals(List.of(ReadinessState.REFUSING_TRAFFIC, ReadinessState.ACCEPTING_TRAFFIC), readiness());
+  }
+
+  private List<ReadinessState> readiness() {
+    return events.stream()
+        .filter(AvailabilityChangeEvent.class::isInstance)
+        .map(event -> (ReadinessState) ((AvailabilityChangeEvent<?>) event).getState())
+        .toList();
+  }
+}
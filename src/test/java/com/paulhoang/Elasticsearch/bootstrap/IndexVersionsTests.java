@@ -0,0 +1,229 @@
+package com.paulhoang.Elasticsearch.bootstrap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.cluster.ElasticsearchClusterClient;
+import co.elastic.clients.elasticsearch.cluster.HealthRequest;
+import co.elastic.clients.elasticsearch.cluster.HealthResponse;
+import co.elastic.clients.elasticsearch.indices.AliasDefinition;
+import co.elastic.clients.elasticsearch.indices.CreateIndexRequest;
+import co.elastic.clients.elasticsearch.indices.CreateIndexResponse;
+import co.elastic.clients.elasticsearch.indices.DeleteIndexRequest;
+import co.elastic.clients.elasticsearch.indices.DeleteIndexResponse;
+import co.elastic.clients.elasticsearch.indices.ElasticsearchIndicesClient;
+import co.elastic.clients.elasticsearch.indices.ExistsAliasRequest;
+import co.elastic.clients.elasticsearch.indices.ExistsRequest;
+import co.elastic.clients.elasticsearch.indices.ForcemergeRequest;
+import co.elastic.clients.elasticsearch.indices.ForcemergeResponse;
+import co.elastic.clients.elasticsearch.indices.GetAliasRequest;
+import co.elastic.clients.elasticsearch.indices.GetAliasResponse;
+import co.elastic.clients.elasticsearch.indices.GetIndexRequest;
+import co.elastic.clients.elasticsearch.indices.GetIndexResponse;
+import co.elastic.clients.elasticsearch.indices.IndexState;
+import co.elastic.clients.elasticsearch.indices.PutIndicesSettingsRequest;
+import co.elastic.clients.elasticsearch.indices.PutIndicesSettingsResponse;
+import co.elastic.clients.elasticsearch.indices.RefreshRequest;
+import co.elastic.clients.elasticsearch.indices.RefreshResponse;
+import co.elastic.clients.elasticsearch.indices.UpdateAliasesRequest;
+import co.elastic.clients.elasticsearch.indices.UpdateAliasesResponse;
+import co.elastic.clients.elasticsearch.indices.get_alias.IndexAliases;
+import co.elastic.clients.elasticsearch.indices.update_aliases.Action;
+import co.elastic.clients.transport.endpoints.BooleanResponse;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class IndexVersionsTests {
+
+  private static final CompanyType TYPE = CompanyType.MANUAL;
+  private static final String ALIAS = TYPE.getIndexName();
+
+  private final Set<String> indices = new LinkedHashSet<>();
+  private String aliased;
+  private final List<String> calls = new ArrayList<>();
+
+  /**
+   * A cluster with the indices in {@link #indices} and the alias on {@link #aliased}, the responses IndexVersions
+   * doesn't read are left null
+   */
+  private final ElasticsearchClient elasticsearchClient = new ElasticsearchClient(null) {
+    @Override
+    public ElasticsearchIndicesClient indices() {
+      return new ElasticsearchIndicesClient(null) {
+        @Override
+        public BooleanResponse existsAlias(ExistsAliasRequest request) {
+          return new BooleanResponse(aliased != null);
+        }
+
+        @Override
+        public GetAliasResponse getAlias(GetAliasRequest request) {
+          return GetAliasResponse.of(response -> response.result(aliased,
+              IndexAliases.of(aliases -> aliases.aliases(ALIAS, AliasDefinition.of(alias -> alias)))));
+        }
+
+        @Override
+        public BooleanResponse exists(ExistsRequest request) {
+          return new BooleanResponse(indices.contains(request.index().get(0)));
+        }
+
+        @Override
+        public GetIndexResponse get(GetIndexRequest request) {
+          final String prefix = request.index().get(0).replace("*", "");
+          return GetIndexResponse.of(response -> response.result(indices.stream()
+              .filter(index -> index.startsWith(prefix))
+              .collect(Collectors.toMap(index -> index, index -> IndexState.of(state -> state)))));
+        }
+
+        @Override
+        public CreateIndexResponse create(CreateIndexRequest request) {
+          indices.add(request.index());
+          calls.add("create " + request.index() + " replicas " + request.settings().numberOfReplicas()
+              + " refresh " + request.settings().refreshInterval().time());
+          return null;
+        }
+
+        @Override
+        public PutIndicesSettingsResponse putSettings(PutIndicesSettingsRequest request) {
+          calls.add("settings " + request.index().get(0) + " replicas " + request.settings().numberOfReplicas()
+              + " refresh " + request.settings().refreshInterval().time());
+          return null;
+        }
+
+        @Override
+        public RefreshResponse refresh(RefreshRequest request) {
+          calls.add("refresh " + request.index().get(0));
+          return null;
+        }
+
+        @Override
+        public ForcemergeResponse forcemerge(ForcemergeRequest request) {
+          calls.add("forcemerge " + request.index().get(0) + " to " + request.maxNumSegments());
+          return null;
+        }
+
+        @Override
+        public DeleteIndexResponse delete(DeleteIndexRequest request) {
+          indices.remove(request.index().get(0));
+          calls.add("delete " + request.index().get(0));
+          return null;
+        }
+
+        @Override
+        public UpdateAliasesResponse updateAliases(UpdateAliasesRequest request) {
+          final List<String> actions = new ArrayList<>();
+          for (Action action : request.actions()) {
+            if (action.isRemove()) {
+              aliased = null;
+              actions.add("remove " + action.remove().index());
+            } else if (action.isRemoveIndex()) {
+              indices.remove(action.removeIndex().index());
+              actions.add("remove index " + action.removeIndex().index());
+            } else {
+              aliased = action.add().index();
+              actions.add("add " + action.add().index());
+            }
+          }
+          calls.add("aliases " + actions);
+          return null;
+        }
+      };
+    }
+
+    @Override
+    public ElasticsearchClusterClient cluster() {
+      return new ElasticsearchClusterClient(null) {
+        @Override
+        public HealthResponse health(HealthRequest request) {
+          calls.add("health " + request.index().get(0) + " " + request.waitForStatus());
+          return null;
+        }
+      };
+    }
+  };
+
+  private final IndexVersions indexVersions = new IndexVersions(elasticsearchClient, null, 1, 2);
+
+  @Test
+  void versionsAreNumberedFromOne() throws IOException {
+    assertEquals("companymanual_v1", indexVersions.create(TYPE));
+    assertEquals("companymanual_v2", indexVersions.create(TYPE));
+    // loaded without replicas or refreshes
+    assertEquals(List.of("create companymanual_v1 replicas 0 refresh -1",
+        "create companymanual_v2 replicas 0 refresh -1"), calls);
+  }
+
+  @Test
+  void versionsAreOrderedByNumberNotName() throws IOException {
+    indices.addAll(List.of("companymanual_v10", "companymanual_v9", "companymanual_vold", "companymanual"));
+
+    assertEquals(List.of("companymanual_v9", "companymanual_v10"), indexVersions.versions(TYPE));
+    assertEquals("companymanual_v11", indexVersions.create(TYPE));
+  }
+
+  @Test
+  void promoteRestoresTheSettingsThenMovesTheAliasInOneCall() throws IOException {
+    indices.add("companymanual_v1");
+    aliased = "companymanual_v1";
+    final String index = indexVersions.create(TYPE);
+    calls.clear();
+
+    indexVersions.promote(TYPE, index);
+
+    assertEquals(List.of("settings companymanual_v2 replicas 1 refresh 1s", "refresh companymanual_v2",
+        "forcemerge companymanual_v2 to 1", "health companymanual_v2 Yellow",
+        "aliases [remove companymanual_v1, add companymanual_v2]"), calls);
+    assertEquals(Optional.of("companymanual_v2"), indexVersions.current(TYPE));
+  }
+
+  @Test
+  void unversionedIndexIsReplacedInTheSameCall() throws IOException {
+    indices.add(ALIAS);
+    final String index = indexVersions.create(TYPE);
+    calls.clear();
+
+    indexVersions.promote(TYPE, index);
+
+    assertEquals("aliases [remove index companymanual, add companymanual_v1]", calls.get(calls.size() - 1));
+    assertEquals(Set.of("companymanual_v1"), indices);
+  }
+
+  @Test
+  void rollbackMovesTheAliasToThePreviousVersion() throws IOException {
+    indices.addAll(List.of("companymanual_v1", "companymanual_v2", "companymanual_v3"));
+    aliased = "companymanual_v3";
+
+    assertEquals(Optional.of("companymanual_v2"), indexVersions.rollback(TYPE));
+    assertEquals(Optional.of("companymanual_v1"), indexVersions.rollback(TYPE));
+    assertEquals(Optional.empty(), indexVersions.rollback(TYPE));
+    assertEquals(Optional.of("companymanual_v1"), indexVersions.current(TYPE));
+  }
+
+  @Test
+  void pruneKeepsTheCurrentAndRetainedVersions() throws IOException {
+    indices.addAll(List.of("companymanual_v1", "companymanual_v2", "companymanual_v3", "companymanual_v4"));
+    aliased = "companymanual_v4";
+
+    indexVersions.prune(TYPE);
+
+    assertEquals(List.of("delete companymanual_v1", "delete companymanual_v2"), calls);
+    assertEquals(Set.of("companymanual_v3", "companymanual_v4"), indices);
+  }
+
+  @Test
+  void pruneWithNothingBeyondTheRetainedVersionsDeletesNothing() throws IOException {
+    indices.addAll(List.of("companymanual_v1", "companymanual_v2"));
+    aliased = "companymanual_v2";
+
+    indexVersions.prune(TYPE);
+
+    assertTrue(calls.isEmpty());
+  }
+}
@@ -0,0 +1,119 @@
+package com.paulhoang.Elasticsearch.bootstrap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.paulhoang.Elasticsearch.bootstrap.Reindexer.ReindexResult;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import com.paulhoang.Elasticsearch.event.IndexSwappedEvent;
+import com.paulhoang.Elasticsearch.loader.BulkLoadResult;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+
+class ReindexerTests {
+
+  private final List<String> calls = new ArrayList<>();
+  private final List<Object> events = new ArrayList<>();
+
+  /**
+   * Every type is on its v1 and gets a v2
+   */
+  private final IndexVersions indexVersions = new IndexVersions(null, null, 1, 2) {
+    @Override
+    public Optional<String> current(CompanyType type) {
+      return Optional.of(type.getIndexName() + "_v1");
+    }
+
+    @Override
+    public String create(CompanyType type) {
+      calls.add("create " + type.getIndexName() + "_v2");
+      return type.getIndexName() + "_v2";
+    }
+
+    @Override
+    public void promote(CompanyType type, String index) {
+      calls.add("promote " + index);
+    }
+
+    @Override
+    public void prune(CompanyType type) {
+      calls.add("prune " + type.getIndexName());
+    }
+
+    @Override
+    public void delete(String index) {
+      calls.add("delete " + index);
+    }
+  };
+
+  private final Reindexer reindexer = new Reindexer(indexVersions, null, events::add,
+      new ByteArrayResource(new byte[0]));
+
+  @Test
+  void loadedVersionIsPromotedThenTheOldOnesPruned() throws IOException {
+    final ReindexResult result = reindexer.reindex(EnumSet.of(CompanyType.MANUAL), indices -> loaded(indices, 0))
+        .get(CompanyType.MANUAL);
+
+    assertTrue(result.promoted());
+    assertEquals("companymanual_v1", result.previousIndex());
+    assertEquals(List.of("create companymanual_v2", "promote companymanual_v2", "prune companymanual"), calls);
+    assertEquals(List.of(new IndexSwappedEvent(CompanyType.MANUAL, "companymanual_v2", "companymanual_v1")), events);
+  }
+
+  @Test
+  void versionEsRejectedSomeOfIsDeletedAndTheAliasLeftAlone() throws IOException {
+    final ReindexResult result = reindexer.reindex(EnumSet.of(CompanyType.MANUAL), indices -> loaded(indices, 1))
+        .get(CompanyType.MANUAL);
+
+    assertFalse(result.promoted());
+    assertEquals(1, result.loadResult().failed());
+    assertEquals(List.of("create companymanual_v2", "delete companymanual_v2"), calls);
+    assertTrue(events.isEmpty());
+  }
+
+  @Test
+  void versionsThatFailedToLoadAreDeleted() {
+    final IOException failure = new IOException("ES went away");
+
+    final IOException e = assertThrows(IOException.class,
+        () -> reindexer.reindex(EnumSet.allOf(CompanyType.class), indices -> {
+          throw failure;
+        }));
+
+    assertSame(failure, e);
+    assertEquals(List.of("create companymanual_v2", "create companyauto_v2", "delete companymanual_v2",
+        "delete companyauto_v2"), calls);
+    assertTrue(events.isEmpty());
+  }
+
+  @Test
+  void typesAreReindexingOnlyWhileTheirVersionIsBuilt() throws IOException {
+    final List<Boolean> duringLoad = new ArrayList<>();
+
+    reindexer.reindex(EnumSet.of(CompanyType.MANUAL), indices -> {
+      duringLoad.add(reindexer.isReindexing(CompanyType.MANUAL));
+      duringLoad.add(reindexer.isReindexing(CompanyType.AUTO));
+      return loaded(indices, 0);
+    });
+
+    assertEquals(List.of(true, false), duringLoad);
+    assertFalse(reindexer.isReindexing(CompanyType.MANUAL));
+  }
+
+  private static Map<CompanyType, BulkLoadResult> loaded(Map<CompanyType, String> indices, long failed) {
+    final Map<CompanyType, BulkLoadResult> results = new EnumMap<>(CompanyType.class);
+    indices.forEach((type, index) -> results.put(type, new BulkLoadResult(index, 1, 3 - failed, failed,
+        failed > 0 ? Map.of("1", "mapper_parsing_exception") : Map.of())));
+    return results;
+  }
+}
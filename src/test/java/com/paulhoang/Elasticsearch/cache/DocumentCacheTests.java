@@ -0,0 +1,83 @@
+package com.paulhoang.Elasticsearch.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class DocumentCacheTests {
+
+  private final DocumentCache<String> cache = new DocumentCache<>("test", CompanyType.AUTO, 100,
+      Duration.ofMinutes(5), Duration.ofMinutes(1));
+
+  @Test
+  void cachesHitsAndMisses() {
+    final AtomicInteger loads = new AtomicInteger();
+
+    cache.get("1", id -> {
+      loads.incrementAndGet();
+      return Optional.of("company " + id);
+    });
+    final Optional<String> hit = cache.get("1", id -> Optional.of("should not load"));
+    cache.get("2", id -> {
+      loads.incrementAndGet();
+      return Optional.empty();
+    });
+    final Optional<String> miss = cache.get("2", id -> Optional.of("should not load"));
+
+    assertEquals(Optional.of("company 1"), hit);
+    assertTrue(miss.isEmpty());
+    assertEquals(2, loads.get());
+    assertEquals(2, cache.stats().hitCount());
+    assertEquals(2, cache.stats().missCount());
+  }
+
+  @Test
+  void asyncReadIsCachedWhenNothingChangedWhileItWasOut() {
+    final CompletableFuture<Optional<String>> read = new CompletableFuture<>();
+    cache.getAsync("1", id -> read);
+    read.complete(Optional.of("company 1"));
+
+    assertEquals(Optional.of("company 1"), cache.getAsync("1", id -> fail("should not load")).join());
+  }
+
+  @Test
+  void asyncReadDoesNotOverwriteAnInvalidationThatLandedWhileItWasOut() {
+    final CompletableFuture<Optional<String>> staleRead = new CompletableFuture<>();
+    final CompletableFuture<Optional<String>> result = cache.getAsync("1", id -> staleRead);
+    cache.invalidate(List.of("1"));
+    staleRead.complete(Optional.of("before the write"));
+
+    assertEquals(Optional.of("before the write"), result.join());
+    assertEquals(Optional.of("after the write"),
+        cache.getAsync("1", id -> CompletableFuture.completedFuture(Optional.of("after the write"))).join());
+
+    final CompletableFuture<Optional<String>> anotherStaleRead = new CompletableFuture<>();
+    cache.getAsync("2", id -> anotherStaleRead);
+    cache.invalidateAll();
+    anotherStaleRead.complete(Optional.empty());
+    assertEquals(Optional.of("indexed"), cache.get("2", id -> Optional.of("indexed")));
+  }
+
+  @Test
+  void failedAsyncReadIsNotCached() {
+    cache.getAsync("1", id -> CompletableFuture.failedFuture(new IllegalStateException("shed")));
+
+    assertEquals(Optional.of("company 1"), cache.get("1", id -> Optional.of("company 1")));
+  }
+
+  @Test
+  void invalidatedEntriesAreReloaded() {
+    cache.get("1", id -> Optional.empty());
+    cache.invalidate(List.of("1"));
+
+    assertEquals(Optional.of("indexed"), cache.get("1", id -> Optional.of("indexed")));
+  }
+}
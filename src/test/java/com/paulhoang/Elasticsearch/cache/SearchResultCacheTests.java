@@ -0,0 +1,53 @@
+package com.paulhoang.Elasticsearch.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.paulhoang.Elasticsearch.cache.SearchResultCache.TermNormalization;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class SearchResultCacheTests {
+
+  private final SearchResultCache<String> cache = new SearchResultCache<>("test", CompanyType.MANUAL, 100,
+      Duration.ofMinutes(1));
+
+  @Test
+  void normalizedTermsShareAnEntry() throws IOException {
+    final AtomicInteger loads = new AtomicInteger();
+
+    cache.get("name", TermNormalization.NAME, "Hòdkïéwicz", () -> List.of("company " + loads.incrementAndGet()));
+    final List<String> results = cache.get("name", TermNormalization.NAME, " HODKIEWICZ",
+        () -> List.of("company " + loads.incrementAndGet()));
+
+    assertEquals(List.of("company 1"), results);
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  void concurrentMissesShareOneQueryAndWritesMoveTheGenerationOn() throws IOException {
+    final AtomicInteger loads = new AtomicInteger();
+    final CompletableFuture<List<String>> pending = new CompletableFuture<>();
+
+    final CompletableFuture<List<String>> first = cache.getAsync("address", TermNormalization.TEXT, "road", () -> {
+      loads.incrementAndGet();
+      return pending;
+    });
+    final CompletableFuture<List<String>> second = cache.getAsync("address", TermNormalization.TEXT, "Road", () -> {
+      loads.incrementAndGet();
+      return CompletableFuture.completedFuture(List.of("should not load"));
+    });
+    cache.bumpGeneration();
+    pending.complete(List.of("before the write"));
+
+    assertEquals(1, loads.get());
+    assertEquals(List.of("before the write"), second.join());
+    assertEquals(first.join(), second.join());
+    assertEquals(List.of("after the write"),
+        cache.get("address", TermNormalization.TEXT, "road", () -> List.of("after the write")));
+  }
+}
@@ -0,0 +1,98 @@
+package com.paulhoang.Elasticsearch.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpCoreContext;
+import org.elasticsearch.client.Node;
+import org.junit.jupiter.api.Test;
+
+class LatencyAwareNodeSelectorTests {
+
+  private static final HttpHost FIRST = new HttpHost("es-1", 9200);
+  private static final HttpHost SECOND = new HttpHost("es-2", 9200);
+  private static final HttpHost SLOW = new HttpHost("es-3", 9200);
+  private static final long SLOW_MILLIS = 30;
+
+  private final AtomicLong nanoTime = new AtomicLong();
+  private final LatencyAwareNodeSelector selector = selector(3, Duration.ofSeconds(10));
+
+  @Test
+  void nodesThatHaveNotBeenSampledAreAllKept() {
+    assertEquals(List.of(FIRST, SECOND, SLOW), select(selector));
+  }
+
+  @Test
+  void slowNodeIsLeftOut() {
+    sample(selector, FIRST, 1);
+    sample(selector, SECOND, 2);
+    sample(selector, SLOW, SLOW_MILLIS);
+
+    assertEquals(List.of(FIRST, SECOND), select(selector));
+  }
+
+  @Test
+  void nodesWithinAFewMillisOfEachOtherAreAllKept() {
+    final LatencyAwareNodeSelector strict = selector(1, Duration.ofSeconds(10));
+    sample(strict, FIRST, 1);
+    sample(strict, SECOND, 2);
+    sample(strict, SLOW, 3);
+
+    assertEquals(List.of(FIRST, SECOND, SLOW), select(strict));
+  }
+
+  @Test
+  void nodeLeftOutIsTriedAgainOnceItsSampleIsOld() {
+    final LatencyAwareNodeSelector probing = selector(3, Duration.ofMillis(100));
+    sample(probing, SLOW, SLOW_MILLIS);
+    nanoTime.addAndGet(Duration.ofMillis(150).toNanos());
+    sample(probing, FIRST, 1);
+    sample(probing, SECOND, 1);
+
+    assertEquals(List.of(FIRST, SECOND, SLOW), select(probing));
+
+    // the probe starts it again from its latest sample instead of averaging in the old slow one
+    sample(probing, SLOW, 1);
+    assertEquals(Duration.ofMillis(1).toNanos(), probing.latencyNanos(SLOW));
+    assertEquals(List.of(FIRST, SECOND, SLOW), select(probing));
+  }
+
+  @Test
+  void latencyIsAMovingAverage() {
+    sample(selector, SLOW, 30);
+    sample(selector, SLOW, 10);
+
+    // a single quick answer only takes a fifth of the difference off
+    assertEquals(Duration.ofMillis(26).toNanos(), selector.latencyNanos(SLOW), 1);
+    assertTrue(Double.isNaN(selector.latencyNanos(FIRST)));
+  }
+
+  private LatencyAwareNodeSelector selector(double tolerance, Duration probeInterval) {
+    return new LatencyAwareNodeSelector(tolerance, probeInterval, nanoTime::get);
+  }
+
+  /**
+   * A request to the host that takes the given number of millis
+   */
+  private void sample(LatencyAwareNodeSelector selector, HttpHost host, long millis) {
+    final HttpCoreContext context = HttpCoreContext.create();
+    context.setTargetHost(host);
+    selector.process(new BasicHttpRequest("GET", "/"), context);
+    nanoTime.addAndGet(Duration.ofMillis(millis).toNanos());
+    selector.process(new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK"), context);
+  }
+
+  private static List<HttpHost> select(LatencyAwareNodeSelector selector) {
+    final List<Node> nodes = new ArrayList<>(List.of(new Node(FIRST), new Node(SECOND), new Node(SLOW)));
+    selector.select(nodes);
+    return nodes.stream().map(Node::getHost).toList();
+  }
+}
@@ -0,0 +1,22 @@
+package com.paulhoang.Elasticsearch.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+class CompanySearchControllerTests {
+
+  private final CompanySearchController controller = new CompanySearchController(null, null);
+
+  @Test
+  void sizeBelowOneIsABadRequest() {
+    for (int size : new int[]{0, -1}) {
+      final ResponseStatusException e = assertThrows(ResponseStatusException.class,
+          () -> controller.search("acme", size));
+      assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package com.paulhoang.Elasticsearch.execution;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.async.StandardServletAsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.mvc.method.annotation.DeferredResultMethodReturnValueHandler;
+import org.springframework.web.servlet.mvc.method.annotation.HttpEntityMethodProcessor;
+
+class CompletedFutureReturnValueHandlerTests {
+
+  private final CompletedFutureReturnValueHandler handler = new CompletedFutureReturnValueHandler(List.of(
+      new DeferredResultMethodReturnValueHandler(),
+      new HttpEntityMethodProcessor(List.of(new MappingJackson2HttpMessageConverter()))));
+  private final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/company/manual/search/road");
+  private final MockHttpServletResponse response = new MockHttpServletResponse();
+  private final ModelAndViewContainer mavContainer = new ModelAndViewContainer();
+  private MethodParameter returnType;
+
+  @SuppressWarnings("unused")
+  CompletableFuture<ResponseEntity<List<String>>> search() {
+    return null;
+  }
+
+  @BeforeEach
+  void setUp() throws NoSuchMethodException {
+    returnType = new MethodParameter(getClass().getDeclaredMethod("search"), -1);
+    request.setAsyncSupported(true);
+    WebAsyncUtils.getAsyncManager(request).setAsyncWebRequest(new StandardServletAsyncWebRequest(request, response));
+  }
+
+  @Test
+  void completedFutureIsWrittenWithoutGoingAsync() throws Exception {
+    handler.handleReturnValue(CompletableFuture.completedFuture(ResponseEntity.ok(List.of("Acme", "Bolt"))),
+        returnType, mavContainer, new ServletWebRequest(request, response));
+
+    assertFalse(request.isAsyncStarted());
+    assertTrue(mavContainer.isRequestHandled());
+    assertEquals(200, response.getStatus());
+    assertEquals("[\"Acme\",\"Bolt\"]", response.getContentAsString());
+  }
+
+  @Test
+  void futureStillWaitingIsHandledAsync() throws Exception {
+    handler.handleReturnValue(new CompletableFuture<ResponseEntity<List<String>>>(), returnType, mavContainer,
+        new ServletWebRequest(request, response));
+
+    assertTrue(request.isAsyncStarted());
+    assertEquals("", response.getContentAsString());
+  }
+
+  @Test
+  void failedFutureThrowsItsCause() {
+    final IOException failure = new IOException("ES is down");
+
+    assertSame(failure, assertThrows(IOException.class, () -> handler.handleReturnValue(
+        CompletableFuture.failedFuture(failure).thenApply(ResponseEntity::ok), returnType, mavContainer,
+        new ServletWebRequest(request, response))));
+    assertFalse(request.isAsyncStarted());
+  }
+}
@@ -0,0 +1,114 @@
+package com.paulhoang.Elasticsearch.execution;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.paulhoang.Elasticsearch.execution.ConcurrencyLimiter.Permit;
+import com.paulhoang.Elasticsearch.metrics.ElasticsearchMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+class ConcurrencyLimiterTests {
+
+  private static final long FAST = Duration.ofMillis(10).toNanos();
+  private static final long SLOW = Duration.ofMillis(100).toNanos();
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final ConcurrencyLimiter limiter = new ConcurrencyLimiter(new ElasticsearchMetrics(meterRegistry), true, 20,
+      4, 30, 1.5, 0.2, Duration.ofMillis(1500));
+
+  @Test
+  void lowerClassesAreShedFirstWithARetryAfter() {
+    final List<Permit> permits = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      permits.add(limiter.acquire(RequestClass.BULK));
+    }
+    final OverloadedException shed = assertThrows(OverloadedException.class,
+        () -> limiter.acquire(RequestClass.BULK));
+    assertEquals(HttpStatus.SERVICE_UNAVAILABLE, shed.getStatusCode());
+    assertEquals("2", shed.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+
+    for (int i = 0; i < 5; i++) {
+      permits.add(limiter.acquire(RequestClass.FUZZY));
+    }
+    assertThrows(OverloadedException.class, () -> limiter.acquire(RequestClass.FUZZY));
+    for (int i = 0; i < 3; i++) {
+      permits.add(limiter.acquire(RequestClass.SEARCH));
+    }
+    assertThrows(OverloadedException.class, () -> limiter.acquire(RequestClass.SEARCH));
+    permits.add(limiter.acquire(RequestClass.LOOKUP));
+    permits.add(limiter.acquire(RequestClass.LOOKUP));
+    assertThrows(OverloadedException.class, () -> limiter.acquire(RequestClass.LOOKUP));
+
+    permits.forEach(permit -> permit.release(false));
+    assertEquals(0, limiter.inFlight());
+    assertEquals(1, meterRegistry.get("es.limit.rejected").tag("class", "bulk").counter().count());
+  }
+
+  @Test
+  void limitGrowsWhileLatencyHoldsAndBacksOffWhenItRises() {
+    final GradientLimit limit = new GradientLimit(20, 4, 100, 1.5, 0.2);
+    for (int i = 0; i < 200; i++) {
+      limit.update("_search", FAST, limit.limit());
+    }
+    assertEquals(100, limit.limit());
+
+    for (int i = 0; i < 20; i++) {
+      limit.update("_search", SLOW, limit.limit());
+    }
+    assertTrue(limit.limit() < 40, "limit " + limit.limit());
+
+    // responses at that latency for long enough become the new normal and the limit recovers
+    for (int i = 0; i < 20000; i++) {
+      limit.update("_search", SLOW, limit.limit());
+    }
+    assertEquals(100, limit.limit());
+
+    final int before = limit.limit();
+    limit.drop();
+    assertTrue(limit.limit() <= before * 0.9, "limit " + limit.limit());
+  }
+
+  @Test
+  void idleClientsDoNotGrowTheLimit() {
+    final GradientLimit limit = new GradientLimit(20, 4, 100, 1.5, 0.2);
+    for (int i = 0; i < 200; i++) {
+      limit.update("_search", FAST, 2);
+    }
+    assertEquals(20, limit.limit());
+  }
+
+  @Test
+  void steadyLoadBelowCapacityIsNotShed() {
+    final ConcurrencyLimiter defaults = new ConcurrencyLimiter(new ElasticsearchMetrics(meterRegistry), true, 30, 10,
+        60, 3, 0.2, Duration.ofSeconds(1));
+    final List<RequestClass> mix = List.of(RequestClass.LOOKUP, RequestClass.LOOKUP, RequestClass.LOOKUP,
+        RequestClass.SEARCH, RequestClass.SEARCH, RequestClass.SEARCH, RequestClass.SEARCH, RequestClass.FUZZY,
+        RequestClass.FUZZY, RequestClass.FUZZY, RequestClass.BULK, RequestClass.BULK);
+    final Random random = new Random(7);
+    // 12 calls at a time against an ES whose round trips vary by endpoint, a _bulk takes 20 times a _doc, and jitter
+    // but don't grow with the load, with the odd pause 10 times as long
+    for (int round = 0; round < 5000; round++) {
+      final List<Permit> permits = new ArrayList<>();
+      for (RequestClass requestClass : mix) {
+        permits.add(defaults.acquire(requestClass));
+      }
+      for (RequestClass requestClass : mix) {
+        final long base = requestClass == RequestClass.BULK ? SLOW / 5 : FAST / 10;
+        final double jitter = random.nextDouble() < 0.01 ? 10 : 0.5 + random.nextDouble() * 2;
+        defaults.recordRoundTrip(requestClass == RequestClass.BULK ? "_bulk" : "_search", (long) (base * jitter),
+            mix.size());
+      }
+      permits.forEach(permit -> permit.release(false));
+    }
+    assertTrue(defaults.limit() >= 20, "limit " + defaults.limit());
+    assertEquals(0, meterRegistry.find("es.limit.rejected").counters().stream().mapToDouble(c -> c.count()).sum());
+  }
+}
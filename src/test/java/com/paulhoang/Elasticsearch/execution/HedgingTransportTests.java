@@ -0,0 +1,187 @@
+package com.paulhoang.Elasticsearch.execution;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import co.elastic.clients.elasticsearch.core.GetRequest;
+import co.elastic.clients.elasticsearch.core.GetResponse;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.Endpoint;
+import co.elastic.clients.transport.TransportOptions;
+import co.elastic.clients.transport.rest_client.RestClientOptions;
+import com.paulhoang.Elasticsearch.metrics.ElasticsearchMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.elasticsearch.client.RequestOptions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+class HedgingTransportTests {
+
+  private static final TransportOptions OPTIONS = new RestClientOptions(RequestOptions.DEFAULT);
+  private static final GetRequest GET = GetRequest.of(get -> get.index("companymanual").id("1"));
+  private static final SearchRequest SEARCH = SearchRequest.of(search -> search.index("companymanual"));
+  private static final Duration FAST = Duration.ofMillis(5);
+
+  private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final ElasticsearchMetrics metrics = new ElasticsearchMetrics(meterRegistry);
+  private final HedgingPolicy policy = new HedgingPolicy(metrics, true, Set.of("get", "search"), 90,
+      Duration.ofMillis(50), 1, true, 99.9, 3, Duration.ofMillis(100), Duration.ofSeconds(5), Duration.ofSeconds(30),
+      20);
+  private final StragglingTransport stub = new StragglingTransport();
+  private final HedgingTransport transport = new HedgingTransport(stub, policy, metrics);
+
+  @AfterEach
+  void close() {
+    policy.close();
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  void stragglersAreAnsweredByTheirHedges() throws IOException, InterruptedException {
+    warmUp();
+    stub.stragglerEvery = 10;
+
+    long slowest = 0;
+    for (int i = 0; i < 50; i++) {
+      final long start = System.nanoTime();
+      transport.performRequest(GET, GetRequest._ENDPOINT, OPTIONS);
+      slowest = Math.max(slowest, System.nanoTime() - start);
+    }
+
+    assertTrue(slowest < Duration.ofMillis(250).toNanos(), "slowest read took " + slowest / 1_000_000 + "ms");
+    // every straggler is hedged, as is any other read that was late on a busy machine, and the loser is cancelled
+    assertTrue(stub.hedges.get() >= 5, stub.hedges.get() + " hedges");
+    assertEquals(stub.hedges.get(), awaitCancelled(stub.hedges.get()));
+    assertTrue(meterRegistry.get("es.hedge.reads").tag("winner", "hedge").counter().count() >= 5);
+  }
+
+  @Test
+  void readsNobodyAnswersFailAtTheirDeadline() throws IOException, InterruptedException {
+    warmUp();
+    stub.stragglerEvery = 1;
+    stub.hedgesStraggle = true;
+
+    final long start = System.nanoTime();
+    final ResponseStatusException timeout = assertThrows(ResponseStatusException.class,
+        () -> transport.performRequest(GET, GetRequest._ENDPOINT, OPTIONS));
+
+    assertEquals(HttpStatus.GATEWAY_TIMEOUT, timeout.getStatusCode());
+    assertTrue(System.nanoTime() - start < Duration.ofSeconds(1).toNanos());
+    assertEquals(1, meterRegistry.get("es.deadline.exceeded").counter().count());
+    assertEquals(2, awaitCancelled(2));
+  }
+
+  @Test
+  void indexWideSearchesHaveNoDeadline() throws IOException {
+    for (int i = 0; i < 20; i++) {
+      transport.performRequest(SEARCH, SearchRequest._ENDPOINT, OPTIONS);
+    }
+    policy.roll();
+    stub.stragglerEvery = 1;
+    stub.stragglerMillis = 300;
+
+    transport.performRequest(SearchRequest.of(search -> search.index("companymanual").pit(pit -> pit.id("pit-1"))),
+        SearchRequest._ENDPOINT, OPTIONS);
+    transport.performRequest(SearchRequest.of(search -> search.index("companymanual")
+            .aggregations("services", agg -> agg.terms(terms -> terms.field("services")))),
+        SearchRequest._ENDPOINT, OPTIONS);
+
+    assertEquals(0, stub.hedges.get());
+    assertNull(meterRegistry.find("es.deadline.exceeded").counter());
+  }
+
+  /**
+   * The loser of a read is cancelled once the caller has been answered, so it may not have been yet
+   *
+   * @return how many requests have been cancelled, once there are the expected number or after a second
+   */
+  private int awaitCancelled(int expected) throws InterruptedException {
+    for (int i = 0; i < 100 && stub.cancelled.get() < expected; i++) {
+      Thread.sleep(10);
+    }
+    return stub.cancelled.get();
+  }
+
+  /**
+   * Enough fast reads for the policy to start hedging (after its 50ms minimum, well clear of how late a 5ms read can
+   * be on a busy machine) with a 100ms deadline, then a roll so it works them out
+   */
+  private void warmUp() throws IOException {
+    for (int i = 0; i < 20; i++) {
+      transport.performRequest(GET, GetRequest._ENDPOINT, OPTIONS);
+    }
+    policy.roll();
+  }
+
+  /**
+   * Answers every read after 5ms except every stragglerEvery-th one, which takes stragglerMillis, hedges (the reads
+   * with a preference) are never stragglers unless hedgesStraggle is set
+   */
+  private final class StragglingTransport implements ElasticsearchTransport {
+
+    private final AtomicInteger primaries = new AtomicInteger();
+    private final AtomicInteger hedges = new AtomicInteger();
+    private final AtomicInteger cancelled = new AtomicInteger();
+    private volatile int stragglerEvery = Integer.MAX_VALUE;
+    private volatile boolean hedgesStraggle;
+    private volatile long stragglerMillis = 2000;
+
+    @Override
+    public <RequestT, ResponseT, ErrorT> ResponseT performRequest(RequestT request,
+        Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options) {
+      return performRequestAsync(request, endpoint, options).join();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <RequestT, ResponseT, ErrorT> CompletableFuture<ResponseT> performRequestAsync(RequestT request,
+        Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options) {
+      final boolean hedge = options.queryParameters().containsKey("preference");
+      if (hedge) {
+        hedges.incrementAndGet();
+      }
+      final boolean straggler = hedge ? hedgesStraggle : primaries.incrementAndGet() % stragglerEvery == 0;
+      final CompletableFuture<ResponseT> response = new CompletableFuture<>();
+      final ScheduledFuture<?> answer = scheduler.schedule(
+          () -> response.complete((ResponseT) GetResponse.of(get -> get.index("companymanual").id("1").found(false))),
+          straggler ? stragglerMillis : FAST.toMillis(), TimeUnit.MILLISECONDS);
+      response.whenComplete((result, ex) -> {
+        if (response.isCancelled()) {
+          cancelled.incrementAndGet();
+          answer.cancel(false);
+        }
+      });
+      return response;
+    }
+
+    @Override
+    public JsonpMapper jsonpMapper() {
+      return null;
+    }
+
+    @Override
+    public TransportOptions options() {
+      return OPTIONS;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
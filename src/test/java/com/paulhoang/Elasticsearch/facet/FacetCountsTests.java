@@ -0,0 +1,53 @@
+package com.paulhoang.Elasticsearch.facet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.paulhoang.Elasticsearch.entity.CompanyAuto;
+import com.paulhoang.Elasticsearch.entity.Owner;
+import com.paulhoang.Elasticsearch.entity.Status;
+import com.paulhoang.Elasticsearch.facet.Facets.Bucket;
+import com.paulhoang.Elasticsearch.projection.CompanyView;
+import java.time.LocalDate;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class FacetCountsTests {
+
+  private final FacetCounts facetCounts = new FacetCounts();
+
+  @Test
+  void countsLikeTheAggregations() {
+    facetCounts.put("1", new CompanyView("1", null, null, null, "03/09/2022", List.of("Petrol", "Diesel"),
+        new Owner("Beniamino Kubec", 42), "ACTIVE"));
+    facetCounts.put("2", new CompanyView("2", null, null, null, "1646784000000", List.of("Petrol"),
+        new Owner("Tarrah Rivett", 38), "INACTIVE"));
+    facetCounts.put("3", new CompanyView("3", null, null, null, "2022-06-30", List.of("Petrol"), null, "ACTIVE"));
+
+    final Facets facets = facetCounts.facets(1);
+
+    assertEquals(3, facets.total());
+    assertEquals(List.of(new Bucket("Petrol", 3)), facets.services());
+    assertEquals(List.of(new Bucket("ACTIVE", 2)), facets.status());
+    assertEquals(List.of(new Bucket("2022-03", 2), new Bucket("2022-06", 1)), facets.dateOfIncorporation());
+    assertEquals(2, facets.owner().count());
+    assertEquals(List.of(new Bucket("30", 1), new Bucket("40", 1)), facets.owner().age());
+    assertEquals(40.0, facets.owner().avgAge());
+  }
+
+  @Test
+  void updatesTakeTheOldValuesOffTheCounts() {
+    facetCounts.put("1", new CompanyAuto("1", null, null, null, LocalDate.of(2022, 3, 9), List.of("Petrol"),
+        new Owner("Beniamino Kubec", 42), Status.ACTIVE));
+    facetCounts.put("1", new CompanyAuto("1", null, null, null, LocalDate.of(2022, 3, 9), List.of("Diesel"),
+        new Owner("Beniamino Kubec", 43), Status.INACTIVE));
+    facetCounts.put("2", new CompanyAuto("2", null, null, null, null, List.of("Petrol"), null, Status.ACTIVE));
+    facetCounts.remove("2");
+
+    final Facets facets = facetCounts.facets(10);
+
+    assertEquals(1, facets.total());
+    assertEquals(List.of(new Bucket("Diesel", 1)), facets.services());
+    assertEquals(List.of(new Bucket("INACTIVE", 1)), facets.status());
+    assertEquals(43.0, facets.owner().minAge());
+  }
+}
@@ -0,0 +1,63 @@
+package com.paulhoang.Elasticsearch.facet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import com.paulhoang.Elasticsearch.entity.CompanyAuto;
+import com.paulhoang.Elasticsearch.entity.Status;
+import com.paulhoang.Elasticsearch.event.IndexChangedEvent;
+import com.paulhoang.Elasticsearch.facet.Facets.Bucket;
+import com.paulhoang.Elasticsearch.projection.CompanyView;
+import com.paulhoang.Elasticsearch.service.IndexScanner;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+
+class FacetSearcherTests {
+
+  private final List<IndexChangedEvent> duringScan = new ArrayList<>();
+
+  /**
+   * Scans two active companies, with the writes of duringScan made once it has reset the rollup
+   */
+  private final IndexScanner indexScanner = new IndexScanner(null) {
+    @Override
+    public <T> long scanWithRetries(String index, List<String> sourceFields, Class<T> clazz, Runnable reset,
+        Consumer<T> consumer, int maxAttempts) {
+      reset.run();
+      duringScan.forEach(facetSearcher::onIndexChanged);
+      consumer.accept(clazz.cast(new CompanyView("1", null, null, null, null, List.of("Petrol"), null, "ACTIVE")));
+      consumer.accept(clazz.cast(new CompanyView("2", null, null, null, null, List.of("Petrol"), null, "ACTIVE")));
+      return 2;
+    }
+  };
+
+  private final FacetSearcher facetSearcher = new FacetSearcher(null, indexScanner, true);
+
+  @Test
+  void writesMadeWhileWarmingAreAppliedOverTheScan() throws IOException {
+    facetSearcher.onIndexChanged(IndexChangedEvent.indexed(CompanyType.AUTO, List.of(auto("9", Status.ACTIVE))));
+    duringScan.add(IndexChangedEvent.deleted(CompanyType.AUTO, List.of("1")));
+    duringScan.add(IndexChangedEvent.indexed(CompanyType.AUTO, List.of(auto("2", Status.INACTIVE),
+        auto("3", Status.INACTIVE))));
+
+    facetSearcher.warm(CompanyType.AUTO);
+
+    final Facets facets = facets();
+    assertEquals(2, facets.total());
+    assertEquals(List.of(new Bucket("INACTIVE", 2)), facets.status());
+    // once warm, writes are applied straight away
+    facetSearcher.onIndexChanged(IndexChangedEvent.deleted(CompanyType.AUTO, List.of("3")));
+    assertEquals(1, facets().total());
+  }
+
+  private Facets facets() throws IOException {
+    return facetSearcher.search(CompanyType.AUTO, new FacetFilter(null, List.of(), null), 0, 10).facets();
+  }
+
+  private static CompanyAuto auto(String id, Status status) {
+    return new CompanyAuto(id, null, null, null, null, List.of("Diesel"), null, status);
+  }
+}
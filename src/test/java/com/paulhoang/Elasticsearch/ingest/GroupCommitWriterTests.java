@@ -0,0 +1,215 @@
+package com.paulhoang.Elasticsearch.ingest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.bulk.OperationType;
+import co.elastic.clients.elasticsearch.core.bulk.UpdateAction;
+import co.elastic.clients.json.JsonData;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.paulhoang.Elasticsearch.bootstrap.Reindexer;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import com.paulhoang.Elasticsearch.entity.CompanyManual;
+import com.paulhoang.Elasticsearch.entity.Status;
+import com.paulhoang.Elasticsearch.event.IndexChangedEvent;
+import com.paulhoang.Elasticsearch.event.IndexRefreshedEvent;
+import com.paulhoang.Elasticsearch.metrics.ElasticsearchMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.elasticsearch.core.convert.MappingElasticsearchConverter;
+import org.springframework.data.elasticsearch.core.mapping.SimpleElasticsearchMappingContext;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+class GroupCommitWriterTests {
+
+  private static final Duration SEARCHABLE_AFTER = Duration.ofMillis(100);
+
+  private final List<BulkRequest> requests = new CopyOnWriteArrayList<>();
+  private final List<List<String>> bulks = new CopyOnWriteArrayList<>();
+  private final List<Object> events = new CopyOnWriteArrayList<>();
+  private final AtomicBoolean rejectOnce = new AtomicBoolean();
+  private final Set<CompanyType> reindexing = ConcurrentHashMap.newKeySet();
+  private final CompletableFuture<Void> released = CompletableFuture.completedFuture(null);
+
+  /**
+   * Answers every bulk as created, apart from the first item of the first bulk when rejectOnce is set
+   */
+  private final ElasticsearchClient elasticsearchClient = new ElasticsearchClient(null) {
+    @Override
+    public BulkResponse bulk(BulkRequest request) {
+      requests.add(request);
+      bulks.add(request.operations().stream().map(GroupCommitWriterTests::idOf).toList());
+      final boolean reject = rejectOnce.getAndSet(false);
+      return BulkResponse.of(response -> response
+          .took(1)
+          .errors(reject)
+          .items(request.operations().stream().map(operation -> BulkResponseItem.of(item -> {
+            item.operationType(OperationType.Create).index("companymanual").id(idOf(operation));
+            if (reject && idOf(operation).equals("1")) {
+              return item.status(429).error(error -> error.type("es_rejected_execution_exception")
+                  .reason("rejected"));
+            }
+            return item.status(201).result("created").version(1L);
+          })).toList()));
+    }
+  };
+
+  /**
+   * Reindexing whatever's in {@link #reindexing}
+   */
+  private final Reindexer reindexer = new Reindexer(null, null, events::add, null) {
+    @Override
+    public boolean isReindexing(CompanyType type) {
+      return reindexing.contains(type);
+    }
+  };
+
+  private GroupCommitWriter writer(int capacity) {
+    return writer(capacity, RefreshPolicy.NONE);
+  }
+
+  private GroupCommitWriter writer(int capacity, RefreshPolicy refresh) {
+    final MappingElasticsearchConverter converter = new MappingElasticsearchConverter(
+        new SimpleElasticsearchMappingContext());
+    converter.afterPropertiesSet();
+    return new GroupCommitWriter(elasticsearchClient, converter, events::add,
+        new ElasticsearchMetrics(new SimpleMeterRegistry()), reindexer, 100, 5_242_880, Duration.ofMillis(100), 1, capacity,
+        Duration.ZERO, 5, Duration.ofMillis(1), Duration.ofMillis(10), refresh, SEARCHABLE_AFTER);
+  }
+
+  @Test
+  void writesArrivingTogetherShareABulkAndRejectedItemsAreRetried() {
+    final GroupCommitWriter writer = writer(100);
+    rejectOnce.set(true);
+
+    final CompletableFuture<WriteResult> first = writer.create(CompanyType.MANUAL, company("1"), null);
+    final CompletableFuture<WriteResult> second = writer.create(CompanyType.MANUAL, company("2"), null);
+
+    assertEquals(new WriteResult("2", "created", 1L, 1), second.join());
+    assertEquals(new WriteResult("1", "created", 1L, 2), first.join());
+    assertEquals(List.of(List.of("1", "2"), List.of("1")), bulks);
+    assertEquals(2, events.stream().filter(IndexChangedEvent.class::isInstance).count());
+  }
+
+  @Test
+  void writesBeyondTheCapacityAreTurnedAway() {
+    final GroupCommitWriter writer = writer(1);
+
+    final CompletableFuture<WriteResult> first = writer.create(CompanyType.MANUAL, company("1"), null);
+    final ResponseStatusException rejected = assertThrows(ResponseStatusException.class,
+        () -> writer.create(CompanyType.MANUAL, company("2"), null));
+
+    assertEquals(HttpStatus.TOO_MANY_REQUESTS, rejected.getStatusCode());
+    first.join();
+    writer.create(CompanyType.MANUAL, company("3"), null).join();
+  }
+
+  @Test
+  void searchesAreInvalidatedAgainOnceAWriteWithoutARefreshIsSearchable() throws InterruptedException {
+    final GroupCommitWriter writer = writer(100);
+
+    writer.create(CompanyType.MANUAL, company("1"), null).join();
+
+    assertEquals(List.of(IndexChangedEvent.class), eventTypes());
+    Thread.sleep(SEARCHABLE_AFTER.multipliedBy(3).toMillis());
+    assertEquals(List.of(IndexChangedEvent.class, IndexRefreshedEvent.class), eventTypes());
+    assertEquals(new IndexRefreshedEvent(CompanyType.MANUAL), events.get(1));
+  }
+
+  @Test
+  void writesThatWaitForTheRefreshAreSearchableWhenTheyReturn() throws InterruptedException {
+    final GroupCommitWriter writer = writer(100, RefreshPolicy.WAIT_FOR);
+
+    writer.create(CompanyType.MANUAL, company("1"), null).join();
+
+    Thread.sleep(SEARCHABLE_AFTER.multipliedBy(3).toMillis());
+    assertEquals(List.of(IndexChangedEvent.class), eventTypes());
+  }
+
+  @Test
+  void updateReplacesTheWholeDocument() {
+    final GroupCommitWriter writer = writer(100);
+    final CompanyManual cleared = new CompanyManual(null, "1", "Company 1", null, null, null, null, null, null);
+
+    writer.update(CompanyType.MANUAL, cleared, null).join();
+
+    final UpdateAction<?, ?> action = requests.get(0).operations().get(0).update().action();
+    assertNull(action.doc());
+    assertTrue(action.script().inline().source().startsWith("ctx._source.clear()"));
+    final Map<?, ?> document = action.script().inline().params().get("doc").to(Map.class);
+    assertEquals(Set.of("_class", "id", "name"), document.keySet());
+    assertEquals(List.of(cleared), ((IndexChangedEvent) events.get(0)).documents());
+  }
+
+  @Test
+  void manualCompanyIsWrittenWithoutItsClassAsAField() {
+    final GroupCommitWriter writer = writer(100);
+    // the _class of a company that was read is in the body it's written back with
+    final CompanyManual read = new CompanyManual(CompanyManual.class.getName(), "1", "Company 1", null, null, null,
+        null, null, null);
+
+    writer.create(CompanyType.MANUAL, read, null).join();
+
+    final Object document = requests.get(0).operations().get(0).create().document();
+    assertEquals(Set.of("_class", "id", "name"), ((Map<?, ?>) document).keySet());
+    // and reads back the way the manual index is read
+    assertEquals(read, JsonData.of(document).to(CompanyManual.class, new JacksonJsonpMapper()));
+  }
+
+  @Test
+  void writesAreTurnedAwayWhileTheIndexIsReindexed() {
+    final GroupCommitWriter writer = writer(100);
+    reindexing.add(CompanyType.MANUAL);
+
+    final ResponseStatusException rejected = assertThrows(ResponseStatusException.class,
+        () -> writer.create(CompanyType.MANUAL, company("1"), null));
+
+    assertEquals(HttpStatus.SERVICE_UNAVAILABLE, rejected.getStatusCode());
+    reindexing.clear();
+    writer.create(CompanyType.MANUAL, company("1"), null).join();
+  }
+
+  @Test
+  void queuedWritesAreTurnedAwayIfAReindexStartsBeforeTheyAreSent() {
+    final GroupCommitWriter writer = writer(100);
+
+    final CompletableFuture<WriteResult> queued = writer.create(CompanyType.MANUAL, company("1"), null);
+    reindexing.add(CompanyType.MANUAL);
+
+    final CompletionException e = assertThrows(CompletionException.class, queued::join);
+    assertEquals(HttpStatus.SERVICE_UNAVAILABLE, ((ResponseStatusException) e.getCause()).getStatusCode());
+    assertTrue(bulks.isEmpty());
+  }
+
+  private List<Class<?>> eventTypes() {
+    return events.stream().<Class<?>>map(Object::getClass).toList();
+  }
+
+  private static String idOf(BulkOperation operation) {
+    if (operation.isUpdate()) {
+      return operation.update().id();
+    }
+    return operation.isDelete() ? operation.delete().id() : operation.create().id();
+  }
+
+  private static CompanyManual company(String id) {
+    return new CompanyManual(null, id, "Company " + id, null, null, null, List.of("Petrol"), null, Status.ACTIVE);
+  }
+}
@@ -0,0 +1,153 @@
+package com.paulhoang.Elasticsearch.loader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.elasticsearch.BulkFailureException;
+import org.springframework.data.elasticsearch.client.elc.ElasticsearchTemplate;
+import org.springframework.data.elasticsearch.core.IndexedObjectInformation;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+
+class BulkIndexerTests {
+
+  private static final IndexCoordinates INDEX = IndexCoordinates.of("companymanual");
+
+  // nothing is ever sent through it, bulk requests are answered by the template below
+  private final RestClient restClient = RestClient.builder(new HttpHost("localhost", 1)).build();
+  private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+  private final List<List<String>> afterBatch = new CopyOnWriteArrayList<>();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger maxInFlight = new AtomicInteger();
+  private volatile CountDownLatch sending = new CountDownLatch(0);
+
+  /**
+   * Fails the documents with "bad" in their id, a batch with "down" in it fails completely
+   */
+  private final ElasticsearchTemplate elasticsearchOperations = new ElasticsearchTemplate(
+      new ElasticsearchClient(new RestClientTransport(restClient, new JacksonJsonpMapper()))) {
+    @Override
+    public List<IndexedObjectInformation> bulkIndex(List<IndexQuery> queries, IndexCoordinates index) {
+      final List<String> ids = queries.stream().map(IndexQuery::getId).toList();
+      batches.add(ids);
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      try {
+        sending.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        inFlight.decrementAndGet();
+      }
+      if (ids.contains("down")) {
+        throw new IllegalStateException("ES went away");
+      }
+      final Map<String, String> failed = ids.stream().filter(id -> id.contains("bad"))
+          .collect(Collectors.toMap(id -> id, id -> "mapper_parsing_exception"));
+      if (!failed.isEmpty()) {
+        throw new BulkFailureException("Bulk operation has failures", failed);
+      }
+      return ids.stream().map(id -> IndexedObjectInformation.of(id, null, null, null)).toList();
+    }
+  };
+
+  @AfterEach
+  void tearDown() throws IOException {
+    restClient.close();
+  }
+
+  @Test
+  void batchIsSentOnceItHasMaxDocs() {
+    try (BulkIndexer bulkIndexer = bulkIndexer(2, 1000, 1)) {
+      for (String id : List.of("1", "2", "3", "4", "5")) {
+        bulkIndexer.add(query(id), 10);
+      }
+
+      final BulkLoadResult result = bulkIndexer.finish();
+
+      assertEquals(List.of(List.of("1", "2"), List.of("3", "4"), List.of("5")), batches);
+      assertEquals(new BulkLoadResult(INDEX.getIndexName(), 3, 5, 0, Map.of()), result);
+    }
+  }
+
+  @Test
+  void batchIsSentBeforeItGoesOverMaxBytes() {
+    try (BulkIndexer bulkIndexer = bulkIndexer(100, 100, 1)) {
+      bulkIndexer.add(query("1"), 60);
+      bulkIndexer.add(query("2"), 40);
+      bulkIndexer.add(query("3"), 1);
+      // bigger than a whole batch, it still goes out on its own
+      bulkIndexer.add(query("4"), 500);
+      bulkIndexer.add(query("5"), 1);
+      bulkIndexer.finish();
+
+      assertEquals(List.of(List.of("1", "2"), List.of("3"), List.of("4"), List.of("5")), batches);
+    }
+  }
+
+  @Test
+  void noMoreThanConcurrencyBatchesAreInFlight() throws InterruptedException {
+    sending = new CountDownLatch(1);
+    try (BulkIndexer bulkIndexer = bulkIndexer(1, 1000, 2)) {
+      final Thread adding = new Thread(() -> {
+        for (int i = 0; i < 6; i++) {
+          bulkIndexer.add(query(String.valueOf(i)), 10);
+        }
+        bulkIndexer.finish();
+      });
+      adding.start();
+      Thread.sleep(200);
+
+      // the third batch waits for a slot, holding the caller until one frees up
+      assertEquals(2, batches.size());
+      assertTrue(adding.isAlive());
+      sending.countDown();
+      adding.join(5000);
+
+      assertEquals(6, batches.size());
+      assertEquals(2, maxInFlight.get());
+    }
+  }
+
+  @Test
+  void failuresAreCountedAndReported() {
+    try (BulkIndexer bulkIndexer = bulkIndexer(2, 1000, 1)) {
+      for (String id : List.of("1", "bad-2", "3", "4", "down", "6")) {
+        bulkIndexer.add(query(id), 10);
+      }
+
+      final BulkLoadResult result = bulkIndexer.finish();
+
+      assertEquals(3, result.indexed());
+      assertEquals(3, result.failed());
+      assertEquals(Map.of("bad-2", "mapper_parsing_exception"), result.failures());
+      // every batch is handed on once it's been sent, failed or not
+      assertEquals(batches, afterBatch);
+    }
+  }
+
+  private BulkIndexer bulkIndexer(int maxDocs, long maxBytes, int concurrency) {
+    return new BulkIndexer(elasticsearchOperations, INDEX, maxDocs, maxBytes, concurrency,
+        batch -> afterBatch.add(batch.stream().map(IndexQuery::getId).toList()));
+  }
+
+  private static IndexQuery query(String id) {
+    final IndexQuery query = new IndexQuery();
+    query.setId(id);
+    return query;
+  }
+}
@@ -0,0 +1,197 @@
+package com.paulhoang.Elasticsearch.loader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.CountRequest;
+import co.elastic.clients.elasticsearch.core.CountResponse;
+import co.elastic.clients.elasticsearch.indices.ElasticsearchIndicesClient;
+import co.elastic.clients.elasticsearch.indices.GetIndicesSettingsRequest;
+import co.elastic.clients.elasticsearch.indices.GetIndicesSettingsResponse;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.elasticsearch.client.elc.ElasticsearchTemplate;
+import org.springframework.data.elasticsearch.core.IndexedObjectInformation;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+import org.springframework.data.elasticsearch.core.query.IndexQuery.OpType;
+
+class SeedDataLoaderTests {
+
+  private static final String INDEX_UUID = "uuid-1";
+
+  // nothing is ever sent through it, everything the loader asks ES is answered by the fakes below
+  private final RestClient restClient = RestClient.builder(new HttpHost("localhost", 1)).build();
+  private final Set<String> documents = ConcurrentHashMap.newKeySet();
+  private final List<IndexQuery> sent = new CopyOnWriteArrayList<>();
+  private final List<String> batches = new CopyOnWriteArrayList<>();
+  private volatile String indexUuid = INDEX_UUID;
+
+  @TempDir
+  Path manifestDir;
+
+  /**
+   * Answers the document count with the number of documents indexed so far, like ES would
+   */
+  private final ElasticsearchClient elasticsearchClient = new ElasticsearchClient(
+      new RestClientTransport(restClient, new JacksonJsonpMapper())) {
+    @Override
+    public CountResponse count(CountRequest request) {
+      return CountResponse.of(count -> count.count(documents.size())
+          .shards(shards -> shards.total(1).successful(1).failed(0)));
+    }
+
+    @Override
+    public ElasticsearchIndicesClient indices() {
+      return new ElasticsearchIndicesClient(_transport()) {
+        @Override
+        public GetIndicesSettingsResponse getSettings(GetIndicesSettingsRequest request) {
+          return GetIndicesSettingsResponse.of(response -> response.result(request.index().get(0) + "-v1",
+              state -> state.settings(settings -> settings.uuid(indexUuid))));
+        }
+      };
+    }
+  };
+
+  private final ElasticsearchTemplate elasticsearchOperations = new ElasticsearchTemplate(elasticsearchClient) {
+    @Override
+    public List<IndexedObjectInformation> bulkIndex(List<IndexQuery> queries, IndexCoordinates index) {
+      sent.addAll(queries);
+      batches.add(index.getIndexName());
+      queries.forEach(query -> documents.add(query.getId()));
+      return queries.stream().map(query -> IndexedObjectInformation.of(query.getId(), null, null, null)).toList();
+    }
+  };
+
+  @AfterEach
+  void tearDown() throws IOException {
+    restClient.close();
+  }
+
+  @Test
+  void loadStreamsEveryRecordIntoEachIndexInOnePass() throws IOException {
+    final Map<CompanyType, BulkLoadResult> results = loader().load(
+        source(company("1", "Acme"), company("2", "Bolt"), company("3", "Cog")),
+        Map.of(CompanyType.MANUAL, "companymanual-v2", CompanyType.AUTO, "companyauto-v2"));
+
+    assertEquals(new BulkLoadResult("companymanual-v2", 2, 3, 0, Map.of()), results.get(CompanyType.MANUAL));
+    assertEquals(new BulkLoadResult("companyauto-v2", 2, 3, 0, Map.of()), results.get(CompanyType.AUTO));
+    assertEquals(List.of("companyauto-v2", "companyauto-v2", "companymanual-v2", "companymanual-v2"),
+        batches.stream().sorted().toList());
+    assertEquals(6, sent.size());
+    assertTrue(sent.stream().allMatch(query -> query.getOpType() == OpType.CREATE));
+  }
+
+  @Test
+  void seedDataHasToBeAnArray() {
+    final InputStream source = new ByteArrayInputStream(company("1", "Acme").getBytes());
+
+    assertThrows(IOException.class, () -> loader().load(source, CompanyType.MANUAL));
+    assertTrue(sent.isEmpty());
+  }
+
+  @Test
+  void firstSyncIntoAnEmptyIndexCreatesEveryRecord() throws IOException {
+    final SyncResult result = sync(company("1", "Acme"), company("2", "Bolt"), company("3", "Cog"));
+
+    assertEquals(List.of(3L, 0L, 0L, 0L), counts(result));
+    assertEquals(Set.of("1", "2", "3"), sentIds());
+  }
+
+  @Test
+  void trustedManifestOnlySendsWhatChanged() throws IOException {
+    sync(company("1", "Acme"), company("2", "Bolt"), company("3", "Cog"));
+    sent.clear();
+
+    final SyncResult result = sync(company("1", "Acme"), company("2", "Bolt Ltd"), company("3", "Cog"),
+        company("4", "Dyno"));
+
+    assertEquals(List.of(1L, 1L, 0L, 2L), counts(result));
+    assertEquals(Set.of("2", "4"), sentIds());
+  }
+
+  @Test
+  void manifestOfAnotherIndexIsNotTrusted() throws IOException {
+    sync(company("1", "Acme"), company("2", "Bolt"));
+    sent.clear();
+    indexUuid = "uuid-2";
+    // the recreated index already has both documents in it
+
+    final SyncResult result = sync(company("1", "Acme"), company("2", "Bolt"), company("3", "Cog"));
+
+    assertEquals(List.of(0L, 0L, 3L, 0L), counts(result));
+  }
+
+  @Test
+  void populatedIndexWithoutAManifestHasEveryRecordResent() throws IOException {
+    documents.addAll(Set.of("1", "2"));
+
+    final SyncResult result = sync(company("1", "Acme"), company("2", "Bolt"));
+
+    assertEquals(List.of(0L, 0L, 2L, 0L), counts(result));
+    assertEquals(Set.of("1", "2"), sentIds());
+  }
+
+  @Test
+  void untrustedManifestIsReplacedSoTheNextSyncIsTrusted() throws IOException {
+    documents.addAll(Set.of("1", "2"));
+    sync(company("1", "Acme"), company("2", "Bolt"));
+    sent.clear();
+
+    final SyncResult result = sync(company("1", "Acme"), company("2", "Bolt"));
+
+    assertEquals(List.of(0L, 0L, 0L, 2L), counts(result));
+    assertTrue(sent.isEmpty());
+  }
+
+  private SyncResult sync(String... companies) throws IOException {
+    return loader().sync(source(companies), Set.of(CompanyType.MANUAL), false).get(CompanyType.MANUAL);
+  }
+
+  /**
+   * Sends batches of at most 2 documents
+   */
+  private SeedDataLoader loader() {
+    return new SeedDataLoader(elasticsearchOperations, elasticsearchClient, event -> {
+    }, 2, 5242880, 1, manifestDir);
+  }
+
+  private static InputStream source(String... companies) {
+    return new ByteArrayInputStream(("[" + String.join(",", companies) + "]").getBytes());
+  }
+
+  private Set<String> sentIds() {
+    return sent.stream().map(IndexQuery::getId).collect(Collectors.toSet());
+  }
+
+  /**
+   * @return created, updated, resent and unchanged
+   */
+  private static List<Long> counts(SyncResult result) {
+    assertTrue(result.failures().isEmpty());
+    return List.of(result.created(), result.updated(), result.resent(), result.unchanged());
+  }
+
+  private static String company(String id, String name) {
+    return """
+        {"id": "%s", "name": "%s", "status": "ACTIVE"}""".formatted(id, name);
+  }
+}
@@ -0,0 +1,36 @@
+package com.paulhoang.Elasticsearch.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class ElasticsearchMetricsTests {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final ElasticsearchMetrics metrics = new ElasticsearchMetrics(meterRegistry);
+
+  @Test
+  void recordingsWithTheSameTagsGoToTheSameMeter() {
+    metrics.recordClient("search", TimeUnit.MILLISECONDS.toNanos(10), true);
+    metrics.recordClient("search", TimeUnit.MILLISECONDS.toNanos(30), true);
+    metrics.recordClient("search", TimeUnit.MILLISECONDS.toNanos(20), false);
+    metrics.recordHedgedRead("get", true, false);
+    metrics.recordHedgedRead("get", true, true);
+    metrics.recordHedgedRead("get", true, true);
+    metrics.recordBulkItems(3, 1);
+    metrics.recordBulkItems(2, 0);
+
+    assertEquals(2, meterRegistry.get("es.client.requests").tags("operation", "search", "outcome", "success").timer()
+        .count());
+    assertEquals(40, meterRegistry.get("es.client.requests").tags("operation", "search", "outcome", "success").timer()
+        .totalTime(TimeUnit.MILLISECONDS));
+    assertEquals(1, meterRegistry.get("es.client.requests").tags("outcome", "error").timer().count());
+    assertEquals(2, meterRegistry.get("es.hedge.reads").tags("operation", "get", "winner", "hedge").counter().count());
+    assertEquals(1, meterRegistry.get("es.hedge.reads").tags("winner", "primary").counter().count());
+    assertEquals(5, meterRegistry.get("es.bulk.items").tag("result", "success").counter().count());
+    assertEquals(1, meterRegistry.get("es.bulk.items").tag("result", "failure").counter().count());
+    assertEquals(6, meterRegistry.getMeters().size());
+  }
+}
@@ -0,0 +1,23 @@
+package com.paulhoang.Elasticsearch.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class HttpMetricsInterceptorTests {
+
+  @Test
+  void endpointIsTheFirstUnderscoreSegment() {
+    assertEquals("_search", HttpMetricsInterceptor.endpointOf("/companymanual/_search?filter_path=hits.hits._id"));
+    assertEquals("_doc", HttpMetricsInterceptor.endpointOf("/companymanual/_doc/_1"));
+    assertEquals("_bulk", HttpMetricsInterceptor.endpointOf("/_bulk?refresh=wait_for"));
+    assertEquals("_source", HttpMetricsInterceptor.endpointOf("/companyauto_v2/_source/a%2F_b"));
+  }
+
+  @Test
+  void pathsWithoutOneAreIndexCallsOrOther() {
+    assertEquals("index", HttpMetricsInterceptor.endpointOf("/companymanual_v2"));
+    assertEquals("index", HttpMetricsInterceptor.endpointOf("/companymanual_v2?ignore_unavailable=true"));
+    assertEquals("other", HttpMetricsInterceptor.endpointOf("/companymanual/mapping/x"));
+  }
+}
@@ -0,0 +1,36 @@
+package com.paulhoang.Elasticsearch.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.GetRequest;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.indices.PutMappingRequest;
+import org.junit.jupiter.api.Test;
+
+class InstrumentedTransportTests {
+
+  @Test
+  void operationIsTheEndpointId() {
+    assertEquals("get", InstrumentedTransport.operationOf(GetRequest.of(get -> get.index("companymanual").id("1")),
+        GetRequest._ENDPOINT));
+    assertEquals("search", InstrumentedTransport.operationOf(search(Query.of(q -> q.match(m -> m
+        .field("name").query("acme")))), SearchRequest._ENDPOINT));
+    assertEquals("search", InstrumentedTransport.operationOf(SearchRequest.of(s -> s.index("companymanual")),
+        SearchRequest._ENDPOINT));
+    assertEquals("indices.put_mapping", InstrumentedTransport.operationOf(
+        PutMappingRequest.of(mapping -> mapping.index("companymanual")), PutMappingRequest._ENDPOINT));
+  }
+
+  @Test
+  void fuzzySearchesAreSplitOut() {
+    assertEquals("fuzzy", InstrumentedTransport.operationOf(search(Query.of(q -> q.fuzzy(f -> f
+        .field("name").value("acme")))), SearchRequest._ENDPOINT));
+    assertEquals("fuzzy", InstrumentedTransport.operationOf(search(Query.of(q -> q.match(m -> m
+        .field("name").query("acme").fuzziness("AUTO")))), SearchRequest._ENDPOINT));
+  }
+
+  private static SearchRequest search(Query query) {
+    return SearchRequest.of(s -> s.index("companymanual").query(query));
+  }
+}
@@ -0,0 +1,56 @@
+package com.paulhoang.Elasticsearch.projection;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+class ProjectionTests {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Test
+  void viewIsPickedByName() {
+    assertEquals(List.of("id", "name"), Projection.parse("summary").fields());
+    assertEquals(Projection.View.CONTACT.getFields(), Projection.parse(" CONTACT ").fields());
+  }
+
+  @Test
+  void listOfFieldsIsTrimmedAndDeduplicated() {
+    final Projection projection = Projection.parse("id, name,,owner.name,name");
+
+    assertEquals(List.of("id", "name", "owner.name"), projection.fields());
+    assertArrayEquals(new String[]{"id", "name", "owner.name"}, projection.includes());
+  }
+
+  @Test
+  void unknownFieldIsABadRequest() {
+    final ResponseStatusException e = assertThrows(ResponseStatusException.class,
+        () -> Projection.parse("id,_class"));
+
+    assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+    assertEquals("Unknown field _class", e.getReason());
+  }
+
+  @Test
+  void noFieldsIsABadRequest() {
+    final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> Projection.parse(" , "));
+
+    assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+  }
+
+  @Test
+  void viewOnlyWritesTheFieldsThatCameBack() throws JsonProcessingException {
+    final CompanyView view = objectMapper.readValue("""
+        {"id": "1", "name": "Acme", "_class": "com.paulhoang.Elasticsearch.entity.CompanyManual"}""",
+        CompanyView.class);
+
+    assertEquals("{\"id\":\"1\",\"name\":\"Acme\"}", objectMapper.writeValueAsString(view));
+  }
+}
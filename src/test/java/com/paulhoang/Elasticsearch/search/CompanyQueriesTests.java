@@ -0,0 +1,69 @@
+package com.paulhoang.Elasticsearch.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.ChildScoreMode;
+import co.elastic.clients.elasticsearch._types.query_dsl.NestedQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.Operator;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch._types.query_dsl.QueryStringQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.RangeQuery;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class CompanyQueriesTests {
+
+  @Test
+  void ownerIsATermLookupInsideTheOwnerNestedQuery() {
+    final NestedQuery nested = CompanyQueries.owner("Beniamino Kubec", null, null).nested();
+
+    assertEquals("owner", nested.path());
+    // companies come back unscored, whichever of their owners matched
+    assertEquals(ChildScoreMode.None, nested.scoreMode());
+    final BoolQuery bool = nested.query().bool();
+    assertTrue(bool.must().isEmpty());
+    assertEquals(1, bool.filter().size());
+    assertEquals("owner.name", bool.filter().get(0).term().field());
+    assertEquals("Beniamino Kubec", bool.filter().get(0).term().value().stringValue());
+  }
+
+  @Test
+  void ageRangeIsFilteredInTheSameNestedQuery() {
+    final BoolQuery bool = CompanyQueries.owner("Beniamino Kubec", 30, 50).nested().query().bool();
+
+    assertEquals(2, bool.filter().size());
+    final RangeQuery range = bool.filter().get(1).range();
+    assertEquals("owner.age", range.field());
+    assertEquals(30, range.gte().to(Integer.class));
+    assertEquals(50, range.lte().to(Integer.class));
+  }
+
+  @Test
+  void ageRangeCanBeOpenEnded() {
+    final Query query = CompanyQueries.owner("Beniamino Kubec", null, 50);
+
+    final RangeQuery range = query.nested().query().bool().filter().get(1).range();
+    assertNull(range.gte());
+    assertEquals(50, range.lte().to(Integer.class));
+  }
+
+  @Test
+  void addressSyntaxIsSearchedForAsIs() {
+    final QueryStringQuery query = CompanyQueries.addressContains("12/3 (Unit \"B\"): A AND B").queryString();
+
+    assertEquals("*12\\/3 \\(Unit \\\"B\\\"\\)\\: A \\AND B*", query.query());
+  }
+
+  @Test
+  void everyWordOfTheAddressHasToMatch() {
+    final QueryStringQuery query = CompanyQueries.addressContains("Cordelia Way").queryString();
+
+    assertEquals("*Cordelia Way*", query.query());
+    assertEquals(Operator.And, query.defaultOperator());
+    assertEquals(List.of("address"), query.fields());
+    assertTrue(query.analyzeWildcard());
+  }
+}
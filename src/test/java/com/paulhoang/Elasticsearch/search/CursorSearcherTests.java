@@ -0,0 +1,179 @@
+package com.paulhoang.Elasticsearch.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.ErrorResponse;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch.core.ClosePointInTimeRequest;
+import co.elastic.clients.elasticsearch.core.ClosePointInTimeResponse;
+import co.elastic.clients.elasticsearch.core.OpenPointInTimeRequest;
+import co.elastic.clients.elasticsearch.core.OpenPointInTimeResponse;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paulhoang.Elasticsearch.projection.CompanyView;
+import com.paulhoang.Elasticsearch.projection.Projection;
+import com.paulhoang.Elasticsearch.service.IndexScanner;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+class CursorSearcherTests {
+
+  private static final String INDEX = "companymanual";
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final Set<String> openPits = ConcurrentHashMap.newKeySet();
+  private final List<SearchRequest> searches = new ArrayList<>();
+  private int pitsOpened;
+  private int matches = 5;
+  private volatile RuntimeException failure;
+
+  /**
+   * Every match scores the same, so the hits come in _shard_doc order and the position in that order is the last sort
+   * value. A search of a point in time that isn't open fails like ES does once the keep alive is up
+   */
+  private final ElasticsearchClient elasticsearchClient = new ElasticsearchClient(null) {
+    @Override
+    public OpenPointInTimeResponse openPointInTime(OpenPointInTimeRequest request) {
+      final String pitId = "pit-" + ++pitsOpened;
+      openPits.add(pitId);
+      return OpenPointInTimeResponse.of(response -> response.id(pitId));
+    }
+
+    @Override
+    public ClosePointInTimeResponse closePointInTime(ClosePointInTimeRequest request) {
+      openPits.remove(request.id());
+      return ClosePointInTimeResponse.of(response -> response.succeeded(true).numFreed(1));
+    }
+
+    @Override
+    public <T> SearchResponse<T> search(SearchRequest request, Class<T> clazz) {
+      searches.add(request);
+      if (failure != null) {
+        throw failure;
+      }
+      if (!openPits.contains(request.pit().id())) {
+        throw new ElasticsearchException("search", ErrorResponse.of(error -> error.status(404)
+            .error(cause -> cause.type("search_context_missing_exception").reason("No search context found"))));
+      }
+      final int from = request.searchAfter().isEmpty() ? 0 : (int) request.searchAfter().get(1).longValue() + 1;
+      final List<Hit<T>> hits = IntStream.range(from, Math.min(from + request.size(), matches))
+          .mapToObj(doc -> Hit.<T>of(hit -> hit.index(INDEX)
+              .id(String.valueOf(doc))
+              .source(objectMapper.convertValue(Map.of("id", String.valueOf(doc), "name", "Company " + doc), clazz))
+              .sort(FieldValue.of(1.0), FieldValue.of(doc))))
+          .toList();
+      return SearchResponse.of(response -> response.took(1)
+          .timedOut(false)
+          .pitId(request.pit().id())
+          .shards(shards -> shards.total(1).successful(1).failed(0))
+          .hits(page -> page.hits(hits)));
+    }
+  };
+
+  private final CursorSearcher cursorSearcher = new CursorSearcher(new IndexScanner(elasticsearchClient),
+      objectMapper, "1m");
+
+  @Test
+  void cursorWalksEveryMatchOnce() throws IOException {
+    final List<String> ids = new ArrayList<>();
+    String cursor = null;
+    int pages = 0;
+    do {
+      final CursorPage<CompanyView> page = search(cursor);
+      page.items().forEach(company -> ids.add(company.id()));
+      cursor = page.cursor();
+      pages++;
+    } while (cursor != null);
+
+    assertEquals(List.of("0", "1", "2", "3", "4"), ids);
+    assertEquals(3, pages);
+    assertEquals(1, pitsOpened);
+    assertTrue(openPits.isEmpty());
+  }
+
+  @Test
+  void lastPageThatIsFullEndsWithAnEmptyOne() throws IOException {
+    matches = 2;
+
+    final CursorPage<CompanyView> first = search(null);
+    final CursorPage<CompanyView> last = search(first.cursor());
+
+    assertNotNull(first.cursor());
+    assertEquals(List.of(), last.items());
+    assertNull(last.cursor());
+    assertTrue(openPits.isEmpty());
+  }
+
+  @Test
+  void pagesAreSortedOnScoreThenShardDoc() throws IOException {
+    search(null);
+
+    final SearchRequest request = searches.get(0);
+    assertEquals("1m", request.pit().keepAlive().time());
+    assertTrue(request.sort().get(0).isScore());
+    assertEquals("_shard_doc", request.sort().get(1).field().field());
+    assertEquals(List.of("id", "name"), request.source().filter().includes());
+  }
+
+  @Test
+  void expiredCursorIsGone() throws IOException {
+    final String cursor = search(null).cursor();
+    // the keep alive ran out
+    openPits.clear();
+
+    final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> search(cursor));
+
+    assertEquals(HttpStatus.GONE, e.getStatusCode());
+  }
+
+  @Test
+  void failedFirstPageClosesItsPointInTime() {
+    failure = new IllegalStateException("ES went away");
+
+    assertThrows(IllegalStateException.class, () -> search(null));
+    assertTrue(openPits.isEmpty());
+  }
+
+  @Test
+  void invalidCursorIsABadRequest() {
+    final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> search("not a cursor"));
+
+    assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+    assertTrue(searches.isEmpty());
+  }
+
+  @Test
+  void exportWritesEveryMatchAsALine() throws IOException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    final long exported = cursorSearcher.export(INDEX, CompanyQueries.address("Cordelia"), null, output);
+
+    assertEquals(5, exported);
+    final String[] lines = output.toString().split("\n");
+    assertEquals(5, lines.length);
+    assertEquals(objectMapper.readTree("{\"id\": \"4\", \"name\": \"Company 4\"}"), objectMapper.readTree(lines[4]));
+    assertTrue(openPits.isEmpty());
+  }
+
+  private CursorPage<CompanyView> search(String cursor) throws IOException {
+    return cursorSearcher.search(INDEX, CompanyQueries.address("Cordelia"), CompanyView.class,
+        Projection.parse("summary"), 2, cursor);
+  }
+}
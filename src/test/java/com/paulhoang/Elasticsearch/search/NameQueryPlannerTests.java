@@ -0,0 +1,135 @@
+package com.paulhoang.Elasticsearch.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.paulhoang.Elasticsearch.autocomplete.AutocompleteEngine;
+import com.paulhoang.Elasticsearch.autocomplete.Suggestion;
+import com.paulhoang.Elasticsearch.config.CompanyType;
+import com.paulhoang.Elasticsearch.metrics.ElasticsearchMetrics;
+import com.paulhoang.Elasticsearch.search.NameQueryPlanner.PlannedQuery;
+import com.paulhoang.Elasticsearch.search.RawSourceSearcher.RawHit;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+
+class NameQueryPlannerTests {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final Deque<List<String>> answers = new ArrayDeque<>();
+  private Optional<List<Suggestion>> known = Optional.empty();
+
+  /**
+   * Answers each search with the ids at the head of answers
+   */
+  private final ElasticsearchClient elasticsearchClient = new ElasticsearchClient(null) {
+    @Override
+    public <T> SearchResponse<T> search(SearchRequest request, Class<T> clazz) {
+      final List<String> ids = answers.removeFirst();
+      return SearchResponse.of(response -> response
+          .took(1)
+          .timedOut(false)
+          .shards(shards -> shards.total(1).successful(1).failed(0))
+          .hits(hits -> hits.hits(ids.stream().map(id -> Hit.<T>of(hit -> hit.index("companyauto").id(id))).toList())));
+    }
+
+    @Override
+    public JsonpMapper _jsonpMapper() {
+      return new JacksonJsonpMapper();
+    }
+  };
+
+  /**
+   * Answers each search with the ids at the head of answers, each hit's _source is {"id":...}
+   */
+  private final RawSourceSearcher rawSourceSearcher = new RawSourceSearcher(null, elasticsearchClient, null) {
+    @Override
+    public List<RawHit> searchHits(String index, Query query, Integer size) {
+      return answers.removeFirst().stream().map(id -> {
+        final byte[] source = ("{\"id\":\"" + id + "\"}").getBytes(StandardCharsets.UTF_8);
+        return new RawHit(id, source, 0, source.length);
+      }).toList();
+    }
+  };
+
+  private final AutocompleteEngine autocompleteEngine = new AutocompleteEngine(null, null, true) {
+    @Override
+    public Optional<List<Suggestion>> suggestLocally(CompanyType type, String term, int size) {
+      return known;
+    }
+  };
+
+  private final NameQueryPlanner planner = new NameQueryPlanner(elasticsearchClient, null, rawSourceSearcher, autocompleteEngine,
+      new ElasticsearchMetrics(meterRegistry), 5, 1, 50, 0);
+
+  @Test
+  void planSkipsTheStrategiesTheIndexSaysCanNotHelp() {
+    assertEquals(List.of(NameStrategy.PREFIX, NameStrategy.FUZZY), strategies("acme"));
+    assertEquals(List.of(NameStrategy.PREFIX), strategies("ab"));
+
+    known = Optional.of(List.of(new Suggestion("1", "Acme"), new Suggestion("2", "ACME")));
+    assertEquals(List.of(NameStrategy.EXACT, NameStrategy.FUZZY), strategies("acme"));
+
+    known = Optional.of(List.of(new Suggestion("1", "Acme"), new Suggestion("2", "Acme Builders"),
+        new Suggestion("3", "Acme Plumbing"), new Suggestion("4", "Acme Roofing"), new Suggestion("5", "Acme Tiles")));
+    assertEquals(List.of(NameStrategy.EXACT, NameStrategy.PREFIX), strategies("acme"));
+
+    known = Optional.of(List.of());
+    assertEquals(List.of(NameStrategy.FUZZY), strategies("acme"));
+  }
+
+  @Test
+  void cheaperQueriesWithEnoughHitsStopTheFallThrough() throws IOException {
+    answers.add(List.of("1", "2"));
+    answers.add(List.of("2", "3"));
+    assertEquals(List.of("1", "2", "3"), ids(planner.search(CompanyType.AUTO, "acme", Map.class, null, 10)));
+
+    answers.add(List.of("1", "2", "3", "4", "5"));
+    assertEquals(List.of("1", "2", "3", "4", "5"),
+        ids(planner.search(CompanyType.AUTO, "acme", Map.class, null, 10)));
+
+    assertEquals(2, meterRegistry.get("es.name.queries").tag("strategy", "prefix").summary().count());
+    assertEquals(1, meterRegistry.get("es.name.queries").tag("strategy", "fuzzy").summary().count());
+  }
+
+  @Test
+  void fuzzyQueryIsOnlyThereWhenThePlanHasOne() {
+    assertTrue(planner.fuzzyQuery(CompanyType.AUTO, "acme").isPresent());
+    assertTrue(planner.fuzzyQuery(CompanyType.AUTO, "ab").isEmpty());
+
+    known = Optional.of(List.of(new Suggestion("1", "Acme"), new Suggestion("2", "Acme Builders"),
+        new Suggestion("3", "Acme Plumbing"), new Suggestion("4", "Acme Roofing"), new Suggestion("5", "Acme Tiles")));
+    assertTrue(planner.fuzzyQuery(CompanyType.AUTO, "acme").isEmpty());
+  }
+
+  @Test
+  void rawSearchRunsThePlanToo() throws IOException {
+    answers.add(List.of("1", "2"));
+    answers.add(List.of("2", "3"));
+
+    assertEquals("[{\"id\":\"1\"},{\"id\":\"2\"},{\"id\":\"3\"}]",
+        new String(planner.searchRaw(CompanyType.AUTO, "acme", 10), StandardCharsets.UTF_8));
+    assertEquals(1, meterRegistry.get("es.name.queries").tag("strategy", "fuzzy").summary().count());
+  }
+
+  private List<NameStrategy> strategies(String term) {
+    return planner.plan(CompanyType.AUTO, term).stream().map(PlannedQuery::strategy).toList();
+  }
+
+  private static List<String> ids(List<? extends Hit<?>> hits) {
+    return hits.stream().map(Hit::id).toList();
+  }
+}
@@ -0,0 +1,64 @@
+package com.paulhoang.Elasticsearch.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.paulhoang.Elasticsearch.search.RankFusion.Fused;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class RankFusionTests {
+
+  @Test
+  void documentsInSeveralListsBeatTheTopOfOneAndAreOnlyReturnedOnce() {
+    final RankFusion<String> fusion = new RankFusion<>();
+
+    fusion.add("manual.name", List.of("1", "2"), List.of("manual 1", "manual 2"));
+    fusion.add("auto.name", List.of("3", "2"), List.of("auto 3", "auto 2"));
+
+    final List<Fused<String>> top = fusion.top(10);
+
+    assertEquals(List.of("2", "1", "3"), top.stream().map(Fused::id).toList());
+    assertEquals(List.of("manual.name", "auto.name"), top.get(0).matchedBy());
+    assertEquals("manual 2", top.get(0).item());
+    assertEquals(2.0 / (RankFusion.RANK_CONSTANT + 2), top.get(0).score(), 1e-9);
+    assertEquals(1, fusion.top(1).size());
+  }
+
+  @Test
+  void equalScoresAreOrderedById() {
+    final RankFusion<String> fusion = new RankFusion<>();
+
+    fusion.add("manual.name", List.of("b", "a"), List.of("manual b", "manual a"));
+    fusion.add("auto.name", List.of("a", "b", "c"), List.of("auto a", "auto b", "auto c"));
+
+    final List<Fused<String>> top = fusion.top(10);
+
+    assertEquals(List.of("a", "b", "c"), top.stream().map(Fused::id).toList());
+    assertEquals(top.get(0).score(), top.get(1).score(), 1e-12);
+  }
+
+  @Test
+  void aDocumentOnlyCountsOncePerList() {
+    final RankFusion<String> fusion = new RankFusion<>();
+
+    fusion.add("manual.name", List.of("1", "1", "2"), List.of("manual 1", "manual 1 again", "manual 2"));
+
+    final List<Fused<String>> top = fusion.top(10);
+
+    assertEquals(List.of("1", "2"), top.stream().map(Fused::id).toList());
+    assertEquals(1.0 / (RankFusion.RANK_CONSTANT + 1), top.get(0).score(), 1e-9);
+    assertEquals(List.of("manual.name"), top.get(0).matchedBy());
+    assertEquals("manual 1", top.get(0).item());
+  }
+
+  @Test
+  void lowerRanksAddLess() {
+    final RankFusion<String> fusion = new RankFusion<>();
+
+    fusion.add("manual.name", List.of("1", "2", "3"), List.of("manual 1", "manual 2", "manual 3"));
+    fusion.add("manual.fuzzy", List.of("3"), List.of("fuzzy 3"));
+
+    assertEquals(List.of("3", "1", "2"), fusion.top(10).stream().map(Fused::id).toList());
+    assertEquals(List.of(), new RankFusion<String>().top(10));
+  }
+}
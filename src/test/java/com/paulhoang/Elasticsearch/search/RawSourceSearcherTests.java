@@ -0,0 +1,145 @@
+package com.paulhoang.Elasticsearch.search;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.paulhoang.Elasticsearch.execution.ConcurrencyLimiter;
+import com.paulhoang.Elasticsearch.execution.ConcurrencyLimiter.Permit;
+import com.paulhoang.Elasticsearch.execution.OverloadedException;
+import com.paulhoang.Elasticsearch.execution.RequestClass;
+import com.paulhoang.Elasticsearch.metrics.ElasticsearchMetrics;
+import com.paulhoang.Elasticsearch.search.RawSourceSearcher.RawHit;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RawSourceSearcherTests {
+
+  // spacing, field order, number formats and escapes that a round trip through an entity would not keep
+  private static final String FIRST = "{\"name\" : \"Acme\",  \"revenue\":1.10, \"owner\":[{\"name\":\"A \\u00e9\"}]}";
+  private static final String SECOND = "{\"name\":\"Bolt & Nut\"}";
+  private static final String SEARCH = "{\"hits\":{\"hits\":[{\"_id\":\"1\",\"_source\":" + FIRST
+      + "},{\"_id\":\"2\",\"_source\":" + SECOND + "}]}}";
+
+  private final Map<String, String> bodies = Map.of(
+      "/companymanual/_search", SEARCH,
+      "/companymanual/_source/1", FIRST);
+  private final ConcurrencyLimiter limiter = new ConcurrencyLimiter(new ElasticsearchMetrics(new SimpleMeterRegistry()),
+      true, 10, 4, 30, 1.5, 0.2, Duration.ofSeconds(1));
+  private final List<Integer> inFlight = new CopyOnWriteArrayList<>();
+  private final List<String> rawPaths = new CopyOnWriteArrayList<>();
+  private HttpServer server;
+  private RestClient restClient;
+  private RawSourceSearcher searcher;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    // the busy index turns every request away with a 429
+    server.createContext("/", exchange -> {
+      inFlight.add(limiter.inFlight());
+      rawPaths.add(exchange.getRequestURI().getRawPath());
+      final String path = exchange.getRequestURI().getPath();
+      final String body = bodies.get(path);
+      final byte[] bytes = (body == null ? "{\"found\":false}" : body).getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+      exchange.sendResponseHeaders(path.startsWith("/busy/") ? 429 : body == null ? 404 : 200, bytes.length);
+      exchange.getResponseBody().write(bytes);
+      exchange.close();
+    });
+    server.start();
+    restClient = RestClient.builder(new HttpHost("localhost", server.getAddress().getPort())).build();
+    searcher = new RawSourceSearcher(restClient,
+        new ElasticsearchClient(new RestClientTransport(restClient, new JacksonJsonpMapper())), limiter);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    restClient.close();
+    server.stop(0);
+  }
+
+  @Test
+  void searchSplicesTheSourcesAsTheyWere() throws IOException {
+    assertEquals("[" + FIRST + "," + SECOND + "]",
+        new String(searcher.searchSources("companymanual", CompanyQueries.address("road")), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void searchHitsKeepTheirIds() throws IOException {
+    final List<RawHit> hits = searcher.searchHits("companymanual", CompanyQueries.address("road"), 5);
+
+    assertEquals(List.of("1", "2"), hits.stream().map(RawHit::id).toList());
+    assertEquals(SECOND, new String(hits.get(1).response(), hits.get(1).offset(), hits.get(1).length(),
+        StandardCharsets.UTF_8));
+    assertEquals("[" + SECOND + "]",
+        new String(RawSourceSearcher.toArray(hits.subList(1, 2)), StandardCharsets.UTF_8));
+    assertEquals("[]", new String(RawSourceSearcher.toArray(List.of()), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void getCopiesTheSourceOrFindsNothing() throws IOException {
+    assertArrayEquals(FIRST.getBytes(StandardCharsets.UTF_8), searcher.getSource("companymanual", "1").orElseThrow());
+    assertTrue(searcher.getSource("companymanual", "2").isEmpty());
+  }
+
+  @Test
+  void idIsOnePathSegment() throws IOException {
+    assertTrue(searcher.getSource("companymanual", "1/../../_cat?x#y z").isEmpty());
+
+    assertEquals(List.of("/companymanual/_source/1%2F..%2F..%2F_cat%3Fx%23y%20z"), rawPaths);
+  }
+
+  @Test
+  void requestsHoldAPermitUntilTheirResponseIsRead() throws IOException {
+    searcher.getSource("companymanual", "1");
+    searcher.getSource("companymanual", "2");
+    searcher.searchHits("companymanual", CompanyQueries.address("road"), 5);
+
+    assertEquals(List.of(1, 1, 1), inFlight);
+    assertEquals(0, limiter.inFlight());
+  }
+
+  @Test
+  void rejectionsBringTheLimitDown() {
+    assertThrows(ResponseException.class, () -> searcher.searchHits("busy", CompanyQueries.address("road"), 5));
+
+    assertEquals(0, limiter.inFlight());
+    assertTrue(limiter.limit() < 10, "limit " + limiter.limit());
+  }
+
+  @Test
+  void searchesOverTheirShareAreShedBeforeReachingEs() throws IOException {
+    final List<Permit> permits = new ArrayList<>();
+    for (int i = 0; i < 9; i++) {
+      permits.add(limiter.acquire(RequestClass.LOOKUP));
+    }
+
+    assertThrows(OverloadedException.class,
+        () -> searcher.searchHits("companymanual", CompanyQueries.address("road"), 5));
+    // lookups have the whole limit
+    assertTrue(searcher.getSource("companymanual", "1").isPresent());
+    assertEquals(List.of(10), inFlight);
+    permits.forEach(permit -> permit.release(false));
+  }
+}
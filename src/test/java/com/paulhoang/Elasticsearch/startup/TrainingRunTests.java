@@ -0,0 +1,109 @@
+package com.paulhoang.Elasticsearch.startup;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.boot.web.server.WebServer;
+import org.springframework.context.support.GenericApplicationContext;
+
+class TrainingRunTests {
+
+  private final List<String> served = new CopyOnWriteArrayList<>();
+  private final List<Integer> exitCodes = new ArrayList<>();
+  private HttpServer server;
+  private WebContext context;
+
+  /**
+   * The app's context, its web server being the one started by the test
+   */
+  private class WebContext extends GenericApplicationContext implements WebServerApplicationContext {
+
+    @Override
+    public WebServer getWebServer() {
+      return new WebServer() {
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public int getPort() {
+          return server.getAddress().getPort();
+        }
+      };
+    }
+
+    @Override
+    public String getServerNamespace() {
+      return null;
+    }
+  }
+
+  @BeforeEach
+  void setUp() throws IOException {
+    // answers every path but /boom with a 200
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", exchange -> {
+      final String path = exchange.getRequestURI().getPath();
+      served.add(path);
+      exchange.sendResponseHeaders(path.equals("/boom") ? 500 : 200, -1);
+      exchange.close();
+    });
+    server.start();
+    context = new WebContext();
+    context.refresh();
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.stop(0);
+    context.close();
+  }
+
+  @Test
+  void trainingRunServesEveryRequestThenShutsDown() {
+    final TrainingRun trainingRun = new TrainingRun(true, List.of("/company/manual/1", "/boom", "/actuator/health"),
+        exitCodes::add);
+
+    trainingRun.onReady(ready());
+
+    // a request that fails doesn't stop the ones after it
+    assertEquals(List.of("/company/manual/1", "/boom", "/actuator/health"), served);
+    assertFalse(context.isActive());
+    assertEquals(List.of(0), exitCodes);
+    assertTrue(trainingRun.isTraining());
+  }
+
+  @Test
+  void normalRunIsLeftAlone() {
+    final TrainingRun trainingRun = new TrainingRun(false, List.of("/company/manual/1"), exitCodes::add);
+
+    trainingRun.onReady(ready());
+
+    assertTrue(served.isEmpty());
+    assertTrue(context.isActive());
+    assertTrue(exitCodes.isEmpty());
+    assertFalse(trainingRun.isTraining());
+  }
+
+  private ApplicationReadyEvent ready() {
+    return new ApplicationReadyEvent(new SpringApplication(), new String[0], context, Duration.ofSeconds(1));
+  }
+}